@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.contenttrace.springframework.cloud.gateway.cache.store.CacheKeyProducer;
+import org.contenttrace.springframework.cloud.gateway.cache.store.StandardCacheKeyProducer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of deriving the key of a request and probing the store with it. Compares the SHA-256 digest with
+ * the 128-bit MurmurHash3, with and without verification. The key material mirrors the one of the standard cache key
+ * producer, which is measured on its own, too, reusing a builder per thread like the store does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CacheKeyBenchmark {
+
+	private static final byte[] METHOD_FIELD = "method=".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] PATH_FIELD = "path=".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] QUERY_FIELD = "query=".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] HOST_FIELD = "host=".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] METHOD = "GET".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] HOST = "api.example.com".getBytes(StandardCharsets.UTF_8);
+
+	@Param({"16", "256"})
+	public int pathLength;
+
+	@Param({"SHA_256", "MURMUR3_128", "MURMUR3_128_VERIFIED"})
+	public String hash;
+
+	private byte[] path;
+	private byte[] query;
+	private Map<InMemoryCacheKey, Object> map;
+	private CacheKeyProducer producer;
+	private ServerHttpRequest request;
+	private SHA2CacheKeyBuilder sha2Builder;
+	private Murmur3CacheKeyBuilder murmur3Builder;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		final StringBuilder path = new StringBuilder("/");
+		while (path.length() < pathLength) {
+			path.append("segment/");
+		}
+		this.path = path.substring(0, pathLength).getBytes(StandardCharsets.UTF_8);
+		this.query = "page=1&size=20".getBytes(StandardCharsets.UTF_8);
+		this.map = new HashMap<>();
+		for (int i = 0; i < 10_000; i++) {
+			map.put(InMemoryCacheKey.of(buildKey(String.valueOf(i).getBytes(StandardCharsets.UTF_8)).bytes()), i);
+		}
+		map.put(buildKey(this.path), this);
+		this.producer = StandardCacheKeyProducer.getInstance().includeHost();
+		this.request = MockServerHttpRequest.get("http://api.example.com" + path.substring(0, pathLength) + "?page=1&size=20").build();
+		this.sha2Builder = new SHA2CacheKeyBuilder();
+		this.murmur3Builder = new Murmur3CacheKeyBuilder(0x5bd1e995, hash.endsWith("_VERIFIED"));
+	}
+
+	private InMemoryCacheKey buildKey(final byte[] path) {
+		if ("SHA_256".equals(hash)) {
+			final SHA2CacheKeyBuilder builder = new SHA2CacheKeyBuilder();
+			addMaterial(builder, path);
+			return builder.build();
+		}
+		final Murmur3CacheKeyBuilder builder = new Murmur3CacheKeyBuilder(0x5bd1e995, hash.endsWith("_VERIFIED"));
+		addMaterial(builder, path);
+		return builder.build();
+	}
+
+	private void addMaterial(final CacheKeyProducer.KeyBuilder builder, final byte[] path) {
+		builder.add(METHOD_FIELD);
+		builder.add(METHOD);
+		builder.add(PATH_FIELD);
+		builder.add(path);
+		builder.add(QUERY_FIELD);
+		builder.add(query);
+		builder.add(HOST_FIELD);
+		builder.add(HOST);
+	}
+
+	@Benchmark
+	public InMemoryCacheKey createKey() {
+		return buildKey(path);
+	}
+
+	@Benchmark
+	public Object createKeyAndProbe() {
+		return map.get(buildKey(path));
+	}
+
+	@Benchmark
+	public InMemoryCacheKey produceKey() {
+		if ("SHA_256".equals(hash)) {
+			final SHA2CacheKeyBuilder builder = sha2Builder.reset();
+			producer.createKey(request, builder);
+			return builder.build();
+		}
+		final Murmur3CacheKeyBuilder builder = murmur3Builder.reset();
+		producer.createKey(request, builder);
+		return builder.build();
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.contenttrace.springframework.cloud.gateway.cache.store.StandardCacheKeyProducer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of capturing a response, i.e. decorating the exchange, writing the body through the
+ * decorator in chunks of 8kb and storing the captured representation. Each invocation replaces the representation of
+ * the previous one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CaptureBenchmark {
+
+	private static final int CHUNK_SIZE = 8 * 1024;
+
+	@Param({"1024", "102400", "1048576"})
+	public int bodySize;
+
+	@Param({"HEAP", "OFF_HEAP"})
+	public InMemoryStoreConfiguration.PayloadStorage payloadStorage;
+
+	@Param({"COPY", "RETAIN"})
+	public InMemoryStoreConfiguration.CaptureMode captureMode;
+
+	private DataBufferFactory bufferFactory;
+	private InMemoryStore store;
+	private byte[] body;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		final InMemoryStoreConfiguration configuration = new InMemoryStoreConfiguration();
+		configuration.setPayloadStorage(payloadStorage);
+		configuration.setCaptureMode(captureMode);
+		bufferFactory = new DefaultDataBufferFactory();
+		store = new InMemoryStore(StandardCacheKeyProducer.getInstance().includeHost(), configuration);
+		body = new byte[bodySize];
+		ThreadLocalRandom.current().nextBytes(body);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		store.close();
+	}
+
+	@Benchmark
+	public ServerWebExchange capture() {
+		final MockServerWebExchange exchange = MockServerWebExchange.from(
+				MockServerHttpRequest.get("http://api.example.com/resource").build());
+		exchange.getResponse().getHeaders().setCacheControl("max-age=3600");
+		exchange.getResponse().getHeaders().setContentLength(bodySize);
+
+		final ServerWebExchange capturing = store.write(exchange);
+		capturing.getResponse()
+				.writeWith(Flux.range(0, (bodySize + CHUNK_SIZE - 1) / CHUNK_SIZE).map(this::chunk))
+				.block();
+		return capturing;
+	}
+
+	private DataBuffer chunk(final int index) {
+		final int offset = index * CHUNK_SIZE;
+		return bufferFactory.wrap(ByteBuffer.wrap(body, offset, Math.min(CHUNK_SIZE, bodySize - offset)).slice());
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.contenttrace.springframework.cloud.gateway.cache.store.StandardCacheKeyProducer;
+import org.contenttrace.springframework.cloud.gateway.cache.store.StandardVaryNormalizer;
+import org.contenttrace.springframework.cloud.gateway.cache.store.VaryNormalizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of looking up a request in a populated store, for a resource with a single representation and
+ * for a resource negotiated by the "Accept-Language" header with a number of variants. The normalization of the
+ * request headers named by the "Vary" header, which precedes the lookup of a variant, is measured on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FindBenchmark {
+
+	private static final String[] LANGUAGES = {"en", "de", "fr", "es", "it", "nl", "pl", "pt", "sv", "da", "fi", "cs", "ja", "ko", "zh", "ru"};
+
+	@Param({"1", "16"})
+	public int variants;
+
+	@Param({"1000"})
+	public int resources;
+
+	private VaryNormalizer varyNormalizer;
+	private InMemoryStore store;
+	private ServerHttpRequest simpleRequest;
+	private ServerHttpRequest negotiatedRequest;
+	private List<String> vary;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		varyNormalizer = StandardVaryNormalizer.getInstance();
+		store = new InMemoryStore(StandardCacheKeyProducer.getInstance().includeHost(), new InMemoryStoreConfiguration(), varyNormalizer);
+		vary = Collections.singletonList(HttpHeaders.ACCEPT_LANGUAGE);
+		final byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+		for (int i = 0; i < resources; i++) {
+			populate(MockServerHttpRequest.get("http://api.example.com/simple/" + i).build(), null, body);
+			for (int j = 0; j < variants; j++) {
+				populate(MockServerHttpRequest.get("http://api.example.com/negotiated/" + i)
+						.header(HttpHeaders.ACCEPT_LANGUAGE, LANGUAGES[j % LANGUAGES.length] + ";q=0.9, *;q=0.1")
+						.build(), vary, body);
+			}
+		}
+		simpleRequest = MockServerHttpRequest.get("http://api.example.com/simple/" + (resources / 2)).build();
+		negotiatedRequest = MockServerHttpRequest.get("http://api.example.com/negotiated/" + (resources / 2))
+				.header(HttpHeaders.ACCEPT_LANGUAGE, LANGUAGES[(variants - 1) % LANGUAGES.length] + ";q=0.9, *;q=0.1")
+				.build();
+		if (!findSimple().isPresent() || !findNegotiated().isPresent()) {
+			throw new IllegalStateException("The store has not been populated!");
+		}
+	}
+
+	private void populate(final MockServerHttpRequest request,
+						  final List<String> vary,
+						  final byte[] body) {
+		final MockServerWebExchange exchange = MockServerWebExchange.from(request);
+		exchange.getResponse().getHeaders().setCacheControl("max-age=3600");
+		if (vary != null) {
+			exchange.getResponse().getHeaders().setVary(vary);
+		}
+		final ServerWebExchange capturing = store.write(exchange);
+		capturing.getResponse()
+				.writeWith(Mono.just(new DefaultDataBufferFactory().wrap(body)))
+				.block();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		store.close();
+	}
+
+	@Benchmark
+	public Optional<?> findSimple() {
+		return store.find(simpleRequest);
+	}
+
+	@Benchmark
+	public Optional<?> findNegotiated() {
+		return store.find(negotiatedRequest);
+	}
+
+	@Benchmark
+	public HttpHeaders normalizeVary() {
+		return varyNormalizer.normalize(vary, negotiatedRequest.getHeaders());
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of writing a payload into frames in chunks of 8kb, with and without pooled frames, and of
+ * reading it back through a frame input stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FrameBenchmark {
+
+	private static final int CHUNK_SIZE = 8 * 1024;
+
+	@Param({"1024", "102400", "10485760"})
+	public int bodySize;
+
+	private byte[] body;
+	private byte[] chunk;
+	private FramePool framePool;
+	private Frames frames;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		body = new byte[bodySize];
+		ThreadLocalRandom.current().nextBytes(body);
+		chunk = new byte[CHUNK_SIZE];
+		framePool = new FramePool(FrameOutputStream.DEFAULT_FRAME_SIZE, 256);
+		frames = write(new FrameOutputStream(bodySize));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		frames.release();
+	}
+
+	private Frames write(final FrameOutputStream outputStream) throws IOException {
+		for (int offset = 0; offset < bodySize; offset += CHUNK_SIZE) {
+			outputStream.write(body, offset, Math.min(CHUNK_SIZE, bodySize - offset));
+		}
+		outputStream.close();
+		return outputStream.toFrames();
+	}
+
+	private long writeAndRelease(final FrameOutputStream outputStream) throws IOException {
+		final Frames frames = write(outputStream);
+		final long size = frames.size();
+		frames.release();
+		return size;
+	}
+
+	@Benchmark
+	public long write() throws IOException {
+		return writeAndRelease(new FrameOutputStream(bodySize));
+	}
+
+	@Benchmark
+	public long writePooled() throws IOException {
+		return writeAndRelease(new FrameOutputStream(framePool, bodySize));
+	}
+
+	@Benchmark
+	public void read(final Blackhole blackhole) throws IOException {
+		frames.retain();
+		try (FrameInputStream inputStream = new FrameInputStream(frames)) {
+			int read;
+			while ((read = inputStream.read(chunk, 0, CHUNK_SIZE)) != -1) {
+				blackhole.consume(read);
+			}
+		}
+	}
+}
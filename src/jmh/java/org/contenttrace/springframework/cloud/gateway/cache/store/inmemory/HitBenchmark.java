@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of serving a cache hit, i.e. turning the stored frames into the data buffers of a Netty
+ * response. Compares wrapping the frames with copying them through an input stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HitBenchmark {
+
+	@Param({"1024", "102400", "10485760"})
+	public int bodySize;
+
+	@Param({"HEAP", "OFF_HEAP"})
+	public InMemoryStoreConfiguration.PayloadStorage payloadStorage;
+
+	private DataBufferFactory bufferFactory;
+	private Frames frames;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+
+		final byte[] body = new byte[bodySize];
+		ThreadLocalRandom.current().nextBytes(body);
+
+		final PayloadOutputStream outputStream = payloadStorage == InMemoryStoreConfiguration.PayloadStorage.OFF_HEAP
+				? new SlabOutputStream(new SlabAllocator(64L * 1024L * 1024L), bodySize)
+				: new FrameOutputStream(bodySize);
+		outputStream.write(body);
+		outputStream.close();
+		frames = outputStream.toFrames();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		frames.release();
+	}
+
+	@Benchmark
+	public void wrapFrames(final Blackhole blackhole) {
+		frames.retain();
+		try (FramesPayload payload = new FramesPayload(frames)) {
+			payload.read(bufferFactory)
+					.doOnNext(buffer -> consume(buffer, blackhole))
+					.blockLast();
+		}
+	}
+
+	@Benchmark
+	public void copyFrames(final Blackhole blackhole) {
+		frames.retain();
+		DataBufferUtils.readInputStream(() -> new FrameInputStream(frames), bufferFactory, 8 * 1024)
+				.doOnNext(buffer -> consume(buffer, blackhole))
+				.blockLast();
+	}
+
+	private static void consume(final DataBuffer buffer, final Blackhole blackhole) {
+		blackhole.consume(buffer.readableByteCount());
+		DataBufferUtils.release(buffer);
+	}
+}
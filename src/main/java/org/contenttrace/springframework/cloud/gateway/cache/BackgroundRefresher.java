@@ -0,0 +1,231 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache;
+
+import org.contenttrace.springframework.cloud.gateway.cache.store.CacheKey;
+import org.contenttrace.springframework.cloud.gateway.cache.store.Entry;
+import org.contenttrace.springframework.cloud.gateway.cache.store.Payload;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.ServerWebExchangeDecorator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Refreshes stale entries in the background. The refresh is a copy of the exchange being served from the stale entry,
+ * which is forwarded to the origin through the remaining filters of the route. The entry is revalidated, if it carries
+ * validators. Its payload is kept open until the refresh completes, so the entry can still be confirmed, if the store
+ * removes it meanwhile. Otherwise the response is written to the store as usual, replacing the stale entry. The response is
+ * discarded afterwards. Refreshes are deduplicated per cache key and the
+ * number of concurrent refreshes is bounded.
+ */
+final class BackgroundRefresher {
+
+	private static final Logger LOG = LoggerFactory.getLogger(BackgroundRefresher.class);
+
+	private final Set<CacheKey> refreshing;
+	private final Semaphore permits;
+
+	BackgroundRefresher(final int maximumConcurrentRefreshes) {
+		this.refreshing = ConcurrentHashMap.newKeySet();
+		this.permits = new Semaphore(Math.max(1, maximumConcurrentRefreshes));
+	}
+
+	/**
+	 * Starts the refresh of an entry, unless it is already being refreshed or the maximum number of concurrent
+	 * refreshes has been reached. The exchange must not have been modified to serve the stale entry yet.
+	 *
+	 * @param entry    the stale entry
+	 * @param exchange the exchange
+	 * @param chain    the remaining filters of the route
+	 * @return {@code true} if the refresh was started
+	 */
+	boolean refresh(final Entry entry, final ServerWebExchange exchange, final GatewayFilterChain chain) {
+		requireNonNull(entry, "'entry' must not be null!");
+		requireNonNull(exchange, "'exchange' must not be null!");
+		requireNonNull(chain, "'chain' must not be null!");
+
+		final CacheKey key = entry.getKey();
+		if (!refreshing.add(key)) {
+			LOG.debug("Entry [{}] is already being refreshed.", key);
+			return false;
+		}
+		if (!permits.tryAcquire()) {
+			refreshing.remove(key);
+			LOG.debug("Not refreshing entry [{}]. Too many concurrent refreshes.", key);
+			return false;
+		}
+
+		final Payload stalePayload;
+		try {
+			stalePayload = Revalidation.isPossible(entry) ? entry.openPayload() : null;
+		} catch (final IOException e) {
+			refreshing.remove(key);
+			permits.release();
+			LOG.debug("Not refreshing entry [{}]. Its payload cannot be opened.", key, e);
+			return false;
+		}
+
+		final ServerWebExchange detached = new DetachedExchange(exchange, entry, stalePayload);
+		chain.filter(detached)
+				.doFinally(signalType -> {
+					if (stalePayload != null) {
+						stalePayload.close();
+					}
+					refreshing.remove(key);
+					permits.release();
+				})
+				.subscribe(
+						null,
+						e -> LOG.warn("Failed to refresh entry [{}]!", key, e),
+						() -> LOG.debug("Refreshed entry [{}].", key)
+				);
+		return true;
+	}
+
+	/**
+	 * A copy of an exchange, which is independent of the client.
+	 */
+	private static final class DetachedExchange extends ServerWebExchangeDecorator {
+
+		private final ServerHttpRequest request;
+		private final ServerHttpResponse response;
+		private final Map<String, Object> attributes;
+
+		private DetachedExchange(final ServerWebExchange delegate, final Entry entry, final Payload stalePayload) {
+			super(delegate);
+			this.request = Revalidation.request(delegate.getRequest(), entry);
+			this.response = new DiscardingResponse(delegate.getResponse());
+			this.attributes = new ConcurrentHashMap<>(delegate.getAttributes());
+			if (stalePayload != null) {
+				attributes.put(Revalidation.ATTRIBUTE_NAME, entry);
+				attributes.put(Revalidation.PAYLOAD_ATTRIBUTE_NAME, stalePayload);
+			}
+		}
+
+		@Override
+		public ServerHttpRequest getRequest() {
+			return request;
+		}
+
+		@Override
+		public ServerHttpResponse getResponse() {
+			return response;
+		}
+
+		@Override
+		public Map<String, Object> getAttributes() {
+			return attributes;
+		}
+	}
+
+	/**
+	 * A response, which discards its body. Only the buffer factory is shared with the response of the client.
+	 */
+	private static final class DiscardingResponse extends ServerHttpResponseDecorator {
+
+		private final HttpHeaders headers;
+		private final List<Supplier<? extends Mono<Void>>> commitActions;
+		private HttpStatus statusCode;
+		private final AtomicBoolean committed;
+
+		private DiscardingResponse(final ServerHttpResponse delegate) {
+			super(delegate);
+			this.headers = new HttpHeaders();
+			this.commitActions = new CopyOnWriteArrayList<>();
+			this.committed = new AtomicBoolean(false);
+		}
+
+		@Override
+		public boolean setStatusCode(final HttpStatus statusCode) {
+			if (committed.get()) {
+				return false;
+			}
+			this.statusCode = statusCode;
+			return true;
+		}
+
+		@Override
+		public HttpStatus getStatusCode() {
+			return statusCode;
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			return headers;
+		}
+
+		@Override
+		public void beforeCommit(final Supplier<? extends Mono<Void>> action) {
+			commitActions.add(action);
+		}
+
+		@Override
+		public boolean isCommitted() {
+			return committed.get();
+		}
+
+		@Override
+		public Mono<Void> writeWith(final Publisher<? extends DataBuffer> body) {
+			return commit().thenMany(body)
+					.doOnNext(DataBufferUtils::release)
+					.then();
+		}
+
+		@Override
+		public Mono<Void> writeAndFlushWith(final Publisher<? extends Publisher<? extends DataBuffer>> body) {
+			return writeWith(Flux.from(body).concatMap(Flux::from));
+		}
+
+		@Override
+		public Mono<Void> setComplete() {
+			return commit();
+		}
+
+		private Mono<Void> commit() {
+			return Mono.defer(() -> {
+				if (!committed.compareAndSet(false, true)) {
+					return Mono.empty();
+				}
+				return Flux.fromIterable(commitActions)
+						.concatMap(Supplier::get)
+						.then();
+			});
+		}
+	}
+}
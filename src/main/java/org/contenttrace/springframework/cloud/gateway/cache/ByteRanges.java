@@ -0,0 +1,227 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache;
+
+import org.contenttrace.springframework.cloud.gateway.cache.store.Entry;
+import org.contenttrace.springframework.cloud.gateway.cache.store.Payload;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The byte ranges of a cached representation requested by a client, as defined by RFC 7233. A single range is served
+ * as it is, several ranges are served as a "multipart/byteranges" payload.
+ */
+final class ByteRanges {
+
+	static final String ATTRIBUTE_NAME = ByteRanges.class.getName();
+
+	private static final int MAXIMUM_RANGES = 100;
+	private static final String BYTES_UNIT = "bytes";
+
+	private final long size;
+	private final List<Part> parts;
+	private final String boundary;
+	private final byte[] trailer;
+
+	private ByteRanges(final long size,
+					   final List<Part> parts,
+					   final String boundary) {
+		this.size = size;
+		this.parts = parts;
+		this.boundary = boundary;
+		this.trailer = boundary == null ? new byte[0] : ascii("\r\n--" + boundary + "--");
+	}
+
+	/**
+	 * Resolves the ranges requested for the given entry. Ranges are only served for "GET" requests and only if the
+	 * "If-Range" precondition, if any, holds.
+	 *
+	 * @param request the request
+	 * @param entry   the entry
+	 * @return the ranges or {@code null} if the full representation should be served
+	 */
+	static ByteRanges resolve(final ServerHttpRequest request, final Entry entry) {
+		if (request.getMethod() != HttpMethod.GET || entry.size() < 0L) {
+			// The size of an entry, which is still in progress, is unknown, so the full representation is served.
+			return null;
+		}
+		final HttpHeaders requestHeaders = request.getHeaders();
+		final String range = requestHeaders.getFirst(HttpHeaders.RANGE);
+		if (!StringUtils.hasText(range) || !ifRangeHolds(requestHeaders, entry.getResponseHeaders())) {
+			return null;
+		}
+
+		final List<HttpRange> ranges;
+		try {
+			ranges = HttpRange.parseRanges(range);
+		} catch (final IllegalArgumentException e) {
+			// An invalid or unsupported range is ignored, see RFC 7233, section 3.1.
+			return null;
+		}
+		if (ranges.isEmpty() || ranges.size() > MAXIMUM_RANGES) {
+			return null;
+		}
+
+		final long size = entry.size();
+		final String contentType = entry.getResponseHeaders().getFirst(HttpHeaders.CONTENT_TYPE);
+		final List<long[]> satisfiable = new ArrayList<>(ranges.size());
+		for (final HttpRange httpRange : ranges) {
+			try {
+				final long start = httpRange.getRangeStart(size);
+				final long end = httpRange.getRangeEnd(size);
+				if (start < size && start <= end) {
+					satisfiable.add(new long[]{start, end});
+				}
+			} catch (final IllegalArgumentException e) {
+				// void, the range is not satisfiable
+			}
+		}
+
+		if (satisfiable.isEmpty()) {
+			return new ByteRanges(size, Collections.emptyList(), null);
+		}
+		if (satisfiable.size() == 1) {
+			final long[] single = satisfiable.get(0);
+			return new ByteRanges(size, Collections.singletonList(new Part(new byte[0], single[0], single[1])), null);
+		}
+
+		final String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong())
+				+ Long.toHexString(ThreadLocalRandom.current().nextLong());
+		final List<Part> parts = new ArrayList<>(satisfiable.size());
+		for (final long[] part : satisfiable) {
+			final StringBuilder header = new StringBuilder("\r\n--").append(boundary).append("\r\n");
+			if (contentType != null) {
+				header.append(HttpHeaders.CONTENT_TYPE).append(": ").append(contentType).append("\r\n");
+			}
+			header.append(HttpHeaders.CONTENT_RANGE).append(": ").append(contentRange(part[0], part[1], size))
+					.append("\r\n\r\n");
+			parts.add(new Part(ascii(header.toString()), part[0], part[1]));
+		}
+		return new ByteRanges(size, parts, boundary);
+	}
+
+	private static boolean ifRangeHolds(final HttpHeaders requestHeaders,
+										final HttpHeaders responseHeaders) {
+		final String ifRange = requestHeaders.getFirst(HttpHeaders.IF_RANGE);
+		if (ifRange == null) {
+			return true;
+		}
+		final String validator = ifRange.trim();
+		if (validator.startsWith("\"") || validator.startsWith("W/")) {
+			// A weak entity tag never matches, see RFC 7233, section 3.2.
+			final String eTag = responseHeaders.getETag();
+			return !validator.startsWith("W/") && validator.equals(eTag);
+		}
+		try {
+			final long date = requestHeaders.getFirstDate(HttpHeaders.IF_RANGE);
+			return date >= 0L && date == responseHeaders.getLastModified();
+		} catch (final IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private static String contentRange(final long start, final long end, final long size) {
+		return BYTES_UNIT + " " + start + "-" + end + "/" + size;
+	}
+
+	private static byte[] ascii(final String value) {
+		return value.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	boolean isSatisfiable() {
+		return !parts.isEmpty();
+	}
+
+	/**
+	 * Applies the status and the headers of a partial response to the given response, which already holds the headers
+	 * of the full representation.
+	 *
+	 * @param response the response
+	 */
+	void apply(final ServerHttpResponse response) {
+		final HttpHeaders headers = response.getHeaders();
+		if (!isSatisfiable()) {
+			response.setStatusCode(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+			headers.set(HttpHeaders.CONTENT_RANGE, BYTES_UNIT + " */" + size);
+			headers.setContentLength(0L);
+			return;
+		}
+		response.setStatusCode(HttpStatus.PARTIAL_CONTENT);
+		if (boundary == null) {
+			final Part part = parts.get(0);
+			headers.set(HttpHeaders.CONTENT_RANGE, contentRange(part.start, part.end, size));
+		} else {
+			headers.set(HttpHeaders.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+		}
+		long contentLength = trailer.length;
+		for (final Part part : parts) {
+			contentLength = contentLength + part.header.length + part.length();
+		}
+		headers.setContentLength(contentLength);
+	}
+
+	/**
+	 * Reads the ranges from the payload of the representation.
+	 *
+	 * @param payload       the payload
+	 * @param bufferFactory the factory of the data buffers
+	 * @return the data buffers
+	 */
+	Flux<DataBuffer> read(final Payload payload, final DataBufferFactory bufferFactory) {
+		final List<Flux<DataBuffer>> body = new ArrayList<>(parts.size() * 2 + 1);
+		for (final Part part : parts) {
+			if (part.header.length > 0) {
+				body.add(Flux.just(bufferFactory.wrap(part.header)));
+			}
+			body.add(payload.read(bufferFactory, part.start, part.length()));
+		}
+		if (trailer.length > 0) {
+			body.add(Flux.just(bufferFactory.wrap(trailer)));
+		}
+		return Flux.concat(body);
+	}
+
+	private static final class Part {
+
+		private final byte[] header;
+		private final long start;
+		private final long end;
+
+		private Part(final byte[] header, final long start, final long end) {
+			this.header = header;
+			this.start = start;
+			this.end = end;
+		}
+
+		private long length() {
+			return end - start + 1L;
+		}
+	}
+}
@@ -19,13 +19,19 @@ import org.contenttrace.springframework.cloud.gateway.cache.rules.Rule;
 import org.contenttrace.springframework.cloud.gateway.cache.rules.StandardRules;
 import org.contenttrace.springframework.cloud.gateway.cache.store.CacheKeyProducer;
 import org.contenttrace.springframework.cloud.gateway.cache.store.StandardCacheKeyProducer;
+import org.contenttrace.springframework.cloud.gateway.cache.store.StandardVaryNormalizer;
 import org.contenttrace.springframework.cloud.gateway.cache.store.Store;
 import org.contenttrace.springframework.cloud.gateway.cache.store.StoreFactory;
+import org.contenttrace.springframework.cloud.gateway.cache.store.VaryNormalizer;
+import org.contenttrace.springframework.cloud.gateway.cache.store.file.FileStoreConfiguration;
+import org.contenttrace.springframework.cloud.gateway.cache.store.file.FileStoreFactory;
 import org.contenttrace.springframework.cloud.gateway.cache.store.inmemory.InMemoryStoreConfiguration;
 import org.contenttrace.springframework.cloud.gateway.cache.store.inmemory.InMemoryStoreFactory;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.AutoConfigureBefore;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.gateway.config.GatewayAutoConfiguration;
 import org.springframework.cloud.gateway.config.GatewayProperties;
@@ -33,7 +39,6 @@ import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
-import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 
 import java.util.List;
 
@@ -50,10 +55,38 @@ public class CacheAutoConfiguration {
 
 	@Bean
 	@ConditionalOnMissingBean
-	public InMemoryStoreFactory cacheStoreFactory() {
-		// TODO: The configuration must be externalized.
-		final InMemoryStoreConfiguration configuration = new InMemoryStoreConfiguration();
-		return new InMemoryStoreFactory(configuration);
+	public VaryNormalizer varyNormalizer() {
+		return StandardVaryNormalizer.getInstance();
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	@ConditionalOnProperty(prefix = "cloud.gateway.cache.file", name = "enabled")
+	@ConfigurationProperties(prefix = "cloud.gateway.cache.file")
+	public FileStoreConfiguration fileStoreConfiguration() {
+		return new FileStoreConfiguration();
+	}
+
+	@Bean
+	@ConditionalOnMissingBean(StoreFactory.class)
+	@ConditionalOnProperty(prefix = "cloud.gateway.cache.file", name = "enabled")
+	public FileStoreFactory fileStoreFactory(final FileStoreConfiguration fileStoreConfiguration,
+											 final VaryNormalizer varyNormalizer) {
+		return new FileStoreFactory(fileStoreConfiguration, varyNormalizer);
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	@ConfigurationProperties(prefix = "cloud.gateway.cache.in-memory")
+	public InMemoryStoreConfiguration inMemoryStoreConfiguration() {
+		return new InMemoryStoreConfiguration();
+	}
+
+	@Bean
+	@ConditionalOnMissingBean(StoreFactory.class)
+	public InMemoryStoreFactory cacheStoreFactory(final InMemoryStoreConfiguration inMemoryStoreConfiguration,
+												  final VaryNormalizer varyNormalizer) {
+		return new InMemoryStoreFactory(inMemoryStoreConfiguration, varyNormalizer);
 	}
 
 	@Bean
@@ -63,6 +96,12 @@ public class CacheAutoConfiguration {
 		return storeFactory.createInstance(cacheKeyProducer);
 	}
 
+	@Bean
+	@ConditionalOnMissingBean
+	public CacheMetrics cacheMetrics(final Store cacheStore) {
+		return new CacheMetrics(cacheStore.metrics());
+	}
+
 	@Bean
 	@ConditionalOnMissingBean
 	public Rule cacheRule() {
@@ -73,8 +112,9 @@ public class CacheAutoConfiguration {
 	@ConditionalOnMissingBean
 	public CreateCacheEntryFilterFactory createCacheEntryFilterFactory(final CacheConfiguration cacheConfiguration,
 																	   final Store cacheStore,
-																	   final Rule cacheRule) {
-		return new CreateCacheEntryFilterFactory(cacheConfiguration, cacheStore, cacheRule);
+																	   final Rule cacheRule,
+																	   final CacheMetrics cacheMetrics) {
+		return new CreateCacheEntryFilterFactory(cacheConfiguration, cacheStore, cacheRule, cacheMetrics);
 	}
 
 	@Bean
@@ -82,14 +122,16 @@ public class CacheAutoConfiguration {
 	public FindCacheEntryFilterFactory findCacheEntryFilterFactory(final CacheConfiguration cacheConfiguration,
 																   final Store cacheStore,
 																   final Rule cacheRule,
-																   final ObjectProvider<List<HttpHeadersFilter>> headersFiltersProvider) {
-		return new FindCacheEntryFilterFactory(cacheConfiguration, cacheStore, cacheRule, headersFiltersProvider);
+																   final ObjectProvider<List<HttpHeadersFilter>> headersFiltersProvider,
+																   final CacheMetrics cacheMetrics) {
+		return new FindCacheEntryFilterFactory(cacheConfiguration, cacheStore, cacheRule, headersFiltersProvider, cacheMetrics);
 	}
 
 	@Bean
 	@ConditionalOnMissingBean
-	public WriteCachedResponseFilter writeCachedResponseFilter(final GatewayProperties properties) {
-		return new WriteCachedResponseFilter(new DefaultDataBufferFactory(), properties.getStreamingMediaTypes());
+	public WriteCachedResponseFilter writeCachedResponseFilter(final GatewayProperties properties,
+															   final CacheMetrics cacheMetrics) {
+		return new WriteCachedResponseFilter(properties.getStreamingMediaTypes(), cacheMetrics);
 	}
 
 }
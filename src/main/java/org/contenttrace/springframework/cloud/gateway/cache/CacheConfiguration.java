@@ -17,6 +17,8 @@ package org.contenttrace.springframework.cloud.gateway.cache;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.time.Duration;
+
 @ConfigurationProperties(
 		prefix = "cloud.gateway.cache"
 )
@@ -24,6 +26,9 @@ public class CacheConfiguration {
 
 	private boolean exposeCacheEventHeader = false;
 	private String cacheEventHeaderName = "X-Cache";
+	private boolean collapsedForwarding = false;
+	private Duration collapsedForwardingTimeout = Duration.ofSeconds(5L);
+	private int maximumConcurrentRefreshes = 16;
 
 	public boolean isExposeCacheEventHeader() {
 		return exposeCacheEventHeader;
@@ -41,4 +46,46 @@ public class CacheConfiguration {
 		this.cacheEventHeaderName = cacheEventHeaderName;
 	}
 
+	/**
+	 * Returns whether concurrent misses for the same resource are collapsed into a single request to the origin. The
+	 * other requests follow the response of the first one and are served from its capture, while it is in progress.
+	 *
+	 * @return {@code true} if collapsed forwarding is enabled
+	 */
+	public boolean isCollapsedForwarding() {
+		return collapsedForwarding;
+	}
+
+	public void setCollapsedForwarding(boolean collapsedForwarding) {
+		this.collapsedForwarding = collapsedForwarding;
+	}
+
+	/**
+	 * Returns how long a request waits for the response of the request it follows to start. If the timeout elapses,
+	 * the request is forwarded to the origin by itself.
+	 *
+	 * @return the timeout
+	 */
+	public Duration getCollapsedForwardingTimeout() {
+		return collapsedForwardingTimeout;
+	}
+
+	public void setCollapsedForwardingTimeout(Duration collapsedForwardingTimeout) {
+		this.collapsedForwardingTimeout = collapsedForwardingTimeout;
+	}
+
+	/**
+	 * Returns the maximum number of stale entries refreshed in the background at the same time. Stale entries, which
+	 * cannot be refreshed because of the limit, are served nevertheless and refreshed by a later request.
+	 *
+	 * @return the maximum number of refreshes
+	 */
+	public int getMaximumConcurrentRefreshes() {
+		return maximumConcurrentRefreshes;
+	}
+
+	public void setMaximumConcurrentRefreshes(int maximumConcurrentRefreshes) {
+		this.maximumConcurrentRefreshes = maximumConcurrentRefreshes;
+	}
+
 }
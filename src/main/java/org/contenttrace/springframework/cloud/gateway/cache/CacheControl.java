@@ -69,6 +69,11 @@ public class CacheControl {
 	public static final Directive PROXY_REVALIDATE = Directive.of("proxy-revalidate");
 	public static final Directive IMMUTABLE = Directive.of("immutable");
 
+	// Names of the directives carrying a time value
+	public static final String MAX_AGE = "max-age";
+	public static final String S_MAXAGE = "s-maxage";
+	public static final String STALE_WHILE_REVALIDATE = "stale-while-revalidate";
+
 	private static final CacheControl EMPTY = new CacheControl(Collections.emptyList());
 
 	public static CacheControl empty() {
@@ -162,4 +167,19 @@ public class CacheControl {
 		return directives.containsValue(directive);
 	}
 
+	/**
+	 * Returns the duration of the time directive with the given name. Returns nothing, if the directive is not present
+	 * or if it does not carry a time value.
+	 *
+	 * @param name the name of the directive
+	 * @return the duration
+	 */
+	public Optional<Duration> getDuration(final String name) {
+		final Directive directive = get(name);
+		if (directive instanceof TimeDirective) {
+			return Optional.of(((TimeDirective) directive).getDuration());
+		}
+		return Optional.empty();
+	}
+
 }
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.contenttrace.springframework.cloud.gateway.cache.store.Metrics;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+
+/**
+ * The metrics of the cache filters, per route. The filters record into striped counters, which are read when the
+ * metrics are published, so recording does not contend between the threads serving requests. The latencies of lookups
+ * and of serving cached responses are only recorded once the metrics have been bound to a registry. The metrics of the
+ * store are bound along with them.
+ */
+public class CacheMetrics implements MeterBinder {
+
+	/**
+	 * The outcome of looking up a request in the cache.
+	 */
+	public enum Outcome {
+
+		/**
+		 * A fresh entry was served.
+		 */
+		HIT,
+
+		/**
+		 * A stale entry was served while it is refreshed in the background.
+		 */
+		STALE,
+
+		/**
+		 * The entry of a concurrent request for the same resource was served.
+		 */
+		COLLAPSED,
+
+		/**
+		 * A stale entry was revalidated with the origin.
+		 */
+		REVALIDATE,
+
+		/**
+		 * No entry was found, the request was forwarded to the origin.
+		 */
+		MISS,
+
+		/**
+		 * The request cannot be cached, the cache was not looked up.
+		 */
+		BYPASS;
+
+		private final String tag = name().toLowerCase(Locale.ROOT);
+	}
+
+	static final String UNKNOWN_ROUTE = "unknown";
+
+	private final Metrics storeMetrics;
+	private final ConcurrentMap<String, RouteMetrics> routes;
+
+	private volatile MeterRegistry registry;
+
+	public CacheMetrics() {
+		this(null);
+	}
+
+	public CacheMetrics(final Metrics storeMetrics) {
+		this.storeMetrics = storeMetrics;
+		this.routes = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Returns the metrics of the route an exchange has been routed to.
+	 *
+	 * @param exchange the exchange
+	 * @return the metrics of the route
+	 */
+	public RouteMetrics route(final ServerWebExchange exchange) {
+		requireNonNull(exchange, "'exchange' must not be null!");
+		final Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+		return route(route != null ? route.getId() : UNKNOWN_ROUTE);
+	}
+
+	/**
+	 * Returns the metrics of a route.
+	 *
+	 * @param routeId the identifier of the route
+	 * @return the metrics of the route
+	 */
+	public RouteMetrics route(final String routeId) {
+		requireNonNull(routeId, "'routeId' must not be null!");
+		final RouteMetrics metrics = routes.get(routeId);
+		return metrics != null ? metrics : routes.computeIfAbsent(routeId, this::createRoute);
+	}
+
+	/**
+	 * Returns the metrics of all routes, which have passed the cache filters so far.
+	 *
+	 * @return the metrics of the routes
+	 */
+	public Collection<RouteMetrics> routes() {
+		return Collections.unmodifiableCollection(routes.values());
+	}
+
+	private RouteMetrics createRoute(final String routeId) {
+		final RouteMetrics metrics = new RouteMetrics(routeId);
+		final MeterRegistry registry = this.registry;
+		if (registry != null) {
+			metrics.bindTo(registry);
+		}
+		return metrics;
+	}
+
+	@Override
+	public void bindTo(final MeterRegistry registry) {
+		requireNonNull(registry, "'registry' must not be null!");
+		this.registry = registry;
+		routes.values().forEach(metrics -> metrics.bindTo(registry));
+		if (storeMetrics instanceof MeterBinder) {
+			((MeterBinder) storeMetrics).bindTo(registry);
+		} else if (storeMetrics != null) {
+			Gauge.builder("gateway.cache.store.entries", storeMetrics, Metrics::getStoredEntries)
+					.description("The number of representations held by the store")
+					.register(registry);
+		}
+	}
+
+	public static final class RouteMetrics {
+
+		private static final Outcome[] OUTCOMES = Outcome.values();
+
+		private final String routeId;
+		private final LongAdder[] requests;
+		private final LongAdder stores;
+
+		private volatile Timer lookups;
+		private volatile Timer serves;
+
+		private RouteMetrics(final String routeId) {
+			this.routeId = routeId;
+			this.requests = new LongAdder[OUTCOMES.length];
+			for (int i = 0; i < requests.length; i++) {
+				requests[i] = new LongAdder();
+			}
+			this.stores = new LongAdder();
+		}
+
+		public String getRouteId() {
+			return routeId;
+		}
+
+		/**
+		 * Returns the number of requests of the route with an outcome.
+		 *
+		 * @param outcome the outcome
+		 * @return the number of requests
+		 */
+		public long getRequests(final Outcome outcome) {
+			requireNonNull(outcome, "'outcome' must not be null!");
+			return requests[outcome.ordinal()].sum();
+		}
+
+		/**
+		 * Returns the number of responses of the route, which have been handed to the store to be captured.
+		 *
+		 * @return the number of stores
+		 */
+		public long getStores() {
+			return stores.sum();
+		}
+
+		void request(final Outcome outcome) {
+			requests[outcome.ordinal()].increment();
+		}
+
+		void store() {
+			stores.increment();
+		}
+
+		/**
+		 * Times a lookup of the store, if the metrics are bound. Otherwise the clock is not read.
+		 */
+		<T> T lookup(final Supplier<T> lookup) {
+			final Timer lookups = this.lookups;
+			if (lookups == null) {
+				return lookup.get();
+			}
+			final long startedAt = System.nanoTime();
+			try {
+				return lookup.get();
+			} finally {
+				lookups.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+			}
+		}
+
+		/**
+		 * Times writing a cached response, if the metrics are bound. Otherwise the response is returned as it is.
+		 */
+		Mono<Void> serve(final Mono<Void> response) {
+			final Timer serves = this.serves;
+			if (serves == null) {
+				return response;
+			}
+			return Mono.defer(() -> {
+				final long startedAt = System.nanoTime();
+				return response.doFinally(signalType -> serves.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS));
+			});
+		}
+
+		private void bindTo(final MeterRegistry registry) {
+			for (final Outcome outcome : OUTCOMES) {
+				FunctionCounter.builder("gateway.cache.requests", requests[outcome.ordinal()], LongAdder::sum)
+						.description("The number of requests looked up in the cache")
+						.tag("route", routeId)
+						.tag("outcome", outcome.tag)
+						.register(registry);
+			}
+			FunctionCounter.builder("gateway.cache.stores", stores, LongAdder::sum)
+					.description("The number of responses handed to the store to be captured")
+					.tag("route", routeId)
+					.register(registry);
+			lookups = Timer.builder("gateway.cache.lookup")
+					.description("The time taken to look up a request in the store")
+					.tag("route", routeId)
+					.publishPercentileHistogram()
+					.register(registry);
+			serves = Timer.builder("gateway.cache.serve")
+					.description("The time taken to write a cached response to the client")
+					.tag("route", routeId)
+					.publishPercentileHistogram()
+					.register(registry);
+		}
+	}
+}
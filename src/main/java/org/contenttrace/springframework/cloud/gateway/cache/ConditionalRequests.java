@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates the preconditions of a request against a cached response, so a client, which already has the response,
+ * can be answered with "304 Not Modified". Only "If-None-Match" and "If-Modified-Since" are evaluated, see RFC 7232,
+ * section 6.
+ */
+final class ConditionalRequests {
+
+	private static final Pattern ENTITY_TAG = Pattern.compile("\\*|(?:W/)?\"[^\"]*\"");
+
+	/**
+	 * Returns whether the response has not been modified with respect to the validators sent by the client.
+	 *
+	 * @param request         the request
+	 * @param responseHeaders the headers of the cached response
+	 * @return {@code true} if the client can be answered with "304 Not Modified"
+	 */
+	static boolean isNotModified(final ServerHttpRequest request, final HttpHeaders responseHeaders) {
+		final HttpMethod method = request.getMethod();
+		if (method != HttpMethod.GET && method != HttpMethod.HEAD) {
+			return false;
+		}
+		final HttpHeaders requestHeaders = request.getHeaders();
+
+		// "If-Modified-Since" must be ignored if "If-None-Match" is present, see RFC 7232, section 3.3.
+		final List<String> ifNoneMatch = requestHeaders.get(HttpHeaders.IF_NONE_MATCH);
+		if (ifNoneMatch != null && !ifNoneMatch.isEmpty()) {
+			return matches(ifNoneMatch, responseHeaders.getETag());
+		}
+
+		if (requestHeaders.containsKey(HttpHeaders.IF_MODIFIED_SINCE)) {
+			final long ifModifiedSince = requestHeaders.getIfModifiedSince();
+			final long lastModified = responseHeaders.getLastModified();
+			return ifModifiedSince >= 0L && lastModified >= 0L && lastModified <= ifModifiedSince;
+		}
+
+		return false;
+	}
+
+	private static boolean matches(final List<String> ifNoneMatch, final String eTag) {
+		for (final String value : ifNoneMatch) {
+			final Matcher matcher = ENTITY_TAG.matcher(value);
+			while (matcher.find()) {
+				final String candidate = matcher.group();
+				// "If-None-Match" uses the weak comparison, see RFC 7232, section 3.2.
+				if ("*".equals(candidate) || (eTag != null && opaque(candidate).equals(opaque(eTag)))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static String opaque(final String eTag) {
+		return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+	}
+
+	private ConditionalRequests() {
+		// void
+	}
+}
@@ -16,14 +16,26 @@
 package org.contenttrace.springframework.cloud.gateway.cache;
 
 import org.contenttrace.springframework.cloud.gateway.cache.rules.Rule;
+import org.contenttrace.springframework.cloud.gateway.cache.store.Entry;
+import org.contenttrace.springframework.cloud.gateway.cache.store.Payload;
 import org.contenttrace.springframework.cloud.gateway.cache.store.Store;
+import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.cloud.gateway.filter.GatewayFilter;
 import org.springframework.cloud.gateway.filter.OrderedGatewayFilter;
 import org.springframework.cloud.gateway.filter.WebClientWriteResponseFilter;
 import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
 import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.Callable;
 
 public class CreateCacheEntryFilterFactory extends AbstractGatewayFilterFactory<CreateCacheEntryFilterFactory.Config> {
 
@@ -32,13 +44,22 @@ public class CreateCacheEntryFilterFactory extends AbstractGatewayFilterFactory<
 	private final CacheConfiguration cacheConfiguration;
 	private final Store store;
 	private final Rule rule;
+	private final CacheMetrics metrics;
 
 	public CreateCacheEntryFilterFactory(final CacheConfiguration cacheConfiguration,
 										 final Store store,
 										 final Rule rule) {
+		this(cacheConfiguration, store, rule, new CacheMetrics());
+	}
+
+	public CreateCacheEntryFilterFactory(final CacheConfiguration cacheConfiguration,
+										 final Store store,
+										 final Rule rule,
+										 final CacheMetrics metrics) {
 		this.cacheConfiguration = cacheConfiguration;
 		this.store = store;
 		this.rule = rule;
+		this.metrics = metrics;
 	}
 
 	@SuppressWarnings("WeakerAccess")
@@ -55,20 +76,93 @@ public class CreateCacheEntryFilterFactory extends AbstractGatewayFilterFactory<
 				return chain.filter(exchange);
 			}
 
-			if (!shouldCache(exchange)) {
-				LOG.debug("Not caching exchange [{}].", exchange);
-				return chain.filter(exchange);
-			}
+			// The rules may depend on the response, so they are evaluated once the response is about to be written.
+			final ServerHttpResponseDecorator decorator = new ServerHttpResponseDecorator(exchange.getResponse()) {
 
-			if (cacheConfiguration.isExposeCacheEventHeader()) {
-				exchange.getResponse().getHeaders().add(cacheConfiguration.getCacheEventHeaderName(), "store");
-			}
+				@Override
+				public Mono<Void> writeWith(final Publisher<? extends DataBuffer> body) {
+					final Entry stale = exchange.getAttribute(Revalidation.ATTRIBUTE_NAME);
+					if (stale != null && getStatusCode() == HttpStatus.NOT_MODIFIED) {
+						final Entry revalidated = store.revalidate(stale, getHeaders())
+								.map(Entry.class::cast)
+								.orElse(null);
+						if (revalidated == null) {
+							// The stale entry has been removed meanwhile. As the origin confirmed it, it is served from
+							// the payload opened before the conditional request was sent.
+							final Payload stalePayload = exchange.getAttribute(Revalidation.PAYLOAD_ATTRIBUTE_NAME);
+							LOG.debug("Cache entry [{}] for exchange [{}] was removed while it was revalidated.", stale, exchange);
+							return Flux.from(body)
+									.doOnNext(DataBufferUtils::release)
+									.then(Mono.defer(() -> writeEntry(stale, () -> stalePayload)));
+						}
+						LOG.debug("Revalidated cache entry [{}] for exchange [{}].", revalidated, exchange);
+						return Flux.from(body)
+								.doOnNext(DataBufferUtils::release)
+								.then(Mono.defer(() -> writeEntry(revalidated, revalidated::openPayload)));
+					}
+
+					if (!shouldCache(exchange)) {
+						LOG.debug("Not caching exchange [{}].", exchange);
+						return super.writeWith(body);
+					}
 
-			return chain.filter(store.write(exchange));
+					final long maximumObjectSize = config.getMaximumObjectSize();
+					if (maximumObjectSize > 0L && getHeaders().getContentLength() > maximumObjectSize) {
+						LOG.debug("Not caching exchange [{}]. The response exceeds [{}] bytes.", exchange, maximumObjectSize);
+						return super.writeWith(body);
+					}
+
+					if (cacheConfiguration.isExposeCacheEventHeader()) {
+						getHeaders().add(cacheConfiguration.getCacheEventHeaderName(), "store");
+					}
+
+					metrics.route(exchange).store();
+					return store.write(exchange, maximumObjectSize).getResponse().writeWith(body);
+				}
+
+				private Mono<Void> writeEntry(final Entry entry, final Callable<Payload> payloadSupplier) {
+					setStatusCode(HttpStatus.OK);
+
+					final HttpHeaders headers = getHeaders();
+					headers.clear();
+					headers.putAll(entry.getResponseHeaders());
+					if (headers.containsKey(HttpHeaders.CONTENT_LENGTH)) {
+						headers.remove(HttpHeaders.TRANSFER_ENCODING);
+					}
+					headers.set(HttpHeaders.AGE, Long.toString(entry.getAge().getSeconds()));
+					headers.remove(cacheConfiguration.getCacheEventHeaderName());
+					if (cacheConfiguration.isExposeCacheEventHeader()) {
+						headers.add(cacheConfiguration.getCacheEventHeaderName(), "revalidated");
+					}
+
+					return Mono.using(
+							payloadSupplier,
+							payload -> super.writeWith(payload.read(bufferFactory())),
+							Payload::close
+					);
+				}
+			};
+
+			return chain.filter(exchange.mutate().response(decorator).build());
 		}), WebClientWriteResponseFilter.WRITE_RESPONSE_FILTER_ORDER - 1);
 	}
 
 	public static class Config {
 
+		private long maximumObjectSize = -1L; // bytes, the limit of the store applies if less than 1
+
+		/**
+		 * Returns the maximum size of a response body of the route, which is written to the store. Larger responses are
+		 * passed through without being stored. If the store has a smaller limit, that limit applies.
+		 *
+		 * @return the maximum size in bytes
+		 */
+		public long getMaximumObjectSize() {
+			return maximumObjectSize;
+		}
+
+		public void setMaximumObjectSize(long maximumObjectSize) {
+			this.maximumObjectSize = maximumObjectSize;
+		}
 	}
 }
@@ -17,6 +17,7 @@ package org.contenttrace.springframework.cloud.gateway.cache;
 
 import org.contenttrace.springframework.cloud.gateway.cache.rules.Rule;
 import org.contenttrace.springframework.cloud.gateway.cache.store.Entry;
+import org.contenttrace.springframework.cloud.gateway.cache.store.Payload;
 import org.contenttrace.springframework.cloud.gateway.cache.store.Store;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,7 +32,10 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.util.StringUtils;
 import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
 
 import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.*;
@@ -46,6 +50,8 @@ public class FindCacheEntryFilterFactory extends AbstractGatewayFilterFactory<Fi
 	private final CacheConfiguration cacheConfiguration;
 	private final Store store;
 	private final Rule rule;
+	private final BackgroundRefresher refresher;
+	private final CacheMetrics metrics;
 
 	private final ObjectProvider<List<HttpHeadersFilter>> headersFiltersProvider;
 
@@ -56,10 +62,20 @@ public class FindCacheEntryFilterFactory extends AbstractGatewayFilterFactory<Fi
 									   final Store store,
 									   final Rule rule,
 									   final ObjectProvider<List<HttpHeadersFilter>> headersFiltersProvider) {
+		this(cacheConfiguration, store, rule, headersFiltersProvider, new CacheMetrics());
+	}
+
+	public FindCacheEntryFilterFactory(final CacheConfiguration cacheConfiguration,
+									   final Store store,
+									   final Rule rule,
+									   final ObjectProvider<List<HttpHeadersFilter>> headersFiltersProvider,
+									   final CacheMetrics metrics) {
 		this.cacheConfiguration = cacheConfiguration;
 		this.store = store;
 		this.rule = rule;
+		this.refresher = new BackgroundRefresher(cacheConfiguration.getMaximumConcurrentRefreshes());
 		this.headersFiltersProvider = headersFiltersProvider;
+		this.metrics = metrics;
 	}
 
 	protected boolean canCache(final ServerWebExchange exchange) {
@@ -67,8 +83,19 @@ public class FindCacheEntryFilterFactory extends AbstractGatewayFilterFactory<Fi
 	}
 
 	protected boolean isValid(final Entry entry) {
-		// TODO: validate the entry.
-		return true;
+		return entry.isFresh();
+	}
+
+	/**
+	 * Returns whether a stale entry may be served while it is refreshed in the background.
+	 *
+	 * @param entry  the stale entry
+	 * @param config the configuration of the route
+	 * @return {@code true} if the entry may be served
+	 */
+	protected boolean canServeStale(final Entry entry, final Config config) {
+		final Duration window = FreshnessPolicy.staleWhileRevalidate(entry.getResponseHeaders(), config.getStaleWhileRevalidate());
+		return entry.getAge().compareTo(entry.getLifetime().plus(window)) < 0;
 	}
 
 	protected List<HttpHeadersFilter> getHeadersFilters() {
@@ -86,64 +113,158 @@ public class FindCacheEntryFilterFactory extends AbstractGatewayFilterFactory<Fi
 				return chain.filter(exchange);
 			}
 
+			final CacheMetrics.RouteMetrics routeMetrics = metrics.route(exchange);
+
 			if (!canCache(exchange)) {
 				LOG.debug("Exchange [{}] cannot be cached. Avoiding cache lookup.", exchange);
+				routeMetrics.request(CacheMetrics.Outcome.BYPASS);
+				return chain.filter(exchange);
+			}
+
+			final Entry entry = routeMetrics.lookup(() -> store.find(exchange).orElse(null));
+			if (entry != null && isValid(entry)) {
+				routeMetrics.request(CacheMetrics.Outcome.HIT);
+				serve(exchange, entry, "hit");
+				return chain.filter(exchange);
+			}
+			if (entry != null && canServeStale(entry, config)) {
+				// The refresh copies the exchange, so it has to be started before the exchange is served.
+				refresher.refresh(entry, exchange, chain);
+				routeMetrics.request(CacheMetrics.Outcome.STALE);
+				serve(exchange, entry, "stale");
+				exchange.getResponse().getHeaders().add(HttpHeaders.WARNING, "110 - \"Response is Stale\"");
+				return chain.filter(exchange);
+			}
+			final Payload stalePayload = entry != null && Revalidation.isPossible(entry) ? openPayload(entry) : null;
+			if (stalePayload != null) {
+				// A conditional request is cheap for the origin, so revalidations are not collapsed. The payload is kept
+				// open until the exchange completes, as the store may remove the entry before the origin confirms it.
+				LOG.debug("Found cache entry [{}] for exchange [{}], but is stale. Revalidating.", entry, exchange);
+				routeMetrics.request(CacheMetrics.Outcome.REVALIDATE);
+				exchange.getAttributes().put(Revalidation.ATTRIBUTE_NAME, entry);
+				exchange.getAttributes().put(Revalidation.PAYLOAD_ATTRIBUTE_NAME, stalePayload);
+				return chain.filter(exchange.mutate()
+						.request(Revalidation.request(exchange.getRequest(), entry))
+						.build())
+						.doFinally(signalType -> stalePayload.close());
+			}
+			if (entry != null) {
+				entry.invalidate();
+				LOG.debug("Found cache entry [{}] for exchange [{}], but is invalid.", entry, exchange);
+			}
+
+			if (!cacheConfiguration.isCollapsedForwarding()) {
+				routeMetrics.request(CacheMetrics.Outcome.MISS);
 				return chain.filter(exchange);
 			}
 
-			store.find(exchange.getRequest()).ifPresent(entry -> {
-				if (isValid(entry)) {
+			return store.collapse(exchange)
+					.timeout(cacheConfiguration.getCollapsedForwardingTimeout(), Mono.empty())
+					.onErrorResume(e -> {
+						LOG.warn("Failed to follow concurrent exchange for exchange [{}]!", exchange, e);
+						return Mono.empty();
+					})
+					.map(followed -> {
+						routeMetrics.request(CacheMetrics.Outcome.COLLAPSED);
+						serve(exchange, followed, "collapsed");
+						return true;
+					})
+					.defaultIfEmpty(false)
+					.flatMap(followed -> {
+						if (followed) {
+							return chain.filter(exchange);
+						}
+						routeMetrics.request(CacheMetrics.Outcome.MISS);
+						return chain.filter(exchange).doFinally(signalType -> store.release(exchange));
+					});
+		}), OrderedGatewayFilter.HIGHEST_PRECEDENCE + 1);
+	}
 
-					setAlreadyRouted(exchange);
+	private static Payload openPayload(final Entry entry) {
+		try {
+			return entry.openPayload();
+		} catch (final IOException e) {
+			LOG.debug("Payload of stale cache entry [{}] cannot be opened, it is not revalidated.", entry, e);
+			return null;
+		}
+	}
 
-					final ServerHttpResponse response = exchange.getResponse();
+	private void serve(final ServerWebExchange exchange, final Entry entry, final String event) {
+		setAlreadyRouted(exchange);
 
-					response.setStatusCode(HttpStatus.OK);
+		final ServerHttpResponse response = exchange.getResponse();
 
-					final String contentTypeValue = entry.getResponseHeaders().getFirst(HttpHeaders.CONTENT_TYPE);
-					if (StringUtils.hasLength(contentTypeValue)) {
-						exchange.getAttributes().put(ORIGINAL_RESPONSE_CONTENT_TYPE_ATTR, contentTypeValue);
-					}
+		response.setStatusCode(HttpStatus.OK);
 
-					// make sure headers filters run after setting status so it is
-					// available in response
-					final HttpHeaders filteredResponseHeaders = HttpHeadersFilter.filter(
-							getHeadersFilters(), entry.getResponseHeaders(), exchange, HttpHeadersFilter.Type.RESPONSE);
+		final String contentTypeValue = entry.getResponseHeaders().getFirst(HttpHeaders.CONTENT_TYPE);
+		if (StringUtils.hasLength(contentTypeValue)) {
+			exchange.getAttributes().put(ORIGINAL_RESPONSE_CONTENT_TYPE_ATTR, contentTypeValue);
+		}
 
-					if (!filteredResponseHeaders
-							.containsKey(HttpHeaders.TRANSFER_ENCODING)
-							&& filteredResponseHeaders
-							.containsKey(HttpHeaders.CONTENT_LENGTH)) {
-						// It is not valid to have both the transfer-encoding header and
-						// the content-length header
-						// remove the transfer-encoding header in the response if the
-						// content-length header is present
-						response.getHeaders().remove(HttpHeaders.TRANSFER_ENCODING);
-					}
+		// make sure headers filters run after setting status so it is
+		// available in response
+		final HttpHeaders filteredResponseHeaders = HttpHeadersFilter.filter(
+				getHeadersFilters(), entry.getResponseHeaders(), exchange, HttpHeadersFilter.Type.RESPONSE);
 
-					exchange.getAttributes().put(CLIENT_RESPONSE_HEADER_NAMES, filteredResponseHeaders.keySet());
+		if (!filteredResponseHeaders
+				.containsKey(HttpHeaders.TRANSFER_ENCODING)
+				&& filteredResponseHeaders
+				.containsKey(HttpHeaders.CONTENT_LENGTH)) {
+			// It is not valid to have both the transfer-encoding header and
+			// the content-length header
+			// remove the transfer-encoding header in the response if the
+			// content-length header is present
+			response.getHeaders().remove(HttpHeaders.TRANSFER_ENCODING);
+		}
 
-					// Remove or replace the cache event header
-					filteredResponseHeaders.remove(cacheConfiguration.getCacheEventHeaderName());
-					if (cacheConfiguration.isExposeCacheEventHeader()) {
-						filteredResponseHeaders.add(cacheConfiguration.getCacheEventHeaderName(), "hit");
-					}
+		exchange.getAttributes().put(CLIENT_RESPONSE_HEADER_NAMES, filteredResponseHeaders.keySet());
 
-					response.getHeaders().putAll(filteredResponseHeaders);
+		// Remove or replace the cache event header
+		filteredResponseHeaders.remove(cacheConfiguration.getCacheEventHeaderName());
+		if (cacheConfiguration.isExposeCacheEventHeader()) {
+			filteredResponseHeaders.add(cacheConfiguration.getCacheEventHeaderName(), event);
+		}
 
-					exchange.getAttributes().put(CACHE_ENTRY_ATTRIBUTE_NAME, entry);
-					LOG.debug("Found cache entry [{}] for exchange [{}].", entry, exchange);
-				} else {
-					entry.invalidate();
-					LOG.debug("Found cache entry [{}] for exchange [{}], but is invalid.", entry, exchange);
-				}
-			});
+		response.getHeaders().putAll(filteredResponseHeaders);
+		response.getHeaders().set(HttpHeaders.AGE, Long.toString(entry.getAge().getSeconds()));
 
-			return chain.filter(exchange);
-		}), OrderedGatewayFilter.HIGHEST_PRECEDENCE + 1);
+		if (ConditionalRequests.isNotModified(exchange.getRequest(), entry.getResponseHeaders())) {
+			// The response has no body, so the headers describing it are removed.
+			response.setStatusCode(HttpStatus.NOT_MODIFIED);
+			response.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+			response.getHeaders().remove(HttpHeaders.TRANSFER_ENCODING);
+			exchange.getAttributes().put(CACHE_ENTRY_ATTRIBUTE_NAME, entry);
+			LOG.debug("Found cache entry [{}] for exchange [{}], which has not been modified.", entry, exchange);
+			return;
+		}
+
+		final ByteRanges ranges = ByteRanges.resolve(exchange.getRequest(), entry);
+		if (ranges != null) {
+			ranges.apply(response);
+			exchange.getAttributes().put(ByteRanges.ATTRIBUTE_NAME, ranges);
+		}
+
+		exchange.getAttributes().put(CACHE_ENTRY_ATTRIBUTE_NAME, entry);
+		LOG.debug("Found cache entry [{}] for exchange [{}].", entry, exchange);
 	}
 
 	public static class Config {
 
+		private Duration staleWhileRevalidate = Duration.ZERO;
+
+		/**
+		 * Returns the grace window, in which stale entries of the route are served while they are refreshed in the
+		 * background. Entries carrying a longer "stale-while-revalidate" directive are served for the window of the
+		 * directive. The store has to retain stale entries for the window, too.
+		 *
+		 * @return the grace window
+		 */
+		public Duration getStaleWhileRevalidate() {
+			return staleWhileRevalidate;
+		}
+
+		public void setStaleWhileRevalidate(Duration staleWhileRevalidate) {
+			this.staleWhileRevalidate = staleWhileRevalidate;
+		}
 	}
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache;
+
+import org.springframework.http.HttpHeaders;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Calculates the freshness lifetime of a response as defined by RFC 7234, section 4.2.1. The lifetime is taken from
+ * the "s-maxage" or "max-age" directives of the "Cache-Control" header, or from the "Expires" header. If the response
+ * does not define an explicit lifetime, a heuristic lifetime is derived from the "Last-Modified" header.
+ */
+public class FreshnessPolicy {
+
+	// RFC 7234, section 1.2.1: delta-seconds larger than 2^31 must be treated as 2^31
+	private static final long MAXIMUM_DELTA_SECONDS = 1L << 31;
+
+	private double heuristicFactor = 0.1d;
+	private Duration maximumHeuristicLifetime = Duration.ofDays(1);
+
+	public double getHeuristicFactor() {
+		return heuristicFactor;
+	}
+
+	/**
+	 * Sets the fraction of the time since the last modification, that is used as heuristic freshness lifetime.
+	 * Heuristic expiration is disabled if the factor is not larger than 0.
+	 *
+	 * @param heuristicFactor the factor
+	 */
+	public void setHeuristicFactor(double heuristicFactor) {
+		this.heuristicFactor = heuristicFactor;
+	}
+
+	public Duration getMaximumHeuristicLifetime() {
+		return maximumHeuristicLifetime;
+	}
+
+	public void setMaximumHeuristicLifetime(Duration maximumHeuristicLifetime) {
+		this.maximumHeuristicLifetime = maximumHeuristicLifetime;
+	}
+
+	/**
+	 * Returns the freshness lifetime of a response in milliseconds.
+	 *
+	 * @param responseHeaders the headers of the response
+	 * @param responseTime    the time the response was received, in milliseconds since the epoch
+	 * @return the lifetime in milliseconds, {@code 0L} if the response is stale right away
+	 */
+	public long lifetime(final HttpHeaders responseHeaders, final long responseTime) {
+		final CacheControl cacheControl = CacheControl.parse(responseHeaders.getCacheControl());
+
+		final Optional<Duration> maxAge = cacheControl.getDuration(CacheControl.S_MAXAGE)
+				.map(Optional::of)
+				.orElseGet(() -> cacheControl.getDuration(CacheControl.MAX_AGE));
+		if (maxAge.isPresent()) {
+			return deltaSeconds(maxAge.get().getSeconds());
+		}
+
+		final long date = date(responseHeaders, responseTime);
+
+		if (responseHeaders.containsKey(HttpHeaders.EXPIRES)) {
+			// An invalid date (e.g. "0") represents a time in the past.
+			final long expires = responseHeaders.getExpires();
+			return expires < 0L ? 0L : Math.max(0L, expires - date);
+		}
+
+		final long lastModified = responseHeaders.getLastModified();
+		if (lastModified >= 0L && heuristicFactor > 0d && lastModified < date) {
+			final long heuristic = (long) ((date - lastModified) * heuristicFactor);
+			return Math.min(heuristic, maximumHeuristicLifetime.toMillis());
+		}
+
+		return 0L;
+	}
+
+	/**
+	 * Returns the age the response already had when it was received, in milliseconds.
+	 *
+	 * @param responseHeaders the headers of the response
+	 * @return the initial age in milliseconds
+	 */
+	public long initialAge(final HttpHeaders responseHeaders) {
+		final String age = responseHeaders.getFirst(HttpHeaders.AGE);
+		if (age == null) {
+			return 0L;
+		}
+		try {
+			return deltaSeconds(Long.parseLong(age.trim()));
+		} catch (final NumberFormatException e) {
+			return 0L;
+		}
+	}
+
+	/**
+	 * Returns how long a response may be served after it has become stale, while it is revalidated in the background.
+	 * The window is taken from the "stale-while-revalidate" directive (RFC 5861), or the given grace window, whichever
+	 * is longer. Serving stale responses is not allowed if the response carries the "must-revalidate",
+	 * "proxy-revalidate" or "no-cache" directives.
+	 *
+	 * @param responseHeaders the headers of the response
+	 * @param grace           the grace window applying to every response
+	 * @return the window, {@link Duration#ZERO} if the response must not be served stale
+	 */
+	public static Duration staleWhileRevalidate(final HttpHeaders responseHeaders, final Duration grace) {
+		final CacheControl cacheControl = CacheControl.parse(responseHeaders.getCacheControl());
+		if (cacheControl.has(CacheControl.MUST_REVALIDATE)
+				|| cacheControl.has(CacheControl.PROXY_REVALIDATE)
+				|| cacheControl.has(CacheControl.NO_CACHE)) {
+			return Duration.ZERO;
+		}
+		final Duration window = cacheControl.getDuration(CacheControl.STALE_WHILE_REVALIDATE).orElse(Duration.ZERO);
+		return window.compareTo(grace) < 0 ? grace : window;
+	}
+
+	private static long date(final HttpHeaders responseHeaders, final long responseTime) {
+		try {
+			final long date = responseHeaders.getDate();
+			return date < 0L ? responseTime : date;
+		} catch (final IllegalArgumentException e) {
+			return responseTime;
+		}
+	}
+
+	private static long deltaSeconds(final long seconds) {
+		if (seconds < 0L) {
+			return 0L;
+		}
+		return Math.min(seconds, MAXIMUM_DELTA_SECONDS) * 1000L;
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache;
+
+import org.contenttrace.springframework.cloud.gateway.cache.store.Entry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.util.StringUtils;
+
+/**
+ * Revalidates stale entries with conditional requests (RFC 7232). The validators of the entry are sent to the origin,
+ * which answers with "304 Not Modified" if the entry is still valid. The stale entry is kept in the exchange, so its
+ * freshness can be renewed by {@link org.contenttrace.springframework.cloud.gateway.cache.store.Store#revalidate} when
+ * the response arrives. Its payload is opened before the conditional request is sent, so the entry can still be served,
+ * if the store removes it while the request is on its way.
+ */
+final class Revalidation {
+
+	static final String ATTRIBUTE_NAME = Revalidation.class.getName() + ".staleEntry";
+	static final String PAYLOAD_ATTRIBUTE_NAME = Revalidation.class.getName() + ".stalePayload";
+
+	/**
+	 * Returns whether the entry carries a validator of the origin, i.e. an "ETag" or a "Last-Modified" header.
+	 *
+	 * @param entry the entry
+	 * @return {@code true} if the entry can be revalidated
+	 */
+	static boolean isPossible(final Entry entry) {
+		final HttpHeaders responseHeaders = entry.getResponseHeaders();
+		return (!entry.isETagGenerated() && StringUtils.hasText(responseHeaders.getETag()))
+				|| StringUtils.hasText(responseHeaders.getFirst(HttpHeaders.LAST_MODIFIED));
+	}
+
+	/**
+	 * Creates the request sent to the origin to refresh the entry. Conditional and range headers of the client are
+	 * removed, so the origin either confirms the entry or answers with the full representation. The validators of the
+	 * entry are added, if there are any.
+	 *
+	 * @param request the request of the client
+	 * @param entry   the stale entry
+	 * @return the request
+	 */
+	static ServerHttpRequest request(final ServerHttpRequest request, final Entry entry) {
+		final HttpHeaders responseHeaders = entry.getResponseHeaders();
+		final String eTag = entry.isETagGenerated() ? null : responseHeaders.getETag();
+		final String lastModified = responseHeaders.getFirst(HttpHeaders.LAST_MODIFIED);
+		return request.mutate()
+				.headers(headers -> {
+					headers.remove(HttpHeaders.RANGE);
+					headers.remove(HttpHeaders.IF_RANGE);
+					headers.remove(HttpHeaders.IF_MATCH);
+					headers.remove(HttpHeaders.IF_UNMODIFIED_SINCE);
+					headers.remove(HttpHeaders.IF_NONE_MATCH);
+					headers.remove(HttpHeaders.IF_MODIFIED_SINCE);
+					if (StringUtils.hasText(eTag)) {
+						headers.set(HttpHeaders.IF_NONE_MATCH, eTag);
+					}
+					if (StringUtils.hasText(lastModified)) {
+						headers.set(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+					}
+				})
+				.build();
+	}
+
+	private Revalidation() {
+		// void
+	}
+}
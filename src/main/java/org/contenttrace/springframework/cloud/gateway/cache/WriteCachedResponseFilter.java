@@ -16,6 +16,7 @@
 package org.contenttrace.springframework.cloud.gateway.cache;
 
 import org.contenttrace.springframework.cloud.gateway.cache.store.Entry;
+import org.contenttrace.springframework.cloud.gateway.cache.store.Payload;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
@@ -23,8 +24,7 @@ import org.springframework.cloud.gateway.filter.GlobalFilter;
 import org.springframework.cloud.gateway.filter.NettyWriteResponseFilter;
 import org.springframework.core.Ordered;
 import org.springframework.core.io.buffer.DataBuffer;
-import org.springframework.core.io.buffer.DataBufferFactory;
-import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.lang.Nullable;
@@ -40,14 +40,19 @@ public class WriteCachedResponseFilter implements GlobalFilter, Ordered {
 
 	private static final Logger LOG = LoggerFactory.getLogger(WriteCachedResponseFilter.class);
 
-	private final DataBufferFactory dataBufferFactory;
 	private final List<MediaType> streamingMediaTypes;
+	private final CacheMetrics metrics;
 
-	public WriteCachedResponseFilter(final DataBufferFactory dataBufferFactory,
-									 final List<MediaType> streamingMediaTypes) {
-		notNull(dataBufferFactory, "'dataBufferFactory' must not be null!");
-		this.dataBufferFactory = dataBufferFactory;
+	public WriteCachedResponseFilter(final List<MediaType> streamingMediaTypes) {
+		this(streamingMediaTypes, new CacheMetrics());
+	}
+
+	public WriteCachedResponseFilter(final List<MediaType> streamingMediaTypes,
+									 final CacheMetrics metrics) {
+		notNull(streamingMediaTypes, "'streamingMediaTypes' must not be null!");
+		notNull(metrics, "'metrics' must not be null!");
 		this.streamingMediaTypes = streamingMediaTypes;
+		this.metrics = metrics;
 	}
 
 	@Override
@@ -66,7 +71,14 @@ public class WriteCachedResponseFilter implements GlobalFilter, Ordered {
 
 		final ServerHttpResponse response = exchange.getResponse();
 
-		final Flux<DataBuffer> body = DataBufferUtils.readInputStream(entry::openStream, dataBufferFactory, 8 * 1024);
+		if (response.getStatusCode() == HttpStatus.NOT_MODIFIED) {
+			return response.setComplete();
+		}
+
+		final ByteRanges ranges = exchange.getAttribute(ByteRanges.ATTRIBUTE_NAME);
+		if (ranges != null && !ranges.isSatisfiable()) {
+			return response.setComplete();
+		}
 
 		MediaType contentType = null;
 		try {
@@ -75,9 +87,17 @@ public class WriteCachedResponseFilter implements GlobalFilter, Ordered {
 			LOG.trace("invalid media type", e);
 		}
 
-		return (isStreamingMediaType(contentType)
-				? response.writeAndFlushWith(body.map(Flux::just))
-				: response.writeWith(body));
+		final boolean streaming = isStreamingMediaType(contentType);
+
+		// The stored data is wrapped by buffers of the response, so it must be kept until the response has been written.
+		return metrics.route(exchange).serve(Mono.using(entry::openPayload, payload -> {
+			final Flux<DataBuffer> body = ranges != null
+					? ranges.read(payload, response.bufferFactory())
+					: payload.read(response.bufferFactory());
+			return streaming
+					? response.writeAndFlushWith(body.map(Flux::just))
+					: response.writeWith(body);
+		}, Payload::close));
 	}
 
 	// TODO: use framework if possible
@@ -18,6 +18,8 @@ package org.contenttrace.springframework.cloud.gateway.cache.rules;
 import org.contenttrace.springframework.cloud.gateway.cache.CacheControl;
 import org.springframework.web.server.ServerWebExchange;
 
+import java.util.Objects;
+
 public class CacheControlRules {
 
 	private static final Rule RESPONSE_HAS_NO_CACHE_ENABLED =
@@ -44,13 +46,27 @@ public class CacheControlRules {
 	private static final String PARSED_CACHE_CONTROL_ATTRIBUTE_NAME = CacheControlRules.class.getName() + ".response.parsed";
 
 	private static CacheControl responseCacheControlFor(final ServerWebExchange exchange) {
-		final CacheControl existing = exchange.getAttribute(PARSED_CACHE_CONTROL_ATTRIBUTE_NAME);
-		if (existing != null) {
-			return existing;
+		// The rules are evaluated before and after the response has been received, so the parsed header is only reused
+		// as long as the header has not changed.
+		final String value = exchange.getResponse().getHeaders().getCacheControl();
+		final ParsedCacheControl existing = exchange.getAttribute(PARSED_CACHE_CONTROL_ATTRIBUTE_NAME);
+		if (existing != null && Objects.equals(existing.value, value)) {
+			return existing.cacheControl;
 		}
-		final CacheControl cacheControl = CacheControl.parse(exchange.getResponse().getHeaders().getCacheControl());
-		exchange.getAttributes().put(PARSED_CACHE_CONTROL_ATTRIBUTE_NAME, cacheControl);
+		final CacheControl cacheControl = CacheControl.parse(value);
+		exchange.getAttributes().put(PARSED_CACHE_CONTROL_ATTRIBUTE_NAME, new ParsedCacheControl(value, cacheControl));
 		return cacheControl;
 	}
 
+	private static final class ParsedCacheControl {
+
+		private final String value;
+		private final CacheControl cacheControl;
+
+		private ParsedCacheControl(final String value, final CacheControl cacheControl) {
+			this.value = value;
+			this.cacheControl = cacheControl;
+		}
+	}
+
 }
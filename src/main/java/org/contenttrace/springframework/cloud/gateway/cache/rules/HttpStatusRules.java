@@ -0,0 +1,39 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.rules;
+
+import org.springframework.http.HttpStatus;
+
+public final class HttpStatusRules {
+
+	private static final Rule IS_PARTIAL_CONTENT =
+			exchange -> exchange.getResponse().getStatusCode() == HttpStatus.PARTIAL_CONTENT;
+
+	private static final Rule IS_NOT_MODIFIED =
+			exchange -> exchange.getResponse().getStatusCode() == HttpStatus.NOT_MODIFIED;
+
+	public static Rule isPartialContent() {
+		return IS_PARTIAL_CONTENT;
+	}
+
+	public static Rule isNotModified() {
+		return IS_NOT_MODIFIED;
+	}
+
+	private HttpStatusRules() {
+		// void
+	}
+}
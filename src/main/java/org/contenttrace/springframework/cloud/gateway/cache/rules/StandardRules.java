@@ -23,6 +23,8 @@ public class StandardRules {
 				Rule.not(CacheControlRules.responseHasNoCacheEnabled()),
 				Rule.not(CacheControlRules.responseHasNoStoreEnabled()),
 				Rule.not(CacheControlRules.responseIsPrivate()),
+				Rule.not(HttpStatusRules.isPartialContent()),
+				Rule.not(HttpStatusRules.isNotModified()),
 				Rule.not(new WildcardVaryRule()),
 				Rule.not(exchange -> exchange.getResponse().getHeaders().containsKey("Set-Cookie"))
 		);
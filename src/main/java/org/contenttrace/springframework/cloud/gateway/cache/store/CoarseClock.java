@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A clock that caches the current time and updates it periodically, so reading the time on a hot path is a single
+ * volatile read. The time is at most one resolution behind the system clock.
+ */
+public final class CoarseClock implements AutoCloseable {
+
+	private final ScheduledFuture<?> ticker;
+
+	private volatile long millis;
+
+	/**
+	 * Creates a clock that is updated by the given scheduler.
+	 *
+	 * @param scheduler  the scheduler updating the clock
+	 * @param resolution the resolution of the clock
+	 */
+	public CoarseClock(final ScheduledExecutorService scheduler, final Duration resolution) {
+		requireNonNull(scheduler, "'scheduler' must not be null!");
+		requireNonNull(resolution, "'resolution' must not be null!");
+		this.millis = System.currentTimeMillis();
+		final long period = Math.max(1L, resolution.toMillis());
+		this.ticker = scheduler.scheduleAtFixedRate(
+				() -> this.millis = System.currentTimeMillis(), period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Returns the current time in milliseconds since the epoch.
+	 *
+	 * @return the current time
+	 */
+	public long millis() {
+		return millis;
+	}
+
+	@Override
+	public void close() {
+		ticker.cancel(false);
+	}
+}
@@ -19,6 +19,7 @@ import org.springframework.http.HttpHeaders;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Duration;
 import java.util.Optional;
 
 /**
@@ -85,6 +86,15 @@ public interface Entry {
 	 */
 	InputStream openStream() throws IOException;
 
+	/**
+	 * Opens the data of the entry for writing it to a response. In contrast to {@link #openStream()}, the data is
+	 * provided as data buffers, which may refer to the stored data without copying it.
+	 *
+	 * @return the payload, which must be closed after the data has been written
+	 * @throws IOException if the payload cannot be opened
+	 */
+	Payload openPayload() throws IOException;
+
 	/**
 	 * Returns the size of the data. May return {@code -1L} if there is no data.
 	 *
@@ -92,6 +102,35 @@ public interface Entry {
 	 */
 	long size();
 
+	/**
+	 * Returns whether the entry is fresh, i.e. whether it can be served without validating it with the origin.
+	 *
+	 * @return {@code true} if the entry is fresh
+	 */
+	boolean isFresh();
+
+	/**
+	 * Returns the current age of the entry, which is the time since it was generated or validated by the origin.
+	 *
+	 * @return the age
+	 */
+	Duration getAge();
+
+	/**
+	 * Returns the freshness lifetime of the entry. The entry is stale once its age exceeds the lifetime.
+	 *
+	 * @return the lifetime
+	 */
+	Duration getLifetime();
+
+	/**
+	 * Returns whether the "ETag" header of the entry has been generated from its payload, because the origin did not
+	 * send one. A generated entity tag is unknown to the origin, so it must not be used to revalidate the entry.
+	 *
+	 * @return {@code true} if the entity tag has been generated
+	 */
+	boolean isETagGenerated();
+
 	/**
 	 * Invalidates this cache entry. This method must be side-effect free. So for example, if the entry is already
 	 * invalidated or if an I/O related issue occurs, the method should return without an error. Any errors must be
@@ -15,6 +15,8 @@
  */
 package org.contenttrace.springframework.cloud.gateway.cache.store;
 
+import java.util.List;
+
 /**
  * An event listener.
  */
@@ -27,4 +29,14 @@ public interface EventListener {
 	 */
 	void dispatched(Event event);
 
+	/**
+	 * Called with a batch of events, if events are dispatched asynchronously. Calls {@link #dispatched(Event)} for each
+	 * event by default.
+	 *
+	 * @param events the events in the order they were published
+	 */
+	default void dispatched(List<? extends Event> events) {
+		events.forEach(this::dispatched);
+	}
+
 }
@@ -15,10 +15,15 @@
  */
 package org.contenttrace.springframework.cloud.gateway.cache.store;
 
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static java.util.Objects.requireNonNull;
+
 /**
  * Provides read-only access to store events.
  *
- * <p>Events must be propagated synchronously.</p>
+ * <p>Events are propagated synchronously, unless the store is configured to dispatch them asynchronously.</p>
  */
 public interface Events {
 
@@ -29,6 +34,41 @@ public interface Events {
 	 */
 	void register(EventListener listener);
 
+	/**
+	 * Registers an event listener, which is only called with events of the given type. Has no effect, if the listener
+	 * is already registered.
+	 * <p>
+	 * The default implementation registers a listener, which filters the events by their type before passing them on.
+	 * As that listener is not the given one, implementations should override this method to support
+	 * {@link #unregister(EventListener)}.
+	 *
+	 * @param listener  the listener to register
+	 * @param eventType the type of the events the listener is called with
+	 */
+	default void register(final EventListener listener, final Class<? extends Event> eventType) {
+		requireNonNull(listener, "'listener' must not be null!");
+		requireNonNull(eventType, "'eventType' must not be null!");
+		register(new EventListener() {
+
+			@Override
+			public void dispatched(final Event event) {
+				if (eventType.isInstance(event)) {
+					listener.dispatched(event);
+				}
+			}
+
+			@Override
+			public void dispatched(final List<? extends Event> events) {
+				final List<Event> matching = events.stream()
+						.filter(eventType::isInstance)
+						.collect(Collectors.toList());
+				if (!matching.isEmpty()) {
+					listener.dispatched(matching);
+				}
+			}
+		});
+	}
+
 	/**
 	 * Unregister a listener. Has no effect, if the listener is not registered.
 	 *
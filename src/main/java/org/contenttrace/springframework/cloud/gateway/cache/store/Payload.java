@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.io.Closeable;
+
+/**
+ * The payload of an entry, opened for reading. The payload keeps the stored data alive until it is closed, so the data
+ * buffers produced by {@link #read(DataBufferFactory)} may refer to the stored data directly instead of copying it.
+ */
+public interface Payload extends Closeable {
+
+	/**
+	 * Returns the size of the payload. The size is unknown, if the payload is produced while it is read, e.g. because
+	 * the response is still being captured or because it is decompressed on the fly.
+	 *
+	 * @return the size in bytes or {@code -1} if it is unknown
+	 */
+	long size();
+
+	/**
+	 * Returns the payload as data buffers. Stores should wrap their memory using the given factory rather than copying
+	 * it. The buffers must not be used after the payload has been closed.
+	 *
+	 * @param bufferFactory the factory of the data buffers, usually the one of the response
+	 * @return the data buffers
+	 */
+	Flux<DataBuffer> read(DataBufferFactory bufferFactory);
+
+	/**
+	 * Returns a range of the payload as data buffers. Stores should seek to the start of the range directly, rather than
+	 * reading the payload from its beginning. If the size of the payload is unknown, the payload is read up to the start
+	 * of the range and a range exceeding the payload ends with the payload, as it cannot be rejected in advance.
+	 *
+	 * @param bufferFactory the factory of the data buffers, usually the one of the response
+	 * @param offset        the position of the first byte of the range
+	 * @param length        the number of bytes in the range
+	 * @return the data buffers
+	 * @throws IllegalArgumentException if the range exceeds the payload
+	 */
+	Flux<DataBuffer> read(DataBufferFactory bufferFactory, long offset, long length);
+
+	/**
+	 * Closes the payload and releases the stored data. Closing a payload more than once has no effect.
+	 */
+	@Override
+	void close();
+
+}
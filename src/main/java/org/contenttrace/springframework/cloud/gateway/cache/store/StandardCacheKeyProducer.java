@@ -18,10 +18,16 @@ package org.contenttrace.springframework.cloud.gateway.cache.store;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Locale;
 
 public abstract class StandardCacheKeyProducer implements CacheKeyProducer {
 
+	/**
+	 * The key material is encoded into a buffer of the current thread, so producing a key does not allocate.
+	 */
+	private static final ThreadLocal<KeyMaterial> MATERIAL = ThreadLocal.withInitial(KeyMaterial::new);
+
 	private static final byte[] METHOD_FIELD = "method=".getBytes(StandardCharsets.UTF_8);
 	private static final byte[] PATH_FIELD = "path=".getBytes(StandardCharsets.UTF_8);
 	private static final byte[] PATH_FIELD_ROOT_TOKEN = "/".getBytes(StandardCharsets.UTF_8);
@@ -32,22 +38,26 @@ public abstract class StandardCacheKeyProducer implements CacheKeyProducer {
 	private static final StandardCacheKeyProducer METHOD_PATH_QUERY = new StandardCacheKeyProducer() {
 		@Override
 		public void createKey(ServerHttpRequest request, KeyBuilder builder) {
-			builder.add(METHOD_FIELD);
-			builder.add(request.getMethodValue().toUpperCase(Locale.ENGLISH).getBytes(StandardCharsets.UTF_8));
+			final KeyMaterial material = MATERIAL.get().reset();
+
+			material.append(METHOD_FIELD);
+			material.appendUpperCase(request.getMethodValue());
 
-			builder.add(PATH_FIELD);
+			material.append(PATH_FIELD);
 			final String path = request.getURI().getPath();
 			if (path == null) {
-				builder.add(PATH_FIELD_ROOT_TOKEN);
+				material.append(PATH_FIELD_ROOT_TOKEN);
 			} else {
-				builder.add(path.getBytes(StandardCharsets.UTF_8));
+				material.append(path);
 			}
 
-			builder.add(QUERY_FIELD);
+			material.append(QUERY_FIELD);
 			final String query = request.getURI().getQuery();
 			if (query != null) {
-				builder.add(query.getBytes(StandardCharsets.UTF_8));
+				material.append(query);
 			}
+
+			material.addTo(builder);
 		}
 	};
 
@@ -65,15 +75,103 @@ public abstract class StandardCacheKeyProducer implements CacheKeyProducer {
 			public void createKey(ServerHttpRequest request, KeyBuilder builder) {
 				StandardCacheKeyProducer.this.createKey(request, builder);
 
-				builder.add(HOST_FIELD);
+				final KeyMaterial material = MATERIAL.get().reset();
+				material.append(HOST_FIELD);
 				final String host = request.getHeaders().getFirst("Host");
 				if (host != null) {
-					builder.add(host.getBytes(StandardCharsets.UTF_8));
+					material.append(host);
 				} else {
-					builder.add(HOST_DEFAULT_TOKEN);
+					material.append(HOST_DEFAULT_TOKEN);
 				}
+				material.addTo(builder);
 			}
 		};
 	}
 
+	/**
+	 * A reusable buffer the key material is encoded into as UTF-8. The material is handed to the key builder as a
+	 * whole, which copies it, so the buffer can be reused right away.
+	 */
+	private static final class KeyMaterial {
+
+		private static final int INITIAL_CAPACITY = 256;
+		private static final int MAXIMUM_RETAINED_CAPACITY = 64 * 1024;
+
+		private byte[] buffer = new byte[INITIAL_CAPACITY];
+		private int length;
+
+		KeyMaterial reset() {
+			// The buffer of an exceptionally long request is not retained by the thread.
+			if (buffer.length > MAXIMUM_RETAINED_CAPACITY) {
+				buffer = new byte[INITIAL_CAPACITY];
+			}
+			length = 0;
+			return this;
+		}
+
+		void append(final byte[] bytes) {
+			ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, buffer, length, bytes.length);
+			length = length + bytes.length;
+		}
+
+		void appendUpperCase(final String value) {
+			for (int i = 0; i < value.length(); i++) {
+				if (value.charAt(i) >= 0x80) {
+					// Methods are tokens, so this is only a fallback for invalid requests.
+					append(value.toUpperCase(Locale.ENGLISH));
+					return;
+				}
+			}
+			ensureCapacity(value.length());
+			for (int i = 0; i < value.length(); i++) {
+				final char c = value.charAt(i);
+				buffer[length++] = (byte) (c >= 'a' && c <= 'z' ? c - ('a' - 'A') : c);
+			}
+		}
+
+		/**
+		 * Appends the UTF-8 encoding of the value, which is the same as {@link String#getBytes(java.nio.charset.Charset)}
+		 * yields, including the replacement of malformed surrogates.
+		 */
+		void append(final String value) {
+			// Each char takes up to three bytes, surrogate pairs take four bytes for two chars.
+			ensureCapacity(value.length() * 3);
+			for (int i = 0; i < value.length(); i++) {
+				final char c = value.charAt(i);
+				if (c < 0x80) {
+					buffer[length++] = (byte) c;
+				} else if (c < 0x800) {
+					buffer[length++] = (byte) (0xc0 | (c >> 6));
+					buffer[length++] = (byte) (0x80 | (c & 0x3f));
+				} else if (Character.isSurrogate(c)) {
+					if (Character.isHighSurrogate(c) && i + 1 < value.length()
+							&& Character.isLowSurrogate(value.charAt(i + 1))) {
+						final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+						buffer[length++] = (byte) (0xf0 | (codePoint >> 18));
+						buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+						buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+						buffer[length++] = (byte) (0x80 | (codePoint & 0x3f));
+					} else {
+						buffer[length++] = '?';
+					}
+				} else {
+					buffer[length++] = (byte) (0xe0 | (c >> 12));
+					buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+					buffer[length++] = (byte) (0x80 | (c & 0x3f));
+				}
+			}
+		}
+
+		void addTo(final KeyBuilder builder) {
+			builder.add(buffer, 0, length);
+		}
+
+		private void ensureCapacity(final int additional) {
+			if (length + additional > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + additional));
+			}
+		}
+	}
+
 }
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Normalizes the values of well-known request headers:
+ * <ul>
+ * <li>"Accept-Encoding" is reduced to the set of acceptable content codings, ordered alphabetically. If the content
+ * codings the origin supports are configured, it is reduced to the most preferred of them instead, or is considered
+ * absent if the client accepts none of them.</li>
+ * <li>"Accept-Language" is reduced to the most preferred language the origin supports, if the supported languages are
+ * configured. Otherwise the language ranges are ordered by their quality and lower-cased.</li>
+ * <li>"Accept" is ordered by quality, lower-cased and stripped of whitespace.</li>
+ * <li>"User-Agent" is reduced to the class of device ("mobile", "tablet" or "desktop"), if enabled.</li>
+ * </ul>
+ * The values of all other headers are trimmed. Ranges with a quality of zero are dropped.
+ */
+public final class StandardVaryNormalizer implements VaryNormalizer {
+
+	private static final String WILDCARD = "*";
+	private static final String MOBILE = "mobile";
+	private static final String TABLET = "tablet";
+	private static final String DESKTOP = "desktop";
+
+	private static final StandardVaryNormalizer DEFAULT = new StandardVaryNormalizer(
+			Collections.emptyList(), Collections.emptyList(), false);
+
+	private final List<String> contentCodings;
+	private final List<String> languages;
+	private final boolean deviceClasses;
+
+	private StandardVaryNormalizer(final List<String> contentCodings,
+								   final List<String> languages,
+								   final boolean deviceClasses) {
+		this.contentCodings = contentCodings;
+		this.languages = languages;
+		this.deviceClasses = deviceClasses;
+	}
+
+	/**
+	 * Returns the normalizer supporting any content coding, any language and no device classes.
+	 *
+	 * @return the normalizer
+	 */
+	public static StandardVaryNormalizer getInstance() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Returns a normalizer supporting the given content codings, in the order of preference of the origin. The origin
+	 * must support exactly these codings, as clients are served the representation of the most preferred one they
+	 * accept.
+	 *
+	 * @param contentCodings the content codings
+	 * @return the normalizer
+	 */
+	public StandardVaryNormalizer withContentCodings(final String... contentCodings) {
+		requireNonNull(contentCodings, "'contentCodings' must not be null!");
+		return new StandardVaryNormalizer(lowerCase(contentCodings), languages, deviceClasses);
+	}
+
+	/**
+	 * Returns a normalizer supporting the given languages, in the order of preference of the origin. Clients accepting
+	 * none of the languages are served the same representation.
+	 *
+	 * @param languages the language tags
+	 * @return the normalizer
+	 */
+	public StandardVaryNormalizer withLanguages(final String... languages) {
+		requireNonNull(languages, "'languages' must not be null!");
+		return new StandardVaryNormalizer(contentCodings, lowerCase(languages), deviceClasses);
+	}
+
+	/**
+	 * Returns a normalizer reducing the "User-Agent" header to the class of device. The origin must not distinguish
+	 * clients beyond the class of device.
+	 *
+	 * @return the normalizer
+	 */
+	public StandardVaryNormalizer withDeviceClasses() {
+		return new StandardVaryNormalizer(contentCodings, languages, true);
+	}
+
+	@Override
+	public List<String> normalize(final String headerName, final List<String> values) {
+		requireNonNull(headerName, "'headerName' must not be null!");
+		requireNonNull(values, "'values' must not be null!");
+		if (HttpHeaders.ACCEPT_ENCODING.equalsIgnoreCase(headerName)) {
+			return normalizeAcceptEncoding(values);
+		} else if (HttpHeaders.ACCEPT_LANGUAGE.equalsIgnoreCase(headerName)) {
+			return normalizeAcceptLanguage(values);
+		} else if (HttpHeaders.ACCEPT.equalsIgnoreCase(headerName)) {
+			return join(ranges(values));
+		} else if (HttpHeaders.USER_AGENT.equalsIgnoreCase(headerName) && deviceClasses) {
+			return Collections.singletonList(deviceClass(values));
+		}
+		final List<String> trimmed = new ArrayList<>(values.size());
+		for (final String value : values) {
+			trimmed.add(value.trim());
+		}
+		return trimmed;
+	}
+
+	private List<String> normalizeAcceptEncoding(final List<String> values) {
+		final List<String> accepted = ranges(values);
+		if (contentCodings.isEmpty()) {
+			// The coding chosen by the origin is unknown, so only clients accepting the same codings share a variant.
+			final List<String> codings = new ArrayList<>(accepted.size());
+			for (final String range : accepted) {
+				final String coding = "x-gzip".equals(range) ? "gzip" : range;
+				if (!codings.contains(coding)) {
+					codings.add(coding);
+				}
+			}
+			Collections.sort(codings);
+			return join(codings);
+		}
+		for (final String contentCoding : contentCodings) {
+			if (accepted.contains(contentCoding)
+					|| ("gzip".equals(contentCoding) && accepted.contains("x-gzip"))
+					|| accepted.contains(WILDCARD)) {
+				return Collections.singletonList(contentCoding);
+			}
+		}
+		return Collections.emptyList();
+	}
+
+	private List<String> normalizeAcceptLanguage(final List<String> values) {
+		final List<String> accepted = ranges(values);
+		if (languages.isEmpty()) {
+			return join(accepted);
+		}
+		for (final String range : accepted) {
+			for (final String language : languages) {
+				if (WILDCARD.equals(range)
+						|| language.equals(range)
+						|| language.startsWith(range + "-")
+						|| range.startsWith(language + "-")) {
+					return Collections.singletonList(language);
+				}
+			}
+		}
+		return Collections.emptyList();
+	}
+
+	private static String deviceClass(final List<String> values) {
+		final String userAgent = String.join(" ", values).toLowerCase(Locale.ENGLISH);
+		if (userAgent.contains("ipad") || userAgent.contains("tablet")
+				|| (userAgent.contains("android") && !userAgent.contains("mobile"))) {
+			return TABLET;
+		}
+		if (userAgent.contains("mobi") || userAgent.contains("iphone") || userAgent.contains("ipod")
+				|| userAgent.contains("windows phone") || userAgent.contains("blackberry")
+				|| userAgent.contains("opera mini")) {
+			return MOBILE;
+		}
+		return DESKTOP;
+	}
+
+	/**
+	 * Parses the comma separated ranges of an "Accept" header and its relatives, and returns them lower-cased and
+	 * without whitespace, ordered by their quality. Ranges with a quality of zero are dropped.
+	 */
+	private static List<String> ranges(final List<String> values) {
+		final List<Range> ranges = new ArrayList<>();
+		for (final String value : values) {
+			for (final String element : StringUtils.tokenizeToStringArray(value, ",")) {
+				final Range range = Range.parse(element);
+				if (range != null && range.quality > 0.0d) {
+					ranges.add(range);
+				}
+			}
+		}
+		// The sort is stable, so ranges of the same quality keep the order of the client.
+		ranges.sort(Comparator.comparingDouble((Range range) -> range.quality).reversed());
+		final List<String> result = new ArrayList<>(ranges.size());
+		for (final Range range : ranges) {
+			if (!result.contains(range.value)) {
+				result.add(range.value);
+			}
+		}
+		return result;
+	}
+
+	private static List<String> join(final List<String> values) {
+		return values.isEmpty() ? Collections.emptyList() : Collections.singletonList(String.join(",", values));
+	}
+
+	private static List<String> lowerCase(final String... values) {
+		final List<String> result = new ArrayList<>(values.length);
+		for (final String value : values) {
+			result.add(value.trim().toLowerCase(Locale.ENGLISH));
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	private static final class Range {
+
+		private final String value;
+		private final double quality;
+
+		private Range(final String value, final double quality) {
+			this.value = value;
+			this.quality = quality;
+		}
+
+		private static Range parse(final String element) {
+			final String[] parts = StringUtils.tokenizeToStringArray(element, ";");
+			if (parts.length == 0) {
+				return null;
+			}
+			final StringBuilder value = new StringBuilder(parts[0].toLowerCase(Locale.ENGLISH));
+			double quality = 1.0d;
+			for (int i = 1; i < parts.length; i++) {
+				final String parameter = parts[i].replace(" ", "");
+				if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+					try {
+						quality = Double.parseDouble(parameter.substring(2));
+					} catch (final NumberFormatException e) {
+						quality = 0.0d;
+					}
+				} else {
+					value.append(';').append(parameter.toLowerCase(Locale.ENGLISH));
+				}
+			}
+			return new Range(value.toString(), quality);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "StandardVaryNormalizer{" +
+				"contentCodings=" + contentCodings +
+				", languages=" + languages +
+				", deviceClasses=" + deviceClasses +
+				'}';
+	}
+}
@@ -15,8 +15,10 @@
  */
 package org.contenttrace.springframework.cloud.gateway.cache.store;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
 
 import java.util.Optional;
 import java.util.stream.Stream;
@@ -35,6 +37,20 @@ public interface Store {
 	 */
 	ServerWebExchange write(ServerWebExchange exchange);
 
+	/**
+	 * <p>Mutates the exchange to have its response written to the store and returns it, unless the response is larger
+	 * than the maximum size. Responses announcing a larger "Content-Length" are not captured at all, responses found
+	 * to be larger while they are written are abandoned. Either way, the response is written to the client.</p>
+	 * <p>Stores, which do not limit the size of their representations, ignore the maximum size.</p>
+	 *
+	 * @param exchange    the exchange
+	 * @param maximumSize the maximum size of the response body in bytes, unbounded if less than 1
+	 * @return the exchange
+	 */
+	default ServerWebExchange write(ServerWebExchange exchange, long maximumSize) {
+		return write(exchange);
+	}
+
 	/**
 	 * Finds a stored cache entry for the given request. Returns nothing if the request does not match any stored entries.
 	 *
@@ -43,6 +59,17 @@ public interface Store {
 	 */
 	Optional<? extends Entry> find(ServerHttpRequest request);
 
+	/**
+	 * Finds a stored cache entry for the request of the given exchange. Stores may memoize the key of the request in the
+	 * exchange, so it is computed only once for all phases of the exchange.
+	 *
+	 * @param exchange the exchange
+	 * @return the entry
+	 */
+	default Optional<? extends Entry> find(ServerWebExchange exchange) {
+		return find(exchange.getRequest());
+	}
+
 	/**
 	 * Finds entries by its key. The key is provided as string representation and may be parsed by the store. If
 	 * the key cannot be parsed, simply no entry is returned.
@@ -61,6 +88,90 @@ public interface Store {
 	 */
 	Stream<? extends Entry> find(CacheKey cacheKey);
 
+	/**
+	 * Revalidates a stale entry with a "304 Not Modified" response of the origin. The stored headers are updated with
+	 * the headers of the response and the freshness of the entry is renewed, while the payload is reused.
+	 * <p>
+	 * Stores, which do not support revalidation, return nothing, so the entry is fetched again.
+	 *
+	 * @param entry              the stale entry
+	 * @param notModifiedHeaders the headers of the "304 Not Modified" response
+	 * @return the revalidated entry or nothing if the entry could not be revalidated, e.g. because it has been removed
+	 */
+	default Optional<? extends Entry> revalidate(Entry entry, HttpHeaders notModifiedHeaders) {
+		return Optional.empty();
+	}
+
+	/**
+	 * Collapses concurrent misses for the same resource. The first exchange becomes the leader and is forwarded to the
+	 * origin, which is signalled by an empty result. Subsequent exchanges follow the leader and receive the entry
+	 * captured from its response, possibly while the response is still in progress. The result is empty for followers
+	 * as well, if the response of the leader is not cached or fails before it has started. The store must be
+	 * {@link #release(ServerWebExchange) released} once the exchange of the leader has completed.
+	 * <p>
+	 * Stores, which do not support collapsed forwarding, return an empty result for every exchange.
+	 *
+	 * @param exchange the exchange missing the cache
+	 * @return the entry of the leader, empty if the exchange has to be forwarded to the origin
+	 */
+	default Mono<Entry> collapse(ServerWebExchange exchange) {
+		return Mono.empty();
+	}
+
+	/**
+	 * Releases the followers of an exchange, which became the leader of {@link #collapse(ServerWebExchange)}, if its
+	 * response has not been started.
+	 *
+	 * @param exchange the exchange
+	 */
+	default void release(ServerWebExchange exchange) {
+		// void
+	}
+
+	/**
+	 * Removes all representations tagged with a surrogate key by the origin, using the "Surrogate-Key" or the
+	 * "Cache-Tag" header of their responses. Representations, which are being served, are still written to their
+	 * clients.
+	 * <p>
+	 * Stores, which do not index surrogate keys, remove nothing.
+	 *
+	 * @param tag the surrogate key
+	 * @return the number of removed representations
+	 */
+	default int purge(String tag) {
+		return 0;
+	}
+
+	/**
+	 * Removes all representations of a host whose request path matches a pattern. A segment of "**" in the pattern
+	 * matches any number of path segments, so "/products/**" removes everything below "/products". A "*" matches any
+	 * characters and a "?" a single character within one segment. Representations, which are being served, are still
+	 * written to their clients.
+	 * <p>
+	 * Stores, which do not index paths, remove nothing.
+	 *
+	 * @param host        the host of the requests or {@code null} for all hosts
+	 * @param pathPattern the pattern of the request paths
+	 * @return the number of removed representations
+	 */
+	default int purgeByPath(String host, String pathPattern) {
+		return 0;
+	}
+
+	/**
+	 * Returns the entries of a host whose request path matches a pattern, using the same patterns as
+	 * {@link #purgeByPath(String, String)}.
+	 * <p>
+	 * Stores, which do not index paths, return no entries.
+	 *
+	 * @param host        the host of the requests or {@code null} for all hosts
+	 * @param pathPattern the pattern of the request paths
+	 * @return the entries
+	 */
+	default Stream<? extends Entry> findByPath(String host, String pathPattern) {
+		return Stream.empty();
+	}
+
 	/**
 	 * Returns the events accessor for this store.
 	 *
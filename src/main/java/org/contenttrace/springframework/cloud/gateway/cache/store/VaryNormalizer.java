@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store;
+
+import org.springframework.http.HttpHeaders;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Normalizes the values of the request headers nominated by the "Vary" header of a response. The normalized values are
+ * recorded with a representation and compared to the normalized values of later requests, so requests with equivalent
+ * header values, e.g. "gzip, deflate, br" and "gzip,deflate", are served the same representation instead of creating
+ * near-identical variants.
+ */
+public interface VaryNormalizer {
+
+	/**
+	 * The normalizer, which leaves all values as they are.
+	 */
+	VaryNormalizer NONE = (headerName, values) -> values;
+
+	/**
+	 * Normalizes the values of a request header.
+	 *
+	 * @param headerName the name of the header, as nominated by the "Vary" header
+	 * @param values     the values of the header, empty if the request does not carry the header
+	 * @return the normalized values, empty if the header is considered absent
+	 */
+	List<String> normalize(String headerName, List<String> values);
+
+	/**
+	 * Normalizes the values of the given request headers. Headers, which are absent after normalization, are not
+	 * contained in the result.
+	 *
+	 * @param headerNames    the names of the headers, as nominated by the "Vary" header
+	 * @param requestHeaders the headers of the request
+	 * @return the normalized headers
+	 */
+	default HttpHeaders normalize(final Collection<String> headerNames, final HttpHeaders requestHeaders) {
+		final HttpHeaders normalized = new HttpHeaders();
+		for (final String headerName : headerNames) {
+			final List<String> values = requestHeaders.get(headerName);
+			final List<String> normalizedValues = normalize(headerName, values != null ? values : Collections.emptyList());
+			if (normalizedValues != null && !normalizedValues.isEmpty()) {
+				normalized.put(headerName, normalizedValues);
+			}
+		}
+		return normalized;
+	}
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.file;
+
+import org.contenttrace.springframework.cloud.gateway.cache.store.*;
+import org.springframework.web.server.ServerWebExchange;
+
+import java.net.URI;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+class FileEvents implements Events {
+
+	private final List<Registration> registrations;
+
+	private final Object registrationMutex = new Object();
+
+	FileEvents() {
+		this.registrations = new CopyOnWriteArrayList<>();
+	}
+
+	void publish(final FileEvent event) {
+		Objects.requireNonNull(event, "Event is required!");
+		registrations.forEach(registration -> {
+			if (registration.eventType.isInstance(event)) {
+				registration.listener.dispatched(event);
+			}
+		});
+	}
+
+	void publishResourceCached(final ServerWebExchange exchange, final Entry entry) {
+		publish(new FileResourceCachedEvent(exchange.getRequest().getURI(), entry));
+	}
+
+	@Override
+	public void register(final EventListener listener) {
+		register(listener, Event.class);
+	}
+
+	@Override
+	public void register(final EventListener listener, final Class<? extends Event> eventType) {
+		Objects.requireNonNull(listener, "'listener' must not be null!");
+		Objects.requireNonNull(eventType, "'eventType' must not be null!");
+		synchronized (registrationMutex) {
+			for (final Registration registration : registrations) {
+				if (registration.listener.equals(listener)) {
+					return;
+				}
+			}
+			registrations.add(new Registration(listener, eventType));
+		}
+	}
+
+	@Override
+	public void unregister(final EventListener listener) {
+		synchronized (registrationMutex) {
+			registrations.removeIf(registration -> registration.listener.equals(listener));
+		}
+	}
+
+	private static final class Registration {
+
+		private final EventListener listener;
+		private final Class<? extends Event> eventType;
+
+		private Registration(final EventListener listener,
+							 final Class<? extends Event> eventType) {
+			this.listener = listener;
+			this.eventType = eventType;
+		}
+	}
+
+	static abstract class FileEvent implements Event {
+
+		private final LocalDateTime time;
+
+		protected FileEvent() {
+			this.time = LocalDateTime.now();
+		}
+
+		@Override
+		public LocalDateTime getTime() {
+			return time;
+		}
+	}
+
+	static class FileResourceCachedEvent extends FileEvent implements ResourceCachedEvent {
+
+		private final URI uri;
+		private final Entry entry;
+
+		FileResourceCachedEvent(final URI uri,
+								final Entry entry) {
+			this.uri = uri;
+			this.entry = entry;
+		}
+
+		@Override
+		public URI getURI() {
+			return uri;
+		}
+
+		@Override
+		public Entry getEntry() {
+			return entry;
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.file;
+
+import org.contenttrace.springframework.cloud.gateway.cache.store.Metrics;
+
+import static java.util.Objects.requireNonNull;
+
+public class FileMetrics implements Metrics {
+
+	private final FileStore store;
+
+	FileMetrics(final FileStore store) {
+		requireNonNull(store, "'store' must not be null!");
+		this.store = store;
+	}
+
+	@Override
+	public long getStoredEntries() {
+		return store.storedEntries();
+	}
+
+	/**
+	 * Returns the number of segment files.
+	 *
+	 * @return the number of segments
+	 */
+	public int getSegments() {
+		return store.log().segmentCount();
+	}
+
+	/**
+	 * Returns the number of bytes of all segment files.
+	 *
+	 * @return the size in bytes
+	 */
+	public long getDiskSize() {
+		return store.log().size();
+	}
+
+	/**
+	 * Returns the number of bytes occupied by replaced, invalidated or expired entries, which are reclaimed by the
+	 * compaction of their segments.
+	 *
+	 * @return the dead bytes
+	 */
+	public long getDeadBytes() {
+		return store.log().deadBytes();
+	}
+}
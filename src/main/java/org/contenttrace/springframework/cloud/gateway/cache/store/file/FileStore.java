@@ -0,0 +1,960 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.file;
+
+import org.contenttrace.springframework.cloud.gateway.cache.FreshnessPolicy;
+import org.contenttrace.springframework.cloud.gateway.cache.store.CacheKey;
+import org.contenttrace.springframework.cloud.gateway.cache.store.CacheKeyProducer;
+import org.contenttrace.springframework.cloud.gateway.cache.store.CoarseClock;
+import org.contenttrace.springframework.cloud.gateway.cache.store.Entry;
+import org.contenttrace.springframework.cloud.gateway.cache.store.Payload;
+import org.contenttrace.springframework.cloud.gateway.cache.store.Store;
+import org.contenttrace.springframework.cloud.gateway.cache.store.VaryNormalizer;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A store keeping the payloads of representations in segment files on disk, while only an index of the
+ * representations and their headers is kept on the heap. Representations are appended to a {@link SegmentLog}, which is recovered when
+ * the store is created, so the store survives a restart. Replaced, invalidated and expired representations leave dead
+ * bytes in their segments, which are reclaimed by compacting the segments in the background.
+ * <p>
+ * All writes to the log are performed by a single writer thread, so request threads never block on the disk while a
+ * response is captured. Lookups are served from the index alone, payloads are read with positional reads off the
+ * event loop.
+ */
+public class FileStore implements Store, Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(FileStore.class);
+
+	private static final Duration CLOCK_RESOLUTION = Duration.ofMillis(10L);
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	private static final IndexEntry[] NO_ENTRIES = new IndexEntry[0];
+
+	private final ConcurrentMap<FileCacheKeyBuilder.FileCacheKey, IndexEntry[]> index;
+	private final CacheKeyProducer cacheKeyProducer;
+	private final VaryNormalizer varyNormalizer;
+	private final FileStoreConfiguration configuration;
+	private final FreshnessPolicy freshnessPolicy;
+	private final Duration staleRetention;
+	private final SegmentLog log;
+	private final ScheduledExecutorService writer;
+	private final CoarseClock clock;
+	private final AtomicLong pendingSize;
+
+	private final FileEvents events;
+	private final FileMetrics metrics;
+
+	FileStore(final CacheKeyProducer cacheKeyProducer,
+			  final FileStoreConfiguration configuration) throws IOException {
+		this(cacheKeyProducer, configuration, VaryNormalizer.NONE);
+	}
+
+	FileStore(final CacheKeyProducer cacheKeyProducer,
+			  final FileStoreConfiguration configuration,
+			  final VaryNormalizer varyNormalizer) throws IOException {
+		requireNonNull(cacheKeyProducer, "'cacheKeyProducer' must not be null!");
+		requireNonNull(configuration, "'configuration' must not be null!");
+		requireNonNull(varyNormalizer, "'varyNormalizer' must not be null!");
+		this.cacheKeyProducer = cacheKeyProducer;
+		this.varyNormalizer = varyNormalizer;
+		this.configuration = configuration;
+		this.freshnessPolicy = configuration.getFreshness();
+		this.staleRetention = configuration.getStaleRetention();
+		this.index = new ConcurrentHashMap<>();
+		this.pendingSize = new AtomicLong(0L);
+		this.log = new SegmentLog(configuration.getDirectory(), configuration.getSegmentSize());
+		recover();
+		// Appending, compaction and recovery of the log must be performed by a single thread.
+		this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "file-store-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.clock = new CoarseClock(writer, CLOCK_RESOLUTION);
+		this.events = new FileEvents();
+		this.metrics = new FileMetrics(this);
+		final long compactionInterval = configuration.getCompactionInterval().toMillis();
+		this.writer.scheduleWithFixedDelay(this::maintain, compactionInterval, compactionInterval, TimeUnit.MILLISECONDS);
+	}
+
+	private void recover() throws IOException {
+		final long now = System.currentTimeMillis();
+		log.recover(new SegmentLog.Visitor() {
+
+			@Override
+			public void put(final SegmentLog.Record record, final ByteBuffer metadata) {
+				if (record.reclaimAt <= now) {
+					log.markDead(record.segmentId, record.length());
+					return;
+				}
+				final Metadata decoded;
+				try {
+					decoded = Metadata.decode(metadata);
+				} catch (final IOException e) {
+					LOG.warn("Skipping record with invalid metadata in segment [{}] at offset [{}].",
+							record.segmentId, record.offset, e);
+					log.markDead(record.segmentId, record.length());
+					return;
+				}
+				add(new IndexEntry(new FileCacheKeyBuilder.FileCacheKey(record.key), record, decoded), now);
+			}
+
+			@Override
+			public void delete(final SegmentLog.Record record, final long targetSegmentId, final long targetOffset) {
+				log.markDead(record.segmentId, record.length());
+				final IndexEntry deleted = removeFromIndex(new FileCacheKeyBuilder.FileCacheKey(record.key),
+						entry -> entry.record.segmentId == targetSegmentId && entry.record.offset == targetOffset);
+				if (deleted != null) {
+					log.markDead(deleted.record.segmentId, deleted.record.length());
+				}
+			}
+		});
+		LOG.info("Recovered [{}] entries from [{}] segments in [{}].",
+				storedEntries(), log.segmentCount(), configuration.getDirectory());
+	}
+
+	@Override
+	public void close() {
+		writer.shutdown();
+		try {
+			if (!writer.awaitTermination(10L, TimeUnit.SECONDS)) {
+				LOG.warn("Pending writes of the file store did not complete in time.");
+				writer.shutdownNow();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		clock.close();
+		try {
+			log.close();
+		} catch (final IOException e) {
+			LOG.error("Failed to close segments in [{}]!", configuration.getDirectory(), e);
+		}
+	}
+
+	@Override
+	public FileEvents events() {
+		return events;
+	}
+
+	@Override
+	public FileMetrics metrics() {
+		return metrics;
+	}
+
+	SegmentLog log() {
+		return log;
+	}
+
+	long storedEntries() {
+		long storedEntries = 0L;
+		for (final IndexEntry[] entries : index.values()) {
+			storedEntries = storedEntries + entries.length;
+		}
+		return storedEntries;
+	}
+
+	private FileCacheKeyBuilder.FileCacheKey createKey(final ServerHttpRequest request) {
+		final FileCacheKeyBuilder cacheKeyBuilder = new FileCacheKeyBuilder();
+		cacheKeyProducer.createKey(request, cacheKeyBuilder);
+		return cacheKeyBuilder.build();
+	}
+
+	@Override
+	public Optional<? extends Entry> find(final ServerHttpRequest request) {
+		requireNonNull(request, "'request' must not be null!");
+
+		final long now = clock.millis();
+		final IndexEntry[] entries = index.getOrDefault(createKey(request), NO_ENTRIES);
+		for (final IndexEntry entry : entries) {
+			if (entry.reclaimAt > now
+					&& sameVariant(entry.varyRequestHeaders, varyNormalizer.normalize(entry.varyNames, request.getHeaders()))) {
+				return Optional.of(new FileEntry(this, entry));
+			}
+		}
+		return Optional.empty();
+	}
+
+	@Override
+	public Stream<FileEntry> find(final String cacheKey) {
+		requireNonNull(cacheKey, "'cacheKey' must not be null!");
+		try {
+			return find(FileCacheKeyBuilder.parse(cacheKey));
+		} catch (final IllegalArgumentException e) {
+			LOG.debug("Invalid cache key [{}]!", cacheKey, e);
+			return Stream.empty();
+		}
+	}
+
+	@Override
+	public Stream<FileEntry> find(final CacheKey cacheKey) {
+		requireNonNull(cacheKey, "'cacheKey' must not be null!");
+		if (cacheKey instanceof FileCacheKeyBuilder.FileCacheKey) {
+			final long now = clock.millis();
+			return Arrays.stream(index.getOrDefault(cacheKey, NO_ENTRIES))
+					.filter(entry -> entry.reclaimAt > now)
+					.map(entry -> new FileEntry(this, entry));
+		}
+		return Stream.empty();
+	}
+
+	/**
+	 * Retains the segment of an entry. The entry may be relocated by a concurrent compaction, in which case the
+	 * segment of its new location is retained. The record is returned along with the segment it was retained from,
+	 * as the record of the entry may change again right after.
+	 */
+	private RetainedRecord retain(final IndexEntry entry) throws IOException {
+		SegmentLog.Record record = entry.record;
+		for (; ; ) {
+			final SegmentLog.Segment segment = log.segment(record.segmentId);
+			if (segment != null && segment.retain()) {
+				return new RetainedRecord(segment, record);
+			}
+			final SegmentLog.Record relocated = entry.record;
+			if (relocated == record) {
+				throw new IOException(String.format("Segment of entry [%s] has been removed!", entry));
+			}
+			record = relocated;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Flux<? extends DataBuffer> asFlux(final Publisher<? extends DataBuffer> publisher) {
+		if (publisher instanceof Flux) {
+			return ((Flux<? extends DataBuffer>) publisher);
+		} else if (publisher instanceof Mono) {
+			return ((Mono<? extends DataBuffer>) publisher).flux();
+		}
+		throw new IllegalArgumentException(String.format("Type of [%s] is not supported!", publisher));
+	}
+
+	@Override
+	public ServerWebExchange write(final ServerWebExchange exchange) {
+		return write(exchange, -1L);
+	}
+
+	@Override
+	public ServerWebExchange write(final ServerWebExchange exchange, final long maximumSize) {
+		requireNonNull(exchange, "'exchange' must not be null!");
+
+		final long maximumEntrySize = maximumEntrySize(maximumSize);
+		final long contentLength = exchange.getResponse().getHeaders().getContentLength();
+		if (contentLength > maximumEntrySize) {
+			LOG.debug("Response for exchange [{}] exceeds the maximum size of [{}] bytes.", exchange, maximumEntrySize);
+			return exchange;
+		}
+		final Capture capture = new Capture(maximumEntrySize);
+		final ServerHttpResponseDecorator decorator = new ServerHttpResponseDecorator(exchange.getResponse()) {
+
+			@Override
+			public Mono<Void> writeWith(final Publisher<? extends DataBuffer> body) {
+				final Flux<? extends DataBuffer> flux = asFlux(body)
+						.doOnNext(buffer -> capture(exchange, capture, buffer))
+						.doFinally(signalType -> complete(exchange, capture, signalType));
+
+				return super.writeWith(flux);
+			}
+		};
+
+		return exchange.mutate().response(decorator).build();
+	}
+
+	/**
+	 * Returns the maximum size of the entry of a response, which is the smaller of the maximum entry size of the store
+	 * and the maximum size requested for the response.
+	 */
+	private long maximumEntrySize(final long maximumSize) {
+		final long configured = configuration.getMaximumEntrySize();
+		return maximumSize < 1L ? configured : Math.min(configured, maximumSize);
+	}
+
+	private void capture(final ServerWebExchange exchange,
+						 final Capture capture,
+						 final DataBuffer buffer) {
+		if (capture.dirty) {
+			return;
+		}
+		final int length = buffer.readableByteCount();
+		if (capture.size + length > capture.maximumSize) {
+			LOG.debug("Response for exchange [{}] exceeds the maximum entry size.", exchange);
+			discard(capture);
+			return;
+		}
+		if (pendingSize.addAndGet(length) > configuration.getMaximumPendingSize()) {
+			LOG.debug("Response for exchange [{}] exceeds the pending write budget.", exchange);
+			pendingSize.addAndGet(-length);
+			discard(capture);
+			return;
+		}
+		// The buffer is released once it has been written, so it has to be copied.
+		final ByteBuffer source = buffer.asByteBuffer();
+		final byte[] chunk = new byte[source.remaining()];
+		source.get(chunk);
+		capture.chunks.add(ByteBuffer.wrap(chunk));
+		capture.size = capture.size + length;
+	}
+
+	private void discard(final Capture capture) {
+		capture.dirty = true;
+		capture.chunks.clear();
+		pendingSize.addAndGet(-capture.size);
+		capture.size = 0L;
+	}
+
+	private void complete(final ServerWebExchange exchange,
+						  final Capture capture,
+						  final SignalType signalType) {
+		if (signalType != SignalType.ON_COMPLETE) {
+			LOG.debug("Response for exchange [{}] was not completed ({}).", exchange, signalType);
+			discard(capture);
+		}
+		if (capture.dirty) {
+			return;
+		}
+
+		final ServerHttpRequest request = exchange.getRequest();
+		final HttpHeaders responseHeaders = HttpHeaders.readOnlyHttpHeaders(exchange.getResponse().getHeaders());
+		final HttpHeaders varyHeaders = varyNormalizer.normalize(responseHeaders.getVary(), request.getHeaders());
+		final long now = clock.millis();
+		final long lifetime = freshnessPolicy.lifetime(responseHeaders, now);
+		final Metadata metadata = new Metadata(
+				request.getMethodValue(),
+				request.getHeaders().getFirst("Host"),
+				request.getURI().getPath(),
+				request.getURI().getQuery(),
+				freshnessPolicy.initialAge(responseHeaders),
+				varyHeaders,
+				responseHeaders
+		);
+		final FileCacheKeyBuilder.FileCacheKey key = createKey(request);
+		try {
+			writer.execute(() -> store(exchange, key, capture, metadata, now, lifetime));
+		} catch (final RejectedExecutionException e) {
+			LOG.debug("Store has been closed, response for exchange [{}] is not stored.", exchange);
+			discard(capture);
+		}
+	}
+
+	private void store(final ServerWebExchange exchange,
+					   final FileCacheKeyBuilder.FileCacheKey key,
+					   final Capture capture,
+					   final Metadata metadata,
+					   final long storedAt,
+					   final long lifetime) {
+		try {
+			final long expiresAt = storedAt - metadata.initialAge + lifetime;
+			final long reclaimAt = expiresAt + staleRetention(metadata.responseHeaders);
+			final SegmentLog.Record record = log.put(
+					key.bytes(), storedAt, expiresAt, reclaimAt, metadata.encode(), capture.chunks);
+			final IndexEntry entry = new IndexEntry(key, record, metadata);
+			add(entry, clock.millis());
+			events.publishResourceCached(exchange, new FileEntry(this, entry));
+		} catch (final IOException e) {
+			LOG.error("Failed to store response for exchange [{}]!", exchange, e);
+		} finally {
+			discard(capture);
+		}
+	}
+
+	/**
+	 * Returns how long an entry is retained after it has become stale, so it can be served while it is revalidated in
+	 * the background.
+	 */
+	private long staleRetention(final HttpHeaders responseHeaders) {
+		final long window = FreshnessPolicy.staleWhileRevalidate(responseHeaders, staleRetention).toMillis();
+		final boolean validated = StringUtils.hasText(responseHeaders.getETag())
+				|| StringUtils.hasText(responseHeaders.getFirst(HttpHeaders.LAST_MODIFIED));
+		return validated ? Math.max(window, staleRetention.toMillis()) : window;
+	}
+
+	/**
+	 * Adds an entry to the index. Entries of the same variant, entries of a different set of "Vary" headers and entries
+	 * past their retention are replaced. Must only be called by the writer thread or during recovery.
+	 */
+	private void add(final IndexEntry entry, final long now) {
+		final List<IndexEntry> replaced = new ArrayList<>();
+		index.compute(entry.key, (key, existing) -> {
+			final List<IndexEntry> entries = new ArrayList<>();
+			for (final IndexEntry candidate : existing != null ? existing : NO_ENTRIES) {
+				if (candidate.reclaimAt <= now
+						|| !candidate.varyNames.equals(entry.varyNames)
+						|| sameVariant(candidate.varyRequestHeaders, entry.varyRequestHeaders)) {
+					replaced.add(candidate);
+				} else {
+					entries.add(candidate);
+				}
+			}
+			entries.add(entry);
+			return entries.toArray(NO_ENTRIES);
+		});
+		replaced.forEach(candidate -> log.markDead(candidate.record.segmentId, candidate.record.length()));
+	}
+
+	private IndexEntry removeFromIndex(final FileCacheKeyBuilder.FileCacheKey key,
+									   final Predicate<IndexEntry> predicate) {
+		final IndexEntry[] removed = new IndexEntry[1];
+		index.computeIfPresent(key, (existingKey, existing) -> {
+			final List<IndexEntry> entries = new ArrayList<>(existing.length);
+			for (final IndexEntry candidate : existing) {
+				if (removed[0] == null && predicate.test(candidate)) {
+					removed[0] = candidate;
+				} else {
+					entries.add(candidate);
+				}
+			}
+			return entries.isEmpty() ? null : entries.toArray(NO_ENTRIES);
+		});
+		return removed[0];
+	}
+
+	private void remove(final IndexEntry entry) {
+		if (removeFromIndex(entry.key, candidate -> candidate == entry) == null) {
+			return;
+		}
+		try {
+			writer.execute(() -> {
+				// The entry may have been relocated by a compaction in the meantime.
+				final SegmentLog.Record record = entry.record;
+				log.markDead(record.segmentId, record.length());
+				try {
+					final SegmentLog.Record tombstone = log.delete(entry.key.bytes(), record.segmentId, record.offset);
+					log.markDead(tombstone.segmentId, tombstone.length());
+				} catch (final IOException e) {
+					LOG.error("Failed to write tombstone for entry [{}]!", entry, e);
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			LOG.debug("Store has been closed, tombstone for entry [{}] is not written.", entry);
+		}
+	}
+
+	private void maintain() {
+		try {
+			purge(clock.millis());
+			evict();
+			compact();
+		} catch (final Exception e) {
+			// An exception would cancel the periodic maintenance.
+			LOG.error("Maintenance of file store in [{}] failed!", configuration.getDirectory(), e);
+		}
+	}
+
+	private void purge(final long now) {
+		for (final FileCacheKeyBuilder.FileCacheKey key : index.keySet()) {
+			IndexEntry expired;
+			while ((expired = removeFromIndex(key, entry -> entry.reclaimAt <= now)) != null) {
+				log.markDead(expired.record.segmentId, expired.record.length());
+			}
+		}
+	}
+
+	private void evict() {
+		final long maximumSize = configuration.getMaximumSize();
+		if (maximumSize < 1L) {
+			return;
+		}
+		final Iterator<SegmentLog.Segment> sealed = log.sealedSegments().iterator();
+		while (log.size() > maximumSize && sealed.hasNext()) {
+			final SegmentLog.Segment segment = sealed.next();
+			for (final FileCacheKeyBuilder.FileCacheKey key : index.keySet()) {
+				while (removeFromIndex(key, entry -> entry.record.segmentId == segment.id) != null) {
+					// void
+				}
+			}
+			log.remove(segment);
+			LOG.debug("Evicted segment [{}].", segment);
+		}
+	}
+
+	private void compact() throws IOException {
+		for (final SegmentLog.Segment segment : log.sealedSegments()) {
+			if (segment.size() == 0L
+					|| segment.deadBytes() < segment.size() * configuration.getCompactionThreshold()) {
+				continue;
+			}
+			// The entries are collected, so a relocated entry is updated even if it is invalidated concurrently.
+			final Map<Long, IndexEntry> live = new HashMap<>();
+			log.compact(segment, new SegmentLog.Compactor() {
+
+				@Override
+				public boolean isLive(final SegmentLog.Record record) {
+					for (final IndexEntry entry : index.getOrDefault(new FileCacheKeyBuilder.FileCacheKey(record.key), NO_ENTRIES)) {
+						if (entry.record.segmentId == record.segmentId && entry.record.offset == record.offset) {
+							live.put(record.offset, entry);
+							return true;
+						}
+					}
+					return false;
+				}
+
+				@Override
+				public void relocated(final SegmentLog.Record from, final SegmentLog.Record to) {
+					live.get(from.offset).record = to;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Returns whether two sets of normalized request headers identify the same variant. The order of the values of a
+	 * header does not matter.
+	 */
+	private static boolean sameVariant(final HttpHeaders left, final HttpHeaders right) {
+		if (left.size() != right.size()) {
+			return false;
+		}
+		for (final Map.Entry<String, List<String>> header : left.entrySet()) {
+			final List<String> values = right.get(header.getKey());
+			if (values == null || values.size() != header.getValue().size()) {
+				return false;
+			}
+			if (values.equals(header.getValue())) {
+				continue;
+			}
+			final List<String> remaining = new ArrayList<>(values);
+			for (final String value : header.getValue()) {
+				if (!remaining.remove(value)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The payload of a response, which is captured while it is written to the client.
+	 */
+	private static final class Capture {
+
+		private final List<ByteBuffer> chunks = new ArrayList<>();
+		private final long maximumSize;
+		private long size;
+		private boolean dirty;
+
+		private Capture(final long maximumSize) {
+			this.maximumSize = maximumSize;
+		}
+	}
+
+	/**
+	 * The location, freshness and headers of a stored representation. The headers are decoded once, when the entry is
+	 * written or recovered, so a lookup never reads from the disk.
+	 */
+	private static final class IndexEntry {
+
+		private final FileCacheKeyBuilder.FileCacheKey key;
+		private final Metadata metadata;
+		private final HttpHeaders varyRequestHeaders;
+		private final Set<String> varyNames;
+		private final long storedAt;
+		private final long initialAge;
+		private final long expiresAt;
+		private final long reclaimAt;
+		private volatile SegmentLog.Record record;
+
+		private IndexEntry(final FileCacheKeyBuilder.FileCacheKey key,
+						   final SegmentLog.Record record,
+						   final Metadata metadata) {
+			this.key = key;
+			this.metadata = metadata;
+			this.varyRequestHeaders = metadata.varyRequestHeaders;
+			this.varyNames = new HashSet<>();
+			metadata.responseHeaders.getVary().forEach(name -> varyNames.add(name.toLowerCase(Locale.ROOT)));
+			this.storedAt = record.storedAt;
+			this.initialAge = metadata.initialAge;
+			this.expiresAt = record.expiresAt;
+			this.reclaimAt = record.reclaimAt;
+			this.record = record;
+		}
+
+		@Override
+		public String toString() {
+			return "IndexEntry{" +
+					"key=" + key +
+					", segmentId=" + record.segmentId +
+					", offset=" + record.offset +
+					'}';
+		}
+	}
+
+	/**
+	 * The request and the response headers of a representation, as they are stored in a record of the log.
+	 */
+	private static final class Metadata {
+
+		private final String method;
+		private final String host;
+		private final String path;
+		private final String query;
+		private final long initialAge;
+		private final HttpHeaders varyRequestHeaders;
+		private final HttpHeaders responseHeaders;
+
+		private Metadata(final String method,
+						 final String host,
+						 final String path,
+						 final String query,
+						 final long initialAge,
+						 final HttpHeaders varyRequestHeaders,
+						 final HttpHeaders responseHeaders) {
+			this.method = method;
+			this.host = host;
+			this.path = path;
+			this.query = query;
+			this.initialAge = initialAge;
+			this.varyRequestHeaders = varyRequestHeaders;
+			this.responseHeaders = responseHeaders;
+		}
+
+		ByteBuffer encode() throws IOException {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+			try (DataOutputStream output = new DataOutputStream(bytes)) {
+				writeString(output, method);
+				writeString(output, host);
+				writeString(output, path);
+				writeString(output, query);
+				output.writeLong(initialAge);
+				writeHeaders(output, varyRequestHeaders);
+				writeHeaders(output, responseHeaders);
+			}
+			return ByteBuffer.wrap(bytes.toByteArray());
+		}
+
+		static Metadata decode(final ByteBuffer metadata) throws IOException {
+			final byte[] bytes = new byte[metadata.remaining()];
+			metadata.duplicate().get(bytes);
+			try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes))) {
+				return new Metadata(
+						readString(input),
+						readString(input),
+						readString(input),
+						readString(input),
+						input.readLong(),
+						HttpHeaders.readOnlyHttpHeaders(readHeaders(input)),
+						HttpHeaders.readOnlyHttpHeaders(readHeaders(input))
+				);
+			}
+		}
+
+		private static void writeString(final DataOutputStream output, final String value) throws IOException {
+			if (value == null) {
+				output.writeInt(-1);
+				return;
+			}
+			final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			output.writeInt(bytes.length);
+			output.write(bytes);
+		}
+
+		private static String readString(final DataInputStream input) throws IOException {
+			final int length = input.readInt();
+			if (length < 0) {
+				return null;
+			}
+			final byte[] bytes = new byte[length];
+			input.readFully(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		private static void writeHeaders(final DataOutputStream output, final HttpHeaders headers) throws IOException {
+			output.writeInt(headers.size());
+			for (final Map.Entry<String, List<String>> header : headers.entrySet()) {
+				writeString(output, header.getKey());
+				output.writeInt(header.getValue().size());
+				for (final String value : header.getValue()) {
+					writeString(output, value);
+				}
+			}
+		}
+
+		private static HttpHeaders readHeaders(final DataInputStream input) throws IOException {
+			final HttpHeaders headers = new HttpHeaders();
+			final int size = input.readInt();
+			for (int i = 0; i < size; i++) {
+				final String name = readString(input);
+				final int values = input.readInt();
+				for (int j = 0; j < values; j++) {
+					headers.add(name, readString(input));
+				}
+			}
+			return headers;
+		}
+	}
+
+	private static class FileEntry implements Entry {
+
+		private final FileStore store;
+		private final IndexEntry entry;
+		private final Metadata metadata;
+
+		private FileEntry(final FileStore store, final IndexEntry entry) {
+			this.store = store;
+			this.entry = entry;
+			this.metadata = entry.metadata;
+		}
+
+		@Override
+		public CacheKey getKey() {
+			return entry.key;
+		}
+
+		@Override
+		public String getHttpMethod() {
+			return metadata.method;
+		}
+
+		@Override
+		public Optional<String> getHost() {
+			return Optional.ofNullable(metadata.host);
+		}
+
+		@Override
+		public String getPath() {
+			return metadata.path;
+		}
+
+		@Override
+		public Optional<String> getQuery() {
+			return Optional.ofNullable(metadata.query);
+		}
+
+		@Override
+		public HttpHeaders getRequestHeaders() {
+			return metadata.varyRequestHeaders;
+		}
+
+		@Override
+		public HttpHeaders getResponseHeaders() {
+			return metadata.responseHeaders;
+		}
+
+		@Override
+		public InputStream openStream() throws IOException {
+			return new SegmentInputStream(store.retain(entry));
+		}
+
+		@Override
+		public Payload openPayload() throws IOException {
+			return new SegmentPayload(store.retain(entry));
+		}
+
+		@Override
+		public long size() {
+			return entry.record.payloadLength;
+		}
+
+		@Override
+		public boolean isFresh() {
+			return store.clock.millis() < entry.expiresAt;
+		}
+
+		@Override
+		public Duration getAge() {
+			return Duration.ofMillis(Math.max(0L, store.clock.millis() - entry.storedAt) + entry.initialAge);
+		}
+
+		@Override
+		public Duration getLifetime() {
+			return Duration.ofMillis(entry.expiresAt - entry.storedAt + entry.initialAge);
+		}
+
+		@Override
+		public boolean isETagGenerated() {
+			return false;
+		}
+
+		@Override
+		public void invalidate() {
+			store.remove(entry);
+		}
+
+		@Override
+		public String toString() {
+			return "FileEntry{" +
+					"entry=" + entry +
+					'}';
+		}
+	}
+
+	/**
+	 * A record along with a reference to the segment it is located in.
+	 */
+	private static final class RetainedRecord {
+
+		private final SegmentLog.Segment segment;
+		private final SegmentLog.Record record;
+
+		private RetainedRecord(final SegmentLog.Segment segment, final SegmentLog.Record record) {
+			this.segment = segment;
+			this.record = record;
+		}
+	}
+
+	/**
+	 * A payload reading the payload of a record with positional reads. The payload takes over a reference to the
+	 * segment, which is released when the payload is closed.
+	 */
+	private static final class SegmentPayload implements Payload {
+
+		private final SegmentLog.Segment segment;
+		private final long payloadOffset;
+		private final long size;
+		private final AtomicBoolean closed;
+
+		private SegmentPayload(final RetainedRecord retained) {
+			this.segment = retained.segment;
+			this.payloadOffset = retained.record.payloadOffset();
+			this.size = retained.record.payloadLength;
+			this.closed = new AtomicBoolean(false);
+		}
+
+		@Override
+		public long size() {
+			return size;
+		}
+
+		@Override
+		public Flux<DataBuffer> read(final DataBufferFactory bufferFactory) {
+			return read(bufferFactory, 0L, size);
+		}
+
+		@Override
+		public Flux<DataBuffer> read(final DataBufferFactory bufferFactory, final long offset, final long length) {
+			requireNonNull(bufferFactory, "'bufferFactory' must not be null!");
+			if (offset < 0L || length < 0L || offset + length > size) {
+				throw new IllegalArgumentException(String.format(
+						"Range [%d, %d] exceeds the payload of %d bytes!", offset, length, size));
+			}
+			final long end = payloadOffset + offset + length;
+			// Reading from the disk must not block the event loop.
+			return Flux.<DataBuffer, Long>generate(() -> payloadOffset + offset, (position, sink) -> {
+				if (position >= end) {
+					sink.complete();
+					return position;
+				}
+				final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(READ_BUFFER_SIZE, end - position));
+				try {
+					segment.read(position, buffer);
+				} catch (final IOException e) {
+					sink.error(e);
+					return position;
+				}
+				buffer.flip();
+				sink.next(bufferFactory.wrap(buffer));
+				return position + buffer.remaining();
+			}).subscribeOn(Schedulers.elastic());
+		}
+
+		@Override
+		public void close() {
+			if (closed.compareAndSet(false, true)) {
+				segment.release();
+			}
+		}
+	}
+
+	/**
+	 * A stream reading the payload of a record with positional reads. The stream takes over a reference to the
+	 * segment, which is released when the stream is closed.
+	 */
+	private static final class SegmentInputStream extends InputStream {
+
+		private final SegmentLog.Segment segment;
+		private final long end;
+		private long position;
+		private boolean closed;
+
+		private SegmentInputStream(final RetainedRecord retained) {
+			this.segment = retained.segment;
+			this.position = retained.record.payloadOffset();
+			this.end = position + retained.record.payloadLength;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] single = new byte[1];
+			return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (closed) {
+				throw new IOException("Stream has been closed!");
+			}
+			if (len == 0) {
+				return 0;
+			}
+			if (position >= end) {
+				return -1;
+			}
+			final ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, end - position));
+			segment.read(position, buffer);
+			final int read = buffer.position() - off;
+			position = position + read;
+			return read;
+		}
+
+		@Override
+		public int available() {
+			return (int) Math.min(Integer.MAX_VALUE, end - position);
+		}
+
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				segment.release();
+			}
+		}
+	}
+}
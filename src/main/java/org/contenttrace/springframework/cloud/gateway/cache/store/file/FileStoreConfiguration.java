@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.file;
+
+import org.contenttrace.springframework.cloud.gateway.cache.FreshnessPolicy;
+import org.contenttrace.springframework.cloud.gateway.cache.store.StoreConfiguration;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+public class FileStoreConfiguration implements StoreConfiguration {
+
+	private Path directory = Paths.get(System.getProperty("java.io.tmpdir"), "gateway-cache");
+	private long segmentSize = 256L * 1024L * 1024L; // 256mb
+	private double compactionThreshold = 0.5d;
+	private Duration compactionInterval = Duration.ofMinutes(1L);
+	private long maximumSize = -1L; // bytes, unbounded if less than 1
+	private long maximumEntrySize = 64L * 1024L * 1024L; // 64mb
+	private long maximumPendingSize = 64L * 1024L * 1024L; // 64mb
+	private FreshnessPolicy freshness = new FreshnessPolicy();
+	private Duration staleRetention = Duration.ofMinutes(1L);
+
+	/**
+	 * Returns the directory of the segment files. The directory is created if it does not exist. Segments found in the
+	 * directory are recovered when the store is created, so the store survives a restart of the gateway. The directory
+	 * must not be shared by multiple stores.
+	 *
+	 * @return the directory
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public void setDirectory(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the size of a segment file, after which a new segment is started. Payloads larger than a segment are
+	 * written to a segment of their own.
+	 *
+	 * @return the size in bytes
+	 */
+	public long getSegmentSize() {
+		return segmentSize;
+	}
+
+	public void setSegmentSize(long segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Returns the ratio of dead bytes in a segment, i.e. bytes of replaced, invalidated or expired entries, above which
+	 * the live entries of the segment are copied to the active segment and the segment is deleted.
+	 *
+	 * @return the ratio between 0 and 1
+	 */
+	public double getCompactionThreshold() {
+		return compactionThreshold;
+	}
+
+	public void setCompactionThreshold(double compactionThreshold) {
+		this.compactionThreshold = compactionThreshold;
+	}
+
+	/**
+	 * Returns the interval, in which expired entries are purged and segments are compacted.
+	 *
+	 * @return the interval
+	 */
+	public Duration getCompactionInterval() {
+		return compactionInterval;
+	}
+
+	public void setCompactionInterval(Duration compactionInterval) {
+		this.compactionInterval = compactionInterval;
+	}
+
+	/**
+	 * Returns the maximum number of bytes of all segments. If the limit is exceeded, the oldest segments are deleted
+	 * with all their entries. The limit is disabled if the value is less than 1.
+	 *
+	 * @return the maximum size in bytes
+	 */
+	public long getMaximumSize() {
+		return maximumSize;
+	}
+
+	public void setMaximumSize(long maximumSize) {
+		this.maximumSize = maximumSize;
+	}
+
+	/**
+	 * Returns the maximum size of a single payload. Larger responses are passed through without being stored.
+	 *
+	 * @return the maximum size in bytes
+	 */
+	public long getMaximumEntrySize() {
+		return maximumEntrySize;
+	}
+
+	public void setMaximumEntrySize(long maximumEntrySize) {
+		this.maximumEntrySize = maximumEntrySize;
+	}
+
+	/**
+	 * Returns the maximum number of bytes captured on the heap, which have not been written to a segment yet. Responses
+	 * exceeding the budget are passed through without being stored, so a slow disk does not exhaust the heap.
+	 *
+	 * @return the maximum size in bytes
+	 */
+	public long getMaximumPendingSize() {
+		return maximumPendingSize;
+	}
+
+	public void setMaximumPendingSize(long maximumPendingSize) {
+		this.maximumPendingSize = maximumPendingSize;
+	}
+
+	public FreshnessPolicy getFreshness() {
+		return freshness;
+	}
+
+	public void setFreshness(FreshnessPolicy freshness) {
+		this.freshness = freshness;
+	}
+
+	/**
+	 * Returns how long entries are retained after they have become stale, so they can be served while they are
+	 * revalidated in the background. Entries carrying a longer "stale-while-revalidate" directive are retained for the
+	 * window of the directive.
+	 *
+	 * @return the retention
+	 */
+	public Duration getStaleRetention() {
+		return staleRetention;
+	}
+
+	public void setStaleRetention(Duration staleRetention) {
+		this.staleRetention = staleRetention;
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.file;
+
+import org.contenttrace.springframework.cloud.gateway.cache.store.CacheKeyProducer;
+import org.contenttrace.springframework.cloud.gateway.cache.store.Store;
+import org.contenttrace.springframework.cloud.gateway.cache.store.StoreFactory;
+import org.contenttrace.springframework.cloud.gateway.cache.store.VaryNormalizer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Objects;
+
+public class FileStoreFactory implements StoreFactory {
+
+	private final FileStoreConfiguration configuration;
+	private final VaryNormalizer varyNormalizer;
+
+	public FileStoreFactory(FileStoreConfiguration configuration) {
+		this(configuration, VaryNormalizer.NONE);
+	}
+
+	public FileStoreFactory(FileStoreConfiguration configuration, VaryNormalizer varyNormalizer) {
+		Objects.requireNonNull(configuration, "A configuration is required!");
+		Objects.requireNonNull(varyNormalizer, "A vary normalizer is required!");
+		this.configuration = configuration;
+		this.varyNormalizer = varyNormalizer;
+	}
+
+	@Override
+	public Store createInstance(final CacheKeyProducer cacheKeyProducer) {
+		Objects.requireNonNull(cacheKeyProducer, "A cache key producer is required!");
+		try {
+			return new FileStore(cacheKeyProducer, configuration, varyNormalizer);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(
+					String.format("Failed to open file store in directory [%s]!", configuration.getDirectory()), e);
+		}
+	}
+}
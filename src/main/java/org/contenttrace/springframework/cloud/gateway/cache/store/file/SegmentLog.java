@@ -0,0 +1,620 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.file;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An append-only log of records, which is split into segment files of a bounded size. Records are only appended to
+ * the last (active) segment, while all segments can be read with positional reads at any time. Appending, compaction
+ * and recovery must be performed by a single thread.
+ * <p>
+ * A record consists of a fixed size header, the metadata, a checksum of header and metadata, and the payload. The
+ * payload is not covered by the checksum, so the segments can be recovered without reading the payloads. A record
+ * torn by a crash is detected by its length exceeding the segment.
+ */
+final class SegmentLog implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SegmentLog.class);
+
+	static final byte PUT = 1;
+	static final byte DELETE = 2;
+	static final int KEY_LENGTH = 32;
+
+	private static final int MAGIC = 0x53474331;
+	// magic, type, key, stored at, expires at, reclaim at, metadata length, payload length
+	private static final int HEADER_LENGTH = 4 + 1 + KEY_LENGTH + 8 + 8 + 8 + 4 + 8;
+	private static final int CHECKSUM_LENGTH = 4;
+	private static final int DELETE_METADATA_LENGTH = 16;
+	private static final String SEGMENT_SUFFIX = ".segment";
+
+	/**
+	 * A record of the log.
+	 */
+	static final class Record {
+
+		final long segmentId;
+		final long offset;
+		final byte type;
+		final byte[] key;
+		final long storedAt;
+		final long expiresAt;
+		final long reclaimAt;
+		final int metadataLength;
+		final long payloadLength;
+
+		Record(final long segmentId,
+			   final long offset,
+			   final byte type,
+			   final byte[] key,
+			   final long storedAt,
+			   final long expiresAt,
+			   final long reclaimAt,
+			   final int metadataLength,
+			   final long payloadLength) {
+			this.segmentId = segmentId;
+			this.offset = offset;
+			this.type = type;
+			this.key = key;
+			this.storedAt = storedAt;
+			this.expiresAt = expiresAt;
+			this.reclaimAt = reclaimAt;
+			this.metadataLength = metadataLength;
+			this.payloadLength = payloadLength;
+		}
+
+		long length() {
+			return HEADER_LENGTH + metadataLength + CHECKSUM_LENGTH + payloadLength;
+		}
+
+		long metadataOffset() {
+			return offset + HEADER_LENGTH;
+		}
+
+		long payloadOffset() {
+			return offset + HEADER_LENGTH + metadataLength + CHECKSUM_LENGTH;
+		}
+	}
+
+	/**
+	 * Receives the records of a segment, while it is scanned.
+	 */
+	interface Visitor {
+
+		/**
+		 * Called for each record storing a payload.
+		 *
+		 * @param record   the record
+		 * @param metadata the metadata of the record
+		 */
+		void put(Record record, ByteBuffer metadata);
+
+		/**
+		 * Called for each record deleting a previous record.
+		 *
+		 * @param record          the deleting record
+		 * @param targetSegmentId the segment of the deleted record
+		 * @param targetOffset    the offset of the deleted record
+		 */
+		void delete(Record record, long targetSegmentId, long targetOffset);
+	}
+
+	/**
+	 * Decides which records survive the compaction of a segment.
+	 */
+	interface Compactor {
+
+		/**
+		 * Returns whether a record storing a payload is still referenced.
+		 *
+		 * @param record the record
+		 * @return {@code true} if the record must be kept
+		 */
+		boolean isLive(Record record);
+
+		/**
+		 * Called once a record has been copied to the active segment. The record is dead, if the copy is not used.
+		 *
+		 * @param from the record in the compacted segment
+		 * @param to   the copy in the active segment
+		 */
+		void relocated(Record from, Record to);
+	}
+
+	/**
+	 * A segment file. Readers retain the segment, so it is deleted only after the last reader has released it.
+	 */
+	static final class Segment {
+
+		final long id;
+		private final Path path;
+		private final FileChannel channel;
+		private final AtomicLong deadBytes;
+		private final AtomicInteger references;
+		private volatile long size;
+
+		private Segment(final long id, final Path path, final FileChannel channel, final long size) {
+			this.id = id;
+			this.path = path;
+			this.channel = channel;
+			this.deadBytes = new AtomicLong(0L);
+			this.references = new AtomicInteger(1);
+			this.size = size;
+		}
+
+		long size() {
+			return size;
+		}
+
+		long deadBytes() {
+			return deadBytes.get();
+		}
+
+		/**
+		 * Reads bytes of the segment into the buffer, until the buffer is full.
+		 *
+		 * @param position the position in the segment
+		 * @param target   the buffer
+		 * @throws IOException if the segment ends before the buffer is full
+		 */
+		void read(final long position, final ByteBuffer target) throws IOException {
+			long current = position;
+			while (target.hasRemaining()) {
+				final int read = channel.read(target, current);
+				if (read < 0) {
+					throw new EOFException(String.format("Unexpected end of segment [%s]!", path));
+				}
+				current = current + read;
+			}
+		}
+
+		/**
+		 * Retains the segment for reading.
+		 *
+		 * @return {@code false} if the segment has already been deleted
+		 */
+		boolean retain() {
+			for (; ; ) {
+				final int current = references.get();
+				if (current <= 0) {
+					return false;
+				}
+				if (references.compareAndSet(current, current + 1)) {
+					return true;
+				}
+			}
+		}
+
+		void release() {
+			if (references.decrementAndGet() == 0) {
+				try {
+					channel.close();
+					Files.deleteIfExists(path);
+					LOG.debug("Deleted segment [{}].", path);
+				} catch (final IOException e) {
+					LOG.warn("Failed to delete segment [{}]!", path, e);
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "Segment{" +
+					"path=" + path +
+					", size=" + size +
+					", deadBytes=" + deadBytes +
+					'}';
+		}
+	}
+
+	private final Path directory;
+	private final long segmentSize;
+	private final ConcurrentNavigableMap<Long, Segment> segments;
+	private final AtomicLong size;
+	private Segment active;
+
+	/**
+	 * Opens the log in the given directory. Existing segments are opened, but not scanned.
+	 *
+	 * @param directory   the directory of the segment files
+	 * @param segmentSize the size, after which a new segment is started
+	 * @throws IOException if the segments cannot be opened
+	 */
+	SegmentLog(final Path directory, final long segmentSize) throws IOException {
+		requireNonNull(directory, "'directory' must not be null!");
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.segments = new ConcurrentSkipListMap<>();
+		this.size = new AtomicLong(0L);
+
+		Files.createDirectories(directory);
+		try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+			for (final Path path : paths) {
+				final String name = path.getFileName().toString();
+				final long id;
+				try {
+					id = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+				} catch (final NumberFormatException e) {
+					LOG.warn("Ignoring unexpected file [{}] in segment directory.", path);
+					continue;
+				}
+				final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+				segments.put(id, new Segment(id, path, channel, channel.size()));
+				size.addAndGet(channel.size());
+			}
+		}
+		this.active = segments.isEmpty() ? null : segments.lastEntry().getValue();
+	}
+
+	/**
+	 * Returns the segment with the given id.
+	 *
+	 * @param segmentId the id
+	 * @return the segment or {@code null} if it has been removed
+	 */
+	Segment segment(final long segmentId) {
+		return segments.get(segmentId);
+	}
+
+	/**
+	 * Returns all segments, except the active one, in the order they have been written.
+	 *
+	 * @return the sealed segments
+	 */
+	List<Segment> sealedSegments() {
+		final List<Segment> sealed = new ArrayList<>(segments.values());
+		sealed.remove(active);
+		return sealed;
+	}
+
+	/**
+	 * Returns the number of bytes of all segments.
+	 *
+	 * @return the size in bytes
+	 */
+	long size() {
+		return size.get();
+	}
+
+	int segmentCount() {
+		return segments.size();
+	}
+
+	long deadBytes() {
+		long deadBytes = 0L;
+		for (final Segment segment : segments.values()) {
+			deadBytes = deadBytes + segment.deadBytes();
+		}
+		return deadBytes;
+	}
+
+	/**
+	 * Marks a record as dead, so its segment is compacted once enough of its records are dead.
+	 *
+	 * @param segmentId the segment of the record
+	 * @param length    the length of the record
+	 */
+	void markDead(final long segmentId, final long length) {
+		final Segment segment = segments.get(segmentId);
+		if (segment != null) {
+			segment.deadBytes.addAndGet(length);
+		}
+	}
+
+	/**
+	 * Appends a record storing a payload.
+	 *
+	 * @param key       the key of the record
+	 * @param storedAt  the time the record was stored
+	 * @param expiresAt the time the record becomes stale
+	 * @param reclaimAt the time after which the record is not needed any more
+	 * @param metadata  the metadata
+	 * @param payload   the payload
+	 * @return the record
+	 * @throws IOException if the record cannot be written
+	 */
+	Record put(final byte[] key,
+			   final long storedAt,
+			   final long expiresAt,
+			   final long reclaimAt,
+			   final ByteBuffer metadata,
+			   final List<ByteBuffer> payload) throws IOException {
+		long payloadLength = 0L;
+		for (final ByteBuffer buffer : payload) {
+			payloadLength = payloadLength + buffer.remaining();
+		}
+		final List<ByteBuffer> buffers = new ArrayList<>(payload.size() + 3);
+		final Record record = append(PUT, key, storedAt, expiresAt, reclaimAt, metadata, payloadLength, buffers);
+		for (final ByteBuffer buffer : payload) {
+			buffers.add(buffer.duplicate());
+		}
+		return write(record, buffers);
+	}
+
+	/**
+	 * Appends a record deleting a previous record.
+	 *
+	 * @param key             the key of the deleted record
+	 * @param targetSegmentId the segment of the deleted record
+	 * @param targetOffset    the offset of the deleted record
+	 * @return the record
+	 * @throws IOException if the record cannot be written
+	 */
+	Record delete(final byte[] key, final long targetSegmentId, final long targetOffset) throws IOException {
+		final ByteBuffer metadata = ByteBuffer.allocate(DELETE_METADATA_LENGTH);
+		metadata.putLong(targetSegmentId).putLong(targetOffset).flip();
+		final List<ByteBuffer> buffers = new ArrayList<>(3);
+		final Record record = append(DELETE, key, 0L, 0L, 0L, metadata, 0L, buffers);
+		return write(record, buffers);
+	}
+
+	private Record append(final byte type,
+						  final byte[] key,
+						  final long storedAt,
+						  final long expiresAt,
+						  final long reclaimAt,
+						  final ByteBuffer metadata,
+						  final long payloadLength,
+						  final List<ByteBuffer> buffers) throws IOException {
+		final int metadataLength = metadata.remaining();
+		final long length = HEADER_LENGTH + metadataLength + CHECKSUM_LENGTH + payloadLength;
+		final Segment segment = activeSegment(length);
+
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		header.putInt(MAGIC)
+				.put(type)
+				.put(key, 0, KEY_LENGTH)
+				.putLong(storedAt)
+				.putLong(expiresAt)
+				.putLong(reclaimAt)
+				.putInt(metadataLength)
+				.putLong(payloadLength)
+				.flip();
+		final CRC32 checksum = new CRC32();
+		checksum.update(header.duplicate());
+		checksum.update(metadata.duplicate());
+		final ByteBuffer trailer = ByteBuffer.allocate(CHECKSUM_LENGTH);
+		trailer.putInt((int) checksum.getValue()).flip();
+
+		buffers.add(header);
+		buffers.add(metadata.duplicate());
+		buffers.add(trailer);
+		return new Record(segment.id, segment.size, type, key, storedAt, expiresAt, reclaimAt, metadataLength, payloadLength);
+	}
+
+	private Record write(final Record record, final List<ByteBuffer> buffers) throws IOException {
+		final Segment segment = segments.get(record.segmentId);
+		final ByteBuffer[] sources = buffers.toArray(new ByteBuffer[0]);
+		segment.channel.position(record.offset);
+		long remaining = record.length();
+		try {
+			while (remaining > 0L) {
+				remaining = remaining - segment.channel.write(sources);
+			}
+		} catch (final IOException e) {
+			// The partial record is overwritten by the next record.
+			segment.channel.truncate(record.offset);
+			throw e;
+		}
+		segment.size = record.offset + record.length();
+		size.addAndGet(record.length());
+		return record;
+	}
+
+	private Segment activeSegment(final long length) throws IOException {
+		if (active != null && (active.size == 0L || active.size + length <= segmentSize)) {
+			return active;
+		}
+		if (active != null) {
+			active.channel.force(false);
+		}
+		final long id = segments.isEmpty() ? 1L : segments.lastKey() + 1L;
+		final Path path = directory.resolve(String.format("%020d%s", id, SEGMENT_SUFFIX));
+		final FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		active = new Segment(id, path, channel, 0L);
+		segments.put(id, active);
+		LOG.debug("Started segment [{}].", path);
+		return active;
+	}
+
+	/**
+	 * Scans all segments in the order they have been written. A record torn by a crash ends the scan of its segment.
+	 * The active segment is truncated to its last complete record, so new records are appended after it.
+	 *
+	 * @param visitor the visitor receiving the records
+	 * @throws IOException if a segment cannot be read
+	 */
+	void recover(final Visitor visitor) throws IOException {
+		for (final Segment segment : segments.values()) {
+			final long end = scan(segment, visitor);
+			if (end < segment.size) {
+				LOG.warn("Segment [{}] is corrupt after offset [{}].", segment.path, end);
+				if (segment == active) {
+					segment.channel.truncate(end);
+					size.addAndGet(end - segment.size);
+					segment.size = end;
+				} else {
+					segment.deadBytes.addAndGet(segment.size - end);
+				}
+			}
+		}
+	}
+
+	private long scan(final Segment segment, final Visitor visitor) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		long offset = 0L;
+		while (offset + HEADER_LENGTH + CHECKSUM_LENGTH <= segment.size) {
+			header.clear();
+			segment.read(offset, header);
+			header.flip();
+			if (header.getInt() != MAGIC) {
+				return offset;
+			}
+			final byte type = header.get();
+			final byte[] key = new byte[KEY_LENGTH];
+			header.get(key);
+			final long storedAt = header.getLong();
+			final long expiresAt = header.getLong();
+			final long reclaimAt = header.getLong();
+			final int metadataLength = header.getInt();
+			final long payloadLength = header.getLong();
+			if (metadataLength < 0 || payloadLength < 0L) {
+				return offset;
+			}
+			final Record record = new Record(segment.id, offset, type, key, storedAt, expiresAt, reclaimAt, metadataLength, payloadLength);
+			if (offset + record.length() > segment.size) {
+				return offset;
+			}
+
+			final ByteBuffer metadata = ByteBuffer.allocate(metadataLength + CHECKSUM_LENGTH);
+			segment.read(record.metadataOffset(), metadata);
+			metadata.flip();
+			final CRC32 checksum = new CRC32();
+			header.flip();
+			checksum.update(header);
+			checksum.update((ByteBuffer) metadata.duplicate().limit(metadataLength));
+			if ((int) checksum.getValue() != metadata.getInt(metadataLength)) {
+				return offset;
+			}
+			metadata.limit(metadataLength);
+
+			if (type == PUT) {
+				visitor.put(record, metadata);
+			} else if (type == DELETE && metadataLength == DELETE_METADATA_LENGTH) {
+				visitor.delete(record, metadata.getLong(0), metadata.getLong(8));
+			}
+			offset = offset + record.length();
+		}
+		return offset;
+	}
+
+	/**
+	 * Copies the live records of a sealed segment to the active segment and removes the segment afterwards. Records
+	 * deleting a record of a segment, which still exists, are copied as well, so the deleted record is not recovered.
+	 *
+	 * @param segment   the segment
+	 * @param compactor the compactor deciding which records are live
+	 * @throws IOException if the segment cannot be compacted
+	 */
+	void compact(final Segment segment, final Compactor compactor) throws IOException {
+		if (segment == active) {
+			throw new IllegalArgumentException("The active segment cannot be compacted!");
+		}
+		final List<Record> copies = new ArrayList<>();
+		scan(segment, new Visitor() {
+
+			@Override
+			public void put(final Record record, final ByteBuffer metadata) {
+				if (compactor.isLive(record)) {
+					copies.add(record);
+				}
+			}
+
+			@Override
+			public void delete(final Record record, final long targetSegmentId, final long targetOffset) {
+				if (targetSegmentId != segment.id && segments.containsKey(targetSegmentId)) {
+					copies.add(record);
+				}
+			}
+		});
+
+		final List<Map.Entry<Record, Record>> relocations = new ArrayList<>(copies.size());
+		for (final Record copy : copies) {
+			relocations.add(new AbstractMap.SimpleImmutableEntry<>(copy, transfer(segment, copy)));
+		}
+		// The copies must be durable, before the original records are gone.
+		if (active != null) {
+			active.channel.force(false);
+		}
+		for (final Map.Entry<Record, Record> relocation : relocations) {
+			if (relocation.getKey().type == PUT) {
+				compactor.relocated(relocation.getKey(), relocation.getValue());
+			} else {
+				markDead(relocation.getValue().segmentId, relocation.getValue().length());
+			}
+		}
+		remove(segment);
+		LOG.debug("Compacted segment [{}], relocated [{}] records.", segment.path, relocations.size());
+	}
+
+	private Record transfer(final Segment source, final Record record) throws IOException {
+		final Segment target = activeSegment(record.length());
+		final long offset = target.size;
+		target.channel.position(offset);
+		long transferred = 0L;
+		while (transferred < record.length()) {
+			final long count = source.channel.transferTo(
+					record.offset + transferred, record.length() - transferred, target.channel);
+			if (count <= 0L) {
+				target.channel.truncate(offset);
+				throw new EOFException(String.format("Unexpected end of segment [%s]!", source.path));
+			}
+			transferred = transferred + count;
+		}
+		target.size = offset + record.length();
+		size.addAndGet(record.length());
+		return new Record(target.id, offset, record.type, record.key, record.storedAt, record.expiresAt,
+				record.reclaimAt, record.metadataLength, record.payloadLength);
+	}
+
+	/**
+	 * Removes a sealed segment from the log. The file is deleted once all readers have released it.
+	 *
+	 * @param segment the segment
+	 */
+	void remove(final Segment segment) {
+		if (segments.remove(segment.id, segment)) {
+			size.addAndGet(-segment.size);
+			segment.release();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (final Segment segment : segments.values()) {
+			try {
+				segment.channel.force(false);
+			} finally {
+				segment.channel.close();
+			}
+		}
+		segments.clear();
+		active = null;
+	}
+}
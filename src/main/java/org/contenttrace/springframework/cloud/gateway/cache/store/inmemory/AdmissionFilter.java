@@ -0,0 +1,206 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Decides whether the response for a key is worth capturing, based on how often the key has been seen recently. Keys
+ * seen for the first time in a window only set the bits of a Bloom filter, the doorkeeper, so the one-hit wonders
+ * generated by crawlers and long-tail queries do not occupy the sketch. Keys seen again are counted in a count-min
+ * sketch of 4-bit counters. The frequency of a key is estimated as the smallest of its counters plus its doorkeeper bit,
+ * and a key is admitted once it has been seen more often than the threshold.
+ * <p>
+ * The frequencies are aged periodically: once the sketch has recorded ten times as many sightings as the expected
+ * number of distinct keys, all counters are halved and the doorkeeper is cleared. Counters and bits are updated
+ * without locks, a sighting lost to a concurrent update or reset merely delays the admission of a key.
+ */
+final class AdmissionFilter {
+
+	/**
+	 * The maximum threshold, a key seen more often saturates its counters.
+	 */
+	static final int MAXIMUM_THRESHOLD = 15;
+
+	private static final long[] SEEDS = {
+			0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+	};
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final int SAMPLE_FACTOR = 10;
+
+	private final int threshold;
+	private final AtomicLongArray table;
+	private final int tableMask;
+	private final AtomicLongArray doorkeeper;
+	private final int doorkeeperMask;
+	private final int sampleSize;
+	private final AtomicInteger sightings;
+
+	/**
+	 * Creates a filter.
+	 *
+	 * @param threshold    the number of times a key must have been seen, before it is admitted
+	 * @param expectedKeys the expected number of distinct keys seen in a window
+	 */
+	AdmissionFilter(final int threshold, final int expectedKeys) {
+		if (threshold < 1 || threshold > MAXIMUM_THRESHOLD) {
+			throw new IllegalArgumentException(String.format(
+					"Threshold must be between 1 and %d, but was %d!", MAXIMUM_THRESHOLD, threshold));
+		}
+		final int size = ceilingPowerOfTwo(Math.max(64, Math.min(expectedKeys, 1 << 26)));
+		this.threshold = threshold;
+		// Each long holds 16 counters, a key uses four of them, each in a different long.
+		this.table = new AtomicLongArray(size);
+		this.tableMask = size - 1;
+		// The doorkeeper has eight bits per expected key.
+		this.doorkeeper = new AtomicLongArray(size / 8);
+		this.doorkeeperMask = size * 8 - 1;
+		this.sampleSize = SAMPLE_FACTOR * size;
+		this.sightings = new AtomicInteger();
+	}
+
+	private static int ceilingPowerOfTwo(final int value) {
+		return 1 << -Integer.numberOfLeadingZeros(value - 1);
+	}
+
+	private static int spread(final int hashCode) {
+		int hash = hashCode * 0x9e3779b9;
+		hash ^= hash >>> 16;
+		return hash;
+	}
+
+	/**
+	 * Records a sighting of a key and returns whether the key has been seen more often than the threshold.
+	 *
+	 * @param key the key
+	 * @return {@code true} if the response for the key should be captured
+	 */
+	boolean admit(final InMemoryCacheKey key) {
+		requireNonNull(key, "'key' must not be null!");
+		final int hash = spread(key.hashCode());
+		// The first sighting in a window is recorded by the doorkeeper, all later ones by the sketch.
+		final int frequency = 1 + (putDoorkeeper(hash) ? increment(hash) : count(hash));
+		if (sightings.incrementAndGet() == sampleSize) {
+			reset();
+		}
+		return frequency > threshold;
+	}
+
+	/**
+	 * Returns the estimated number of sightings of a key in the current window, without recording one.
+	 *
+	 * @param key the key
+	 * @return the estimated frequency
+	 */
+	int frequency(final InMemoryCacheKey key) {
+		requireNonNull(key, "'key' must not be null!");
+		final int hash = spread(key.hashCode());
+		return (containsDoorkeeper(hash) ? 1 : 0) + count(hash);
+	}
+
+	/**
+	 * Sets the bits of a key in the doorkeeper and returns whether all of them have already been set.
+	 */
+	private boolean putDoorkeeper(final int hash) {
+		boolean present = true;
+		for (int i = 0; i < 2; i++) {
+			final int bit = doorkeeperBit(hash, i);
+			final long mask = 1L << bit;
+			final long bits = doorkeeper.getAndAccumulate(bit >>> 6, mask, (current, update) -> current | update);
+			present &= (bits & mask) != 0L;
+		}
+		return present;
+	}
+
+	private boolean containsDoorkeeper(final int hash) {
+		for (int i = 0; i < 2; i++) {
+			final int bit = doorkeeperBit(hash, i);
+			if ((doorkeeper.get(bit >>> 6) & (1L << bit)) == 0L) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int doorkeeperBit(final int hash, final int i) {
+		long bit = (hash + SEEDS[i + 2]) * SEEDS[i + 2];
+		bit += bit >>> 32;
+		return (int) bit & doorkeeperMask;
+	}
+
+	/**
+	 * Returns the smallest of the four counters of a key.
+	 */
+	private int count(final int hash) {
+		final int start = (hash & 3) << 2;
+		int frequency = MAXIMUM_THRESHOLD;
+		for (int i = 0; i < 4; i++) {
+			final int offset = (start + i) << 2;
+			frequency = Math.min(frequency, (int) ((table.get(indexOf(hash, i)) >>> offset) & 0xfL));
+		}
+		return frequency;
+	}
+
+	/**
+	 * Increments the four counters of a key, unless they are saturated, and returns the smallest of them afterwards.
+	 */
+	private int increment(final int hash) {
+		// The counters of a key are chosen from the same quarter of each long, selected by its hash.
+		final int start = (hash & 3) << 2;
+		int frequency = MAXIMUM_THRESHOLD;
+		for (int i = 0; i < 4; i++) {
+			final int index = indexOf(hash, i);
+			final int offset = (start + i) << 2;
+			final long mask = 0xfL << offset;
+			long current;
+			do {
+				current = table.get(index);
+				if ((current & mask) == mask) {
+					break;
+				}
+			} while (!table.compareAndSet(index, current, current + (1L << offset)));
+			final int count = (int) ((current >>> offset) & 0xfL);
+			frequency = Math.min(frequency, count < MAXIMUM_THRESHOLD ? count + 1 : count);
+		}
+		return frequency;
+	}
+
+	private int indexOf(final int hash, final int i) {
+		long index = (hash + SEEDS[i]) * SEEDS[i];
+		index += index >>> 32;
+		return (int) index & tableMask;
+	}
+
+	/**
+	 * Halves all counters and clears the doorkeeper, so keys, which are not requested any more, lose their admission.
+	 */
+	private void reset() {
+		for (int i = 0; i < table.length(); i++) {
+			long current;
+			do {
+				current = table.get(i);
+			} while (!table.compareAndSet(i, current, (current >>> 1) & RESET_MASK));
+		}
+		for (int i = 0; i < doorkeeper.length(); i++) {
+			doorkeeper.set(i, 0L);
+		}
+		// Halving the counters keeps about half of the sightings of the window.
+		sightings.addAndGet(-sampleSize / 2);
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.util.StringUtils;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Decides which payloads are compressed with the gzip content coding at rest, and derives the headers of the stored
+ * compressed representation as well as of the decompressed representation served to clients not accepting gzip.
+ * <p>
+ * The compressed representation keeps the entity tag of the response, so it is still matched by the strong comparison of
+ * "If-Range". The entity tag of the decompressed representation is weakened, as its bytes are produced on the fly. A
+ * weak entity tag is still matched by conditional requests, which use the weak comparison for "If-None-Match".
+ */
+final class ContentCodings {
+
+	static final String GZIP = "gzip";
+
+	private static final String X_GZIP = "x-gzip";
+	private static final String IDENTITY = "identity";
+	private static final String WILDCARD = "*";
+	private static final String WEAK_PREFIX = "W/";
+
+	/**
+	 * Returns whether a response is compressed, before it is stored. Responses, which already have a content coding,
+	 * are stored as they are.
+	 *
+	 * @param responseHeaders the headers of the response
+	 * @param configuration   the configuration of the store
+	 * @return {@code true} if the payload is compressed
+	 */
+	static boolean isCompressible(final HttpHeaders responseHeaders, final InMemoryStoreConfiguration configuration) {
+		final String contentEncoding = responseHeaders.getFirst(HttpHeaders.CONTENT_ENCODING);
+		if (StringUtils.hasText(contentEncoding) && !IDENTITY.equalsIgnoreCase(contentEncoding.trim())) {
+			return false;
+		}
+		if (responseHeaders.getVary().contains(WILDCARD)) {
+			return false;
+		}
+		final long contentLength = responseHeaders.getContentLength();
+		if (contentLength >= 0L && contentLength < configuration.getCompressionMinimumSize()) {
+			return false;
+		}
+		final String contentType = responseHeaders.getFirst(HttpHeaders.CONTENT_TYPE);
+		if (!StringUtils.hasText(contentType)) {
+			return false;
+		}
+		try {
+			final MediaType mediaType = MediaType.parseMediaType(contentType);
+			return configuration.getCompressibleMediaTypes().stream().anyMatch(type -> type.includes(mediaType));
+		} catch (final InvalidMediaTypeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns whether a request accepts the gzip content coding (RFC 7231, section 5.3.4). A request without an
+	 * "Accept-Encoding" header is served the decompressed payload, as many clients do not send the header, but cannot
+	 * handle a content coding.
+	 *
+	 * @param requestHeaders the headers of the request
+	 * @return {@code true} if the compressed payload can be served
+	 */
+	static boolean acceptsGzip(final HttpHeaders requestHeaders) {
+		final List<String> acceptEncoding = requestHeaders.getValuesAsList(HttpHeaders.ACCEPT_ENCODING);
+		Boolean wildcard = null;
+		for (final String coding : acceptEncoding) {
+			final String[] parameters = StringUtils.delimitedListToStringArray(coding, ";");
+			final String name = parameters[0].trim().toLowerCase(Locale.ROOT);
+			final boolean acceptable = quality(parameters) > 0d;
+			if (GZIP.equals(name) || X_GZIP.equals(name)) {
+				return acceptable;
+			}
+			if (WILDCARD.equals(name)) {
+				wildcard = acceptable;
+			}
+		}
+		return wildcard != null && wildcard;
+	}
+
+	private static double quality(final String[] parameters) {
+		for (int i = 1; i < parameters.length; i++) {
+			final String parameter = parameters[i].trim();
+			if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+				try {
+					return Double.parseDouble(parameter.substring(2).trim());
+				} catch (final NumberFormatException e) {
+					return 0d;
+				}
+			}
+		}
+		return 1d;
+	}
+
+	/**
+	 * Returns the headers of the stored compressed representation.
+	 *
+	 * @param responseHeaders the headers of the uncompressed response
+	 * @param compressedSize  the size of the compressed payload
+	 * @return the read-only headers
+	 */
+	static HttpHeaders compressedHeaders(final HttpHeaders responseHeaders, final long compressedSize) {
+		final HttpHeaders headers = new HttpHeaders();
+		headers.putAll(responseHeaders);
+		headers.set(HttpHeaders.CONTENT_ENCODING, GZIP);
+		headers.setContentLength(compressedSize);
+		// Caches downstream must not serve the compressed payload to clients which do not accept it.
+		if (headers.getVary().stream().noneMatch(HttpHeaders.ACCEPT_ENCODING::equalsIgnoreCase)) {
+			headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		}
+		return HttpHeaders.readOnlyHttpHeaders(headers);
+	}
+
+	/**
+	 * Returns the headers of the decompressed representation, derived from the headers of the stored compressed
+	 * representation. The length of the decompressed payload is unknown, so the response is chunked.
+	 *
+	 * @param compressedHeaders the headers of the compressed representation
+	 * @return the read-only headers
+	 */
+	static HttpHeaders decompressedHeaders(final HttpHeaders compressedHeaders) {
+		final HttpHeaders headers = new HttpHeaders();
+		headers.putAll(compressedHeaders);
+		headers.remove(HttpHeaders.CONTENT_ENCODING);
+		headers.remove(HttpHeaders.CONTENT_LENGTH);
+		final String eTag = headers.getETag();
+		if (StringUtils.hasText(eTag) && !eTag.startsWith(WEAK_PREFIX)) {
+			headers.set(HttpHeaders.ETAG, WEAK_PREFIX + eTag);
+		}
+		return HttpHeaders.readOnlyHttpHeaders(headers);
+	}
+
+	private ContentCodings() {
+		// void
+	}
+}
@@ -17,61 +17,48 @@ package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Iterator;
-import java.util.List;
+import java.nio.ByteBuffer;
 
 import static java.util.Objects.requireNonNull;
 
 /**
  * An input stream that reads data from a collection of frames. The stream will reliable calculate the
- * available bytes ({@link #available()}, because the content is fixed and does not change.
+ * available bytes ({@link #available()}, because the content is fixed and does not change. The stream takes over a
+ * reference to the frames, which is released when the stream is closed.
  */
 class FrameInputStream extends InputStream {
 
-	private static int estimateAvailable(final List<byte[]> chunks) {
-		int available = 0;
-		for (final byte[] chunk : chunks) {
-			int diff = available + chunk.length;
-			if (diff < 0) {
-				return Integer.MAX_VALUE;
-			}
-			available = available + chunk.length;
-		}
-		return available;
-	}
+	private final Frames frames;
 
-	private final Iterator<byte[]> frames;
+	private ByteBuffer currentFrame;
+	private int nextFrame;
+	private long available;
+	private boolean closed;
 
-	private byte[] currentFrame;
-	private int positionInFrame;
-	private int available;
-	private boolean finished;
-
-	FrameInputStream(final List<byte[]> frames) {
+	FrameInputStream(final Frames frames) {
 		requireNonNull(frames, "'frames' must not be null!");
-		this.frames = frames.iterator();
-		this.available = estimateAvailable(frames);
-		this.finished = this.available <= 0;
+		this.frames = frames;
+		this.nextFrame = 0;
+		this.available = frames.size();
+		this.closed = false;
 	}
 
-	private boolean ensureFrame() {
-		if (finished) {
-			return false;
+	private boolean ensureFrame() throws IOException {
+		if (closed) {
+			throw new IOException("Stream is closed!");
 		}
-		if (currentFrame == null || currentFrame.length == positionInFrame) {
-			if (!frames.hasNext()) {
-				finished = true;
+		while (currentFrame == null || !currentFrame.hasRemaining()) {
+			if (nextFrame >= frames.count()) {
 				return false;
 			}
-			currentFrame = frames.next();
-			positionInFrame = 0;
+			currentFrame = frames.frame(nextFrame++);
 		}
 		return true;
 	}
 
 	@Override
 	public int available() throws IOException {
-		return available;
+		return (int) Math.min(Integer.MAX_VALUE, available);
 	}
 
 	@Override
@@ -86,16 +73,10 @@ class FrameInputStream extends InputStream {
 		if (!ensureFrame()) {
 			return -1;
 		}
-		int i = 0;
-		for (; i < len; i++) {
-			if (!ensureFrame()) {
-				break;
-			}
-			b[off + i] = currentFrame[positionInFrame + i];
-			positionInFrame++;
-			available--;
-		}
-		return i;
+		final int length = Math.min(len, currentFrame.remaining());
+		currentFrame.get(b, off, length);
+		available = available - length;
+		return length;
 	}
 
 	@Override
@@ -103,8 +84,15 @@ class FrameInputStream extends InputStream {
 		if (!ensureFrame()) {
 			return -1;
 		}
-		final int b = currentFrame[positionInFrame++];
 		available--;
-		return b;
+		return currentFrame.get() & 0xFF;
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			frames.release();
+		}
 	}
 }
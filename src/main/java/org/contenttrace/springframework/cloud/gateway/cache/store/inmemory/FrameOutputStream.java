@@ -17,44 +17,49 @@ package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
 
-class FrameOutputStream extends OutputStream {
+import static java.util.Objects.requireNonNull;
+
+class FrameOutputStream extends PayloadOutputStream {
 
 	private static final int MAXIMUM_FRAMES = Integer.getInteger(FrameOutputStream.class.getName() + ".maximumFrames", 100_000);
-	private static final int DEFAULT_FRAME_SIZE = Integer.getInteger(FrameOutputStream.class.getName() + ".frameSize", 100 * 1000);
+	static final int DEFAULT_FRAME_SIZE = Integer.getInteger(FrameOutputStream.class.getName() + ".frameSize", 100 * 1000);
 
+	private final FramePool pool;
 	private final List<byte[]> frames;
-	private final int frameSize;
 	private final long maximumSize;
 
 	private byte[] currentChunk;
 	private int positionInChunk;
+	private int lastFrameLength;
 
 	private long written;
 	private boolean closed;
+	private HeapFrames result;
 
 	public FrameOutputStream(final long estimatedSize) {
-		this(DEFAULT_FRAME_SIZE, estimatedSize, -1L);
+		this(new FramePool(DEFAULT_FRAME_SIZE, 0), estimatedSize, -1L);
 	}
 
-	public FrameOutputStream(final int frameSize,
-							 final long estimatedSize) {
-		this(frameSize, estimatedSize, -1L);
+	FrameOutputStream(final FramePool pool,
+					  final long estimatedSize) {
+		this(pool, estimatedSize, -1L);
 	}
 
-	FrameOutputStream(final int frameSize,
+	FrameOutputStream(final FramePool pool,
 					  final long estimatedSize,
 					  final long maximumSize) {
-		if (frameSize < 1) {
-			throw new IllegalArgumentException("'frameSize' must be larger 0!");
-		}
-		this.frameSize = frameSize;
+		requireNonNull(pool, "'pool' must not be null!");
+		this.pool = pool;
 		this.maximumSize = maximumSize;
 		this.written = 0L;
 		this.frames = estimatedSize > 0L && estimatedSize < MAXIMUM_FRAMES
-				? new ArrayList<>(((int) Math.floor(estimatedSize / frameSize)) + 1)
+				? new ArrayList<>(((int) Math.floor(estimatedSize / pool.getFrameSize())) + 1)
 				: new LinkedList<>();
 		this.closed = false;
 	}
@@ -65,21 +70,30 @@ class FrameOutputStream extends OutputStream {
 			throw new IOException("Stream is already closed!");
 		}
 		if (currentChunk != null) {
-			if (currentChunk.length == positionInChunk) {
+			if (positionInChunk > currentChunk.length / 2) {
 				frames.add(currentChunk);
+				lastFrameLength = positionInChunk;
 			} else {
+				// Keeping a mostly empty frame would waste memory for as long as the representation is stored, so the
+				// few bytes are copied and the frame is recycled right away.
 				frames.add(Arrays.copyOf(currentChunk, positionInChunk));
+				lastFrameLength = positionInChunk;
+				pool.recycle(currentChunk);
 			}
+			currentChunk = null;
 		}
 		this.closed = true;
 	}
 
-	private void ensureChunk() {
+	private void ensureChunk() throws IOException {
+		if (closed) {
+			throw new IOException("Stream is closed!");
+		}
 		if (currentChunk == null || currentChunk.length == positionInChunk) {
 			if (currentChunk != null) {
 				frames.add(currentChunk);
 			}
-			currentChunk = new byte[frameSize];
+			currentChunk = pool.acquire();
 			positionInChunk = 0;
 		}
 	}
@@ -99,32 +113,36 @@ class FrameOutputStream extends OutputStream {
 			throw new SizeLimitExceededException(maximumSize, "Size limit exceeded!");
 		}
 
-		ensureChunk();
-
-		int unread = len;
-		int bytesLeftInChunk = currentChunk.length - positionInChunk;
-		int bytesToNextCheck = unread > bytesLeftInChunk ? bytesLeftInChunk : -1;
+		int offset = off;
+		int remaining = len;
+		while (remaining > 0) {
+			ensureChunk();
+			final int length = Math.min(remaining, currentChunk.length - positionInChunk);
+			System.arraycopy(b, offset, currentChunk, positionInChunk, length);
+			positionInChunk = positionInChunk + length;
+			offset = offset + length;
+			remaining = remaining - length;
+			written = written + length;
+		}
+	}
 
-		for (int i = 0; i < len; i++) {
-			if (bytesToNextCheck == 0) {
-				ensureChunk();
-				bytesLeftInChunk = currentChunk.length - positionInChunk;
-				bytesToNextCheck = unread > bytesLeftInChunk ? bytesLeftInChunk : -1;
-			}
-			write(b[off + i]);
-			if (bytesToNextCheck > -1) {
-				bytesToNextCheck--;
-				unread--;
-			}
+	@Override
+	void write(final ByteBuffer source) throws IOException {
+		if (maximumSize > 0 && (written + source.remaining()) > maximumSize) {
+			throw new SizeLimitExceededException(maximumSize, "Size limit exceeded!");
+		}
+		while (source.hasRemaining()) {
+			ensureChunk();
+			final int length = Math.min(source.remaining(), currentChunk.length - positionInChunk);
+			source.get(currentChunk, positionInChunk, length);
+			positionInChunk = positionInChunk + length;
+			written = written + length;
 		}
 	}
 
 	@Override
 	public void write(final int b) throws IOException {
-		if (closed) {
-			throw new IOException("Stream is closed!");
-		}
-		if (maximumSize > 0 && written > maximumSize) {
+		if (maximumSize > 0 && written >= maximumSize) {
 			throw new SizeLimitExceededException(maximumSize, "Size limit exceeded!");
 		}
 		ensureChunk();
@@ -133,16 +151,38 @@ class FrameOutputStream extends OutputStream {
 	}
 
 	public InputStream openInputStream() throws IOException {
-		return new FrameInputStream(getFrames());
+		final Frames frames = toFrames();
+		if (!frames.retain()) {
+			throw new IOException("Frames have already been released!");
+		}
+		return new FrameInputStream(frames);
 	}
 
-	List<byte[]> getFrames() throws IllegalStateException {
+	@Override
+	Frames toFrames() throws IllegalStateException {
 		if (!closed) {
 			throw new IllegalStateException("Stream is not closed!");
 		}
-		return Collections.unmodifiableList(frames);
+		if (result == null) {
+			result = new HeapFrames(frames, lastFrameLength, pool);
+		}
+		return result;
+	}
+
+	@Override
+	void discard() {
+		if (result != null) {
+			return;
+		}
+		frames.forEach(pool::recycle);
+		frames.clear();
+		if (currentChunk != null) {
+			pool.recycle(currentChunk);
+			currentChunk = null;
+		}
 	}
 
+	@Override
 	public long size() {
 		return written;
 	}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of frames used to capture payloads on the heap. Frames of released representations and of discarded captures
+ * are recycled, so a miss does not have to allocate new frames. The number of idle frames kept by the pool is limited.
+ */
+final class FramePool {
+
+	private final int frameSize;
+	private final int maximumIdleFrames;
+	private final Queue<byte[]> idleFrames;
+	private final AtomicInteger idleFrameCount;
+
+	private final LongAdder hits;
+	private final LongAdder misses;
+	private final LongAdder recycled;
+	private final LongAdder dropped;
+
+	/**
+	 * Creates a pool.
+	 *
+	 * @param frameSize         the size of the frames in bytes
+	 * @param maximumIdleFrames the maximum number of idle frames kept, pooling is disabled if less than 1
+	 */
+	FramePool(final int frameSize, final int maximumIdleFrames) {
+		if (frameSize < 1) {
+			throw new IllegalArgumentException("'frameSize' must be larger 0!");
+		}
+		this.frameSize = frameSize;
+		this.maximumIdleFrames = Math.max(0, maximumIdleFrames);
+		this.idleFrames = new ConcurrentLinkedQueue<>();
+		this.idleFrameCount = new AtomicInteger();
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+		this.recycled = new LongAdder();
+		this.dropped = new LongAdder();
+	}
+
+	int getFrameSize() {
+		return frameSize;
+	}
+
+	/**
+	 * Takes an idle frame from the pool or allocates a new one, if there is none. The content of the frame is undefined.
+	 *
+	 * @return the frame
+	 */
+	byte[] acquire() {
+		final byte[] frame = idleFrames.poll();
+		if (frame == null) {
+			misses.increment();
+			return new byte[frameSize];
+		}
+		idleFrameCount.decrementAndGet();
+		hits.increment();
+		return frame;
+	}
+
+	/**
+	 * Hands a frame back to the pool. Frames of a different size are ignored. The frame must not be used afterwards.
+	 *
+	 * @param frame the frame
+	 */
+	void recycle(final byte[] frame) {
+		if (frame.length != frameSize) {
+			return;
+		}
+		if (idleFrameCount.incrementAndGet() > maximumIdleFrames) {
+			idleFrameCount.decrementAndGet();
+			dropped.increment();
+			return;
+		}
+		idleFrames.offer(frame);
+		recycled.increment();
+	}
+
+	/**
+	 * Returns the number of frames taken from the pool.
+	 *
+	 * @return the number of hits
+	 */
+	long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of frames, that had to be allocated because the pool was empty.
+	 *
+	 * @return the number of misses
+	 */
+	long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the number of frames handed back to the pool.
+	 *
+	 * @return the number of recycled frames
+	 */
+	long getRecycled() {
+		return recycled.sum();
+	}
+
+	/**
+	 * Returns the number of frames left to the garbage collector, because the pool was full.
+	 *
+	 * @return the number of dropped frames
+	 */
+	long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Returns the number of idle frames in the pool.
+	 *
+	 * @return the number of idle frames
+	 */
+	int getIdleFrames() {
+		return idleFrameCount.get();
+	}
+}
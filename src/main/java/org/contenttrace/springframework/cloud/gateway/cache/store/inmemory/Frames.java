@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The frames holding the payload of a representation. Frames are reference counted: the creator owns the initial
+ * reference. Readers must {@link #retain()} the frames before accessing them and {@link #release()} them afterwards.
+ * The memory of the frames is deallocated as soon as the last reference has been released.
+ */
+abstract class Frames {
+
+	private final AtomicInteger references = new AtomicInteger(1);
+
+	private volatile long[] offsets;
+
+	/**
+	 * Returns the number of frames.
+	 *
+	 * @return the number of frames
+	 */
+	abstract int count();
+
+	/**
+	 * Returns a read-only view of the frame with the given index. The position of the view is {@code 0} and its limit
+	 * is the number of bytes in the frame.
+	 *
+	 * @param index the index of the frame
+	 * @return the view of the frame
+	 */
+	abstract ByteBuffer frame(int index);
+
+	/**
+	 * Returns the number of payload bytes in all frames.
+	 *
+	 * @return the size in bytes
+	 */
+	abstract long size();
+
+	/**
+	 * Returns the estimated number of bytes retained by the frames, on the heap as well as off-heap.
+	 *
+	 * @return the weight in bytes
+	 */
+	abstract long weight();
+
+	/**
+	 * Returns the index of the frame holding the byte at the given position. The frame is looked up in an index of the
+	 * frame offsets, so seeking does not have to walk through the frames.
+	 *
+	 * @param position the position of the byte, must be less than {@link #size()}
+	 * @return the index of the frame
+	 */
+	final int indexOf(final long position) {
+		final int index = Arrays.binarySearch(offsets(), position);
+		return index >= 0 ? index : -index - 2;
+	}
+
+	/**
+	 * Returns the position of the first byte of the frame with the given index.
+	 *
+	 * @param index the index of the frame
+	 * @return the position
+	 */
+	final long offsetOf(final int index) {
+		return offsets()[index];
+	}
+
+	private long[] offsets() {
+		long[] offsets = this.offsets;
+		if (offsets == null) {
+			offsets = new long[count()];
+			long offset = 0L;
+			for (int i = 0; i < offsets.length; i++) {
+				offsets[i] = offset;
+				offset = offset + frame(i).remaining();
+			}
+			this.offsets = offsets;
+		}
+		return offsets;
+	}
+
+	/**
+	 * Deallocates the memory of the frames. Called once, when the last reference has been released.
+	 */
+	abstract void deallocate();
+
+	/**
+	 * Acquires a reference to the frames. Fails, if the frames have been deallocated already.
+	 *
+	 * @return {@code true} if a reference was acquired
+	 */
+	final boolean retain() {
+		for (; ; ) {
+			final int current = references.get();
+			if (current < 1) {
+				return false;
+			}
+			if (references.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Releases a reference to the frames.
+	 */
+	final void release() {
+		final int remaining = references.decrementAndGet();
+		if (remaining == 0) {
+			deallocate();
+		} else if (remaining < 0) {
+			throw new IllegalStateException("Frames have already been released!");
+		}
+	}
+
+}
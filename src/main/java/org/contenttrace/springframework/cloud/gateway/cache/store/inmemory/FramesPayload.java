@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.contenttrace.springframework.cloud.gateway.cache.store.Payload;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A payload serving frames as wrapped data buffers. The payload takes over a reference to the frames, which is released
+ * when the payload is closed.
+ */
+class FramesPayload implements Payload {
+
+	private final Frames frames;
+	private final AtomicBoolean closed;
+
+	FramesPayload(final Frames frames) {
+		requireNonNull(frames, "'frames' must not be null!");
+		this.frames = frames;
+		this.closed = new AtomicBoolean(false);
+	}
+
+	@Override
+	public long size() {
+		return frames.size();
+	}
+
+	@Override
+	public Flux<DataBuffer> read(final DataBufferFactory bufferFactory) {
+		requireNonNull(bufferFactory, "'bufferFactory' must not be null!");
+		return Flux.range(0, frames.count())
+				.map(index -> bufferFactory.wrap(frames.frame(index)));
+	}
+
+	@Override
+	public Flux<DataBuffer> read(final DataBufferFactory bufferFactory, final long offset, final long length) {
+		requireNonNull(bufferFactory, "'bufferFactory' must not be null!");
+		if (offset < 0L || length < 0L || offset + length > frames.size()) {
+			throw new IllegalArgumentException(String.format(
+					"Range [%d, %d] exceeds the payload of %d bytes!", offset, length, frames.size()));
+		}
+		if (length == 0L) {
+			return Flux.empty();
+		}
+		final List<ByteBuffer> slices = new ArrayList<>();
+		int index = frames.indexOf(offset);
+		long position = offset;
+		long remaining = length;
+		while (remaining > 0L) {
+			final ByteBuffer frame = frames.frame(index);
+			final int start = (int) (position - frames.offsetOf(index));
+			final int sliceLength = (int) Math.min(remaining, frame.remaining() - start);
+			frame.position(start);
+			frame.limit(start + sliceLength);
+			slices.add(frame.slice());
+			position = position + sliceLength;
+			remaining = remaining - sliceLength;
+			index++;
+		}
+		return Flux.fromIterable(slices).map(bufferFactory::wrap);
+	}
+
+	@Override
+	public void close() {
+		if (closed.compareAndSet(false, true)) {
+			frames.release();
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.contenttrace.springframework.cloud.gateway.cache.store.Payload;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A payload decompressing gzip compressed frames while they are read, for clients which do not accept the gzip
+ * content coding. The size of the decompressed payload is unknown, so ranges are read by decompressing the payload up
+ * to their start. The payload takes over a reference to the frames, which is released when the payload is closed.
+ */
+class GunzipPayload implements Payload {
+
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	private final Frames frames;
+	private final AtomicBoolean closed;
+
+	GunzipPayload(final Frames frames) {
+		requireNonNull(frames, "'frames' must not be null!");
+		this.frames = frames;
+		this.closed = new AtomicBoolean(false);
+	}
+
+	/**
+	 * Opens a stream decompressing the frames. The stream holds a reference of its own, so it can be read after the
+	 * payload has been closed.
+	 *
+	 * @param frames the compressed frames
+	 * @return the stream
+	 * @throws IOException if the frames have been released or the gzip header is invalid
+	 */
+	static InputStream openStream(final Frames frames) throws IOException {
+		if (!frames.retain()) {
+			throw new IOException("Frames have already been released!");
+		}
+		final FrameInputStream compressed = new FrameInputStream(frames);
+		try {
+			return new GZIPInputStream(compressed, BUFFER_SIZE);
+		} catch (final IOException e) {
+			compressed.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public long size() {
+		return -1L;
+	}
+
+	@Override
+	public Flux<DataBuffer> read(final DataBufferFactory bufferFactory) {
+		requireNonNull(bufferFactory, "'bufferFactory' must not be null!");
+		return Flux.generate(() -> openStream(frames), (input, sink) -> {
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			int length = 0;
+			try {
+				int read;
+				while (length < buffer.length && (read = input.read(buffer, length, buffer.length - length)) != -1) {
+					length = length + read;
+				}
+			} catch (final IOException e) {
+				sink.error(e);
+				return input;
+			}
+			if (length == 0) {
+				sink.complete();
+			} else {
+				sink.next(bufferFactory.wrap(ByteBuffer.wrap(buffer, 0, length)));
+			}
+			return input;
+		}, input -> {
+			try {
+				input.close();
+			} catch (final IOException e) {
+				// void, the frames are released anyway
+			}
+		});
+	}
+
+	@Override
+	public Flux<DataBuffer> read(final DataBufferFactory bufferFactory, final long offset, final long length) {
+		requireNonNull(bufferFactory, "'bufferFactory' must not be null!");
+		if (offset < 0L || length < 0L) {
+			throw new IllegalArgumentException(String.format("Range [%d, %d] is invalid!", offset, length));
+		}
+		return DataBufferUtils.takeUntilByteCount(DataBufferUtils.skipUntilByteCount(read(bufferFactory), offset), length);
+	}
+
+	@Override
+	public void close() {
+		if (closed.compareAndSet(false, true)) {
+			frames.release();
+		}
+	}
+}
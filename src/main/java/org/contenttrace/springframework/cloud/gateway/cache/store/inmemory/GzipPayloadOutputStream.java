@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPOutputStream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A payload output stream compressing the payload with gzip, before it is written to the frames of another payload
+ * output stream. The frames hold the compressed payload, while {@link #size()} returns the number of uncompressed
+ * bytes written.
+ */
+final class GzipPayloadOutputStream extends PayloadOutputStream {
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private final PayloadOutputStream delegate;
+	private final LeveledGZIPOutputStream gzip;
+	private byte[] transfer;
+	private long written;
+
+	/**
+	 * Creates the stream. The gzip header is written to the delegate right away.
+	 *
+	 * @param delegate the stream receiving the compressed payload
+	 * @param level    the compression level, between {@code 1} (fastest) and {@code 9} (best compression)
+	 * @throws IOException if the header cannot be written
+	 */
+	GzipPayloadOutputStream(final PayloadOutputStream delegate, final int level) throws IOException {
+		requireNonNull(delegate, "'delegate' must not be null!");
+		this.delegate = delegate;
+		this.gzip = new LeveledGZIPOutputStream(delegate, level);
+		this.written = 0L;
+	}
+
+	@Override
+	void write(final ByteBuffer source) throws IOException {
+		final int length = source.remaining();
+		if (source.hasArray()) {
+			gzip.write(source.array(), source.arrayOffset() + source.position(), length);
+			source.position(source.limit());
+		} else {
+			// Buffers of the network are usually direct, so they are deflated from a reused heap copy.
+			if (transfer == null) {
+				transfer = new byte[BUFFER_SIZE];
+			}
+			while (source.hasRemaining()) {
+				final int chunk = Math.min(source.remaining(), transfer.length);
+				source.get(transfer, 0, chunk);
+				gzip.write(transfer, 0, chunk);
+			}
+		}
+		written = written + length;
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		gzip.write(b, off, len);
+		written = written + len;
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		gzip.write(b);
+		written++;
+	}
+
+	@Override
+	long size() {
+		return written;
+	}
+
+	/**
+	 * Returns the number of compressed bytes written to the frames so far.
+	 *
+	 * @return the compressed size in bytes
+	 */
+	long compressedSize() {
+		return delegate.size();
+	}
+
+	@Override
+	public void close() throws IOException {
+		// Writes the trailer and closes the delegate.
+		gzip.close();
+	}
+
+	@Override
+	Frames toFrames() throws IllegalStateException {
+		return delegate.toFrames();
+	}
+
+	@Override
+	void discard() {
+		gzip.end();
+		delegate.discard();
+	}
+
+	private static final class LeveledGZIPOutputStream extends GZIPOutputStream {
+
+		private LeveledGZIPOutputStream(final OutputStream out, final int level) throws IOException {
+			super(out, BUFFER_SIZE);
+			def.setLevel(level);
+		}
+
+		/**
+		 * Frees the native memory of the deflater, without finishing the stream.
+		 */
+		void end() {
+			def.end();
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Frames kept in byte arrays on the heap. All frames but the last one are filled completely. The frames are handed
+ * back to their pool on deallocation.
+ */
+final class HeapFrames extends Frames {
+
+	private final byte[][] frames;
+	private final int lastFrameLength;
+	private final FramePool pool;
+	private final long size;
+
+	/**
+	 * Creates the frames.
+	 *
+	 * @param frames          the frames
+	 * @param lastFrameLength the number of bytes used in the last frame
+	 * @param pool            the pool the frames are recycled to
+	 */
+	HeapFrames(final List<byte[]> frames, final int lastFrameLength, final FramePool pool) {
+		requireNonNull(frames, "'frames' must not be null!");
+		requireNonNull(pool, "'pool' must not be null!");
+		this.frames = frames.toArray(new byte[0][]);
+		this.lastFrameLength = lastFrameLength;
+		this.pool = pool;
+		long size = 0L;
+		for (int i = 0; i < this.frames.length; i++) {
+			size = size + length(i);
+		}
+		this.size = size;
+	}
+
+	private int length(final int index) {
+		return index == frames.length - 1 ? lastFrameLength : frames[index].length;
+	}
+
+	@Override
+	int count() {
+		return frames.length;
+	}
+
+	@Override
+	ByteBuffer frame(final int index) {
+		return ByteBuffer.wrap(frames[index], 0, length(index)).asReadOnlyBuffer();
+	}
+
+	@Override
+	long size() {
+		return size;
+	}
+
+	@Override
+	long weight() {
+		long weight = Weights.OBJECT_HEADER + Weights.of(new byte[0]) + Weights.REFERENCE * frames.length;
+		for (final byte[] frame : frames) {
+			weight = weight + Weights.of(frame);
+		}
+		return weight;
+	}
+
+	@Override
+	void deallocate() {
+		for (final byte[] frame : frames) {
+			pool.recycle(frame);
+		}
+	}
+}
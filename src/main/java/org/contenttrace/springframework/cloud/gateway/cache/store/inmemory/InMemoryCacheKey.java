@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.contenttrace.springframework.cloud.gateway.cache.store.CacheKey;
+import org.springframework.util.Base64Utils;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The key of a bag in the in-memory store. The kind of key is determined by the configured hash, the length of the
+ * serialized key tells them apart.
+ */
+abstract class InMemoryCacheKey implements CacheKey {
+
+	static final String CACHE_KEY_PREFIX = "inmemory://";
+
+	/**
+	 * Returns the hash of the key material.
+	 *
+	 * @return the bytes of the hash
+	 */
+	abstract byte[] bytes();
+
+	/**
+	 * Returns the estimated number of bytes retained by the key.
+	 *
+	 * @return the weight in bytes
+	 */
+	abstract long weight();
+
+	/**
+	 * Returns whether both keys are equal, but were built from different key material. Collisions can only be
+	 * detected if both keys have retained their key material.
+	 *
+	 * @param other the other key
+	 * @return {@code true} if a collision has been detected
+	 */
+	boolean collidesWith(final InMemoryCacheKey other) {
+		return false;
+	}
+
+	@Override
+	public String serializeAsString() {
+		// TODO: Instead of Base64, use a hex
+		return String.format("%s%s", CACHE_KEY_PREFIX, Base64Utils.encodeToUrlSafeString(bytes()));
+	}
+
+	@Override
+	public String toString() {
+		return serializeAsString();
+	}
+
+	static InMemoryCacheKey of(final byte[] bytes) {
+		requireNonNull(bytes, "'bytes' must not be null!");
+		if (bytes.length == Murmur3CacheKeyBuilder.KEY_LENGTH) {
+			return Murmur3CacheKeyBuilder.Murmur3CacheKey.of(bytes);
+		}
+		if (bytes.length != SHA2CacheKeyBuilder.KEY_LENGTH) {
+			throw new IllegalArgumentException(String.format("Key of %d bytes is not supported!", bytes.length));
+		}
+		return new SHA2CacheKeyBuilder.SHA2CacheKey(bytes);
+	}
+
+	static InMemoryCacheKey parse(final String input) {
+		requireNonNull(input, "Input must not be null!");
+		if (!input.startsWith(CACHE_KEY_PREFIX) || input.length() <= CACHE_KEY_PREFIX.length()) {
+			throw new IllegalArgumentException(String.format("Input [%s] is not a in-memory cache key!", input));
+		}
+		return of(Base64Utils.decodeFromUrlSafeString(input.substring(CACHE_KEY_PREFIX.length())));
+	}
+}
@@ -16,47 +16,231 @@
 package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
 
 import org.contenttrace.springframework.cloud.gateway.cache.store.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.web.server.ServerWebExchange;
 
 import java.net.URI;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * The events of an {@link InMemoryStore}. Events are dispatched to the listeners synchronously by default. If
+ * asynchronous dispatch is configured, published events are queued in a bounded buffer and delivered to the listeners
+ * in batches on a dedicated thread, so slow listeners do not hold up the threads serving requests. If the buffer is
+ * full, events are either dropped or the publishing thread blocks until there is room, depending on the configured
+ * overflow policy.
+ */
 class InMemoryEvents implements Events {
 
-	private final List<EventListener> listeners;
+	private static final Logger LOG = LoggerFactory.getLogger(InMemoryEvents.class);
+
+	private final List<Registration> registrations;
 
 	private final Object registrationMutex = new Object();
 
+	private final BlockingQueue<InMemoryEvent> queue;
+	private final int batchSize;
+	private final InMemoryStoreConfiguration.EventOverflow overflow;
+	private final ExecutorService dispatchExecutor;
+	private final AtomicBoolean draining;
+	private final LongAdder dropped;
+
 	InMemoryEvents() {
-		this.listeners = new CopyOnWriteArrayList<>();
+		this.registrations = new CopyOnWriteArrayList<>();
+		this.queue = null;
+		this.batchSize = 0;
+		this.overflow = null;
+		this.dispatchExecutor = null;
+		this.draining = null;
+		this.dropped = new LongAdder();
+	}
+
+	InMemoryEvents(final int capacity,
+				   final int batchSize,
+				   final InMemoryStoreConfiguration.EventOverflow overflow) {
+		Objects.requireNonNull(overflow, "'overflow' must not be null!");
+		if (capacity < 1 || batchSize < 1) {
+			throw new IllegalArgumentException("The capacity and the batch size must be positive!");
+		}
+		this.registrations = new CopyOnWriteArrayList<>();
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.batchSize = batchSize;
+		this.overflow = overflow;
+		this.dispatchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "inmemory-store-events");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.draining = new AtomicBoolean(false);
+		this.dropped = new LongAdder();
+	}
+
+	static InMemoryEvents create(final InMemoryStoreConfiguration configuration) {
+		return configuration.isAsyncEvents()
+				? new InMemoryEvents(configuration.getEventQueueCapacity(), configuration.getEventBatchSize(), configuration.getEventOverflow())
+				: new InMemoryEvents();
 	}
 
 	void publish(final InMemoryEvent event) {
 		Objects.requireNonNull(event, "Event is required!");
-		// TODO: Maybe this should be non-blocking?
-		listeners.forEach(listener -> listener.dispatched(event));
+		if (queue == null) {
+			final List<InMemoryEvent> events = Collections.singletonList(event);
+			registrations.forEach(registration -> registration.dispatch(events));
+			return;
+		}
+		if (!enqueue(event)) {
+			dropped.increment();
+			return;
+		}
+		if (draining.compareAndSet(false, true)) {
+			try {
+				dispatchExecutor.execute(this::drain);
+			} catch (final RuntimeException e) {
+				// The store has been closed, the remaining events are not delivered.
+				draining.set(false);
+			}
+		}
+	}
+
+	private boolean enqueue(final InMemoryEvent event) {
+		if (overflow == InMemoryStoreConfiguration.EventOverflow.DROP) {
+			return queue.offer(event);
+		}
+		try {
+			queue.put(event);
+			return true;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Delivers the queued events in batches, until the queue is empty. A single drain is in progress at any time, so
+	 * listeners receive the events in the order they were published.
+	 */
+	private void drain() {
+		final List<InMemoryEvent> batch = new ArrayList<>(batchSize);
+		do {
+			while (queue.drainTo(batch, batchSize) > 0) {
+				final List<InMemoryEvent> events = Collections.unmodifiableList(batch);
+				registrations.forEach(registration -> registration.dispatch(events));
+				batch.clear();
+			}
+			draining.set(false);
+		} while (!queue.isEmpty() && draining.compareAndSet(false, true));
 	}
 
 	void publishResourceCached(final ServerWebExchange exchange, final Entry entry) {
 		publish(new InMemoryResourceCachedEvent(exchange.getRequest().getURI(), entry));
 	}
 
+	/**
+	 * Returns the number of events waiting to be dispatched.
+	 *
+	 * @return the number of queued events
+	 */
+	int queued() {
+		return queue != null ? queue.size() : 0;
+	}
+
+	/**
+	 * Returns the number of events dropped, because the queue was full.
+	 *
+	 * @return the number of dropped events
+	 */
+	long dropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Delivers the events, which are still queued, and stops dispatching.
+	 */
+	void close() {
+		if (dispatchExecutor == null) {
+			return;
+		}
+		dispatchExecutor.shutdown();
+		try {
+			dispatchExecutor.awaitTermination(10L, TimeUnit.SECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
 	@Override
 	public void register(final EventListener listener) {
+		register(listener, Event.class);
+	}
+
+	@Override
+	public void register(final EventListener listener, final Class<? extends Event> eventType) {
+		Objects.requireNonNull(listener, "'listener' must not be null!");
+		Objects.requireNonNull(eventType, "'eventType' must not be null!");
 		synchronized (registrationMutex) {
-			if (!listeners.contains(listener)) {
-				listeners.add(listener);
+			for (final Registration registration : registrations) {
+				if (registration.listener.equals(listener)) {
+					return;
+				}
 			}
+			registrations.add(new Registration(listener, eventType));
 		}
 	}
 
 	@Override
 	public void unregister(final EventListener listener) {
 		synchronized (registrationMutex) {
-			listeners.remove(listener);
+			registrations.removeIf(registration -> registration.listener.equals(listener));
+		}
+	}
+
+	private static final class Registration {
+
+		private final EventListener listener;
+		private final Class<? extends Event> eventType;
+
+		private Registration(final EventListener listener,
+							 final Class<? extends Event> eventType) {
+			this.listener = listener;
+			this.eventType = eventType;
+		}
+
+		void dispatch(final List<InMemoryEvent> events) {
+			final List<InMemoryEvent> accepted = eventType == Event.class ? events : filter(events);
+			if (accepted.isEmpty()) {
+				return;
+			}
+			try {
+				if (accepted.size() == 1) {
+					listener.dispatched(accepted.get(0));
+				} else {
+					listener.dispatched(accepted);
+				}
+			} catch (final RuntimeException e) {
+				LOG.error("Listener [{}] failed to handle events!", listener, e);
+			}
+		}
+
+		private List<InMemoryEvent> filter(final List<InMemoryEvent> events) {
+			final List<InMemoryEvent> accepted = new ArrayList<>(events.size());
+			for (final InMemoryEvent event : events) {
+				if (eventType.isInstance(event)) {
+					accepted.add(event);
+				}
+			}
+			return accepted;
 		}
 	}
 
@@ -15,12 +15,316 @@
  */
 package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import org.contenttrace.springframework.cloud.gateway.cache.store.Metrics;
 
-public class InMemoryMetrics implements Metrics {
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
 
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The metrics of an {@link InMemoryStore}. The store records into striped counters, which are read when the metrics
+ * are published, so recording does not contend between the threads serving requests. The distributions of capture
+ * sizes and variant counts are only recorded once the metrics have been bound to a registry.
+ */
+public class InMemoryMetrics implements Metrics, MeterBinder {
+
+	private final FramePool framePool;
+	private final InMemoryEvents events;
+	private final LongSupplier storedResources;
+	private final LongAdder storedEntries;
+	private final LongAdder residentBytes;
+	private final LongAdder captures;
+	private final LongAdder capturedBytes;
+	private final LongAdder evictions;
+	private final LongAdder admissions;
+	private final LongAdder rejections;
+	private final LongAdder oversized;
+	private final LongAdder budgetExhaustions;
+
+	private volatile DistributionSummary captureSizes;
+	private volatile DistributionSummary variants;
+
+	InMemoryMetrics(final FramePool framePool,
+					final InMemoryEvents events,
+					final LongSupplier storedResources) {
+		requireNonNull(framePool, "'framePool' must not be null!");
+		requireNonNull(events, "'events' must not be null!");
+		requireNonNull(storedResources, "'storedResources' must not be null!");
+		this.framePool = framePool;
+		this.events = events;
+		this.storedResources = storedResources;
+		this.storedEntries = new LongAdder();
+		this.residentBytes = new LongAdder();
+		this.captures = new LongAdder();
+		this.capturedBytes = new LongAdder();
+		this.evictions = new LongAdder();
+		this.admissions = new LongAdder();
+		this.rejections = new LongAdder();
+		this.oversized = new LongAdder();
+		this.budgetExhaustions = new LongAdder();
+	}
+
+	void representationCreated(final long weight) {
+		storedEntries.increment();
+		residentBytes.add(weight);
+	}
+
+	void representationReleased(final long weight) {
+		storedEntries.decrement();
+		residentBytes.add(-weight);
+	}
+
+	void captured(final long size) {
+		captures.increment();
+		capturedBytes.add(size);
+		final DistributionSummary captureSizes = this.captureSizes;
+		if (captureSizes != null) {
+			captureSizes.record(size);
+		}
+	}
+
+	void negotiated(final int variantCount) {
+		final DistributionSummary variants = this.variants;
+		if (variants != null) {
+			variants.record(variantCount);
+		}
+	}
+
+	void evicted() {
+		evictions.increment();
+	}
+
+	void admitted() {
+		admissions.increment();
+	}
+
+	void rejected() {
+		rejections.increment();
+	}
+
+	void oversized() {
+		oversized.increment();
+	}
+
+	void budgetExhausted() {
+		budgetExhaustions.increment();
+	}
+
+	/**
+	 * Returns the number of representations held by the store, including the variants of negotiated resources and
+	 * stale representations, which are retained for revalidation.
+	 *
+	 * @return the number of representations
+	 */
 	@Override
 	public long getStoredEntries() {
-		return 0;
+		return storedEntries.sum();
+	}
+
+	/**
+	 * Returns the number of resources held by the store, each having one or more representations.
+	 *
+	 * @return the number of resources
+	 */
+	public long getStoredResources() {
+		return storedResources.getAsLong();
+	}
+
+	/**
+	 * Returns the estimated number of bytes retained by the representations of the store, including their payloads.
+	 *
+	 * @return the resident size in bytes
+	 */
+	public long getResidentBytes() {
+		return residentBytes.sum();
+	}
+
+	/**
+	 * Returns the number of responses, which have been captured and stored.
+	 *
+	 * @return the number of captures
+	 */
+	public long getCaptures() {
+		return captures.sum();
+	}
+
+	/**
+	 * Returns the number of payload bytes of all captured responses, as they are stored.
+	 *
+	 * @return the captured size in bytes
+	 */
+	public long getCapturedBytes() {
+		return capturedBytes.sum();
+	}
+
+	/**
+	 * Returns the number of resources evicted from the store, because they expired or the maximum size was exceeded.
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Returns the number of responses admitted for capture, because their key has been seen often enough. Only
+	 * counted if an admission threshold is configured.
+	 *
+	 * @return the number of admissions
+	 */
+	public long getAdmissions() {
+		return admissions.sum();
+	}
+
+	/**
+	 * Returns the number of responses passed through without being captured, because their key has not been seen
+	 * often enough.
+	 *
+	 * @return the number of rejections
+	 */
+	public long getRejections() {
+		return rejections.sum();
+	}
+
+	/**
+	 * Returns the number of responses not captured or abandoned while they were captured, because they exceeded the
+	 * maximum object size.
+	 *
+	 * @return the number of oversized responses
+	 */
+	public long getOversized() {
+		return oversized.sum();
+	}
+
+	/**
+	 * Returns the number of responses abandoned while they were captured, because the off-heap memory budget was
+	 * exhausted.
+	 *
+	 * @return the number of abandoned captures
+	 */
+	public long getBudgetExhaustions() {
+		return budgetExhaustions.sum();
+	}
+
+	/**
+	 * Returns the number of events waiting to be dispatched asynchronously.
+	 *
+	 * @return the number of queued events
+	 */
+	public int getEventQueueDepth() {
+		return events.queued();
+	}
+
+	/**
+	 * Returns the number of events dropped, because the queue of asynchronously dispatched events was full.
+	 *
+	 * @return the number of dropped events
+	 */
+	public long getDroppedEvents() {
+		return events.dropped();
+	}
+
+	/**
+	 * Returns the number of frames taken from the pool to capture a payload, without allocating a new frame.
+	 *
+	 * @return the number of pool hits
+	 */
+	public long getFramePoolHits() {
+		return framePool.getHits();
+	}
+
+	/**
+	 * Returns the number of frames, that had to be allocated to capture a payload, because the pool was empty.
+	 *
+	 * @return the number of pool misses
+	 */
+	public long getFramePoolMisses() {
+		return framePool.getMisses();
+	}
+
+	/**
+	 * Returns the number of frames handed back to the pool, after a representation was released.
+	 *
+	 * @return the number of recycled frames
+	 */
+	public long getFramePoolRecycled() {
+		return framePool.getRecycled();
+	}
+
+	/**
+	 * Returns the number of released frames left to the garbage collector, because the pool was full.
+	 *
+	 * @return the number of dropped frames
+	 */
+	public long getFramePoolDropped() {
+		return framePool.getDropped();
+	}
+
+	/**
+	 * Returns the number of idle frames in the pool.
+	 *
+	 * @return the number of idle frames
+	 */
+	public int getFramePoolIdleFrames() {
+		return framePool.getIdleFrames();
+	}
+
+	@Override
+	public void bindTo(final MeterRegistry registry) {
+		Gauge.builder("gateway.cache.store.entries", storedEntries, LongAdder::sum)
+				.description("The number of representations held by the store")
+				.register(registry);
+		Gauge.builder("gateway.cache.store.resources", storedResources, LongSupplier::getAsLong)
+				.description("The number of resources held by the store")
+				.register(registry);
+		Gauge.builder("gateway.cache.store.resident", residentBytes, LongAdder::sum)
+				.description("The estimated number of bytes retained by the representations")
+				.baseUnit("bytes")
+				.register(registry);
+		FunctionCounter.builder("gateway.cache.store.evictions", evictions, LongAdder::sum)
+				.description("The number of resources evicted from the store")
+				.register(registry);
+		FunctionCounter.builder("gateway.cache.store.admissions", admissions, LongAdder::sum)
+				.description("The number of responses admitted for capture")
+				.tag("result", "admitted")
+				.register(registry);
+		FunctionCounter.builder("gateway.cache.store.admissions", rejections, LongAdder::sum)
+				.description("The number of responses rejected for capture, because they were not requested often enough")
+				.tag("result", "rejected")
+				.register(registry);
+		FunctionCounter.builder("gateway.cache.store.oversized", oversized, LongAdder::sum)
+				.description("The number of responses not captured, because they exceeded the maximum object size")
+				.register(registry);
+		FunctionCounter.builder("gateway.cache.store.offheap.exhausted", budgetExhaustions, LongAdder::sum)
+				.description("The number of responses not captured, because the off-heap memory budget was exhausted")
+				.register(registry);
+		FunctionCounter.builder("gateway.cache.frame.pool", framePool, FramePool::getHits)
+				.description("The number of frames taken from the pool")
+				.tag("result", "hit")
+				.register(registry);
+		FunctionCounter.builder("gateway.cache.frame.pool", framePool, FramePool::getMisses)
+				.description("The number of frames allocated, because the pool was empty")
+				.tag("result", "miss")
+				.register(registry);
+		Gauge.builder("gateway.cache.events.queued", events, InMemoryEvents::queued)
+				.description("The number of events waiting to be dispatched")
+				.register(registry);
+		FunctionCounter.builder("gateway.cache.events.dropped", events, InMemoryEvents::dropped)
+				.description("The number of events dropped, because the queue was full")
+				.register(registry);
+		captureSizes = DistributionSummary.builder("gateway.cache.store.captures")
+				.description("The payload sizes of the responses captured by the store")
+				.baseUnit("bytes")
+				.publishPercentileHistogram()
+				.register(registry);
+		variants = DistributionSummary.builder("gateway.cache.store.variants")
+				.description("The number of variants of a negotiated resource, once a variant has been added")
+				.register(registry);
 	}
 }
@@ -0,0 +1,377 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.springframework.http.HttpHeaders;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Writes the bags of an {@link InMemoryStore} to a snapshot file and reads them back, so a restarted store does not
+ * start with an empty cache. The payloads are written first, followed by an index of the bags and their
+ * representations, and a trailer locating the index. Reading a snapshot only reads the index, while the payloads are
+ * memory mapped and paged in on first access.
+ * <p>
+ * A snapshot is written to a temporary file, which replaces the previous snapshot once it is complete. Frames mapped
+ * from the previous snapshot stay valid after it has been replaced.
+ */
+final class InMemorySnapshot {
+
+	private static final int MAGIC = 0x47434d53;
+	private static final int VERSION = 3;
+	private static final int TRAILER_LENGTH = 8 + 4 + 4; // index offset, version, magic
+	private static final long REGION_SIZE = 1L << 30; // 1gb
+
+	/**
+	 * A bag of the store as it is written to the snapshot.
+	 */
+	static final class BagRecord {
+
+		final byte[] key;
+		final String method;
+		final String host;
+		final String path;
+		final String query;
+		final Set<String> varyHeaders;
+		final List<RepresentationRecord> representations;
+
+		/**
+		 * Creates the record.
+		 *
+		 * @param varyHeaders the "Vary" headers of a negotiated bag, {@code null} for a bag with a single representation
+		 */
+		BagRecord(final byte[] key,
+				  final String method,
+				  final String host,
+				  final String path,
+				  final String query,
+				  final Set<String> varyHeaders) {
+			this.key = key;
+			this.method = method;
+			this.host = host;
+			this.path = path;
+			this.query = query;
+			this.varyHeaders = varyHeaders;
+			this.representations = new ArrayList<>();
+		}
+	}
+
+	/**
+	 * A representation of a bag as it is written to the snapshot.
+	 */
+	static final class RepresentationRecord {
+
+		final HttpHeaders responseHeaders;
+		final HttpHeaders varyRequestHeaders;
+		final boolean eTagGenerated;
+		final boolean compressed;
+		final long storedAt;
+		final long initialAge;
+		final long expiresAt;
+		final long reclaimAt;
+		final Frames payload;
+
+		RepresentationRecord(final HttpHeaders responseHeaders,
+							 final HttpHeaders varyRequestHeaders,
+							 final boolean eTagGenerated,
+							 final boolean compressed,
+							 final long storedAt,
+							 final long initialAge,
+							 final long expiresAt,
+							 final long reclaimAt,
+							 final Frames payload) {
+			this.responseHeaders = responseHeaders;
+			this.varyRequestHeaders = varyRequestHeaders;
+			this.eTagGenerated = eTagGenerated;
+			this.compressed = compressed;
+			this.storedAt = storedAt;
+			this.initialAge = initialAge;
+			this.expiresAt = expiresAt;
+			this.reclaimAt = reclaimAt;
+			this.payload = payload;
+		}
+	}
+
+	/**
+	 * Writes a snapshot. The payloads of the representations must be retained by the caller.
+	 *
+	 * @param file the snapshot file
+	 * @param bags the bags
+	 * @return the number of representations written
+	 * @throws IOException if the snapshot cannot be written, the previous snapshot is kept in this case
+	 */
+	static int write(final Path file, final Iterable<BagRecord> bags) throws IOException {
+		requireNonNull(file, "'file' must not be null!");
+		requireNonNull(bags, "'bags' must not be null!");
+		final Path directory = file.toAbsolutePath().getParent();
+		if (directory != null) {
+			Files.createDirectories(directory);
+		}
+		final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		int count = 0;
+		try (FileChannel channel = FileChannel.open(temporary,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+			final DataOutputStream index = new DataOutputStream(indexBytes);
+			long position = 0L;
+			for (final BagRecord bag : bags) {
+				index.writeBoolean(true);
+				// The width of the keys depends on the configured hash.
+				index.writeInt(bag.key.length);
+				index.write(bag.key);
+				writeString(index, bag.method);
+				writeString(index, bag.host);
+				writeString(index, bag.path);
+				writeString(index, bag.query);
+				index.writeInt(bag.varyHeaders == null ? -1 : bag.varyHeaders.size());
+				if (bag.varyHeaders != null) {
+					for (final String varyHeader : bag.varyHeaders) {
+						writeString(index, varyHeader);
+					}
+				}
+				index.writeInt(bag.representations.size());
+				for (final RepresentationRecord representation : bag.representations) {
+					writeHeaders(index, representation.responseHeaders);
+					writeHeaders(index, representation.varyRequestHeaders);
+					index.writeBoolean(representation.eTagGenerated);
+					index.writeBoolean(representation.compressed);
+					index.writeLong(representation.storedAt);
+					index.writeLong(representation.initialAge);
+					index.writeLong(representation.expiresAt);
+					index.writeLong(representation.reclaimAt);
+					index.writeLong(position);
+					index.writeLong(representation.payload.size());
+					for (int i = 0; i < representation.payload.count(); i++) {
+						final ByteBuffer frame = representation.payload.frame(i);
+						while (frame.hasRemaining()) {
+							position = position + channel.write(frame);
+						}
+					}
+					count++;
+				}
+			}
+			index.writeBoolean(false);
+			index.flush();
+
+			final ByteBuffer indexBuffer = ByteBuffer.wrap(indexBytes.toByteArray());
+			while (indexBuffer.hasRemaining()) {
+				channel.write(indexBuffer);
+			}
+			final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_LENGTH);
+			trailer.putLong(position).putInt(VERSION).putInt(MAGIC).flip();
+			while (trailer.hasRemaining()) {
+				channel.write(trailer);
+			}
+			channel.force(true);
+		} catch (final IOException e) {
+			Files.deleteIfExists(temporary);
+			throw e;
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return count;
+	}
+
+	/**
+	 * Reads a snapshot. Representations, which are not needed any more at the given time, are skipped. The payloads of
+	 * the representations are mapped from the file.
+	 *
+	 * @param file the snapshot file
+	 * @param now  the current time in milliseconds since the epoch
+	 * @return the bags, each with at least one representation
+	 * @throws IOException if the file is not a valid snapshot
+	 */
+	static List<BagRecord> read(final Path file, final long now) throws IOException {
+		requireNonNull(file, "'file' must not be null!");
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			if (size < TRAILER_LENGTH) {
+				throw new EOFException(String.format("Snapshot [%s] is truncated!", file));
+			}
+			final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_LENGTH);
+			while (trailer.hasRemaining()) {
+				if (channel.read(trailer, size - TRAILER_LENGTH + trailer.position()) < 0) {
+					throw new EOFException(String.format("Snapshot [%s] is truncated!", file));
+				}
+			}
+			trailer.flip();
+			final long indexOffset = trailer.getLong();
+			final int version = trailer.getInt();
+			if (trailer.getInt() != MAGIC || version != VERSION || indexOffset < 0L || indexOffset > size - TRAILER_LENGTH) {
+				throw new IOException(String.format("File [%s] is not a valid snapshot!", file));
+			}
+
+			// The mapping stays valid after the channel has been closed.
+			final List<ByteBuffer> regions = new ArrayList<>();
+			for (long start = 0L; start < indexOffset; start = start + REGION_SIZE) {
+				regions.add(channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, indexOffset - start)));
+			}
+
+			channel.position(indexOffset);
+			final DataInputStream index = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+			final List<BagRecord> bags = new ArrayList<>();
+			while (index.readBoolean()) {
+				final byte[] key = readKey(index, file);
+				final String method = readString(index);
+				final String host = readString(index);
+				final String path = readString(index);
+				final String query = readString(index);
+				final int varyHeaderCount = index.readInt();
+				Set<String> varyHeaders = null;
+				if (varyHeaderCount >= 0) {
+					varyHeaders = new LinkedHashSet<>();
+					for (int i = 0; i < varyHeaderCount; i++) {
+						varyHeaders.add(readString(index));
+					}
+				}
+				final BagRecord bag = new BagRecord(key, method, host, path, query, varyHeaders);
+				final int representationCount = index.readInt();
+				for (int i = 0; i < representationCount; i++) {
+					final HttpHeaders responseHeaders = readHeaders(index);
+					final HttpHeaders varyRequestHeaders = readHeaders(index);
+					final boolean eTagGenerated = index.readBoolean();
+					final boolean compressed = index.readBoolean();
+					final long storedAt = index.readLong();
+					final long initialAge = index.readLong();
+					final long expiresAt = index.readLong();
+					final long reclaimAt = index.readLong();
+					final long payloadOffset = index.readLong();
+					final long payloadLength = index.readLong();
+					if (payloadOffset < 0L || payloadLength < 0L || payloadOffset + payloadLength > indexOffset) {
+						throw new IOException(String.format("Snapshot [%s] refers to a payload out of bounds!", file));
+					}
+					if (reclaimAt <= now) {
+						continue;
+					}
+					bag.representations.add(new RepresentationRecord(
+							HttpHeaders.readOnlyHttpHeaders(responseHeaders),
+							HttpHeaders.readOnlyHttpHeaders(varyRequestHeaders),
+							eTagGenerated,
+							compressed,
+							storedAt,
+							initialAge,
+							expiresAt,
+							reclaimAt,
+							frames(regions, payloadOffset, payloadLength)
+					));
+				}
+				if (!bag.representations.isEmpty()) {
+					bags.add(bag);
+				}
+			}
+			return bags;
+		}
+	}
+
+	private static Frames frames(final List<ByteBuffer> regions, final long offset, final long length) {
+		final List<ByteBuffer> slices = new ArrayList<>();
+		long position = offset;
+		long remaining = length;
+		while (remaining > 0L) {
+			final ByteBuffer region = regions.get((int) (position / REGION_SIZE)).duplicate();
+			final int start = (int) (position % REGION_SIZE);
+			final int sliceLength = (int) Math.min(remaining, region.capacity() - start);
+			region.position(start);
+			region.limit(start + sliceLength);
+			slices.add(region.slice());
+			position = position + sliceLength;
+			remaining = remaining - sliceLength;
+		}
+		return new MappedFrames(slices);
+	}
+
+	private static byte[] readKey(final DataInputStream input, final Path file) throws IOException {
+		final int length = input.readInt();
+		if (length < 0 || length > SHA2CacheKeyBuilder.KEY_LENGTH) {
+			throw new IOException(String.format("Snapshot [%s] contains a key of %d bytes!", file, length));
+		}
+		final byte[] key = new byte[length];
+		input.readFully(key);
+		try {
+			InMemoryCacheKey.of(key);
+		} catch (final IllegalArgumentException e) {
+			throw new IOException(String.format("Snapshot [%s] contains an invalid key!", file), e);
+		}
+		return key;
+	}
+
+	private static void writeString(final DataOutputStream output, final String value) throws IOException {
+		if (value == null) {
+			output.writeInt(-1);
+			return;
+		}
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	private static String readString(final DataInputStream input) throws IOException {
+		final int length = input.readInt();
+		if (length < 0) {
+			return null;
+		}
+		final byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeHeaders(final DataOutputStream output, final HttpHeaders headers) throws IOException {
+		output.writeInt(headers.size());
+		for (final Map.Entry<String, List<String>> header : headers.entrySet()) {
+			writeString(output, header.getKey());
+			output.writeInt(header.getValue().size());
+			for (final String value : header.getValue()) {
+				writeString(output, value);
+			}
+		}
+	}
+
+	private static HttpHeaders readHeaders(final DataInputStream input) throws IOException {
+		final HttpHeaders headers = new HttpHeaders();
+		final int size = input.readInt();
+		for (int i = 0; i < size; i++) {
+			final String name = readString(input);
+			final int values = input.readInt();
+			for (int j = 0; j < values; j++) {
+				headers.add(name, readString(input));
+			}
+		}
+		return headers;
+	}
+
+	private InMemorySnapshot() {
+		// void
+	}
+}
@@ -15,52 +15,247 @@
  */
 package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import org.contenttrace.springframework.cloud.gateway.cache.FreshnessPolicy;
 import org.contenttrace.springframework.cloud.gateway.cache.store.CacheKey;
 import org.contenttrace.springframework.cloud.gateway.cache.store.CacheKeyProducer;
+import org.contenttrace.springframework.cloud.gateway.cache.store.CoarseClock;
 import org.contenttrace.springframework.cloud.gateway.cache.store.Entry;
+import org.contenttrace.springframework.cloud.gateway.cache.store.Payload;
 import org.contenttrace.springframework.cloud.gateway.cache.store.Store;
+import org.contenttrace.springframework.cloud.gateway.cache.store.VaryNormalizer;
 import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.util.Base64Utils;
+import org.springframework.util.StringUtils;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.core.publisher.ReplayProcessor;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Stream;
 
 import static java.util.Objects.requireNonNull;
 
-public class InMemoryStore implements Store {
+public class InMemoryStore implements Store, AutoCloseable {
 
 	private static final Logger LOG = LoggerFactory.getLogger(InMemoryStore.class);
 
-	private final Map<SHA2CacheKeyBuilder.SHA2CacheKey, Bag> bags;
+	private static final Duration CLOCK_RESOLUTION = Duration.ofMillis(10L);
+	private static final Duration CLEAN_UP_INTERVAL = Duration.ofSeconds(1L);
+
+	private static final String CAPTURE_ATTRIBUTE_NAME = InMemoryStore.class.getName() + ".capture";
+	private static final String KEY_ATTRIBUTE_NAME = InMemoryStore.class.getName() + ".key";
+
+	/**
+	 * The key builders are reused by the threads serving requests, so computing a key does not allocate a digest.
+	 */
+	private static final ThreadLocal<SHA2CacheKeyBuilder> SHA2_KEY_BUILDERS = ThreadLocal.withInitial(SHA2CacheKeyBuilder::new);
+
+	private final Cache<InMemoryCacheKey, Bag> cache;
+	private final Map<InMemoryCacheKey, Bag> bags;
+	private final ConcurrentMap<InMemoryCacheKey, InFlightCapture> captures;
 	private final CacheKeyProducer cacheKeyProducer;
+	private final VaryNormalizer varyNormalizer;
+	private final ThreadLocal<Murmur3CacheKeyBuilder> murmur3KeyBuilders;
 	private final InMemoryStoreConfiguration configuration;
+	private final FreshnessPolicy freshnessPolicy;
+	private final Duration staleRetention;
+	private final Path snapshotFile;
+	private final ScheduledExecutorService maintenanceExecutor;
+	private final CoarseClock clock;
+	private final SlabAllocator slabAllocator;
+	private final FramePool framePool;
 
 	private final InMemoryEvents events;
 	private final InMemoryMetrics metrics;
+	private final TagIndex<Representation> tagIndex;
+	private final PathIndex<Representation> pathIndex;
+	private final RepresentationTracker tracker;
+	private final AdmissionFilter admissionFilter;
 
 	InMemoryStore(final CacheKeyProducer cacheKeyProducer,
 				  final InMemoryStoreConfiguration configuration) {
+		this(cacheKeyProducer, configuration, VaryNormalizer.NONE);
+	}
+
+	InMemoryStore(final CacheKeyProducer cacheKeyProducer,
+				  final InMemoryStoreConfiguration configuration,
+				  final VaryNormalizer varyNormalizer) {
 		Objects.requireNonNull(cacheKeyProducer, "A cache key producer is required!");
 		Objects.requireNonNull(configuration, "A configuration is required!");
+		Objects.requireNonNull(varyNormalizer, "A vary normalizer is required!");
 		this.cacheKeyProducer = cacheKeyProducer;
-		this.bags = new ConcurrentHashMap<>();
+		this.varyNormalizer = varyNormalizer;
+		this.murmur3KeyBuilders = configuration.getCacheKeyHash() == InMemoryStoreConfiguration.CacheKeyHash.MURMUR3_128
+				? ThreadLocal.withInitial(() -> new Murmur3CacheKeyBuilder(
+						configuration.getCacheKeySeed(), configuration.isVerifyCacheKeys()))
+				: null;
 		this.configuration = configuration;
-		this.events = new InMemoryEvents();
-		this.metrics = new InMemoryMetrics();
+		this.freshnessPolicy = configuration.getFreshness();
+		this.staleRetention = configuration.getStaleRetention();
+		this.snapshotFile = configuration.getSnapshotFile();
+		// Eviction and other maintenance work must not block the threads serving requests.
+		this.maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "inmemory-store-maintenance");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.clock = new CoarseClock(maintenanceExecutor, CLOCK_RESOLUTION);
+		this.slabAllocator = configuration.getPayloadStorage() == InMemoryStoreConfiguration.PayloadStorage.OFF_HEAP
+				? new SlabAllocator(configuration.getOffHeapMaximumSize())
+				: null;
+		this.framePool = new FramePool(FrameOutputStream.DEFAULT_FRAME_SIZE,
+				(int) Math.min(Integer.MAX_VALUE, configuration.getFramePoolMaximumSize() / FrameOutputStream.DEFAULT_FRAME_SIZE));
+		this.events = InMemoryEvents.create(configuration);
+		this.tagIndex = new TagIndex<>();
+		this.pathIndex = new PathIndex<>();
+		this.metrics = new InMemoryMetrics(framePool, events, this::storedResources);
+		this.tracker = new RepresentationTracker(tagIndex, pathIndex, metrics);
+		this.admissionFilter = configuration.getAdmissionThreshold() > 0
+				? new AdmissionFilter(configuration.getAdmissionThreshold(), configuration.getAdmissionExpectedKeys())
+				: null;
+		this.cache = createCache(configuration, maintenanceExecutor, clock, metrics);
+		this.bags = cache.asMap();
+		this.captures = new ConcurrentHashMap<>();
+		// Expired bags are reclaimed by the timer wheel of the cache, which is advanced during its maintenance. The
+		// periodic clean up makes sure, the memory is reclaimed even if the store is idle.
+		final long cleanUpInterval = CLEAN_UP_INTERVAL.toMillis();
+		this.maintenanceExecutor.scheduleWithFixedDelay(cache::cleanUp, cleanUpInterval, cleanUpInterval, TimeUnit.MILLISECONDS);
+		// The snapshot is restored in the background, so requests can be served right away.
+		if (snapshotFile != null && Files.exists(snapshotFile)) {
+			this.maintenanceExecutor.execute(this::restore);
+		}
+	}
+
+	private static Cache<InMemoryCacheKey, Bag> createCache(final InMemoryStoreConfiguration configuration,
+																		   final ScheduledExecutorService maintenanceExecutor,
+																		   final CoarseClock clock,
+																		   final InMemoryMetrics metrics) {
+		// The expiration of each bag is tracked by a hierarchical timer wheel, so no scan is required to find them.
+		Caffeine<InMemoryCacheKey, Bag> builder = Caffeine.newBuilder()
+				.executor(maintenanceExecutor)
+				.expireAfter(new BagExpiry(clock))
+				// Replaced and explicitly removed bags are released by the store itself.
+				.removalListener((InMemoryCacheKey key, Bag bag, RemovalCause cause) -> {
+					if (cause.wasEvicted() && bag != null) {
+						metrics.evicted();
+						bag.release();
+					}
+				});
+		if (configuration.getMaximumSize() > 0L) {
+			// W-TinyLFU keeps frequently requested bags in favour of one-hit wonders, once the budget is exhausted.
+			builder = builder
+					.maximumWeight(configuration.getMaximumSize())
+					.weigher((InMemoryCacheKey key, Bag bag) -> Weights.toInt(bag.weight()));
+		}
+		return builder.build();
+	}
+
+	@Override
+	public void close() {
+		maintenanceExecutor.shutdown();
+		try {
+			// A snapshot must not be written while a previous one is still being restored.
+			maintenanceExecutor.awaitTermination(10L, TimeUnit.SECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (snapshotFile != null) {
+			try {
+				snapshot();
+			} catch (final IOException e) {
+				LOG.error("Failed to write snapshot [{}]!", snapshotFile, e);
+			}
+		}
+		events.close();
+		clock.close();
+	}
+
+	/**
+	 * Writes the representations of the store to the configured snapshot file, replacing the previous snapshot.
+	 * Representations, which are not needed any more, are skipped. The store keeps serving requests while the snapshot
+	 * is written, so representations stored in the meantime may or may not be part of the snapshot.
+	 *
+	 * @return the number of representations written
+	 * @throws IOException           if the snapshot cannot be written
+	 * @throws IllegalStateException if no snapshot file is configured
+	 */
+	public int snapshot() throws IOException {
+		if (snapshotFile == null) {
+			throw new IllegalStateException("No snapshot file configured!");
+		}
+		final long now = clock.millis();
+		final List<InMemorySnapshot.BagRecord> records = new ArrayList<>();
+		try {
+			for (final Bag bag : bags.values()) {
+				final InMemorySnapshot.BagRecord record = bag.snapshot();
+				for (final Representation representation : bag.representations()) {
+					if (!representation.isValid() || representation.reclaimAt() <= now || !representation.payload.retain()) {
+						continue;
+					}
+					record.representations.add(representation.snapshot());
+				}
+				if (!record.representations.isEmpty()) {
+					records.add(record);
+				}
+			}
+			final int written = InMemorySnapshot.write(snapshotFile, records);
+			LOG.info("Wrote [{}] representations to snapshot [{}].", written, snapshotFile);
+			return written;
+		} finally {
+			records.forEach(record -> record.representations.forEach(representation -> representation.payload.release()));
+		}
+	}
+
+	private void restore() {
+		final List<InMemorySnapshot.BagRecord> records;
+		try {
+			records = InMemorySnapshot.read(snapshotFile, clock.millis());
+		} catch (final IOException e) {
+			LOG.warn("Failed to read snapshot [{}], the store starts empty.", snapshotFile, e);
+			return;
+		}
+		int restored = 0;
+		for (final InMemorySnapshot.BagRecord record : records) {
+			final Bag bag = Bag.restore(record, tracker);
+			// Representations stored since the start are more recent than the snapshot.
+			if (bags.putIfAbsent(bag.getKey(), bag) != null) {
+				bag.release();
+			} else {
+				restored = restored + record.representations.size();
+			}
+		}
+		LOG.info("Restored [{}] representations from snapshot [{}].", restored, snapshotFile);
 	}
 
 	@Override
@@ -73,41 +268,153 @@ public class InMemoryStore implements Store {
 		return metrics;
 	}
 
-	private SHA2CacheKeyBuilder.SHA2CacheKey createKey(final ServerHttpRequest request) {
-		final SHA2CacheKeyBuilder cacheKeyBuilder = new SHA2CacheKeyBuilder();
+	private long storedResources() {
+		return cache.estimatedSize();
+	}
+
+	private InMemoryCacheKey createKey(final ServerHttpRequest request) {
+		if (murmur3KeyBuilders != null) {
+			final Murmur3CacheKeyBuilder cacheKeyBuilder = murmur3KeyBuilders.get().reset();
+			cacheKeyProducer.createKey(request, cacheKeyBuilder);
+			return cacheKeyBuilder.build();
+		}
+		final SHA2CacheKeyBuilder cacheKeyBuilder = SHA2_KEY_BUILDERS.get().reset();
 		cacheKeyProducer.createKey(request, cacheKeyBuilder);
 		return cacheKeyBuilder.build();
 	}
 
+	/**
+	 * Returns the key of the request of an exchange. The key is computed once and kept as an attribute of the exchange
+	 * for all later phases, e.g. writing the response to the store.
+	 */
+	private InMemoryCacheKey createKey(final ServerWebExchange exchange) {
+		final InMemoryCacheKey memoized = exchange.getAttribute(KEY_ATTRIBUTE_NAME);
+		if (memoized != null) {
+			return memoized;
+		}
+		final InMemoryCacheKey key = createKey(exchange.getRequest());
+		exchange.getAttributes().put(KEY_ATTRIBUTE_NAME, key);
+		return key;
+	}
+
+	/**
+	 * Returns whether the key of a bag collides with the key of a request, i.e. both are equal, but were built from
+	 * different key material. Collisions are only detected if the keys are verified.
+	 */
+	private static boolean collides(final InMemoryCacheKey stored, final InMemoryCacheKey requested) {
+		if (stored.collidesWith(requested)) {
+			LOG.warn("Cache key [{}] collides with the key of another resource, the resource is not served from the store.",
+					requested);
+			return true;
+		}
+		return false;
+	}
+
 	@Override
 	public Optional<? extends Entry> find(final ServerHttpRequest request) {
 		requireNonNull(request, "'request' must not be null!");
+		return find(request, createKey(request));
+	}
 
-		final SHA2CacheKeyBuilder.SHA2CacheKey cacheKey = createKey(request);
+	@Override
+	public Optional<? extends Entry> find(final ServerWebExchange exchange) {
+		requireNonNull(exchange, "'exchange' must not be null!");
+		return find(exchange.getRequest(), createKey(exchange));
+	}
+
+	private Optional<InMemoryEntry> find(final ServerHttpRequest request, final InMemoryCacheKey cacheKey) {
 		final Bag bag = bags.get(cacheKey);
 
-		if (bag == null) {
+		if (bag == null || collides(bag.getKey(), cacheKey)) {
 			return Optional.empty();
 		}
 
+		final Representation representation;
 		if (bag instanceof NegotiatedRepresentationBag) {
-			final NegotiatedRepresentationBag negotiatedBag = ((NegotiatedRepresentationBag) bag);
-			final NegotiatedRepresentation representation = negotiatedBag.find(request).orElse(null);
-			if (representation != null && representation.isValid()) {
-				return Optional.of(new InMemoryEntry(this, cacheKey, bag, representation));
-			}
-		} else if (bag instanceof SimpleRepresentationBag && ((SimpleRepresentationBag) bag).representation.isValid()) {
-			return Optional.of(new InMemoryEntry(this, cacheKey, bag, ((SimpleRepresentationBag) bag).representation));
+			representation = ((NegotiatedRepresentationBag) bag).find(request, varyNormalizer, clock.millis()).orElse(null);
+		} else if (bag instanceof SimpleRepresentationBag) {
+			representation = ((SimpleRepresentationBag) bag).representation;
+		} else {
+			representation = null;
+		}
+
+		if (representation != null && representation.isValid()) {
+			// Clients not accepting gzip receive the compressed payload decompressed.
+			final boolean decompress = representation.compressed && !ContentCodings.acceptsGzip(request.getHeaders());
+			return Optional.of(new InMemoryEntry(this, cacheKey, bag, representation, decompress));
 		}
 
 		return Optional.empty();
 	}
 
+	/**
+	 * Returns how long a representation is retained after it has become stale. Stale representations are retained, if
+	 * they can be served while they are revalidated in the background or if they can be revalidated with a conditional
+	 * request.
+	 */
+	private long staleRetention(final HttpHeaders responseHeaders, final boolean eTagGenerated) {
+		final long window = FreshnessPolicy.staleWhileRevalidate(responseHeaders, staleRetention).toMillis();
+		final boolean validated = (!eTagGenerated && StringUtils.hasText(responseHeaders.getETag()))
+				|| StringUtils.hasText(responseHeaders.getFirst(HttpHeaders.LAST_MODIFIED));
+		return validated ? Math.max(window, staleRetention.toMillis()) : window;
+	}
+
+	@Override
+	public Optional<? extends Entry> revalidate(final Entry entry, final HttpHeaders notModifiedHeaders) {
+		requireNonNull(entry, "'entry' must not be null!");
+		requireNonNull(notModifiedHeaders, "'notModifiedHeaders' must not be null!");
+
+		if (!(entry instanceof InMemoryEntry) || ((InMemoryEntry) entry).store != this) {
+			return Optional.empty();
+		}
+		final InMemoryEntry staleEntry = (InMemoryEntry) entry;
+		final Representation stale = staleEntry.representation;
+		// The refreshed representation shares the payload of the stale one, so it needs a reference of its own.
+		if (!stale.isValid() || !stale.payload.retain()) {
+			return Optional.empty();
+		}
+
+		// RFC 7234, section 4.3.4: The stored headers are updated with the headers of the 304 response.
+		final HttpHeaders mergedHeaders = new HttpHeaders();
+		mergedHeaders.putAll(stale.responseHeaders);
+		notModifiedHeaders.forEach((name, values) -> {
+			if (!HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+				mergedHeaders.put(name, values);
+			}
+		});
+		final HttpHeaders responseHeaders = stale.compressed
+				? ContentCodings.compressedHeaders(mergedHeaders, stale.size)
+				: HttpHeaders.readOnlyHttpHeaders(mergedHeaders);
+		final long now = clock.millis();
+		final Representation refreshed = stale.revalidate(
+				responseHeaders,
+				now,
+				freshnessPolicy.initialAge(responseHeaders),
+				freshnessPolicy.lifetime(responseHeaders, now),
+				staleRetention(responseHeaders, stale.eTagGenerated)
+		);
+
+		final AtomicBoolean replaced = new AtomicBoolean(false);
+		final Bag bag = bags.computeIfPresent(staleEntry.cacheKey, (key, existingBag) -> {
+			final Bag updatedBag = existingBag.replace(stale, refreshed);
+			replaced.set(updatedBag != null);
+			return updatedBag != null ? updatedBag : existingBag;
+		});
+		if (!replaced.get()) {
+			LOG.debug("Entry [{}] was removed while it was revalidated.", entry);
+			refreshed.release();
+			return Optional.empty();
+		}
+		stale.release();
+		// The revalidated entry is served to the client of the stale one.
+		return Optional.of(new InMemoryEntry(this, staleEntry.cacheKey, bag, refreshed, staleEntry.decompress));
+	}
+
 	@Override
 	public Stream<InMemoryEntry> find(final String cacheKey) {
 		Objects.requireNonNull(cacheKey, "CacheKey must not be null!");
 		try {
-			return find(SHA2CacheKeyBuilder.parse(cacheKey));
+			return find(InMemoryCacheKey.parse(cacheKey));
 		} catch (final IllegalArgumentException e) {
 			LOG.debug("Invalid cache key [{}]!", cacheKey, e);
 			return Stream.empty();
@@ -117,13 +424,13 @@ public class InMemoryStore implements Store {
 	@Override
 	public Stream<InMemoryEntry> find(final CacheKey cacheKey) {
 		Objects.requireNonNull(cacheKey, "CacheKey must not be null!");
-		if (cacheKey instanceof SHA2CacheKeyBuilder.SHA2CacheKey) {
-			return find(((SHA2CacheKeyBuilder.SHA2CacheKey) cacheKey));
+		if (cacheKey instanceof InMemoryCacheKey) {
+			return find(((InMemoryCacheKey) cacheKey));
 		}
 		return Stream.empty();
 	}
 
-	private Stream<InMemoryEntry> find(final SHA2CacheKeyBuilder.SHA2CacheKey cacheKey) {
+	private Stream<InMemoryEntry> find(final InMemoryCacheKey cacheKey) {
 		Objects.requireNonNull(cacheKey, "CacheKey must not be null!");
 
 		final Bag bag = bags.get(cacheKey);
@@ -134,7 +441,7 @@ public class InMemoryStore implements Store {
 
 		if (bag instanceof NegotiatedRepresentationBag) {
 			final NegotiatedRepresentationBag negotiatedBag = ((NegotiatedRepresentationBag) bag);
-			return negotiatedBag.entries.stream()
+			return negotiatedBag.entries.values().stream()
 					.map(representation -> new InMemoryEntry(this, cacheKey, negotiatedBag, representation));
 		} else if (bag instanceof SimpleRepresentationBag && ((SimpleRepresentationBag) bag).representation.isValid()) {
 			return Stream.of(new InMemoryEntry(this, cacheKey, bag, ((SimpleRepresentationBag) bag).representation));
@@ -143,6 +450,63 @@ public class InMemoryStore implements Store {
 		return Stream.empty();
 	}
 
+	@Override
+	public Mono<Entry> collapse(final ServerWebExchange exchange) {
+		requireNonNull(exchange, "'exchange' must not be null!");
+
+		final ServerHttpRequest request = exchange.getRequest();
+		final InMemoryCacheKey key = createKey(exchange);
+		final InFlightCapture capture = new InFlightCapture(key);
+		final InFlightCapture leader = captures.putIfAbsent(key, capture);
+
+		if (leader != null && collides(leader.key, key)) {
+			return Mono.empty();
+		}
+
+		if (leader == null) {
+			exchange.getAttributes().put(CAPTURE_ATTRIBUTE_NAME, capture);
+			// A response committed without being written to the store, e.g. because it cannot be cached, releases the
+			// followers right away, so they do not have to wait for the response to complete.
+			exchange.getResponse().beforeCommit(() -> {
+				abandon(capture);
+				return Mono.empty();
+			});
+			return Mono.empty();
+		}
+
+		if (leader.follow()) {
+			return leader.started
+					.filter(entry -> new VariantKey(entry.varyRequestHeaders).equals(new VariantKey(
+							varyNormalizer.normalize(entry.responseHeaders.getVary(), request.getHeaders()))))
+					.cast(Entry.class);
+		}
+		return leader.completed
+				.flatMap(stored -> stored
+						? Mono.justOrEmpty(find(request, key).map(Entry.class::cast))
+						: Mono.empty());
+	}
+
+	@Override
+	public void release(final ServerWebExchange exchange) {
+		requireNonNull(exchange, "'exchange' must not be null!");
+		final InFlightCapture capture = exchange.getAttribute(CAPTURE_ATTRIBUTE_NAME);
+		if (capture != null) {
+			abandon(capture);
+		}
+	}
+
+	private void abandon(final InFlightCapture capture) {
+		if (capture.abandon()) {
+			capture.started.onComplete();
+			settle(capture, false);
+		}
+	}
+
+	private void settle(final InFlightCapture capture, final boolean stored) {
+		captures.remove(capture.key, capture);
+		capture.completed.onNext(stored);
+	}
+
 	@SuppressWarnings("unchecked")
 	private static Flux<? extends DataBuffer> asFlux(final Publisher<? extends DataBuffer> publisher) {
 		if (publisher instanceof Flux) {
@@ -155,85 +519,66 @@ public class InMemoryStore implements Store {
 
 	@Override
 	public ServerWebExchange write(final ServerWebExchange exchange) {
+		return write(exchange, -1L);
+	}
+
+	@Override
+	public ServerWebExchange write(final ServerWebExchange exchange, final long maximumSize) {
 		requireNonNull(exchange, "'exchange' must not be null!");
 
+		final long maximumObjectSize = maximumObjectSize(maximumSize);
 		final long contentLength = exchange.getResponse().getHeaders().getContentLength();
+		if (maximumObjectSize > 0L && contentLength > maximumObjectSize) {
+			LOG.debug("Response for exchange [{}] exceeds the maximum size of [{}] bytes.", exchange, maximumObjectSize);
+			metrics.oversized();
+			return exchange;
+		}
+
+		if (admissionFilter != null) {
+			if (!admissionFilter.admit(createKey(exchange))) {
+				// The response passes through untouched. A collapsing leader releases its followers once it commits.
+				LOG.debug("Response for exchange [{}] is not admitted to the store.", exchange);
+				metrics.rejected();
+				return exchange;
+			}
+			metrics.admitted();
+		}
+
 		final long initialBufferSize = contentLength < 1L
 				? configuration.getInitialBufferMinimumSize()
-				: Math.max(contentLength, configuration.getInitialBufferMaximumSize());
+				: Math.min(contentLength, configuration.getInitialBufferMaximumSize());
 
-		final FrameOutputStream outputStream = new FrameOutputStream(initialBufferSize);
+		final PayloadOutputStream frameOutputStream = slabAllocator != null
+				? new SlabOutputStream(slabAllocator, initialBufferSize)
+				: new FrameOutputStream(framePool, initialBufferSize);
+		final PayloadOutputStream outputStream = configuration.isCompressPayloads()
+				&& ContentCodings.isCompressible(exchange.getResponse().getHeaders(), configuration)
+				? compress(exchange, frameOutputStream)
+				: frameOutputStream;
 
 		final PayloadSink sink = new PayloadSink(
-				outputStream
+				outputStream,
+				outputStream instanceof GzipPayloadOutputStream,
+				configuration.getCaptureMode(),
+				maximumObjectSize,
+				exchange.getAttribute(CAPTURE_ATTRIBUTE_NAME),
+				configuration.isGenerateETags() && !StringUtils.hasText(exchange.getResponse().getHeaders().getETag())
+						? newETagDigest()
+						: null
 		);
 
-		final boolean traceEnabled = LOG.isTraceEnabled();
-
-		final byte[] copyBuffer = new byte[8 * 1024];
-
 		final ServerHttpResponseDecorator decorator = new ServerHttpResponseDecorator(exchange.getResponse()) {
 
 			@Override
 			public Mono<Void> writeWith(final Publisher<? extends DataBuffer> body) {
 
+				if (sink.inFlight != null) {
+					startInFlight(exchange, sink.inFlight, replayLimit(maximumObjectSize));
+				}
+
 				final Flux<? extends DataBuffer> flux = asFlux(body)
-						.map(buffer -> {
-
-							if (sink.dirty) {
-								return buffer;
-							}
-
-							if (traceEnabled) {
-								LOG.trace("initial state - readPos: {}, writePos: {}, readable: {}", buffer.readPosition(), buffer.writePosition(), buffer.readableByteCount());
-							}
-
-							final int initialReadPosition = buffer.readPosition();
-
-							int lastReadPosition = initialReadPosition;
-							int readableByteCount = buffer.readableByteCount();
-
-							while (readableByteCount > 0) {
-
-								if (traceEnabled) {
-									LOG.trace("loop - readPos: {}, writePos: {}, readable: {}", buffer.readPosition(), buffer.writePosition(), buffer.readableByteCount());
-								}
-
-								buffer.read(copyBuffer, 0, Math.min(readableByteCount, copyBuffer.length));
-
-								final int currentReadPosition = buffer.readPosition();
-								final int bytesRead = currentReadPosition - lastReadPosition;
-								readableByteCount = readableByteCount - bytesRead;
-
-								try {
-									sink.outputStream.write(copyBuffer, 0, bytesRead);
-								} catch (IOException e) {
-									LOG.error("Failed to write to sink for exchange [{}]!", exchange, e);
-									sink.dirty = true;
-									return buffer.readPosition(initialReadPosition);
-								}
-
-								lastReadPosition = currentReadPosition;
-							}
-
-							return buffer.readPosition(initialReadPosition);
-						})
-						.doFinally(signalType -> {
-							try {
-								sink.outputStream.close();
-							} catch (IOException e) {
-								LOG.error("Failed to close sink for exchange [{}]!", exchange, e);
-							}
-							if (!sink.dirty) {
-								try {
-									createEntry(exchange, sink);
-								} catch (final Exception e) {
-									LOG.error("Failed to create cache representation for exchange [{}]!", exchange, e);
-								}
-							} else {
-								LOG.debug("Sink is dirty for exchange [{}].", exchange);
-							}
-						});
+						.doOnNext(buffer -> capture(exchange, sink, buffer))
+						.doFinally(signalType -> complete(exchange, sink, signalType));
 
 				return super.writeWith(flux);
 			}
@@ -242,10 +587,195 @@ public class InMemoryStore implements Store {
 		return exchange.mutate().response(decorator).build();
 	}
 
+	/**
+	 * Returns the smaller of the maximum object size of the store and the maximum size requested for an exchange,
+	 * ignoring disabled limits.
+	 */
+	private long maximumObjectSize(final long maximumSize) {
+		final long configured = configuration.getMaximumObjectSize();
+		if (configured < 1L) {
+			return maximumSize;
+		}
+		return maximumSize < 1L ? configured : Math.min(configured, maximumSize);
+	}
+
+	private PayloadOutputStream compress(final ServerWebExchange exchange,
+										 final PayloadOutputStream outputStream) {
+		try {
+			return new GzipPayloadOutputStream(outputStream, configuration.getCompressionLevel());
+		} catch (final IOException e) {
+			LOG.warn("Failed to compress payload for exchange [{}], it is stored uncompressed.", exchange, e);
+			return outputStream;
+		}
+	}
+
+	/**
+	 * Returns the maximum number of bytes copied for followers, which is bounded by the maximum object size, too.
+	 */
+	private long replayLimit(final long maximumObjectSize) {
+		final long configured = configuration.getCollapsedReplayMaximumSize();
+		return maximumObjectSize > 0L ? Math.min(configured, maximumObjectSize) : configured;
+	}
+
+	private void startInFlight(final ServerWebExchange exchange,
+							   final InFlightCapture inFlight,
+							   final long replayLimit) {
+		// Followers are only fed while the response is in progress, if the copy kept for them is known to be bounded.
+		// Otherwise, they fetch the resource on their own right away.
+		final long contentLength = exchange.getResponse().getHeaders().getContentLength();
+		if (!inFlight.start(contentLength >= 0L && contentLength <= replayLimit ? contentLength : -1L)) {
+			inFlight.started.onComplete();
+			return;
+		}
+		final ServerHttpRequest request = exchange.getRequest();
+		final HttpHeaders responseHeaders = responseHeaders(exchange.getResponse());
+		final HttpHeaders varyHeaders = varyNormalizer.normalize(responseHeaders.getVary(), request.getHeaders());
+		inFlight.started.onNext(new ProgressiveEntry(
+				inFlight.key,
+				request,
+				responseHeaders,
+				varyHeaders,
+				freshnessPolicy.initialAge(responseHeaders),
+				freshnessPolicy.lifetime(responseHeaders, clock.millis()),
+				inFlight.chunks
+		));
+	}
+
+	private void capture(final ServerWebExchange exchange,
+						 final PayloadSink sink,
+						 final DataBuffer buffer) {
+		if (!sink.dirty) {
+			try {
+				sink.count(buffer);
+				if (sink.retainedBuffers != null) {
+					sink.retainedBuffers.add(DataBufferUtils.retain(buffer));
+				} else {
+					sink.write(buffer);
+				}
+			} catch (final SizeLimitExceededException e) {
+				// The response is still written to the client, but nothing more of it is buffered.
+				LOG.debug("Response for exchange [{}] exceeds the maximum size of [{}] bytes, capture is abandoned.",
+						exchange, e.getMaxmimumSize());
+				metrics.oversized();
+				sink.discard();
+			} catch (final OffHeapBudgetExhaustedException e) {
+				LOG.debug("Off-heap budget of [{}] bytes is exhausted, capture of response for exchange [{}] is abandoned.",
+						e.getBudget(), exchange);
+				metrics.budgetExhausted();
+				sink.discard();
+			} catch (final IOException e) {
+				LOG.error("Failed to write to sink for exchange [{}]!", exchange, e);
+				sink.dirty = true;
+			}
+		}
+		if (sink.inFlight != null) {
+			if (sink.discarded) {
+				// Nothing more of the response is kept once the capture has been abandoned, not even for followers.
+				sink.inFlight.stop(new IOException("The capture of the leading request has been abandoned!"));
+			} else {
+				sink.inFlight.record(buffer);
+			}
+		}
+	}
+
+	private void complete(final ServerWebExchange exchange,
+						  final PayloadSink sink,
+						  final SignalType signalType) {
+		if (signalType != SignalType.ON_COMPLETE) {
+			LOG.debug("Response for exchange [{}] was not completed ({}).", exchange, signalType);
+			sink.dirty = true;
+			if (sink.inFlight != null) {
+				sink.inFlight.stop(new IOException("The response of the leading request was not completed!"));
+			}
+		} else if (sink.inFlight != null) {
+			sink.inFlight.stop(null);
+		}
+		if (sink.retainedBuffers == null || sink.dirty) {
+			finish(exchange, sink);
+		} else {
+			// The retained buffers are consolidated into frames off the event loop, which already served the response.
+			Schedulers.parallel().schedule(() -> finish(exchange, sink));
+		}
+	}
+
+	private void finish(final ServerWebExchange exchange,
+						final PayloadSink sink) {
+		if (sink.retainedBuffers != null) {
+			try {
+				for (final DataBuffer buffer : sink.retainedBuffers) {
+					if (!sink.dirty) {
+						sink.write(buffer);
+					}
+				}
+			} catch (final IOException e) {
+				LOG.error("Failed to write to sink for exchange [{}]!", exchange, e);
+				sink.dirty = true;
+			} finally {
+				sink.retainedBuffers.forEach(DataBufferUtils::release);
+				sink.retainedBuffers.clear();
+			}
+		}
+		if (!sink.discarded) {
+			try {
+				sink.outputStream.close();
+			} catch (final IOException e) {
+				LOG.error("Failed to close sink for exchange [{}]!", exchange, e);
+				sink.dirty = true;
+			}
+		}
+		boolean stored = false;
+		if (sink.dirty) {
+			LOG.debug("Sink is dirty for exchange [{}].", exchange);
+			sink.discard();
+		} else {
+			try {
+				createEntry(exchange, sink);
+				stored = true;
+			} catch (final Exception e) {
+				LOG.error("Failed to create cache representation for exchange [{}]!", exchange, e);
+				sink.outputStream.toFrames().release();
+			}
+		}
+		if (sink.inFlight != null) {
+			settle(sink.inFlight, stored);
+		}
+	}
+
 	private HttpHeaders responseHeaders(final ServerHttpResponse response) {
 		return HttpHeaders.readOnlyHttpHeaders(response.getHeaders());
 	}
 
+	private HttpHeaders responseHeaders(final ServerHttpResponse response, final String generatedETag) {
+		if (generatedETag == null) {
+			return responseHeaders(response);
+		}
+		final HttpHeaders responseHeaders = new HttpHeaders();
+		responseHeaders.putAll(response.getHeaders());
+		responseHeaders.setETag(generatedETag);
+		return HttpHeaders.readOnlyHttpHeaders(responseHeaders);
+	}
+
+	/**
+	 * Returns the headers of the representation created from the response captured by the sink.
+	 */
+	private HttpHeaders storedHeaders(final ServerHttpResponse response,
+									  final PayloadSink sink,
+									  final String generatedETag,
+									  final Frames payload) {
+		final HttpHeaders responseHeaders = responseHeaders(response, generatedETag);
+		return sink.compressed
+				? ContentCodings.compressedHeaders(responseHeaders, payload.size())
+				: responseHeaders;
+	}
+
+	private static MessageDigest newETagDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Unsupported digest algorithm!", e);
+		}
+	}
+
 	private void createEntry(final ServerWebExchange exchange,
 							 final PayloadSink sink) {
 		final List<String> vary = exchange.getResponse().getHeaders().getVary();
@@ -261,65 +791,157 @@ public class InMemoryStore implements Store {
 
 	private InMemoryEntry createSimpleEntry(final ServerWebExchange exchange,
 											final PayloadSink sink) {
-		final SHA2CacheKeyBuilder.SHA2CacheKey key = createKey(exchange.getRequest());
-		final Representation representation = new Representation(
-				responseHeaders(exchange.getResponse()),
-				sink.outputStream.getFrames(),
-				sink.outputStream.size()
-		);
-		final SimpleRepresentationBag bag = new SimpleRepresentationBag(key, exchange.getRequest(), representation);
-		bags.put(key, bag);
+		final InMemoryCacheKey key = createKey(exchange);
+		final String generatedETag = sink.generatedETag();
+		final Frames payload = sink.outputStream.toFrames();
+		final HttpHeaders responseHeaders = storedHeaders(exchange.getResponse(), sink, generatedETag, payload);
+		final long now = clock.millis();
+		final ServerHttpRequest request = exchange.getRequest();
+		final Representation representation = tracker.track(new Representation(
+				responseHeaders,
+				generatedETag != null,
+				sink.compressed,
+				payload,
+				now,
+				freshnessPolicy.initialAge(responseHeaders),
+				freshnessPolicy.lifetime(responseHeaders, now),
+				staleRetention(responseHeaders, generatedETag != null),
+				key,
+				request.getHeaders().getFirst("Host"),
+				request.getURI().getPath(),
+				tracker
+		));
+		metrics.captured(payload.size());
+		final SimpleRepresentationBag bag = new SimpleRepresentationBag(key, request, representation);
+		final Bag previous = bags.put(key, bag);
+		if (previous != null) {
+			previous.release();
+		}
 		return new InMemoryEntry(this, key, bag, representation);
 	}
 
 	private InMemoryEntry createNegotiatedEntry(final ServerWebExchange exchange,
 												final PayloadSink sink,
 												final List<String> vary) {
-		final SHA2CacheKeyBuilder.SHA2CacheKey key = createKey(exchange.getRequest());
-
-		final HttpHeaders varyHeaders = new HttpHeaders();
-		vary.forEach(header -> varyHeaders.addAll(header, exchange.getRequest().getHeaders().get(header)));
-
-		final NegotiatedRepresentation representation = new NegotiatedRepresentation(
-				responseHeaders(exchange.getResponse()),
-				sink.outputStream.getFrames(),
-				sink.outputStream.size(),
-				varyHeaders
-		);
+		final InMemoryCacheKey key = createKey(exchange);
+
+		final HttpHeaders varyHeaders = varyNormalizer.normalize(vary, exchange.getRequest().getHeaders());
+
+		final String generatedETag = sink.generatedETag();
+		final Frames payload = sink.outputStream.toFrames();
+		final HttpHeaders responseHeaders = storedHeaders(exchange.getResponse(), sink, generatedETag, payload);
+		final long now = clock.millis();
+		final ServerHttpRequest request = exchange.getRequest();
+		final NegotiatedRepresentation representation = tracker.track(new NegotiatedRepresentation(
+				responseHeaders,
+				generatedETag != null,
+				sink.compressed,
+				payload,
+				now,
+				freshnessPolicy.initialAge(responseHeaders),
+				freshnessPolicy.lifetime(responseHeaders, now),
+				staleRetention(responseHeaders, generatedETag != null),
+				varyHeaders,
+				key,
+				request.getHeaders().getFirst("Host"),
+				request.getURI().getPath(),
+				tracker
+		));
+		metrics.captured(payload.size());
 
 		final Bag bag = bags.compute(key, (existingKey, existingBag) -> {
-			if (!(existingBag instanceof NegotiatedRepresentationBag)) {
+			if (!(existingBag instanceof NegotiatedRepresentationBag) || existingBag.getKey().collidesWith(key)) {
+				if (existingBag != null) {
+					existingBag.release();
+				}
 				return new NegotiatedRepresentationBag(
 						key,
-						exchange.getRequest(),
+						request,
 						new LinkedHashSet<>(vary)
-				).add(representation);
+				).add(representation, now, configuration.getMaximumVariants());
 			}
-			return ((NegotiatedRepresentationBag) existingBag).add(representation);
+			return ((NegotiatedRepresentationBag) existingBag).add(representation, now, configuration.getMaximumVariants());
 		});
+		metrics.negotiated(((NegotiatedRepresentationBag) bag).variantCount());
 
 		return new InMemoryEntry(this, key, bag, representation);
 	}
 
 	private void remove(final Bag bag, final Representation representation) {
+		bags.computeIfPresent(bag.getKey(), (key, existingBag) -> {
+			if (existingBag != bag) {
+				return existingBag;
+			}
+			return bag.remove(representation) ? null : bag;
+		});
+		representation.release();
+	}
 
+	@Override
+	public int purge(final String tag) {
+		requireNonNull(tag, "'tag' must not be null!");
+		final int purged = purge(tagIndex.purge(tag));
+		LOG.debug("Purged [{}] representations tagged with [{}].", purged, tag);
+		return purged;
+	}
+
+	@Override
+	public int purgeByPath(final String host, final String pathPattern) {
+		requireNonNull(pathPattern, "'pathPattern' must not be null!");
+		final int purged = purge(pathIndex.find(host, pathPattern));
+		LOG.debug("Purged [{}] representations of host [{}] matching [{}].", purged, host, pathPattern);
+		return purged;
+	}
+
+	private int purge(final Map<Representation, InMemoryCacheKey> representations) {
+		int purged = 0;
+		for (final Map.Entry<Representation, InMemoryCacheKey> entry : representations.entrySet()) {
+			final Representation representation = entry.getKey();
+			representation.invalidate();
+			bags.computeIfPresent(entry.getValue(), (key, bag) -> bag.remove(representation) ? null : bag);
+			representation.release();
+			purged = purged + 1;
+		}
+		return purged;
+	}
+
+	@Override
+	public Stream<InMemoryEntry> findByPath(final String host, final String pathPattern) {
+		requireNonNull(pathPattern, "'pathPattern' must not be null!");
+		return pathIndex.find(host, pathPattern).entrySet().stream()
+				.filter(match -> match.getKey().isValid())
+				.map(match -> {
+					final Bag bag = bags.get(match.getValue());
+					return bag != null ? new InMemoryEntry(this, match.getValue(), bag, match.getKey()) : null;
+				})
+				.filter(Objects::nonNull);
 	}
 
 	private static class InMemoryEntry implements Entry {
 
-		private final SHA2CacheKeyBuilder.SHA2CacheKey cacheKey;
+		private final InMemoryCacheKey cacheKey;
 		private final InMemoryStore store;
 		private final Bag bag;
 		private final Representation representation;
+		private final boolean decompress;
 
 		private InMemoryEntry(final InMemoryStore store,
-							  final SHA2CacheKeyBuilder.SHA2CacheKey cacheKey,
+							  final InMemoryCacheKey cacheKey,
 							  final Bag bag,
 							  final Representation representation) {
+			this(store, cacheKey, bag, representation, false);
+		}
+
+		private InMemoryEntry(final InMemoryStore store,
+							  final InMemoryCacheKey cacheKey,
+							  final Bag bag,
+							  final Representation representation,
+							  final boolean decompress) {
 			this.cacheKey = cacheKey;
 			this.store = store;
 			this.bag = bag;
 			this.representation = representation;
+			this.decompress = decompress;
 		}
 
 		@Override
@@ -357,17 +979,52 @@ public class InMemoryStore implements Store {
 
 		@Override
 		public HttpHeaders getResponseHeaders() {
-			return representation.responseHeaders;
+			return decompress ? representation.identityHeaders : representation.responseHeaders;
 		}
 
 		@Override
-		public InputStream openStream() {
+		public InputStream openStream() throws IOException {
+			if (decompress) {
+				return GunzipPayload.openStream(representation.payload);
+			}
+			if (!representation.payload.retain()) {
+				throw new IOException("Payload of the representation has already been released!");
+			}
 			return new FrameInputStream(representation.payload);
 		}
 
+		@Override
+		public Payload openPayload() throws IOException {
+			if (!representation.payload.retain()) {
+				throw new IOException("Payload of the representation has already been released!");
+			}
+			return decompress ? new GunzipPayload(representation.payload) : new FramesPayload(representation.payload);
+		}
+
 		@Override
 		public long size() {
-			return representation.size;
+			// The decompressed size is not known until the payload has been read.
+			return decompress ? -1L : representation.size;
+		}
+
+		@Override
+		public boolean isFresh() {
+			return representation.isFresh(store.clock.millis());
+		}
+
+		@Override
+		public Duration getAge() {
+			return Duration.ofMillis(representation.age(store.clock.millis()));
+		}
+
+		@Override
+		public Duration getLifetime() {
+			return Duration.ofMillis(representation.lifetime());
+		}
+
+		@Override
+		public boolean isETagGenerated() {
+			return representation.eTagGenerated;
 		}
 
 		@Override
@@ -381,37 +1038,445 @@ public class InMemoryStore implements Store {
 			return "InMemoryEntry{" +
 					"bag=" + bag +
 					", representation=" + representation +
+					", decompress=" + decompress +
+					'}';
+		}
+	}
+
+	/**
+	 * A response of the origin, which is currently being captured. Concurrent requests for the same resource follow the
+	 * capture instead of being forwarded to the origin (collapsed forwarding). Followers joining before the response has
+	 * started receive its payload progressively, while it is captured. Followers joining later are served from the store
+	 * once the capture has completed.
+	 */
+	private static final class InFlightCapture {
+
+		private final InMemoryCacheKey key;
+		private final MonoProcessor<ProgressiveEntry> started;
+		private final MonoProcessor<Boolean> completed;
+
+		private boolean pending;
+		private boolean recording;
+		private volatile ReplayProcessor<byte[]> chunks;
+		// Only accessed by the thread writing the response.
+		private long replayLimit;
+		private long recorded;
+		private boolean stopped;
+
+		private InFlightCapture(final InMemoryCacheKey key) {
+			this.key = key;
+			this.started = MonoProcessor.create();
+			this.completed = MonoProcessor.create();
+			this.pending = true;
+			this.recording = false;
+		}
+
+		/**
+		 * Registers a follower.
+		 *
+		 * @return {@code true} if the follower receives the payload progressively, {@code false} if it has to wait for
+		 * the capture to complete
+		 */
+		synchronized boolean follow() {
+			if (pending) {
+				recording = true;
+				return true;
+			}
+			return chunks != null;
+		}
+
+		/**
+		 * Starts the response. The payload is only recorded for followers, if any have joined so far and the number of
+		 * bytes to record is known.
+		 *
+		 * @param replayLimit the number of bytes recorded at most, nothing is recorded if less than 0
+		 * @return {@code true} if the payload is recorded for followers
+		 */
+		synchronized boolean start(final long replayLimit) {
+			pending = false;
+			if (recording && replayLimit >= 0L) {
+				this.replayLimit = replayLimit;
+				chunks = ReplayProcessor.create();
+			}
+			return chunks != null;
+		}
+
+		/**
+		 * Records a copy of a buffer for the followers, because the buffer is released once it has been written. The
+		 * followers fail, if the response exceeds the limit of the recording.
+		 *
+		 * @param buffer the buffer
+		 */
+		void record(final DataBuffer buffer) {
+			final ReplayProcessor<byte[]> chunks = this.chunks;
+			if (chunks == null || stopped) {
+				return;
+			}
+			final ByteBuffer source = buffer.asByteBuffer();
+			if (recorded + source.remaining() > replayLimit) {
+				stop(new IOException("The response of the leading request exceeds its announced length!"));
+				return;
+			}
+			final byte[] chunk = new byte[source.remaining()];
+			source.get(chunk);
+			recorded = recorded + chunk.length;
+			chunks.onNext(chunk);
+		}
+
+		/**
+		 * Stops recording the payload for followers. Followers subscribing later still receive the recorded chunks.
+		 *
+		 * @param error the error signalled to the followers or {@code null} if the payload is complete
+		 */
+		void stop(final Throwable error) {
+			final ReplayProcessor<byte[]> chunks = this.chunks;
+			if (chunks == null || stopped) {
+				return;
+			}
+			stopped = true;
+			if (error != null) {
+				chunks.onError(error);
+			} else {
+				chunks.onComplete();
+			}
+		}
+
+		/**
+		 * Abandons the capture, if the response has not been started.
+		 *
+		 * @return {@code true} if the capture was abandoned
+		 */
+		synchronized boolean abandon() {
+			if (!pending) {
+				return false;
+			}
+			pending = false;
+			return true;
+		}
+	}
+
+	/**
+	 * An entry, which is served to followers while the response of the leading request is captured.
+	 */
+	private static final class ProgressiveEntry implements Entry {
+
+		private final InMemoryCacheKey key;
+		private final String method;
+		private final String host;
+		private final String path;
+		private final String query;
+		private final HttpHeaders responseHeaders;
+		private final HttpHeaders varyRequestHeaders;
+		private final long initialAge;
+		private final long lifetime;
+		private final Flux<byte[]> chunks;
+
+		private ProgressiveEntry(final InMemoryCacheKey key,
+								 final ServerHttpRequest request,
+								 final HttpHeaders responseHeaders,
+								 final HttpHeaders varyRequestHeaders,
+								 final long initialAge,
+								 final long lifetime,
+								 final Flux<byte[]> chunks) {
+			this.key = key;
+			this.method = request.getMethodValue();
+			this.host = request.getHeaders().getFirst("Host");
+			this.path = request.getURI().getPath();
+			this.query = request.getURI().getQuery();
+			this.responseHeaders = responseHeaders;
+			this.varyRequestHeaders = varyRequestHeaders;
+			this.initialAge = initialAge;
+			this.lifetime = lifetime;
+			this.chunks = chunks;
+		}
+
+		@Override
+		public CacheKey getKey() {
+			return key;
+		}
+
+		@Override
+		public String getHttpMethod() {
+			return method;
+		}
+
+		@Override
+		public Optional<String> getHost() {
+			return Optional.ofNullable(host);
+		}
+
+		@Override
+		public String getPath() {
+			return path;
+		}
+
+		@Override
+		public Optional<String> getQuery() {
+			return Optional.ofNullable(query);
+		}
+
+		@Override
+		public HttpHeaders getRequestHeaders() {
+			return varyRequestHeaders;
+		}
+
+		@Override
+		public HttpHeaders getResponseHeaders() {
+			return responseHeaders;
+		}
+
+		@Override
+		public InputStream openStream() throws IOException {
+			throw new IOException("The payload of a response in progress can only be opened as payload!");
+		}
+
+		@Override
+		public Payload openPayload() {
+			return new Payload() {
+
+				@Override
+				public long size() {
+					return -1L;
+				}
+
+				@Override
+				public Flux<DataBuffer> read(final DataBufferFactory bufferFactory) {
+					return chunks.map(bufferFactory::wrap);
+				}
+
+				@Override
+				public Flux<DataBuffer> read(final DataBufferFactory bufferFactory, final long offset, final long length) {
+					if (offset < 0L || length < 0L) {
+						throw new IllegalArgumentException(String.format("Range [%d, %d] is invalid!", offset, length));
+					}
+					// The chunks are only known while they are received, so the range is cut out of them.
+					return DataBufferUtils.takeUntilByteCount(
+							DataBufferUtils.skipUntilByteCount(read(bufferFactory), offset), length);
+				}
+
+				@Override
+				public void close() {
+					// void
+				}
+			};
+		}
+
+		@Override
+		public long size() {
+			return -1L;
+		}
+
+		@Override
+		public boolean isFresh() {
+			return true;
+		}
+
+		@Override
+		public Duration getAge() {
+			return Duration.ofMillis(initialAge);
+		}
+
+		@Override
+		public Duration getLifetime() {
+			return Duration.ofMillis(lifetime);
+		}
+
+		@Override
+		public boolean isETagGenerated() {
+			return false;
+		}
+
+		@Override
+		public void invalidate() {
+			// void, the entry is not stored
+		}
+
+		@Override
+		public String toString() {
+			return "ProgressiveEntry{" +
+					"key=" + key +
+					", path='" + path + '\'' +
 					'}';
 		}
 	}
 
 	private static class PayloadSink {
 
-		private final FrameOutputStream outputStream;
+		private final PayloadOutputStream outputStream;
+		private final boolean compressed;
+		private final List<DataBuffer> retainedBuffers;
+		private final InFlightCapture inFlight;
+		private final MessageDigest digest;
+		private final long maximumSize;
+		private long received;
 		private boolean dirty;
-
-		private PayloadSink(final FrameOutputStream frameOutputStream) {
-			this.outputStream = frameOutputStream;
+		private boolean discarded;
+
+		private PayloadSink(final PayloadOutputStream outputStream,
+							final boolean compressed,
+							final InMemoryStoreConfiguration.CaptureMode captureMode,
+							final long maximumSize,
+							final InFlightCapture inFlight,
+							final MessageDigest digest) {
+			this.outputStream = outputStream;
+			this.compressed = compressed;
+			this.maximumSize = maximumSize;
+			this.received = 0L;
+			this.inFlight = inFlight;
+			this.digest = digest;
+			this.retainedBuffers = captureMode == InMemoryStoreConfiguration.CaptureMode.RETAIN
+					? new ArrayList<>()
+					: null;
 			this.dirty = false;
+			this.discarded = false;
+		}
+
+		/**
+		 * Counts the bytes of a buffer of the response. The limit applies to the response as it is received, whether it
+		 * is compressed or stored off-heap.
+		 */
+		void count(final DataBuffer buffer) throws SizeLimitExceededException {
+			received = received + buffer.readableByteCount();
+			if (maximumSize > 0L && received > maximumSize) {
+				throw new SizeLimitExceededException(maximumSize, "Size limit exceeded!");
+			}
+		}
+
+		/**
+		 * Marks the sink as dirty and frees the captured payload, including retained buffers, right away.
+		 */
+		void discard() {
+			dirty = true;
+			if (discarded) {
+				return;
+			}
+			discarded = true;
+			outputStream.discard();
+			if (retainedBuffers != null) {
+				retainedBuffers.forEach(DataBufferUtils::release);
+				retainedBuffers.clear();
+			}
+		}
+
+		void write(final DataBuffer buffer) throws IOException {
+			// The views share the content of the buffer, so its read position is left untouched.
+			outputStream.write(buffer.asByteBuffer());
+			if (digest != null) {
+				digest.update(buffer.asByteBuffer());
+			}
+		}
+
+		/**
+		 * Returns the strong entity tag generated from the payload, if the origin did not send an entity tag.
+		 *
+		 * @return the entity tag or {@code null}
+		 */
+		String generatedETag() {
+			return digest != null
+					? '"' + Base64Utils.encodeToUrlSafeString(digest.digest()) + '"'
+					: null;
+		}
+	}
+
+	/**
+	 * Accounts for the representations of the store and indexes them by their surrogate keys and their path from the
+	 * time they have been constructed until they are released, whether or not they are added to a bag. Representations
+	 * are only tracked once they have been constructed completely, so the indexes never hand out partial objects.
+	 */
+	private static final class RepresentationTracker {
+
+		private final TagIndex<Representation> tagIndex;
+		private final PathIndex<Representation> pathIndex;
+		private final InMemoryMetrics metrics;
+
+		private RepresentationTracker(final TagIndex<Representation> tagIndex,
+									  final PathIndex<Representation> pathIndex,
+									  final InMemoryMetrics metrics) {
+			this.tagIndex = tagIndex;
+			this.pathIndex = pathIndex;
+			this.metrics = metrics;
+		}
+
+		<R extends Representation> R track(final R representation) {
+			final Representation tracked = representation;
+			metrics.representationCreated(tracked.weight());
+			tagIndex.add(tracked.tags, tracked.key, tracked);
+			pathIndex.add(tracked.host, tracked.path, tracked.key, tracked);
+			return representation;
+		}
+
+		void untrack(final Representation representation) {
+			tagIndex.remove(representation.tags, representation);
+			pathIndex.remove(representation.host, representation.path, representation);
+			metrics.representationReleased(representation.weight());
 		}
 	}
 
 	private static class Representation {
 
 		private final HttpHeaders responseHeaders;
-		private final List<byte[]> payload;
+		private final boolean eTagGenerated;
+		private final boolean compressed;
+		private final HttpHeaders identityHeaders;
+		private final Frames payload;
 		private final long size;
 		private final AtomicBoolean invalidated;
+		private final AtomicBoolean released;
+		private final long weight;
+		private final long storedAt;
+		private final long initialAge;
+		private final long expiresAt;
+		private final long reclaimAt;
+		private final InMemoryCacheKey key;
+		private final String host;
+		private final String path;
+		private final Set<String> tags;
+		private final RepresentationTracker tracker;
 
 		private Representation(final HttpHeaders responseHeaders,
-							   final List<byte[]> payload,
-							   final long size) {
+							   final boolean eTagGenerated,
+							   final boolean compressed,
+							   final Frames payload,
+							   final long storedAt,
+							   final long initialAge,
+							   final long lifetime,
+							   final long staleRetention,
+							   final InMemoryCacheKey key,
+							   final String host,
+							   final String path,
+							   final RepresentationTracker tracker) {
 			requireNonNull(responseHeaders, "'responseHeaders' must not be null!");
 			requireNonNull(payload, "'payload' must not be null!");
+			requireNonNull(key, "'key' must not be null!");
+			requireNonNull(tracker, "'tracker' must not be null!");
 			this.responseHeaders = responseHeaders;
+			this.eTagGenerated = eTagGenerated;
+			this.compressed = compressed;
+			this.identityHeaders = compressed ? ContentCodings.decompressedHeaders(responseHeaders) : null;
 			this.payload = payload;
-			this.size = size;
+			this.size = payload.size();
 			this.invalidated = new AtomicBoolean(false);
+			this.released = new AtomicBoolean(false);
+			this.weight = Weights.OBJECT_HEADER + 6 * Weights.REFERENCE + Weights.of(responseHeaders)
+					+ (identityHeaders != null ? Weights.of(identityHeaders) : 0L) + payload.weight();
+			this.storedAt = storedAt;
+			this.initialAge = initialAge;
+			this.expiresAt = storedAt - initialAge + lifetime;
+			this.reclaimAt = expiresAt + staleRetention;
+			this.key = key;
+			this.host = host;
+			this.path = path;
+			this.tags = SurrogateKeys.of(responseHeaders);
+			this.tracker = tracker;
+		}
+
+		/**
+		 * Returns the estimated number of bytes retained by the representation.
+		 *
+		 * @return the weight in bytes
+		 */
+		long weight() {
+			return weight;
 		}
 
 		void invalidate() {
@@ -422,8 +1487,66 @@ public class InMemoryStore implements Store {
 			return !invalidated.get();
 		}
 
-		boolean matches(final ServerHttpRequest request) {
-			return true;
+		/**
+		 * Releases the reference of the store to the payload. The memory of the payload is freed as soon as all streams
+		 * reading it have been closed.
+		 */
+		void release() {
+			if (released.compareAndSet(false, true)) {
+				tracker.untrack(this);
+				payload.release();
+			}
+		}
+
+		boolean isFresh(final long now) {
+			return now < expiresAt;
+		}
+
+		long age(final long now) {
+			return Math.max(0L, now - storedAt) + initialAge;
+		}
+
+		long lifetime() {
+			return expiresAt - storedAt + initialAge;
+		}
+
+		/**
+		 * Creates a representation with the headers and freshness of a revalidation, sharing the payload of this
+		 * representation. The caller must have retained the payload for the new representation.
+		 */
+		Representation revalidate(final HttpHeaders responseHeaders,
+								  final long storedAt,
+								  final long initialAge,
+								  final long lifetime,
+								  final long staleRetention) {
+			return tracker.track(new Representation(
+					responseHeaders, eTagGenerated, compressed, payload, storedAt, initialAge, lifetime, staleRetention,
+					key, host, path, tracker));
+		}
+
+		/**
+		 * Returns the time after which the representation is not needed any more and can be reclaimed. Stale
+		 * representations are retained for a while, so they can be served while they are revalidated.
+		 *
+		 * @return the time in milliseconds since the epoch
+		 */
+		long reclaimAt() {
+			return reclaimAt;
+		}
+
+		InMemorySnapshot.RepresentationRecord snapshot() {
+			return new InMemorySnapshot.RepresentationRecord(responseHeaders, HttpHeaders.EMPTY, eTagGenerated,
+					compressed, storedAt, initialAge, expiresAt, reclaimAt, payload);
+		}
+
+		static Representation restore(final InMemorySnapshot.BagRecord bag,
+									  final InMemorySnapshot.RepresentationRecord record,
+									  final InMemoryCacheKey key,
+									  final RepresentationTracker tracker) {
+			return tracker.track(new Representation(record.responseHeaders, record.eTagGenerated, record.compressed,
+					record.payload, record.storedAt, record.initialAge,
+					record.expiresAt - record.storedAt + record.initialAge, record.reclaimAt - record.expiresAt, key,
+					bag.host, bag.path, tracker));
 		}
 
 		@Override
@@ -438,59 +1561,73 @@ public class InMemoryStore implements Store {
 	private static class NegotiatedRepresentation extends Representation {
 
 		private final HttpHeaders varyRequestHeaders;
+		private final VariantKey variantKey;
+		private volatile long accessedAt;
 
 		private NegotiatedRepresentation(final HttpHeaders responseHeaders,
-										 final List<byte[]> payload,
-										 final long size,
-										 final HttpHeaders varyRequestHeaders) {
-			super(responseHeaders, payload, size);
+										 final boolean eTagGenerated,
+										 final boolean compressed,
+										 final Frames payload,
+										 final long storedAt,
+										 final long initialAge,
+										 final long lifetime,
+										 final long staleRetention,
+										 final HttpHeaders varyRequestHeaders,
+										 final InMemoryCacheKey key,
+										 final String host,
+										 final String path,
+										 final RepresentationTracker tracker) {
+			super(responseHeaders, eTagGenerated, compressed, payload, storedAt, initialAge, lifetime, staleRetention,
+					key, host, path, tracker);
 			requireNonNull(varyRequestHeaders, "'varyRequestHeaders' must not be null!");
 			this.varyRequestHeaders = varyRequestHeaders;
+			this.variantKey = new VariantKey(varyRequestHeaders);
+			this.accessedAt = storedAt;
 		}
 
-		boolean matches(final ServerHttpRequest request) {
-			final HttpHeaders requestHeaders = request.getHeaders();
-			for (final Map.Entry<String, List<String>> varyHeader : varyRequestHeaders.entrySet()) {
-				final List<String> requestHeaderValues = requestHeaders.get(varyHeader.getKey());
-				if (requestHeaderValues == null || requestHeaderValues.isEmpty()) {
-					return false;
-				}
-				if (varyHeader.getValue().size() != requestHeaderValues.size()) {
-					return false;
-				}
-				if (varyHeader.getValue().size() == 1) {
-					if (!varyHeader.getValue().get(0).equals(requestHeaderValues.get(0))) {
-						return false;
-					}
-				} else {
-					final List<String> leftList = new ArrayList<>(varyHeader.getValue());
-					final List<String> rightList = new ArrayList<>(requestHeaderValues);
-					final Iterator<String> leftListIterator = leftList.iterator();
-					while (leftListIterator.hasNext()) {
-						if (!rightList.remove(leftListIterator.next())) {
-							return false;
-						}
-						leftListIterator.remove();
-					}
-					if (!rightList.isEmpty()) {
-						return false;
-					}
-				}
-			}
-			return true;
+		@Override
+		long weight() {
+			return super.weight() + 2 * Weights.REFERENCE + 8L + 2 * Weights.of(varyRequestHeaders);
+		}
+
+		@Override
+		NegotiatedRepresentation revalidate(final HttpHeaders responseHeaders,
+											final long storedAt,
+											final long initialAge,
+											final long lifetime,
+											final long staleRetention) {
+			return super.tracker.track(new NegotiatedRepresentation(responseHeaders, super.eTagGenerated,
+					super.compressed, super.payload, storedAt, initialAge, lifetime, staleRetention, varyRequestHeaders,
+					super.key, super.host, super.path, super.tracker));
+		}
+
+		@Override
+		InMemorySnapshot.RepresentationRecord snapshot() {
+			return new InMemorySnapshot.RepresentationRecord(super.responseHeaders, varyRequestHeaders,
+					super.eTagGenerated, super.compressed, super.storedAt, super.initialAge, super.expiresAt, super.reclaimAt, super.payload);
+		}
+
+		static NegotiatedRepresentation restore(final InMemorySnapshot.BagRecord bag,
+												final InMemorySnapshot.RepresentationRecord record,
+												final InMemoryCacheKey key,
+												final RepresentationTracker tracker) {
+			return tracker.track(new NegotiatedRepresentation(record.responseHeaders, record.eTagGenerated,
+					record.compressed, record.payload,
+					record.storedAt, record.initialAge, record.expiresAt - record.storedAt + record.initialAge,
+					record.reclaimAt - record.expiresAt, record.varyRequestHeaders, key, bag.host, bag.path, tracker));
 		}
 
 	}
 
 	private static abstract class Bag {
 
-		private final SHA2CacheKeyBuilder.SHA2CacheKey key;
+		private final InMemoryCacheKey key;
 		private final String method;
 		private final String host;
 		private final String path;
 		private final String query;
 
-		Bag(final SHA2CacheKeyBuilder.SHA2CacheKey key,
+		Bag(final InMemoryCacheKey key,
 			final ServerHttpRequest request) {
 			this.key = key;
 			this.method = request.getMethodValue();
@@ -499,11 +1636,102 @@ public class InMemoryStore implements Store {
 			this.query = request.getURI().getQuery();
 		}
 
-		public SHA2CacheKeyBuilder.SHA2CacheKey getKey() {
+		Bag(final InMemorySnapshot.BagRecord record) {
+			this.key = InMemoryCacheKey.of(record.key);
+			this.method = record.method;
+			this.host = record.host;
+			this.path = record.path;
+			this.query = record.query;
+		}
+
+		Bag(final Bag other) {
+			this.key = other.key;
+			this.method = other.method;
+			this.host = other.host;
+			this.path = other.path;
+			this.query = other.query;
+		}
+
+		public InMemoryCacheKey getKey() {
 			return key;
 		}
 
-		abstract Optional<? extends Representation> find(ServerHttpRequest request);
+		abstract Optional<? extends Representation> find(ServerHttpRequest request, VaryNormalizer varyNormalizer, long now);
+
+		/**
+		 * Returns all representations of the bag.
+		 *
+		 * @return the representations
+		 */
+		abstract List<? extends Representation> representations();
+
+		/**
+		 * Creates the snapshot record of the bag, without its representations.
+		 *
+		 * @return the record
+		 */
+		InMemorySnapshot.BagRecord snapshot() {
+			return new InMemorySnapshot.BagRecord(key.bytes(), method, host, path, query, null);
+		}
+
+		/**
+		 * Restores a bag and its representations from a snapshot record.
+		 *
+		 * @param record  the record
+		 * @param tracker the tracker of the representations of the store
+		 * @return the bag
+		 */
+		static Bag restore(final InMemorySnapshot.BagRecord record,
+						   final RepresentationTracker tracker) {
+			final InMemoryCacheKey key = InMemoryCacheKey.of(record.key);
+			if (record.varyHeaders == null) {
+				return new SimpleRepresentationBag(record, Representation.restore(record, record.representations.get(0), key, tracker));
+			}
+			final NegotiatedRepresentationBag bag = new NegotiatedRepresentationBag(record);
+			record.representations.forEach(representation -> bag.restore(NegotiatedRepresentation.restore(record, representation, key, tracker)));
+			return bag;
+		}
+
+		/**
+		 * Returns the time after which none of the representations in the bag are needed any more.
+		 *
+		 * @return the time in milliseconds since the epoch
+		 */
+		abstract long reclaimAt();
+
+		/**
+		 * Removes a representation from the bag.
+		 *
+		 * @param representation the representation
+		 * @return {@code true} if the bag is empty afterwards
+		 */
+		abstract boolean remove(Representation representation);
+
+		/**
+		 * Replaces a representation of the bag with a revalidated one.
+		 *
+		 * @param stale     the representation to replace
+		 * @param refreshed the revalidated representation
+		 * @return the bag containing the revalidated representation or {@code null} if the representation to replace is
+		 * not part of the bag any more
+		 */
+		abstract Bag replace(Representation stale, Representation refreshed);
+
+		/**
+		 * Releases the payloads of all representations in the bag, once the bag has been removed from the store.
+		 */
+		abstract void release();
+
+		/**
+		 * Returns the estimated number of bytes retained by the bag, including all of its representations.
+		 *
+		 * @return the weight in bytes
+		 */
+		long weight() {
+			return Weights.OBJECT_HEADER + 5 * Weights.REFERENCE
+					+ key.weight()
+					+ Weights.of(method) + Weights.of(host) + Weights.of(path) + Weights.of(query);
+		}
 
 	}
 
@@ -511,49 +1739,293 @@ public class InMemoryStore implements Store {
 
 		private final Representation representation;
 
-		private SimpleRepresentationBag(final SHA2CacheKeyBuilder.SHA2CacheKey key,
+		private SimpleRepresentationBag(final InMemoryCacheKey key,
 										final ServerHttpRequest request,
 										final Representation representation) {
 			super(key, request);
 			this.representation = representation;
 		}
 
+		private SimpleRepresentationBag(final SimpleRepresentationBag other,
+										final Representation representation) {
+			super(other);
+			this.representation = representation;
+		}
+
+		private SimpleRepresentationBag(final InMemorySnapshot.BagRecord record,
+										final Representation representation) {
+			super(record);
+			this.representation = representation;
+		}
+
 		@Override
-		Optional<? extends Representation> find(final ServerHttpRequest request) {
+		Optional<? extends Representation> find(final ServerHttpRequest request,
+												final VaryNormalizer varyNormalizer,
+												final long now) {
 			return Optional.of(representation);
 		}
+
+		@Override
+		List<Representation> representations() {
+			return Collections.singletonList(representation);
+		}
+
+		@Override
+		long reclaimAt() {
+			return representation.reclaimAt();
+		}
+
+		@Override
+		boolean remove(final Representation representation) {
+			return this.representation == representation;
+		}
+
+		@Override
+		Bag replace(final Representation stale, final Representation refreshed) {
+			return representation == stale ? new SimpleRepresentationBag(this, refreshed) : null;
+		}
+
+		@Override
+		void release() {
+			representation.release();
+		}
+
+		@Override
+		long weight() {
+			return super.weight() + Weights.REFERENCE + representation.weight();
+		}
 	}
 
+	/**
+	 * The normalized values of the request headers nominated by the "Vary" header, which identify a variant. Header
+	 * names are lower-cased and values are sorted, so the key does not depend on their order. The hash is computed once.
+	 */
+	private static final class VariantKey {
+
+		private final Map<String, List<String>> headers;
+		private final int hash;
+
+		private VariantKey(final HttpHeaders varyRequestHeaders) {
+			final Map<String, List<String>> headers = new TreeMap<>();
+			for (final Map.Entry<String, List<String>> header : varyRequestHeaders.entrySet()) {
+				final List<String> values = new ArrayList<>(header.getValue());
+				if (values.size() > 1) {
+					Collections.sort(values);
+				}
+				headers.put(header.getKey().toLowerCase(Locale.ROOT), values);
+			}
+			this.headers = headers;
+			this.hash = headers.hashCode();
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (o == null || getClass() != o.getClass()) {
+				return false;
+			}
+			final VariantKey that = (VariantKey) o;
+			return hash == that.hash && headers.equals(that.headers);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public String toString() {
+			return "VariantKey{" +
+					"headers=" + headers +
+					'}';
+		}
+	}
+
+	/**
+	 * A bag of representations negotiated by the request headers nominated by the "Vary" header. The representations
+	 * are indexed by their variant, so a request is matched with a single lookup and a new representation replaces the
+	 * one of the same variant. The number of variants is bounded, the least recently used variant is dropped first.
+	 */
 	private static class NegotiatedRepresentationBag extends Bag {
 
 		private final Set<String> varyHeaders;
-		private final List<NegotiatedRepresentation> entries;
+		private final ConcurrentMap<VariantKey, NegotiatedRepresentation> entries;
 
-		private NegotiatedRepresentationBag(final SHA2CacheKeyBuilder.SHA2CacheKey key,
+		private NegotiatedRepresentationBag(final InMemoryCacheKey key,
 											final ServerHttpRequest request,
 											final Set<String> varyHeaders) {
 			super(key, request);
 			this.varyHeaders = varyHeaders;
-			this.entries = new CopyOnWriteArrayList<>();
+			this.entries = new ConcurrentHashMap<>(4);
+		}
+
+		private NegotiatedRepresentationBag(final InMemorySnapshot.BagRecord record) {
+			super(record);
+			this.varyHeaders = record.varyHeaders;
+			this.entries = new ConcurrentHashMap<>(4);
 		}
 
 		@Override
-		Optional<? extends NegotiatedRepresentation> find(final ServerHttpRequest request) {
-			return entries.stream().filter(entry -> entry.matches(request)).findAny();
+		Optional<? extends NegotiatedRepresentation> find(final ServerHttpRequest request,
+														  final VaryNormalizer varyNormalizer,
+														  final long now) {
+			final HttpHeaders normalizedRequestHeaders = varyNormalizer.normalize(varyHeaders, request.getHeaders());
+			final NegotiatedRepresentation representation = entries.get(new VariantKey(normalizedRequestHeaders));
+			if (representation != null && representation.accessedAt != now) {
+				representation.accessedAt = now;
+			}
+			return Optional.ofNullable(representation);
 		}
 
-		boolean sameVary(final Set<String> other) {
-			return
-					other.size() == varyHeaders.size()
-							&& varyHeaders.containsAll(other)
-							&& other.containsAll(varyHeaders);
+		@Override
+		List<NegotiatedRepresentation> representations() {
+			return new ArrayList<>(entries.values());
 		}
 
-		NegotiatedRepresentationBag add(final NegotiatedRepresentation entry) {
-			// TODO: Match existing representation!
-			this.entries.add(entry);
+		@Override
+		InMemorySnapshot.BagRecord snapshot() {
+			return new InMemorySnapshot.BagRecord(getKey().bytes(), super.method, super.host, super.path, super.query,
+					varyHeaders);
+		}
+
+		/**
+		 * Adds a representation, replacing the one of the same variant. Representations past their retention are
+		 * dropped, as well as the least recently used ones, if the bag exceeds the maximum number of variants. Must
+		 * only be called while the bag is being computed in the cache.
+		 *
+		 * @param entry           the representation
+		 * @param now             the current time in milliseconds since the epoch
+		 * @param maximumVariants the maximum number of variants, unbounded if less than 1
+		 * @return the bag
+		 */
+		NegotiatedRepresentationBag add(final NegotiatedRepresentation entry,
+										final long now,
+										final int maximumVariants) {
+			final NegotiatedRepresentation replaced = entries.put(entry.variantKey, entry);
+			if (replaced != null && replaced != entry) {
+				replaced.release();
+			}
+			for (final NegotiatedRepresentation existing : entries.values()) {
+				if (!existing.isValid() || existing.reclaimAt() <= now) {
+					drop(existing);
+				}
+			}
+			while (maximumVariants > 0 && entries.size() > maximumVariants) {
+				drop(leastRecentlyUsed(entry));
+			}
 			return this;
 		}
+
+		/**
+		 * Adds a restored representation, unless the bag already contains one of the same variant.
+		 */
+		void restore(final NegotiatedRepresentation entry) {
+			if (entries.putIfAbsent(entry.variantKey, entry) != null) {
+				entry.release();
+			}
+		}
+
+		int variantCount() {
+			return entries.size();
+		}
+
+		private NegotiatedRepresentation leastRecentlyUsed(final NegotiatedRepresentation except) {
+			NegotiatedRepresentation leastRecentlyUsed = null;
+			for (final NegotiatedRepresentation entry : entries.values()) {
+				if (entry != except && (leastRecentlyUsed == null || entry.accessedAt < leastRecentlyUsed.accessedAt)) {
+					leastRecentlyUsed = entry;
+				}
+			}
+			return leastRecentlyUsed;
+		}
+
+		private void drop(final NegotiatedRepresentation entry) {
+			if (entries.remove(entry.variantKey, entry)) {
+				entry.release();
+			}
+		}
+
+		@Override
+		long reclaimAt() {
+			long reclaimAt = 0L;
+			for (final NegotiatedRepresentation entry : entries.values()) {
+				reclaimAt = Math.max(reclaimAt, entry.reclaimAt());
+			}
+			return reclaimAt;
+		}
+
+		@Override
+		boolean remove(final Representation representation) {
+			entries.remove(((NegotiatedRepresentation) representation).variantKey, representation);
+			return entries.isEmpty();
+		}
+
+		@Override
+		Bag replace(final Representation stale, final Representation refreshed) {
+			final NegotiatedRepresentation negotiatedRefreshed = (NegotiatedRepresentation) refreshed;
+			negotiatedRefreshed.accessedAt = ((NegotiatedRepresentation) stale).accessedAt;
+			return entries.replace(negotiatedRefreshed.variantKey, (NegotiatedRepresentation) stale, negotiatedRefreshed)
+					? this
+					: null;
+		}
+
+		@Override
+		void release() {
+			entries.values().forEach(Representation::release);
+		}
+
+		@Override
+		long weight() {
+			long weight = super.weight() + 2 * Weights.REFERENCE;
+			for (final String varyHeader : varyHeaders) {
+				weight = weight + Weights.REFERENCE + Weights.of(varyHeader);
+			}
+			for (final NegotiatedRepresentation entry : entries.values()) {
+				weight = weight + Weights.OBJECT_HEADER + 2 * Weights.REFERENCE + entry.weight();
+			}
+			return weight;
+		}
+	}
+
+	/**
+	 * Expires a bag once none of its representations are needed any more.
+	 */
+	private static final class BagExpiry implements Expiry<InMemoryCacheKey, Bag> {
+
+		private final CoarseClock clock;
+
+		private BagExpiry(final CoarseClock clock) {
+			this.clock = clock;
+		}
+
+		private long remaining(final Bag bag) {
+			return TimeUnit.MILLISECONDS.toNanos(Math.max(0L, bag.reclaimAt() - clock.millis()));
+		}
+
+		@Override
+		public long expireAfterCreate(final InMemoryCacheKey key,
+									  final Bag bag,
+									  final long currentTime) {
+			return remaining(bag);
+		}
+
+		@Override
+		public long expireAfterUpdate(final InMemoryCacheKey key,
+									  final Bag bag,
+									  final long currentTime,
+									  final long currentDuration) {
+			return remaining(bag);
+		}
+
+		@Override
+		public long expireAfterRead(final InMemoryCacheKey key,
+									final Bag bag,
+									final long currentTime,
+									final long currentDuration) {
+			return currentDuration;
+		}
 	}
 
 }
@@ -15,12 +15,113 @@
  */
 package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
 
+import org.contenttrace.springframework.cloud.gateway.cache.FreshnessPolicy;
 import org.contenttrace.springframework.cloud.gateway.cache.store.StoreConfiguration;
+import org.springframework.http.MediaType;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
 
 public class InMemoryStoreConfiguration implements StoreConfiguration {
 
+	/**
+	 * The memory used to store the payloads of representations.
+	 */
+	public enum PayloadStorage {
+
+		/**
+		 * Payloads are stored in byte arrays on the heap.
+		 */
+		HEAP,
+
+		/**
+		 * Payloads are stored in slabs of direct memory outside of the heap, limited by
+		 * {@link InMemoryStoreConfiguration#getOffHeapMaximumSize()}.
+		 */
+		OFF_HEAP
+	}
+
+	/**
+	 * The way the payload of a response is captured while it is written to the client.
+	 */
+	public enum CaptureMode {
+
+		/**
+		 * Each buffer is copied into the frames of the representation in a single bulk transfer, before it is written.
+		 */
+		COPY,
+
+		/**
+		 * The buffers are retained while the response is written and copied into the frames after the response has
+		 * been completed, off the event loop. The buffers are held for the duration of the response, so the memory
+		 * footprint per response is higher.
+		 */
+		RETAIN
+	}
+
+	/**
+	 * The hash the keys of the store are derived from.
+	 */
+	public enum CacheKeyHash {
+
+		/**
+		 * The SHA-256 digest of the key material. Collisions are practically impossible.
+		 */
+		SHA_256,
+
+		/**
+		 * The seeded 128-bit MurmurHash3 of the key material, which is considerably faster to compute. Collisions are
+		 * unlikely, but can be crafted if the seed is known, see {@link InMemoryStoreConfiguration#isVerifyCacheKeys()}.
+		 */
+		MURMUR3_128
+	}
+
+	/**
+	 * The policy applied to events published while the queue of asynchronously dispatched events is full.
+	 */
+	public enum EventOverflow {
+
+		/**
+		 * The event is dropped and counted.
+		 */
+		DROP,
+
+		/**
+		 * The publishing thread blocks until there is room in the queue. As events are published by the threads
+		 * serving requests, a slow listener holds up responses.
+		 */
+		BLOCK
+	}
+
 	private long initialBufferMinimumSize = 256_000L; // 256kb
 	private long initialBufferMaximumSize = 1_000_000L;
+	private long maximumSize = -1L; // bytes, unbounded if less than 1
+	private long maximumObjectSize = -1L; // bytes, unbounded if less than 1
+	private long collapsedReplayMaximumSize = 1_000_000L;
+	private FreshnessPolicy freshness = new FreshnessPolicy();
+	private CaptureMode captureMode = CaptureMode.COPY;
+	private PayloadStorage payloadStorage = PayloadStorage.HEAP;
+	private long offHeapMaximumSize = 256L * 1024L * 1024L; // 256mb
+	private long framePoolMaximumSize = 16L * 1024L * 1024L; // 16mb
+	private Duration staleRetention = Duration.ofMinutes(1L);
+	private boolean generateETags = true;
+	private Path snapshotFile;
+	private boolean compressPayloads = false;
+	private List<MediaType> compressibleMediaTypes = MediaType.parseMediaTypes(
+			"text/*, application/json, application/*+json, application/javascript, application/xml, application/*+xml, image/svg+xml");
+	private long compressionMinimumSize = 1024L;
+	private int compressionLevel = 6;
+	private int maximumVariants = 16;
+	private CacheKeyHash cacheKeyHash = CacheKeyHash.SHA_256;
+	private int cacheKeySeed = 0x5bd1e995;
+	private boolean verifyCacheKeys = false;
+	private boolean asyncEvents = false;
+	private int eventQueueCapacity = 4096;
+	private int eventBatchSize = 64;
+	private EventOverflow eventOverflow = EventOverflow.DROP;
+	private int admissionThreshold = 0; // every response is captured if less than 1
+	private int admissionExpectedKeys = 65_536;
 
 	public long getInitialBufferMinimumSize() {
 		return initialBufferMinimumSize;
@@ -37,4 +138,330 @@ public class InMemoryStoreConfiguration implements StoreConfiguration {
 	public void setInitialBufferMaximumSize(long initialBufferMaximumSize) {
 		this.initialBufferMaximumSize = initialBufferMaximumSize;
 	}
+
+	/**
+	 * Returns the maximum number of bytes the store may retain. If the limit is exceeded, entries are evicted in the
+	 * background, based on their access frequency and recency. Payloads stored off-heap count against the limit, too. The
+	 * limit is disabled if the value is less than 1.
+	 *
+	 * @return the maximum size in bytes
+	 */
+	public long getMaximumSize() {
+		return maximumSize;
+	}
+
+	public void setMaximumSize(long maximumSize) {
+		this.maximumSize = maximumSize;
+	}
+
+	/**
+	 * Returns the maximum size of a response body the store captures. Responses announcing a larger "Content-Length"
+	 * pass through without being captured. Responses found to be larger while they are written are abandoned, their
+	 * frames are released right away. Routes may configure a smaller limit. The limit is disabled if the value is less
+	 * than 1.
+	 *
+	 * @return the maximum size in bytes
+	 */
+	public long getMaximumObjectSize() {
+		return maximumObjectSize;
+	}
+
+	public void setMaximumObjectSize(long maximumObjectSize) {
+		this.maximumObjectSize = maximumObjectSize;
+	}
+
+	/**
+	 * Returns the maximum size of a response, which is copied for collapsed requests while it is written to the leading
+	 * request. Followers are only served progressively, if the response announces a "Content-Length" within the limit.
+	 * Otherwise, they forward the request to the origin on their own. The copy is kept on the heap until all followers
+	 * have read it, regardless of the {@link #getPayloadStorage() payload storage}.
+	 *
+	 * @return the maximum size in bytes
+	 */
+	public long getCollapsedReplayMaximumSize() {
+		return collapsedReplayMaximumSize;
+	}
+
+	public void setCollapsedReplayMaximumSize(long collapsedReplayMaximumSize) {
+		this.collapsedReplayMaximumSize = collapsedReplayMaximumSize;
+	}
+
+	public FreshnessPolicy getFreshness() {
+		return freshness;
+	}
+
+	public void setFreshness(FreshnessPolicy freshness) {
+		this.freshness = freshness;
+	}
+
+	public PayloadStorage getPayloadStorage() {
+		return payloadStorage;
+	}
+
+	public void setPayloadStorage(PayloadStorage payloadStorage) {
+		this.payloadStorage = payloadStorage;
+	}
+
+	/**
+	 * Returns the maximum number of bytes of direct memory reserved for payloads, if they are stored off-heap. Once the
+	 * budget is exhausted, further responses are not cached until memory has been freed by invalidation or eviction.
+	 *
+	 * @return the maximum size in bytes
+	 */
+	public long getOffHeapMaximumSize() {
+		return offHeapMaximumSize;
+	}
+
+	public void setOffHeapMaximumSize(long offHeapMaximumSize) {
+		this.offHeapMaximumSize = offHeapMaximumSize;
+	}
+
+	/**
+	 * Returns the maximum number of bytes kept in idle frames, which are reused to capture payloads on the heap. Pooling
+	 * is disabled if the value is less than the size of a single frame.
+	 *
+	 * @return the maximum size in bytes
+	 */
+	public long getFramePoolMaximumSize() {
+		return framePoolMaximumSize;
+	}
+
+	public void setFramePoolMaximumSize(long framePoolMaximumSize) {
+		this.framePoolMaximumSize = framePoolMaximumSize;
+	}
+
+	/**
+	 * Returns how long representations are retained after they have become stale, so they can be served while they are
+	 * revalidated in the background, or revalidated with a conditional request if they carry an "ETag" or a
+	 * "Last-Modified" header. Representations carrying a longer "stale-while-revalidate" directive are retained for the
+	 * window of the directive. The retention must cover the grace windows configured for routes.
+	 *
+	 * @return the retention
+	 */
+	public Duration getStaleRetention() {
+		return staleRetention;
+	}
+
+	public void setStaleRetention(Duration staleRetention) {
+		this.staleRetention = staleRetention;
+	}
+
+	/**
+	 * Returns whether a strong entity tag is generated from the payload of responses, which do not carry an "ETag"
+	 * header. The tag is computed while the payload is captured and allows clients to revalidate the response with the
+	 * gateway.
+	 *
+	 * @return {@code true} if entity tags are generated
+	 */
+	public boolean isGenerateETags() {
+		return generateETags;
+	}
+
+	public void setGenerateETags(boolean generateETags) {
+		this.generateETags = generateETags;
+	}
+
+	/**
+	 * Returns the file the store is snapshotted to, when it is closed or on demand. If the file exists when the store is
+	 * created, the snapshot is restored in the background, skipping representations which are not needed any more. The
+	 * payloads of restored representations are memory mapped from the file and count against the maximum size.
+	 * Snapshots are disabled if no file is configured.
+	 *
+	 * @return the snapshot file or {@code null}
+	 */
+	public Path getSnapshotFile() {
+		return snapshotFile;
+	}
+
+	public void setSnapshotFile(Path snapshotFile) {
+		this.snapshotFile = snapshotFile;
+	}
+
+	/**
+	 * Returns whether payloads of compressible media types are compressed with gzip, before they are stored. The
+	 * compressed payload is served to clients accepting the gzip content coding, while it is decompressed for all other
+	 * clients. Responses, which already have a content coding, are stored as they are.
+	 *
+	 * @return {@code true} if payloads are compressed
+	 */
+	public boolean isCompressPayloads() {
+		return compressPayloads;
+	}
+
+	public void setCompressPayloads(boolean compressPayloads) {
+		this.compressPayloads = compressPayloads;
+	}
+
+	public List<MediaType> getCompressibleMediaTypes() {
+		return compressibleMediaTypes;
+	}
+
+	public void setCompressibleMediaTypes(List<MediaType> compressibleMediaTypes) {
+		this.compressibleMediaTypes = compressibleMediaTypes;
+	}
+
+	/**
+	 * Returns the minimum "Content-Length" of a response to be compressed. Responses without a "Content-Length" header
+	 * are compressed regardless of their size.
+	 *
+	 * @return the minimum size in bytes
+	 */
+	public long getCompressionMinimumSize() {
+		return compressionMinimumSize;
+	}
+
+	public void setCompressionMinimumSize(long compressionMinimumSize) {
+		this.compressionMinimumSize = compressionMinimumSize;
+	}
+
+	/**
+	 * Returns the gzip compression level, between {@code 1} (fastest) and {@code 9} (best compression).
+	 *
+	 * @return the compression level
+	 */
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	public void setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * Returns the maximum number of variants stored for a resource, which is negotiated by the "Vary" header. If the
+	 * limit is exceeded, the least recently used variant is dropped. The limit is disabled if the value is less than 1.
+	 *
+	 * @return the maximum number of variants
+	 */
+	public int getMaximumVariants() {
+		return maximumVariants;
+	}
+
+	public void setMaximumVariants(int maximumVariants) {
+		this.maximumVariants = maximumVariants;
+	}
+
+	public CacheKeyHash getCacheKeyHash() {
+		return cacheKeyHash;
+	}
+
+	public void setCacheKeyHash(CacheKeyHash cacheKeyHash) {
+		this.cacheKeyHash = cacheKeyHash;
+	}
+
+	/**
+	 * Returns the seed of the {@link CacheKeyHash#MURMUR3_128} hash. A secret seed makes it hard to craft requests
+	 * whose keys collide. Keys of snapshots taken with a different seed do not match any request.
+	 *
+	 * @return the seed
+	 */
+	public int getCacheKeySeed() {
+		return cacheKeySeed;
+	}
+
+	public void setCacheKeySeed(int cacheKeySeed) {
+		this.cacheKeySeed = cacheKeySeed;
+	}
+
+	/**
+	 * Returns whether keys of the {@link CacheKeyHash#MURMUR3_128} hash retain their key material, so a collision is
+	 * detected and treated as a miss, instead of serving the representation of another resource. The material is kept
+	 * in memory for each bag.
+	 *
+	 * @return {@code true} if keys are verified
+	 */
+	public boolean isVerifyCacheKeys() {
+		return verifyCacheKeys;
+	}
+
+	public void setVerifyCacheKeys(boolean verifyCacheKeys) {
+		this.verifyCacheKeys = verifyCacheKeys;
+	}
+
+	/**
+	 * Returns whether events are dispatched to the listeners asynchronously, in batches on a dedicated thread. Otherwise
+	 * listeners are called synchronously by the thread publishing the event, which usually serves a response.
+	 *
+	 * @return {@code true} if events are dispatched asynchronously
+	 */
+	public boolean isAsyncEvents() {
+		return asyncEvents;
+	}
+
+	public void setAsyncEvents(boolean asyncEvents) {
+		this.asyncEvents = asyncEvents;
+	}
+
+	/**
+	 * Returns the maximum number of asynchronously dispatched events waiting to be delivered. If the queue is full, the
+	 * {@link #getEventOverflow() overflow policy} applies.
+	 *
+	 * @return the capacity of the queue
+	 */
+	public int getEventQueueCapacity() {
+		return eventQueueCapacity;
+	}
+
+	public void setEventQueueCapacity(int eventQueueCapacity) {
+		this.eventQueueCapacity = eventQueueCapacity;
+	}
+
+	/**
+	 * Returns the maximum number of asynchronously dispatched events delivered to a listener at once.
+	 *
+	 * @return the batch size
+	 */
+	public int getEventBatchSize() {
+		return eventBatchSize;
+	}
+
+	public void setEventBatchSize(int eventBatchSize) {
+		this.eventBatchSize = eventBatchSize;
+	}
+
+	public EventOverflow getEventOverflow() {
+		return eventOverflow;
+	}
+
+	public void setEventOverflow(EventOverflow eventOverflow) {
+		this.eventOverflow = eventOverflow;
+	}
+
+	/**
+	 * Returns how often a key must have been seen recently, before its response is captured. Responses for keys seen
+	 * less often pass through untouched, so one-hit wonders neither cost capture work nor displace stored resources.
+	 * The threshold must not exceed {@value AdmissionFilter#MAXIMUM_THRESHOLD}. Every response is captured, if the
+	 * threshold is less than 1.
+	 *
+	 * @return the admission threshold
+	 */
+	public int getAdmissionThreshold() {
+		return admissionThreshold;
+	}
+
+	public void setAdmissionThreshold(int admissionThreshold) {
+		this.admissionThreshold = admissionThreshold;
+	}
+
+	/**
+	 * Returns the expected number of distinct keys requested in a window, which sizes the frequency sketch of the
+	 * {@link #getAdmissionThreshold() admission}. The frequencies are aged after ten times as many sightings.
+	 *
+	 * @return the expected number of keys
+	 */
+	public int getAdmissionExpectedKeys() {
+		return admissionExpectedKeys;
+	}
+
+	public void setAdmissionExpectedKeys(int admissionExpectedKeys) {
+		this.admissionExpectedKeys = admissionExpectedKeys;
+	}
+
+	public CaptureMode getCaptureMode() {
+		return captureMode;
+	}
+
+	public void setCaptureMode(CaptureMode captureMode) {
+		this.captureMode = captureMode;
+	}
 }
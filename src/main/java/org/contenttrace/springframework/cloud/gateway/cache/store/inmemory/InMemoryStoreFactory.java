@@ -18,21 +18,29 @@ package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
 import org.contenttrace.springframework.cloud.gateway.cache.store.CacheKeyProducer;
 import org.contenttrace.springframework.cloud.gateway.cache.store.Store;
 import org.contenttrace.springframework.cloud.gateway.cache.store.StoreFactory;
+import org.contenttrace.springframework.cloud.gateway.cache.store.VaryNormalizer;
 
 import java.util.Objects;
 
 public class InMemoryStoreFactory implements StoreFactory {
 
 	private final InMemoryStoreConfiguration configuration;
+	private final VaryNormalizer varyNormalizer;
 
 	public InMemoryStoreFactory(InMemoryStoreConfiguration configuration) {
+		this(configuration, VaryNormalizer.NONE);
+	}
+
+	public InMemoryStoreFactory(InMemoryStoreConfiguration configuration, VaryNormalizer varyNormalizer) {
 		Objects.requireNonNull(configuration, "A configuration is required!");
+		Objects.requireNonNull(varyNormalizer, "A vary normalizer is required!");
 		this.configuration = configuration;
+		this.varyNormalizer = varyNormalizer;
 	}
 
 	@Override
 	public Store createInstance(final CacheKeyProducer cacheKeyProducer) {
 		Objects.requireNonNull(cacheKeyProducer, "A cache key producer is required!");
-		return new InMemoryStore(cacheKeyProducer, configuration);
+		return new InMemoryStore(cacheKeyProducer, configuration, varyNormalizer);
 	}
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Frames referring to regions of a memory mapped snapshot file. The pages of the file are loaded by the operating
+ * system on first access, so restoring a snapshot does not read the payloads. The mapping is released by the garbage
+ * collector, once no frames refer to it any more.
+ */
+final class MappedFrames extends Frames {
+
+	private final ByteBuffer[] regions;
+	private final long size;
+
+	/**
+	 * Creates the frames.
+	 *
+	 * @param regions the regions of the mapped file, each positioned at {@code 0} and limited to the payload bytes
+	 */
+	MappedFrames(final List<ByteBuffer> regions) {
+		requireNonNull(regions, "'regions' must not be null!");
+		this.regions = regions.toArray(new ByteBuffer[0]);
+		long size = 0L;
+		for (final ByteBuffer region : this.regions) {
+			size = size + region.remaining();
+		}
+		this.size = size;
+	}
+
+	@Override
+	int count() {
+		return regions.length;
+	}
+
+	@Override
+	ByteBuffer frame(final int index) {
+		return regions[index].asReadOnlyBuffer();
+	}
+
+	@Override
+	long size() {
+		return size;
+	}
+
+	@Override
+	long weight() {
+		long weight = Weights.OBJECT_HEADER + 2 * Weights.REFERENCE + Weights.OBJECT_HEADER;
+		for (final ByteBuffer region : regions) {
+			// The buffer object on the heap plus the pages it may keep resident.
+			weight = weight + Weights.REFERENCE + 64L + region.remaining();
+		}
+		return weight;
+	}
+
+	@Override
+	void deallocate() {
+		// void, the mapping is released by the garbage collector
+	}
+}
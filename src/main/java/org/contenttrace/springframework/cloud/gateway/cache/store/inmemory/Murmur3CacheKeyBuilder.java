@@ -0,0 +1,238 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.contenttrace.springframework.cloud.gateway.cache.store.CacheKeyProducer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Builds keys from the 128-bit MurmurHash3 (x64 variant) of the key material, which is considerably cheaper than a
+ * cryptographic digest. The hash is computed incrementally, while the material is added.
+ * <p>
+ * Unlike SHA-256, the hash is not collision resistant. Crafted collisions are made harder by a secret seed. In
+ * verification mode, the keys retain their material, so the store can detect collisions instead of serving the
+ * representation of another resource.
+ */
+class Murmur3CacheKeyBuilder implements CacheKeyProducer.KeyBuilder {
+
+	static final int KEY_LENGTH = 16;
+
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+	private static final int BLOCK_LENGTH = 16;
+
+	static final class Murmur3CacheKey extends InMemoryCacheKey {
+
+		private static final long serialVersionUID = -5402262916330520817L;
+
+		private final long high;
+		private final long low;
+		private final byte[] material;
+
+		private Murmur3CacheKey(final long high, final long low, final byte[] material) {
+			this.high = high;
+			this.low = low;
+			this.material = material;
+		}
+
+		static Murmur3CacheKey of(final byte[] bytes) {
+			requireNonNull(bytes, "'bytes' must not be null!");
+			if (bytes.length != KEY_LENGTH) {
+				throw new IllegalArgumentException(String.format("Key must have %d bytes!", KEY_LENGTH));
+			}
+			final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			return new Murmur3CacheKey(buffer.getLong(), buffer.getLong(), null);
+		}
+
+		@Override
+		byte[] bytes() {
+			return ByteBuffer.allocate(KEY_LENGTH).putLong(high).putLong(low).array();
+		}
+
+		@Override
+		long weight() {
+			return Weights.OBJECT_HEADER + 16L + Weights.REFERENCE
+					+ (material != null ? Weights.OBJECT_HEADER + material.length : 0L);
+		}
+
+		@Override
+		boolean collidesWith(final InMemoryCacheKey other) {
+			return other instanceof Murmur3CacheKey
+					&& material != null
+					&& ((Murmur3CacheKey) other).material != null
+					&& equals(other)
+					&& !Arrays.equals(material, ((Murmur3CacheKey) other).material);
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			final Murmur3CacheKey that = (Murmur3CacheKey) o;
+			return high == that.high && low == that.low;
+		}
+
+		@Override
+		public int hashCode() {
+			// The hash is well mixed, so any of its bits make a good hash code.
+			return (int) high;
+		}
+	}
+
+	private final byte[] block;
+	private int blockLength;
+	private final int seed;
+	private final boolean verify;
+	private byte[] material;
+	private long h1;
+	private long h2;
+	private long length;
+
+	Murmur3CacheKeyBuilder(final int seed, final boolean verify) {
+		this.block = new byte[BLOCK_LENGTH];
+		this.seed = seed;
+		this.verify = verify;
+		this.material = verify ? new byte[128] : null;
+		this.h1 = seed & 0xffffffffL;
+		this.h2 = seed & 0xffffffffL;
+	}
+
+	@Override
+	public CacheKeyProducer.KeyBuilder add(final byte[] material) {
+		requireNonNull(material, "'material' must not be null!");
+		return add(material, 0, material.length);
+	}
+
+	@Override
+	public CacheKeyProducer.KeyBuilder add(final byte[] material, final int offset, final int length) {
+		requireNonNull(material, "'material' must not be null!");
+		if (verify) {
+			retain(material, offset, length);
+		}
+		this.length = this.length + length;
+		int position = offset;
+		final int end = offset + length;
+		// Complete a partial block of previously added material first.
+		if (blockLength > 0) {
+			final int chunk = Math.min(BLOCK_LENGTH - blockLength, end - position);
+			System.arraycopy(material, position, block, blockLength, chunk);
+			blockLength = blockLength + chunk;
+			position = position + chunk;
+			if (blockLength < BLOCK_LENGTH) {
+				return this;
+			}
+			mix(getLong(block, 0), getLong(block, 8));
+			blockLength = 0;
+		}
+		// Whole blocks are read from the material directly.
+		if (end - position >= BLOCK_LENGTH) {
+			final ByteBuffer blocks = ByteBuffer.wrap(material).order(ByteOrder.LITTLE_ENDIAN);
+			while (end - position >= BLOCK_LENGTH) {
+				mix(blocks.getLong(position), blocks.getLong(position + 8));
+				position = position + BLOCK_LENGTH;
+			}
+		}
+		System.arraycopy(material, position, block, 0, end - position);
+		blockLength = end - position;
+		return this;
+	}
+
+	/**
+	 * Discards the material added so far, so the builder can be reused for another key.
+	 *
+	 * @return the builder
+	 */
+	Murmur3CacheKeyBuilder reset() {
+		h1 = seed & 0xffffffffL;
+		h2 = seed & 0xffffffffL;
+		length = 0L;
+		blockLength = 0;
+		return this;
+	}
+
+	Murmur3CacheKey build() {
+		final int tail = blockLength;
+		long k1 = 0L;
+		long k2 = 0L;
+		for (int i = tail - 1; i >= 8; i--) {
+			k2 = (k2 << 8) | (block[i] & 0xffL);
+		}
+		for (int i = Math.min(tail, 8) - 1; i >= 0; i--) {
+			k1 = (k1 << 8) | (block[i] & 0xffL);
+		}
+		if (tail > 8) {
+			h2 ^= Long.rotateLeft(k2 * C2, 33) * C1;
+		}
+		if (tail > 0) {
+			h1 ^= Long.rotateLeft(k1 * C1, 31) * C2;
+		}
+		blockLength = 0;
+
+		h1 ^= length;
+		h2 ^= length;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix(h1);
+		h2 = fmix(h2);
+		h1 += h2;
+		h2 += h1;
+
+		return new Murmur3CacheKey(h1, h2, verify ? Arrays.copyOf(material, (int) length) : null);
+	}
+
+	private void retain(final byte[] material, final int offset, final int length) {
+		final int retained = (int) this.length;
+		if (retained + length > this.material.length) {
+			this.material = Arrays.copyOf(this.material, Math.max(this.material.length * 2, retained + length));
+		}
+		System.arraycopy(material, offset, this.material, retained, length);
+	}
+
+	private void mix(final long k1, final long k2) {
+		h1 ^= Long.rotateLeft(k1 * C1, 31) * C2;
+		h1 = Long.rotateLeft(h1, 27) + h2;
+		h1 = h1 * 5 + 0x52dce729;
+
+		h2 ^= Long.rotateLeft(k2 * C2, 33) * C1;
+		h2 = Long.rotateLeft(h2, 31) + h1;
+		h2 = h2 * 5 + 0x38495ab5;
+	}
+
+	private static long getLong(final byte[] bytes, final int offset) {
+		return (bytes[offset] & 0xffL)
+				| (bytes[offset + 1] & 0xffL) << 8
+				| (bytes[offset + 2] & 0xffL) << 16
+				| (bytes[offset + 3] & 0xffL) << 24
+				| (bytes[offset + 4] & 0xffL) << 32
+				| (bytes[offset + 5] & 0xffL) << 40
+				| (bytes[offset + 6] & 0xffL) << 48
+				| (bytes[offset + 7] & 0xffL) << 56;
+	}
+
+	private static long fmix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+}
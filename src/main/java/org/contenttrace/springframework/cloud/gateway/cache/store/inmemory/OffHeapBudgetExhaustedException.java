@@ -0,0 +1,38 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import java.io.IOException;
+
+/**
+ * Thrown if a payload cannot be written, because the off-heap memory budget of the store is exhausted. Unlike a
+ * {@link SizeLimitExceededException}, it does not tell anything about the size of the payload itself.
+ */
+public class OffHeapBudgetExhaustedException extends IOException {
+
+	private static final long serialVersionUID = 4105862239012838361L;
+
+	private final long budget;
+
+	public OffHeapBudgetExhaustedException(final long budget, final String message) {
+		super(message);
+		this.budget = budget;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+}
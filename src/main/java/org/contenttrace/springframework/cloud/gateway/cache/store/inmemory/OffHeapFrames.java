@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Frames kept in chunks of off-heap memory, which are handed back to the {@link SlabAllocator} on deallocation.
+ */
+final class OffHeapFrames extends Frames {
+
+	private final SlabAllocator allocator;
+	private final ByteBuffer[] chunks;
+	private final long size;
+
+	/**
+	 * Creates the frames.
+	 *
+	 * @param allocator the allocator of the chunks
+	 * @param chunks    the chunks, each positioned at {@code 0} and limited to the bytes written
+	 */
+	OffHeapFrames(final SlabAllocator allocator, final List<ByteBuffer> chunks) {
+		requireNonNull(allocator, "'allocator' must not be null!");
+		requireNonNull(chunks, "'chunks' must not be null!");
+		this.allocator = allocator;
+		this.chunks = chunks.toArray(new ByteBuffer[0]);
+		long size = 0L;
+		for (final ByteBuffer chunk : this.chunks) {
+			size = size + chunk.remaining();
+		}
+		this.size = size;
+	}
+
+	@Override
+	int count() {
+		return chunks.length;
+	}
+
+	@Override
+	ByteBuffer frame(final int index) {
+		return chunks[index].asReadOnlyBuffer();
+	}
+
+	@Override
+	long size() {
+		return size;
+	}
+
+	@Override
+	long weight() {
+		long weight = Weights.OBJECT_HEADER + 2 * Weights.REFERENCE + Weights.OBJECT_HEADER;
+		for (final ByteBuffer chunk : chunks) {
+			// The buffer object on the heap plus the off-heap memory it is referring to.
+			weight = weight + Weights.REFERENCE + 64L + chunk.capacity();
+		}
+		return weight;
+	}
+
+	@Override
+	void deallocate() {
+		for (final ByteBuffer chunk : chunks) {
+			allocator.free(chunk);
+		}
+	}
+}
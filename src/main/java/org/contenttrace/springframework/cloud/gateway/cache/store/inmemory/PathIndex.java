@@ -0,0 +1,252 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A trie of the host and the path segments of the stored values, so the values below a path or matching a path
+ * pattern are found in time proportional to the number of matching nodes, without scanning the store. The first level
+ * of the trie holds the hosts, the levels below hold one path segment each. Empty nodes are pruned, once their last
+ * value has been removed.
+ * <p>
+ * Patterns consist of segments separated by '/'. A segment of "**" matches any number of segments, including none. A
+ * "*" in a segment matches any number of characters and a "?" matches a single character. Empty segments are
+ * ignored, so "/a/b" and "/a/b/" address the same node.
+ * <p>
+ * The index is only updated when values are stored or released. The nodes of a host are only modified while the entry
+ * of the host is computed, so updates of different hosts do not contend and a node cannot be pruned while a value is
+ * added to it. Lookups do not lock and see concurrent updates in parts.
+ *
+ * @param <T> the type of the indexed values
+ */
+final class PathIndex<T> {
+
+	private static final String ANY_SEGMENTS = "**";
+
+	private final ConcurrentMap<String, Node<T>> hosts;
+
+	PathIndex() {
+		this.hosts = new ConcurrentHashMap<>();
+	}
+
+	private static String host(final String host) {
+		return host != null ? host.toLowerCase(Locale.ROOT) : "";
+	}
+
+	private static String[] segments(final String path) {
+		return path != null ? StringUtils.tokenizeToStringArray(path, "/") : new String[0];
+	}
+
+	void add(final String host, final String path, final InMemoryCacheKey key, final T value) {
+		requireNonNull(key, "'key' must not be null!");
+		requireNonNull(value, "'value' must not be null!");
+		final String[] segments = segments(path);
+		hosts.compute(host(host), (name, existing) -> {
+			final Node<T> hostNode = existing != null ? existing : new Node<>(null, name);
+			Node<T> node = hostNode;
+			for (final String segment : segments) {
+				node = node.child(segment, true);
+			}
+			node.add(value, key);
+			return hostNode;
+		});
+	}
+
+	void remove(final String host, final String path, final T value) {
+		final String[] segments = segments(path);
+		hosts.computeIfPresent(host(host), (name, hostNode) -> {
+			Node<T> node = hostNode;
+			for (final String segment : segments) {
+				node = node.child(segment, false);
+				if (node == null) {
+					return hostNode;
+				}
+			}
+			if (node.remove(value)) {
+				while (node.parent != null && node.isEmpty()) {
+					node.parent.children.remove(node.segment);
+					node = node.parent;
+				}
+			}
+			return hostNode.isEmpty() ? null : hostNode;
+		});
+	}
+
+	/**
+	 * Finds the values stored for a host and a path matching a pattern.
+	 *
+	 * @param host    the host or {@code null} for all hosts
+	 * @param pattern the path pattern
+	 * @return the matching values and the keys of their bags
+	 */
+	Map<T, InMemoryCacheKey> find(final String host, final String pattern) {
+		requireNonNull(pattern, "'pattern' must not be null!");
+		final String[] segments = segments(pattern);
+		final Map<T, InMemoryCacheKey> matches = new LinkedHashMap<>();
+		if (host != null) {
+			final Node<T> hostNode = hosts.get(host(host));
+			if (hostNode != null) {
+				collect(hostNode, segments, 0, matches);
+			}
+		} else {
+			for (final Node<T> hostNode : hosts.values()) {
+				collect(hostNode, segments, 0, matches);
+			}
+		}
+		return matches;
+	}
+
+	private void collect(final Node<T> node,
+						 final String[] pattern,
+						 final int index,
+						 final Map<T, InMemoryCacheKey> matches) {
+		if (index == pattern.length) {
+			final Map<T, InMemoryCacheKey> values = node.values;
+			if (values != null) {
+				matches.putAll(values);
+			}
+			return;
+		}
+		final String segment = pattern[index];
+		final Map<String, Node<T>> children = node.children;
+		if (ANY_SEGMENTS.equals(segment)) {
+			collect(node, pattern, index + 1, matches);
+			if (children != null) {
+				for (final Node<T> child : children.values()) {
+					collect(child, pattern, index, matches);
+				}
+			}
+		} else if (segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0) {
+			if (children != null) {
+				for (final Node<T> child : children.values()) {
+					if (matches(segment, 0, child.segment, 0)) {
+						collect(child, pattern, index + 1, matches);
+					}
+				}
+			}
+		} else {
+			final Node<T> child = node.child(segment, false);
+			if (child != null) {
+				collect(child, pattern, index + 1, matches);
+			}
+		}
+	}
+
+	private static boolean matches(final String pattern, final int p, final String segment, final int s) {
+		if (p == pattern.length()) {
+			return s == segment.length();
+		}
+		final char c = pattern.charAt(p);
+		if (c == '*') {
+			for (int i = s; i <= segment.length(); i++) {
+				if (matches(pattern, p + 1, segment, i)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return s < segment.length()
+				&& (c == '?' || c == segment.charAt(s))
+				&& matches(pattern, p + 1, segment, s + 1);
+	}
+
+	/**
+	 * Returns the number of nodes of the trie.
+	 *
+	 * @return the number of nodes
+	 */
+	int size() {
+		final List<Node<T>> nodes = new ArrayList<>(hosts.values());
+		int size = 0;
+		while (!nodes.isEmpty()) {
+			final Node<T> node = nodes.remove(nodes.size() - 1);
+			size = size + 1;
+			final Map<String, Node<T>> children = node.children;
+			if (children != null) {
+				nodes.addAll(children.values());
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * A node of the trie. Nodes are only modified while the entry of their host is computed.
+	 */
+	private static final class Node<T> {
+
+		private final Node<T> parent;
+		private final String segment;
+		// Both maps are created on demand, as most nodes either have children or values.
+		private volatile Map<String, Node<T>> children;
+		private volatile Map<T, InMemoryCacheKey> values;
+
+		private Node(final Node<T> parent, final String segment) {
+			this.parent = parent;
+			this.segment = segment;
+		}
+
+		Node<T> child(final String segment, final boolean create) {
+			Map<String, Node<T>> children = this.children;
+			Node<T> child = children != null ? children.get(segment) : null;
+			if (child == null && create) {
+				if (children == null) {
+					children = new ConcurrentHashMap<>(4);
+					this.children = children;
+				}
+				child = new Node<>(this, segment);
+				children.put(segment, child);
+			}
+			return child;
+		}
+
+		void add(final T value, final InMemoryCacheKey key) {
+			Map<T, InMemoryCacheKey> values = this.values;
+			if (values == null) {
+				values = new ConcurrentHashMap<>(4);
+				this.values = values;
+			}
+			values.put(value, key);
+		}
+
+		boolean remove(final T value) {
+			final Map<T, InMemoryCacheKey> values = this.values;
+			if (values == null || values.remove(value) == null) {
+				return false;
+			}
+			if (values.isEmpty()) {
+				this.values = null;
+			}
+			return true;
+		}
+
+		boolean isEmpty() {
+			final Map<T, InMemoryCacheKey> values = this.values;
+			final Map<String, Node<T>> children = this.children;
+			return (values == null || values.isEmpty()) && (children == null || children.isEmpty());
+		}
+	}
+}
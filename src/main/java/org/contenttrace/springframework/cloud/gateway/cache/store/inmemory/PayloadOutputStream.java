@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An output stream capturing the payload of a representation into {@link Frames}.
+ */
+abstract class PayloadOutputStream extends OutputStream {
+
+	/**
+	 * Writes the remaining bytes of the given buffer in bulk. The position of the buffer is advanced to its limit.
+	 *
+	 * @param source the buffer
+	 * @throws IOException if the bytes cannot be written
+	 */
+	abstract void write(ByteBuffer source) throws IOException;
+
+	/**
+	 * Returns the number of bytes written to the stream.
+	 *
+	 * @return the number of bytes
+	 */
+	abstract long size();
+
+	/**
+	 * Returns the frames holding the bytes written to the stream. The stream must be closed. The caller takes over the
+	 * initial reference to the frames.
+	 *
+	 * @return the frames
+	 * @throws IllegalStateException if the stream is not closed
+	 */
+	abstract Frames toFrames() throws IllegalStateException;
+
+	/**
+	 * Discards the bytes written to the stream and frees their memory. Has no effect, if the frames have already been
+	 * handed out by {@link #toFrames()}.
+	 */
+	abstract void discard();
+
+}
@@ -15,55 +15,50 @@
  */
 package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
 
-import org.contenttrace.springframework.cloud.gateway.cache.store.CacheKey;
 import org.contenttrace.springframework.cloud.gateway.cache.store.CacheKeyProducer;
-import org.springframework.util.Base64Utils;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Objects;
 
 import static java.util.Objects.requireNonNull;
 
 class SHA2CacheKeyBuilder implements CacheKeyProducer.KeyBuilder {
 
-	static final String CACHE_KEY_PREFIX = "inmemory://";
+	static final int KEY_LENGTH = 32;
 
-	static class SHA2CacheKey implements CacheKey {
+	static class SHA2CacheKey extends InMemoryCacheKey {
 
 		private final byte[] key;
+		private final int hash;
 
 		SHA2CacheKey(byte[] key) {
 			this.key = key;
+			this.hash = Arrays.hashCode(key);
 		}
 
 		@Override
-		public boolean equals(Object o) {
-			if (this == o) return true;
-			if (o == null || getClass() != o.getClass()) return false;
-			SHA2CacheKey that = (SHA2CacheKey) o;
-			return Arrays.equals(key, that.key);
+		byte[] bytes() {
+			return key;
 		}
 
 		@Override
-		public int hashCode() {
-			return Arrays.hashCode(key);
+		long weight() {
+			return Weights.OBJECT_HEADER + Weights.REFERENCE + 8L + Weights.OBJECT_HEADER + key.length;
 		}
 
 		@Override
-		public String serializeAsString() {
-			// TODO: Instead of Base64, use a hex
-			return String.format("%s%s", CACHE_KEY_PREFIX, Base64Utils.encodeToUrlSafeString(key));
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			SHA2CacheKey that = (SHA2CacheKey) o;
+			return hash == that.hash && Arrays.equals(key, that.key);
 		}
-	}
 
-	public static SHA2CacheKey parse(String input) {
-		Objects.requireNonNull(input, "Input must not be null!");
-		if (!input.startsWith(CACHE_KEY_PREFIX) || input.length() <= CACHE_KEY_PREFIX.length()) {
-			throw new IllegalArgumentException(String.format("Input [%s] is not a in-memory cache key!", input));
+		@Override
+		public int hashCode() {
+			return hash;
 		}
-		return new SHA2CacheKey(Base64Utils.decodeFromUrlSafeString(input.substring(CACHE_KEY_PREFIX.length())));
 	}
 
 	private final MessageDigest digest;
@@ -90,6 +85,16 @@ class SHA2CacheKeyBuilder implements CacheKeyProducer.KeyBuilder {
 		return this;
 	}
 
+	/**
+	 * Discards the material added so far, so the builder can be reused for another key.
+	 *
+	 * @return the builder
+	 */
+	SHA2CacheKeyBuilder reset() {
+		digest.reset();
+		return this;
+	}
+
 	SHA2CacheKey build() {
 		return new SHA2CacheKey(digest.digest());
 	}
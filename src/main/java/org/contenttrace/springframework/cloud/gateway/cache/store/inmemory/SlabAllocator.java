@@ -0,0 +1,294 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocates chunks of off-heap memory for payloads. The memory is reserved in slabs of direct memory, each of them
+ * carved into chunks of a single size class. Small payloads are stored in small chunks, so they do not waste a whole
+ * frame. Freed chunks are kept in a free list of their slab and reused. Slabs are never returned to the operating
+ * system, but the total size of all slabs is limited by the budget of the allocator. Once the budget is exhausted, a
+ * slab without any chunk in use is taken from its size class and carved into chunks of the size class in need, so a
+ * shift in the sizes of the payloads does not starve a size class.
+ */
+final class SlabAllocator {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SlabAllocator.class);
+
+	private static final int SLAB_SIZE = Integer.getInteger(SlabAllocator.class.getName() + ".slabSize", 1024 * 1024);
+	private static final int[] SIZE_CLASSES = {512, 2 * 1024, 8 * 1024, 32 * 1024, 128 * 1024};
+
+	private final long maximumSize;
+	private final SizeClass[] sizeClasses;
+	private final AtomicLong reservedSize;
+	private final AtomicLong allocatedSize;
+
+	/**
+	 * Creates an allocator.
+	 *
+	 * @param maximumSize the maximum number of bytes of off-heap memory reserved by the allocator
+	 */
+	SlabAllocator(final long maximumSize) {
+		if (maximumSize < SLAB_SIZE) {
+			throw new IllegalArgumentException(String.format("'maximumSize' must be at least %d bytes!", SLAB_SIZE));
+		}
+		this.maximumSize = maximumSize;
+		this.sizeClasses = new SizeClass[SIZE_CLASSES.length];
+		for (int i = 0; i < SIZE_CLASSES.length; i++) {
+			this.sizeClasses[i] = new SizeClass(SIZE_CLASSES[i]);
+		}
+		this.reservedSize = new AtomicLong();
+		this.allocatedSize = new AtomicLong();
+	}
+
+	long getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * Returns the number of bytes of off-heap memory reserved in slabs.
+	 *
+	 * @return the number of bytes
+	 */
+	long getReservedSize() {
+		return reservedSize.get();
+	}
+
+	/**
+	 * Returns the number of bytes in chunks, that are currently in use.
+	 *
+	 * @return the number of bytes
+	 */
+	long getAllocatedSize() {
+		return allocatedSize.get();
+	}
+
+	/**
+	 * Returns the size of the largest chunk, that can be allocated.
+	 *
+	 * @return the size in bytes
+	 */
+	int getLargestChunkSize() {
+		return SIZE_CLASSES[SIZE_CLASSES.length - 1];
+	}
+
+	/**
+	 * Returns the size of the chunk, that would be allocated for the given number of bytes.
+	 *
+	 * @param minimumSize the number of bytes
+	 * @return the size of the chunk in bytes
+	 */
+	int chunkSize(final int minimumSize) {
+		return SIZE_CLASSES[sizeClass(minimumSize)];
+	}
+
+	/**
+	 * Allocates a chunk of the smallest size class holding the given number of bytes, or of the largest size class if
+	 * there is none.
+	 *
+	 * @param minimumSize the number of bytes the chunk should hold
+	 * @return the cleared chunk or {@code null} if the budget is exhausted
+	 */
+	ByteBuffer allocate(final int minimumSize) {
+		final SizeClass sizeClass = sizeClasses[sizeClass(minimumSize)];
+		ByteBuffer chunk = sizeClass.allocate();
+		if (chunk == null) {
+			final Slab slab = acquire(sizeClass);
+			if (slab == null) {
+				return null;
+			}
+			chunk = sizeClass.carve(slab);
+		}
+		allocatedSize.addAndGet(chunk.capacity());
+		chunk.clear();
+		return chunk;
+	}
+
+	/**
+	 * Hands a chunk back to the allocator. The chunk must not be used afterwards.
+	 *
+	 * @param chunk the chunk
+	 */
+	void free(final ByteBuffer chunk) {
+		final SizeClass sizeClass = sizeClasses[sizeClassOf(chunk.capacity())];
+		sizeClass.free(chunk);
+		allocatedSize.addAndGet(-chunk.capacity());
+	}
+
+	/**
+	 * Acquires a slab for a size class. A new slab is reserved while the budget allows it, otherwise an empty slab of
+	 * another size class is taken over.
+	 */
+	private Slab acquire(final SizeClass sizeClass) {
+		final Slab slab = reserve();
+		if (slab != null) {
+			return slab;
+		}
+		for (final SizeClass other : sizeClasses) {
+			if (other == sizeClass) {
+				continue;
+			}
+			final Slab reclaimed = other.reclaim();
+			if (reclaimed != null) {
+				LOG.debug("Moved slab from size class [{}] to size class [{}].", other.chunkSize, sizeClass.chunkSize);
+				return reclaimed;
+			}
+		}
+		return null;
+	}
+
+	private Slab reserve() {
+		long reserved;
+		do {
+			reserved = reservedSize.get();
+			if (reserved + SLAB_SIZE > maximumSize) {
+				return null;
+			}
+		} while (!reservedSize.compareAndSet(reserved, reserved + SLAB_SIZE));
+
+		try {
+			return new Slab(ByteBuffer.allocateDirect(SLAB_SIZE));
+		} catch (final OutOfMemoryError e) {
+			reservedSize.addAndGet(-SLAB_SIZE);
+			LOG.warn("Failed to allocate slab of {} bytes, the direct memory of the JVM is exhausted!", SLAB_SIZE, e);
+			return null;
+		}
+	}
+
+	private static int sizeClass(final int minimumSize) {
+		for (int i = 0; i < SIZE_CLASSES.length; i++) {
+			if (SIZE_CLASSES[i] >= minimumSize) {
+				return i;
+			}
+		}
+		return SIZE_CLASSES.length - 1;
+	}
+
+	private static int sizeClassOf(final int chunkSize) {
+		for (int i = 0; i < SIZE_CLASSES.length; i++) {
+			if (SIZE_CLASSES[i] == chunkSize) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException(String.format("Chunk of size %d was not allocated by this allocator!", chunkSize));
+	}
+
+	/**
+	 * A slab of direct memory and the free chunks it is currently carved into.
+	 */
+	private static final class Slab {
+
+		private final ByteBuffer memory;
+		private final Deque<ByteBuffer> freeChunks;
+		private int chunkCount;
+
+		private Slab(final ByteBuffer memory) {
+			this.memory = memory;
+			this.freeChunks = new ArrayDeque<>();
+		}
+
+		private boolean isEmpty() {
+			return freeChunks.size() == chunkCount;
+		}
+	}
+
+	/**
+	 * The slabs carved into chunks of a single size. Slabs with free chunks are kept apart, so a chunk is allocated
+	 * without searching all slabs of the size class.
+	 */
+	private static final class SizeClass {
+
+		private final int chunkSize;
+		private final Map<ByteBuffer, Slab> slabs;
+		private final Deque<Slab> availableSlabs;
+
+		private SizeClass(final int chunkSize) {
+			this.chunkSize = chunkSize;
+			this.slabs = new IdentityHashMap<>();
+			this.availableSlabs = new ArrayDeque<>();
+		}
+
+		synchronized ByteBuffer allocate() {
+			final Slab slab = availableSlabs.peekFirst();
+			if (slab == null) {
+				return null;
+			}
+			final ByteBuffer chunk = slab.freeChunks.pop();
+			if (slab.freeChunks.isEmpty()) {
+				availableSlabs.pollFirst();
+			}
+			return chunk;
+		}
+
+		synchronized ByteBuffer carve(final Slab slab) {
+			final ByteBuffer memory = slab.memory;
+			slab.chunkCount = 0;
+			for (int offset = 0; offset + chunkSize <= memory.capacity(); offset = offset + chunkSize) {
+				memory.limit(offset + chunkSize).position(offset);
+				final ByteBuffer chunk = memory.slice();
+				slabs.put(chunk, slab);
+				slab.freeChunks.push(chunk);
+				slab.chunkCount++;
+			}
+			final ByteBuffer first = slab.freeChunks.pop();
+			if (!slab.freeChunks.isEmpty()) {
+				availableSlabs.addFirst(slab);
+			}
+			return first;
+		}
+
+		synchronized void free(final ByteBuffer chunk) {
+			final Slab slab = slabs.get(chunk);
+			if (slab == null) {
+				throw new IllegalArgumentException("Chunk was not allocated by this allocator!");
+			}
+			if (slab.freeChunks.isEmpty()) {
+				availableSlabs.addLast(slab);
+			}
+			slab.freeChunks.push(chunk);
+		}
+
+		/**
+		 * Removes a slab without any chunk in use from the size class, so it can be carved into chunks of another size.
+		 */
+		synchronized Slab reclaim() {
+			final Iterator<Slab> iterator = availableSlabs.iterator();
+			while (iterator.hasNext()) {
+				final Slab slab = iterator.next();
+				if (slab.isEmpty()) {
+					iterator.remove();
+					for (final ByteBuffer chunk : slab.freeChunks) {
+						slabs.remove(chunk);
+					}
+					slab.freeChunks.clear();
+					slab.memory.clear();
+					return slab;
+				}
+			}
+			return null;
+		}
+	}
+}
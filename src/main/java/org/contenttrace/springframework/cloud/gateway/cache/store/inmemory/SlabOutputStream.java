@@ -0,0 +1,162 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An output stream writing into chunks of off-heap memory allocated by a {@link SlabAllocator}. The first chunk is
+ * sized after the estimated size of the payload and the last chunk is shrunk to the smallest fitting size class on
+ * close, so small payloads only occupy small chunks.
+ */
+class SlabOutputStream extends PayloadOutputStream {
+
+	private final SlabAllocator allocator;
+	private final List<ByteBuffer> chunks;
+	private final int initialChunkSize;
+
+	private ByteBuffer currentChunk;
+	private long written;
+	private boolean closed;
+	private OffHeapFrames frames;
+
+	SlabOutputStream(final SlabAllocator allocator, final long estimatedSize) {
+		requireNonNull(allocator, "'allocator' must not be null!");
+		this.allocator = allocator;
+		this.chunks = new ArrayList<>();
+		this.initialChunkSize = estimatedSize > 0L
+				? (int) Math.min(estimatedSize, allocator.getLargestChunkSize())
+				: allocator.getLargestChunkSize();
+		this.written = 0L;
+		this.closed = false;
+	}
+
+	private void ensureChunk() throws IOException {
+		if (closed) {
+			throw new IOException("Stream is closed!");
+		}
+		if (currentChunk == null || !currentChunk.hasRemaining()) {
+			final ByteBuffer chunk = allocator.allocate(currentChunk == null
+					? initialChunkSize
+					: allocator.getLargestChunkSize());
+			if (chunk == null) {
+				throw new OffHeapBudgetExhaustedException(allocator.getMaximumSize(), "Off-heap budget exhausted!");
+			}
+			chunks.add(chunk);
+			currentChunk = chunk;
+		}
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		if (b == null) {
+			throw new NullPointerException();
+		} else if ((off < 0) || (off > b.length) || (len < 0) ||
+				((off + len) > b.length) || ((off + len) < 0)) {
+			throw new IndexOutOfBoundsException();
+		}
+		int offset = off;
+		int remaining = len;
+		while (remaining > 0) {
+			ensureChunk();
+			final int length = Math.min(remaining, currentChunk.remaining());
+			currentChunk.put(b, offset, length);
+			offset = offset + length;
+			remaining = remaining - length;
+			written = written + length;
+		}
+	}
+
+	@Override
+	void write(final ByteBuffer source) throws IOException {
+		final int limit = source.limit();
+		try {
+			while (source.hasRemaining()) {
+				ensureChunk();
+				final int length = Math.min(source.remaining(), currentChunk.remaining());
+				source.limit(source.position() + length);
+				currentChunk.put(source);
+				source.limit(limit);
+				written = written + length;
+			}
+		} finally {
+			source.limit(limit);
+		}
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		ensureChunk();
+		currentChunk.put((byte) b);
+		written++;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			throw new IOException("Stream is already closed!");
+		}
+		this.closed = true;
+		if (currentChunk != null) {
+			final int used = currentChunk.position();
+			if (allocator.chunkSize(used) < currentChunk.capacity()) {
+				final ByteBuffer smallerChunk = allocator.allocate(used);
+				if (smallerChunk != null) {
+					currentChunk.flip();
+					smallerChunk.put(currentChunk);
+					allocator.free(currentChunk);
+					chunks.set(chunks.size() - 1, smallerChunk);
+				}
+			}
+		}
+		for (final ByteBuffer chunk : chunks) {
+			chunk.flip();
+		}
+	}
+
+	@Override
+	long size() {
+		return written;
+	}
+
+	@Override
+	Frames toFrames() throws IllegalStateException {
+		if (!closed) {
+			throw new IllegalStateException("Stream is not closed!");
+		}
+		if (frames == null) {
+			frames = new OffHeapFrames(allocator, chunks);
+		}
+		return frames;
+	}
+
+	@Override
+	void discard() {
+		if (frames != null) {
+			return;
+		}
+		for (final ByteBuffer chunk : chunks) {
+			allocator.free(chunk);
+		}
+		chunks.clear();
+		currentChunk = null;
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.StringUtils;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Parses the surrogate keys, a response is tagged with by the origin. The keys are read from the "Surrogate-Key"
+ * header, which holds keys separated by spaces, and from the "Cache-Tag" header, which holds keys separated by
+ * commas.
+ */
+final class SurrogateKeys {
+
+	static final String SURROGATE_KEY = "Surrogate-Key";
+	static final String CACHE_TAG = "Cache-Tag";
+
+	private SurrogateKeys() {
+	}
+
+	/**
+	 * Returns the surrogate keys of a response.
+	 *
+	 * @param responseHeaders the headers of the response
+	 * @return the keys, empty if the response is not tagged
+	 */
+	static Set<String> of(final HttpHeaders responseHeaders) {
+		final List<String> surrogateKeys = responseHeaders.get(SURROGATE_KEY);
+		final List<String> cacheTags = responseHeaders.get(CACHE_TAG);
+		if (surrogateKeys == null && cacheTags == null) {
+			return Collections.emptySet();
+		}
+		final Set<String> keys = new LinkedHashSet<>();
+		if (surrogateKeys != null) {
+			surrogateKeys.forEach(value -> Collections.addAll(keys, StringUtils.tokenizeToStringArray(value, " \t")));
+		}
+		if (cacheTags != null) {
+			cacheTags.forEach(value -> Collections.addAll(keys, StringUtils.tokenizeToStringArray(value, ",")));
+		}
+		return keys.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(keys);
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An inverted index of surrogate keys to the tagged values and the keys of the bags holding them. Values are added
+ * once they have been created and removed once they have been released, so the index only references values held by
+ * the store. Purging a tag takes time proportional to the number of tagged values.
+ *
+ * @param <T> the type of the tagged values
+ */
+final class TagIndex<T> {
+
+	private final ConcurrentMap<String, ConcurrentMap<T, InMemoryCacheKey>> index;
+
+	TagIndex() {
+		this.index = new ConcurrentHashMap<>();
+	}
+
+	void add(final Set<String> tags, final InMemoryCacheKey key, final T value) {
+		requireNonNull(key, "'key' must not be null!");
+		requireNonNull(value, "'value' must not be null!");
+		for (final String tag : tags) {
+			index.compute(tag, (existingTag, values) -> {
+				final ConcurrentMap<T, InMemoryCacheKey> tagged = values != null ? values : new ConcurrentHashMap<>(4);
+				tagged.put(value, key);
+				return tagged;
+			});
+		}
+	}
+
+	void remove(final Set<String> tags, final T value) {
+		for (final String tag : tags) {
+			index.computeIfPresent(tag, (existingTag, values) -> {
+				values.remove(value);
+				return values.isEmpty() ? null : values;
+			});
+		}
+	}
+
+	/**
+	 * Removes a tag from the index.
+	 *
+	 * @param tag the tag
+	 * @return the values, which were tagged, and the keys of their bags
+	 */
+	Map<T, InMemoryCacheKey> purge(final String tag) {
+		requireNonNull(tag, "'tag' must not be null!");
+		final Map<T, InMemoryCacheKey> values = index.remove(tag);
+		return values != null ? values : Collections.emptyMap();
+	}
+
+	/**
+	 * Returns the number of distinct tags in the index.
+	 *
+	 * @return the number of tags
+	 */
+	int size() {
+		return index.size();
+	}
+}
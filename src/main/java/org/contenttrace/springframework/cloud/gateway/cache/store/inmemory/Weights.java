@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.springframework.http.HttpHeaders;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates the retained heap size of the objects kept by the store. The estimates assume a 64-bit JVM and are
+ * deliberately conservative, e.g. strings are always accounted with two bytes per character.
+ */
+final class Weights {
+
+	static final long OBJECT_HEADER = 16L;
+	static final long REFERENCE = 8L;
+
+	private static final long STRING_OVERHEAD = OBJECT_HEADER + 8L + OBJECT_HEADER;
+	private static final long HEADER_ENTRY_OVERHEAD = 96L;
+
+	static long of(final String value) {
+		if (value == null) {
+			return 0L;
+		}
+		return STRING_OVERHEAD + 2L * value.length();
+	}
+
+	static long of(final byte[] frame) {
+		return OBJECT_HEADER + frame.length;
+	}
+
+	static long of(final HttpHeaders headers) {
+		long weight = OBJECT_HEADER + REFERENCE;
+		for (final Map.Entry<String, List<String>> header : headers.entrySet()) {
+			weight = weight + HEADER_ENTRY_OVERHEAD + 2L * of(header.getKey());
+			for (final String value : header.getValue()) {
+				weight = weight + REFERENCE + of(value);
+			}
+		}
+		return weight;
+	}
+
+	static int toInt(final long weight) {
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(0L, weight));
+	}
+
+	private Weights() {
+		// void
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache;
+
+import org.contenttrace.springframework.cloud.gateway.cache.store.CacheKey;
+import org.contenttrace.springframework.cloud.gateway.cache.store.Entry;
+import org.contenttrace.springframework.cloud.gateway.cache.store.Payload;
+import org.contenttrace.springframework.cloud.gateway.cache.store.StandardCacheKeyProducer;
+import org.contenttrace.springframework.cloud.gateway.cache.store.Store;
+import org.contenttrace.springframework.cloud.gateway.cache.store.inmemory.InMemoryStoreConfiguration;
+import org.contenttrace.springframework.cloud.gateway.cache.store.inmemory.InMemoryStoreFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.MonoProcessor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.contenttrace.springframework.cloud.gateway.cache.ExchangeTestUtils.TIMEOUT;
+import static org.contenttrace.springframework.cloud.gateway.cache.ExchangeTestUtils.exchange;
+import static org.contenttrace.springframework.cloud.gateway.cache.ExchangeTestUtils.read;
+import static org.contenttrace.springframework.cloud.gateway.cache.ExchangeTestUtils.respond;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class BackgroundRefresherTest {
+
+	private static Entry staleEntry() {
+		final Entry entry = mock(Entry.class);
+		doReturn(mock(CacheKey.class)).when(entry).getKey();
+		doReturn(new HttpHeaders()).when(entry).getResponseHeaders();
+		return entry;
+	}
+
+	@Test
+	void shouldRefreshAnEntryOnceForConcurrentStaleHits() throws Exception {
+
+		// Given
+		final BackgroundRefresher refresher = new BackgroundRefresher(8);
+		final Entry entry = staleEntry();
+		final MonoProcessor<Void> refresh = MonoProcessor.create();
+		final GatewayFilterChain chain = mock(GatewayFilterChain.class);
+		doReturn(refresh).when(chain).filter(any(ServerWebExchange.class));
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		final CountDownLatch start = new CountDownLatch(1);
+
+		try {
+			// When
+			final List<Future<Boolean>> refreshes = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				refreshes.add(executor.submit(() -> {
+					start.await();
+					return refresher.refresh(entry, exchange("/stale"), chain);
+				}));
+			}
+			start.countDown();
+			int started = 0;
+			for (final Future<Boolean> result : refreshes) {
+				started = started + (result.get(5L, TimeUnit.SECONDS) ? 1 : 0);
+			}
+
+			// Then
+			assertEquals(1, started);
+			verify(chain, times(1)).filter(any(ServerWebExchange.class));
+		} finally {
+			refresh.onComplete();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void shouldBoundTheNumberOfConcurrentRefreshes() {
+
+		// Given
+		final BackgroundRefresher refresher = new BackgroundRefresher(2);
+		final List<MonoProcessor<Void>> refreshes = new ArrayList<>();
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maximumRunning = new AtomicInteger();
+		final GatewayFilterChain chain = exchange -> {
+			final MonoProcessor<Void> refresh = MonoProcessor.create();
+			refreshes.add(refresh);
+			maximumRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+			return refresh.doFinally(signalType -> running.decrementAndGet());
+		};
+
+		// When
+		final boolean first = refresher.refresh(staleEntry(), exchange("/first"), chain);
+		final boolean second = refresher.refresh(staleEntry(), exchange("/second"), chain);
+		final boolean exceeding = refresher.refresh(staleEntry(), exchange("/exceeding"), chain);
+		refreshes.get(0).onComplete();
+		final boolean afterCompletion = refresher.refresh(staleEntry(), exchange("/after-completion"), chain);
+
+		// Then
+		assertTrue(first);
+		assertTrue(second);
+		assertFalse(exceeding);
+		assertTrue(afterCompletion);
+		assertEquals(2, maximumRunning.get());
+		refreshes.forEach(MonoProcessor::onComplete);
+		assertEquals(0, running.get());
+	}
+
+	@Test
+	void shouldReplaceTheStaleEntryWithTheRefreshedResponse() throws IOException {
+
+		// Given
+		final Store store = new InMemoryStoreFactory(new InMemoryStoreConfiguration())
+				.createInstance(StandardCacheKeyProducer.getInstance());
+		respond(store.write(exchange("/refreshed")), "stale", "max-age=0").block(TIMEOUT);
+		final Entry stale = store.find(exchange("/refreshed").getRequest()).orElse(null);
+		assertNotNull(stale);
+		assertFalse(stale.isFresh());
+		final BackgroundRefresher refresher = new BackgroundRefresher(1);
+		final MonoProcessor<Void> refreshed = MonoProcessor.create();
+
+		// When
+		refresher.refresh(stale, exchange("/refreshed"), exchange -> respond(store.write(exchange), "refreshed", "max-age=60")
+				.doOnTerminate(refreshed::onComplete));
+		refreshed.block(TIMEOUT);
+
+		// Then
+		final Entry entry = store.find(exchange("/refreshed").getRequest()).orElse(null);
+		assertNotNull(entry);
+		assertTrue(entry.isFresh());
+		assertEquals("refreshed", read(entry));
+	}
+
+	@Test
+	void shouldKeepThePayloadOfTheStaleEntryOpenWhileItIsRevalidated() throws IOException {
+
+		// Given
+		final Store store = new InMemoryStoreFactory(new InMemoryStoreConfiguration())
+				.createInstance(StandardCacheKeyProducer.getInstance());
+		final ServerWebExchange original = store.write(exchange("/revalidated"));
+		original.getResponse().getHeaders().setETag("\"v1\"");
+		respond(original, "stale", "max-age=0").block(TIMEOUT);
+		final Entry stale = store.find(exchange("/revalidated").getRequest()).orElse(null);
+		assertNotNull(stale);
+		final BackgroundRefresher refresher = new BackgroundRefresher(1);
+		final AtomicReference<String> confirmed = new AtomicReference<>();
+		final MonoProcessor<Void> revalidated = MonoProcessor.create();
+
+		// When
+		refresher.refresh(stale, exchange("/revalidated"), exchange -> {
+			// The entry is purged before the origin confirms it.
+			stale.invalidate();
+			final Payload payload = exchange.getAttribute(Revalidation.PAYLOAD_ATTRIBUTE_NAME);
+			return DataBufferUtils.join(payload.read(new DefaultDataBufferFactory()))
+					.map(buffer -> DataBufferTestUtils.dumpString(buffer, StandardCharsets.UTF_8))
+					.doOnNext(confirmed::set)
+					.then()
+					.doOnTerminate(revalidated::onComplete);
+		});
+		revalidated.block(TIMEOUT);
+
+		// Then
+		assertEquals("stale", confirmed.get());
+		assertFalse(store.find(exchange("/revalidated").getRequest()).isPresent());
+	}
+}
@@ -22,6 +22,8 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.test.web.reactive.server.EntityExchangeResult;
 import org.springframework.test.web.reactive.server.WebTestClient;
 
@@ -89,4 +91,101 @@ public abstract class CacheIntegrationTests extends IntegrationTests {
 		Assertions.assertArrayEquals(firstResult.getResponseBody(), secondResult.getResponseBody());
 	}
 
+	@Test
+	void shouldServeRangeFromCache() {
+
+		// Given
+		client().get().uri("/cacheable").header("Host", CACHED_HOST)
+				.header("X-Test", "shouldServeRangeFromCache(#1)")
+				.exchange()
+				.expectStatus().isOk();
+
+		// When / Then
+		client().get().uri("/cacheable").header("Host", CACHED_HOST)
+				.header("X-Test", "shouldServeRangeFromCache(#2)")
+				.header(HttpHeaders.RANGE, "bytes=0-0")
+				.exchange()
+				.expectStatus().isEqualTo(HttpStatus.PARTIAL_CONTENT)
+				.expectHeader().valueEquals("X-Cache", "hit")
+				.expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "bytes 0-0/1")
+				.expectBody(String.class).isEqualTo("1");
+
+		// When / Then
+		client().get().uri("/cacheable").header("Host", CACHED_HOST)
+				.header("X-Test", "shouldServeRangeFromCache(#3)")
+				.header(HttpHeaders.RANGE, "bytes=5-")
+				.exchange()
+				.expectStatus().isEqualTo(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+				.expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "bytes */1");
+	}
+
+	@Test
+	void shouldRevalidateStaleEntry() throws InterruptedException {
+
+		// Given
+		client().get().uri("/revalidatable").header("Host", CACHED_HOST)
+				.header("X-Test", "shouldRevalidateStaleEntry(#1)")
+				.exchange()
+				.expectStatus().isOk()
+				.expectHeader().valueEquals("X-Cache", "store");
+		Thread.sleep(1_500L);
+
+		// When / Then
+		client().get().uri("/revalidatable").header("Host", CACHED_HOST)
+				.header("X-Test", "shouldRevalidateStaleEntry(#2)")
+				.exchange()
+				.expectStatus().isOk()
+				.expectHeader().valueEquals("X-Cache", "revalidated")
+				.expectBody(String.class).isEqualTo("1");
+	}
+
+	@Test
+	void shouldServeEntryRemovedWhileRevalidated() throws InterruptedException {
+
+		// Given
+		client().get().uri("/removed-while-revalidated").header("Host", CACHED_HOST)
+				.header("X-Test", "shouldServeEntryRemovedWhileRevalidated(#1)")
+				.exchange()
+				.expectStatus().isOk()
+				.expectHeader().valueEquals("X-Cache", "store");
+		Thread.sleep(1_500L);
+
+		// When / Then
+		client().get().uri("/removed-while-revalidated").header("Host", CACHED_HOST)
+				.header("X-Test", "shouldServeEntryRemovedWhileRevalidated(#2)")
+				.exchange()
+				.expectStatus().isOk()
+				.expectHeader().valueEquals("X-Cache", "revalidated")
+				.expectBody(String.class).isEqualTo("1");
+	}
+
+	@Test
+	void shouldAnswerConditionalRequestFromCache() {
+
+		// Given
+		client().get().uri("/cacheable").header("Host", CACHED_HOST)
+				.header("X-Test", "shouldAnswerConditionalRequestFromCache(#1)")
+				.exchange()
+				.expectStatus().isOk();
+		final String eTag = client().get().uri("/cacheable").header("Host", CACHED_HOST)
+				.header("X-Test", "shouldAnswerConditionalRequestFromCache(#2)")
+				.exchange()
+				.expectStatus().isOk()
+				.expectHeader().valueEquals("X-Cache", "hit")
+				.expectBody()
+				.returnResult()
+				.getResponseHeaders()
+				.getETag();
+		assertNotNull(eTag);
+
+		// When / Then
+		client().get().uri("/cacheable").header("Host", CACHED_HOST)
+				.header("X-Test", "shouldAnswerConditionalRequestFromCache(#3)")
+				.header(HttpHeaders.IF_NONE_MATCH, eTag)
+				.exchange()
+				.expectStatus().isNotModified()
+				.expectHeader().valueEquals(HttpHeaders.ETAG, eTag)
+				.expectBody().isEmpty();
+	}
+
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class CacheMetricsTest {
+
+	@Test
+	void shouldCountOutcomesPerRoute() {
+
+		// Given
+		final CacheMetrics metrics = new CacheMetrics();
+
+		// When
+		metrics.route("a").request(CacheMetrics.Outcome.HIT);
+		metrics.route("a").request(CacheMetrics.Outcome.HIT);
+		metrics.route("a").request(CacheMetrics.Outcome.MISS);
+		metrics.route("a").store();
+		metrics.route("b").request(CacheMetrics.Outcome.BYPASS);
+
+		// Then
+		assertSame(metrics.route("a"), metrics.route("a"));
+		assertEquals(2, metrics.routes().size());
+		assertEquals(2L, metrics.route("a").getRequests(CacheMetrics.Outcome.HIT));
+		assertEquals(1L, metrics.route("a").getRequests(CacheMetrics.Outcome.MISS));
+		assertEquals(0L, metrics.route("a").getRequests(CacheMetrics.Outcome.BYPASS));
+		assertEquals(1L, metrics.route("a").getStores());
+		assertEquals(1L, metrics.route("b").getRequests(CacheMetrics.Outcome.BYPASS));
+		assertEquals(0L, metrics.route("b").getStores());
+	}
+}
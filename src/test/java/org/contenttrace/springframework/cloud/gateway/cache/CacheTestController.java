@@ -15,19 +15,30 @@
  */
 package org.contenttrace.springframework.cloud.gateway.cache;
 
+import org.contenttrace.springframework.cloud.gateway.cache.store.Store;
 import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 public class CacheTestController {
 
-	private final ZonedDateTime lastModified = ZonedDateTime.now();
+	// The heuristic freshness lifetime is derived from the time since the last modification.
+	private final ZonedDateTime lastModified = ZonedDateTime.now().minusHours(1);
+
+	private final Store store;
+
+	public CacheTestController(final Store store) {
+		this.store = store;
+	}
 
 	@GetMapping(path = "/tests/cacheable")
 	public ResponseEntity<String> cacheable() {
@@ -37,6 +48,34 @@ public class CacheTestController {
 				.body("1");
 	}
 
+	@GetMapping(path = "/tests/revalidatable")
+	public ResponseEntity<String> revalidatable() {
+		return ResponseEntity.status(HttpStatus.OK)
+				.contentType(MediaType.TEXT_PLAIN)
+				.cacheControl(CacheControl.maxAge(1L, TimeUnit.SECONDS))
+				.eTag("\"1\"")
+				.body("1");
+	}
+
+	@GetMapping(path = "/tests/removed-while-revalidated")
+	public ResponseEntity<String> removedWhileRevalidated(
+			@RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch) {
+		if ("\"1\"".equals(ifNoneMatch)) {
+			// The stale entry is removed from the store, while the conditional request is on its way.
+			store.purge("removed-while-revalidated");
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+					.cacheControl(CacheControl.maxAge(1L, TimeUnit.SECONDS))
+					.eTag("\"1\"")
+					.build();
+		}
+		return ResponseEntity.status(HttpStatus.OK)
+				.contentType(MediaType.TEXT_PLAIN)
+				.cacheControl(CacheControl.maxAge(1L, TimeUnit.SECONDS))
+				.eTag("\"1\"")
+				.header("Surrogate-Key", "removed-while-revalidated")
+				.body("1");
+	}
+
 	@GetMapping(path = "/tests/non-cacheable")
 	public ResponseEntity<String> nonCacheable() {
 		return ResponseEntity.status(HttpStatus.OK)
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache;
+
+import org.contenttrace.springframework.cloud.gateway.cache.store.Entry;
+import org.contenttrace.springframework.cloud.gateway.cache.store.Payload;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+public abstract class ExchangeTestUtils {
+
+	/**
+	 * The time to wait for a response to be written or a payload to be read.
+	 */
+	public static final Duration TIMEOUT = Duration.ofSeconds(5L);
+
+	/**
+	 * Creates a GET exchange for a path of the host "cached.org".
+	 *
+	 * @param path the path of the request
+	 * @return the exchange
+	 */
+	public static MockServerWebExchange exchange(final String path) {
+		return MockServerWebExchange.from(MockServerHttpRequest.get(path).header(HttpHeaders.HOST, "cached.org").build());
+	}
+
+	/**
+	 * Writes a successful response with the given body to an exchange.
+	 *
+	 * @param exchange     the exchange
+	 * @param body         the body of the response
+	 * @param cacheControl the "Cache-Control" header of the response
+	 * @return completes once the response has been written
+	 */
+	public static Mono<Void> respond(final ServerWebExchange exchange, final String body, final String cacheControl) {
+		final ServerHttpResponse response = exchange.getResponse();
+		response.setStatusCode(HttpStatus.OK);
+		response.getHeaders().setCacheControl(cacheControl);
+		return response.writeWith(Flux.just(new DefaultDataBufferFactory().wrap(body.getBytes(StandardCharsets.UTF_8))));
+	}
+
+	/**
+	 * Reads the payload of an entry.
+	 *
+	 * @param entry the entry
+	 * @return the payload decoded as UTF-8
+	 * @throws IOException if the payload cannot be opened
+	 */
+	public static String read(final Entry entry) throws IOException {
+		try (Payload payload = entry.openPayload()) {
+			return DataBufferUtils.join(payload.read(new DefaultDataBufferFactory()))
+					.map(buffer -> DataBufferTestUtils.dumpString(buffer, StandardCharsets.UTF_8))
+					.block(TIMEOUT);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache;
+
+import org.contenttrace.springframework.cloud.gateway.cache.store.Store;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+class FindCacheEntryFilterFactoryTest {
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void shouldForwardRequestIfLeaderDoesNotRespondInTime() {
+
+		// Given
+		final CacheConfiguration configuration = new CacheConfiguration();
+		configuration.setCollapsedForwarding(true);
+		configuration.setCollapsedForwardingTimeout(Duration.ofMillis(50L));
+		final Store store = mock(Store.class);
+		doReturn(Optional.empty()).when(store).find(any(ServerWebExchange.class));
+		doReturn(Mono.never()).when(store).collapse(any(ServerWebExchange.class));
+		final GatewayFilter filter = new FindCacheEntryFilterFactory(configuration, store, exchange -> true,
+				(ObjectProvider<List<HttpHeadersFilter>>) mock(ObjectProvider.class))
+				.apply(new FindCacheEntryFilterFactory.Config());
+		final MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/slow").build());
+		final AtomicBoolean forwarded = new AtomicBoolean(false);
+
+		// When
+		filter.filter(exchange, forwardedExchange -> {
+			forwarded.set(true);
+			return Mono.empty();
+		}).block(Duration.ofSeconds(5L));
+
+		// Then
+		assertTrue(forwarded.get());
+		verify(store, timeout(1_000L)).release(exchange);
+	}
+}
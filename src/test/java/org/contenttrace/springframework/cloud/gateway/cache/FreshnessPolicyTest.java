@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FreshnessPolicyTest {
+
+	private static final long NOW = 1_560_000_000_000L;
+
+	private final FreshnessPolicy policy = new FreshnessPolicy();
+
+	@Test
+	void shouldPreferSharedMaxAge() {
+
+		// Given
+		final HttpHeaders headers = new HttpHeaders();
+		headers.setCacheControl("max-age=60, s-maxage=120");
+		headers.setExpires(NOW + 300_000L);
+
+		// When
+		final long lifetime = policy.lifetime(headers, NOW);
+
+		// Then
+		assertEquals(120_000L, lifetime);
+	}
+
+	@Test
+	void shouldUseExpiresRelativeToDate() {
+
+		// Given
+		final HttpHeaders headers = new HttpHeaders();
+		headers.setDate(NOW - 10_000L);
+		headers.setExpires(NOW + 50_000L);
+
+		// When
+		final long lifetime = policy.lifetime(headers, NOW);
+
+		// Then
+		assertEquals(60_000L, lifetime);
+	}
+
+	@Test
+	void shouldTreatInvalidExpiresAsStale() {
+
+		// Given
+		final HttpHeaders headers = new HttpHeaders();
+		headers.set(HttpHeaders.EXPIRES, "0");
+
+		// When
+		final long lifetime = policy.lifetime(headers, NOW);
+
+		// Then
+		assertEquals(0L, lifetime);
+	}
+
+	@Test
+	void shouldUseHeuristicLifetime() {
+
+		// Given
+		final HttpHeaders headers = new HttpHeaders();
+		headers.setDate(NOW);
+		headers.setLastModified(NOW - 100_000L);
+
+		// When
+		final long lifetime = policy.lifetime(headers, NOW);
+
+		// Then
+		assertEquals(10_000L, lifetime);
+	}
+
+	@Test
+	void shouldCapHeuristicLifetime() {
+
+		// Given
+		policy.setMaximumHeuristicLifetime(Duration.ofSeconds(5));
+		final HttpHeaders headers = new HttpHeaders();
+		headers.setDate(NOW);
+		headers.setLastModified(NOW - 100_000L);
+
+		// When
+		final long lifetime = policy.lifetime(headers, NOW);
+
+		// Then
+		assertEquals(5_000L, lifetime);
+	}
+
+	@Test
+	void shouldBeStaleWithoutFreshnessInformation() {
+
+		// When
+		final long lifetime = policy.lifetime(new HttpHeaders(), NOW);
+
+		// Then
+		assertEquals(0L, lifetime);
+	}
+
+	@Test
+	void shouldReadInitialAge() {
+
+		// Given
+		final HttpHeaders headers = new HttpHeaders();
+		headers.set(HttpHeaders.AGE, "42");
+
+		// When
+		final long initialAge = policy.initialAge(headers);
+
+		// Then
+		assertEquals(42_000L, initialAge);
+	}
+
+	@Test
+	void shouldPreferLongerStaleWhileRevalidateWindow() {
+
+		// Given
+		final HttpHeaders headers = new HttpHeaders();
+		headers.setCacheControl("max-age=60, stale-while-revalidate=30");
+
+		// When
+		final Duration directive = FreshnessPolicy.staleWhileRevalidate(headers, Duration.ofSeconds(10L));
+		final Duration grace = FreshnessPolicy.staleWhileRevalidate(headers, Duration.ofMinutes(1L));
+
+		// Then
+		assertEquals(Duration.ofSeconds(30L), directive);
+		assertEquals(Duration.ofMinutes(1L), grace);
+	}
+
+	@Test
+	void shouldNotServeStaleIfRevalidationIsRequired() {
+
+		// Given
+		final HttpHeaders headers = new HttpHeaders();
+		headers.setCacheControl("max-age=60, must-revalidate, stale-while-revalidate=30");
+
+		// When
+		final Duration window = FreshnessPolicy.staleWhileRevalidate(headers, Duration.ofMinutes(1L));
+
+		// Then
+		assertEquals(Duration.ZERO, window);
+	}
+
+}
@@ -15,6 +15,7 @@
  */
 package org.contenttrace.springframework.cloud.gateway.cache;
 
+import org.contenttrace.springframework.cloud.gateway.cache.store.Store;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.SpringBootConfiguration;
@@ -64,7 +65,7 @@ public class InMemoryCacheTestApplication {
 	}
 
 	@Bean
-	public CacheTestController integrationTestController() {
-		return new CacheTestController();
+	public CacheTestController integrationTestController(final Store store) {
+		return new CacheTestController(store);
 	}
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StandardVaryNormalizerTest {
+
+	private static List<String> normalize(final VaryNormalizer normalizer, final String headerName, final String... values) {
+		return normalizer.normalize(headerName, Arrays.asList(values));
+	}
+
+	@Test
+	void shouldReduceAcceptEncodingToPreferredContentCoding() {
+
+		// Given
+		final VaryNormalizer normalizer = StandardVaryNormalizer.getInstance().withContentCodings("gzip", "deflate");
+
+		// When / Then
+		assertEquals(Collections.singletonList("gzip"), normalize(normalizer, HttpHeaders.ACCEPT_ENCODING, "gzip, deflate, br"));
+		assertEquals(Collections.singletonList("gzip"), normalize(normalizer, HttpHeaders.ACCEPT_ENCODING, "gzip,deflate"));
+		assertEquals(Collections.singletonList("deflate"), normalize(normalizer, HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, deflate"));
+		assertEquals(Collections.emptyList(), normalize(normalizer, HttpHeaders.ACCEPT_ENCODING, "br"));
+		assertEquals(Collections.emptyList(), normalize(normalizer, HttpHeaders.ACCEPT_ENCODING));
+	}
+
+	@Test
+	void shouldKeyAcceptEncodingOnAllAcceptableContentCodings() {
+
+		// Given
+		final VaryNormalizer normalizer = StandardVaryNormalizer.getInstance();
+
+		// When / Then
+		assertEquals(Collections.singletonList("br,gzip"), normalize(normalizer, HttpHeaders.ACCEPT_ENCODING, "gzip, br"));
+		assertEquals(Collections.singletonList("br,gzip"), normalize(normalizer, HttpHeaders.ACCEPT_ENCODING, "br;q=0.5, x-gzip, deflate;q=0"));
+		assertEquals(Collections.singletonList("br"), normalize(normalizer, HttpHeaders.ACCEPT_ENCODING, "br"));
+		assertEquals(Collections.emptyList(), normalize(normalizer, HttpHeaders.ACCEPT_ENCODING, "gzip;q=0"));
+	}
+
+	@Test
+	void shouldOrderAcceptLanguageByQuality() {
+
+		// Given
+		final VaryNormalizer normalizer = StandardVaryNormalizer.getInstance();
+
+		// When / Then
+		assertEquals(normalize(normalizer, HttpHeaders.ACCEPT_LANGUAGE, "en-US, de;q=0.5"),
+				normalize(normalizer, HttpHeaders.ACCEPT_LANGUAGE, "de;q=0.5,en-us"));
+		assertEquals(Collections.singletonList("en-us,de"),
+				normalize(normalizer, HttpHeaders.ACCEPT_LANGUAGE, "de;q=0.5", "fr;q=0", "en-US"));
+	}
+
+	@Test
+	void shouldReduceAcceptLanguageToSupportedLanguage() {
+
+		// Given
+		final VaryNormalizer normalizer = StandardVaryNormalizer.getInstance().withLanguages("de", "en");
+
+		// When / Then
+		assertEquals(Collections.singletonList("en"), normalize(normalizer, HttpHeaders.ACCEPT_LANGUAGE, "fr, en-GB;q=0.8, de;q=0.5"));
+		assertEquals(Collections.singletonList("de"), normalize(normalizer, HttpHeaders.ACCEPT_LANGUAGE, "*"));
+		assertEquals(Collections.emptyList(), normalize(normalizer, HttpHeaders.ACCEPT_LANGUAGE, "fr"));
+	}
+
+	@Test
+	void shouldReduceUserAgentToDeviceClass() {
+
+		// Given
+		final VaryNormalizer normalizer = StandardVaryNormalizer.getInstance().withDeviceClasses();
+
+		// When / Then
+		assertEquals(Collections.singletonList("mobile"), normalize(normalizer, HttpHeaders.USER_AGENT,
+				"Mozilla/5.0 (iPhone; CPU iPhone OS 12_2 like Mac OS X) AppleWebKit/605.1.15 Mobile/15E148"));
+		assertEquals(Collections.singletonList("tablet"), normalize(normalizer, HttpHeaders.USER_AGENT,
+				"Mozilla/5.0 (Linux; Android 9; SM-T820) AppleWebKit/537.36 Safari/537.36"));
+		assertEquals(Collections.singletonList("desktop"), normalize(normalizer, HttpHeaders.USER_AGENT,
+				"Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 Chrome/74.0 Safari/537.36"));
+	}
+
+	@Test
+	void shouldOmitAbsentHeaders() {
+
+		// Given
+		final HttpHeaders requestHeaders = new HttpHeaders();
+		requestHeaders.add(HttpHeaders.ACCEPT, "text/html, application/json;q=0.9");
+
+		// When
+		final HttpHeaders normalized = StandardVaryNormalizer.getInstance()
+				.normalize(Arrays.asList(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING), requestHeaders);
+
+		// Then
+		assertEquals(1, normalized.size());
+		assertEquals(Collections.singletonList("text/html,application/json"), normalized.get(HttpHeaders.ACCEPT));
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.file;
+
+import org.contenttrace.springframework.cloud.gateway.cache.store.Entry;
+import org.contenttrace.springframework.cloud.gateway.cache.store.StandardCacheKeyProducer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.contenttrace.springframework.cloud.gateway.cache.ExchangeTestUtils.TIMEOUT;
+import static org.contenttrace.springframework.cloud.gateway.cache.ExchangeTestUtils.exchange;
+import static org.contenttrace.springframework.cloud.gateway.cache.ExchangeTestUtils.respond;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileStoreTest {
+
+	private static FileStore store(final Path directory, final long maximumEntrySize) throws IOException {
+		final FileStoreConfiguration configuration = new FileStoreConfiguration();
+		configuration.setDirectory(directory);
+		configuration.setSegmentSize(1024L * 1024L);
+		configuration.setMaximumEntrySize(maximumEntrySize);
+		return new FileStore(StandardCacheKeyProducer.getInstance(), configuration);
+	}
+
+	private static Mono<Void> respondWithETag(final ServerWebExchange exchange, final String body) {
+		exchange.getResponse().getHeaders().setETag("\"1\"");
+		return respond(exchange, body, "max-age=60");
+	}
+
+	@Test
+	void shouldServeHeadersOfWrittenAndRecoveredEntriesFromTheIndex(@TempDir final Path directory) throws IOException {
+
+		// Given
+		final FileStore store = store(directory, 1024L);
+		respondWithETag(store.write(exchange("/written")), "written").block(TIMEOUT);
+		// Closing the store waits for the pending write.
+		store.close();
+
+		// When
+		final Optional<? extends Entry> written = store.find(exchange("/written").getRequest());
+		final Optional<? extends Entry> recovered;
+		try (FileStore recoveredStore = store(directory, 1024L)) {
+			recovered = recoveredStore.find(exchange("/written").getRequest());
+		}
+
+		// Then
+		assertTrue(written.isPresent());
+		assertEquals("\"1\"", written.get().getResponseHeaders().getETag());
+		assertTrue(recovered.isPresent());
+		assertEquals("\"1\"", recovered.get().getResponseHeaders().getETag());
+		assertEquals("/written", recovered.get().getPath());
+	}
+
+	@Test
+	void shouldAbandonResponsesExceedingTheRequestedMaximumSize(@TempDir final Path directory) throws IOException {
+
+		// Given
+		final FileStore store = store(directory, 1024L);
+
+		// When
+		respondWithETag(store.write(exchange("/small"), 8L), "small").block(TIMEOUT);
+		respondWithETag(store.write(exchange("/large"), 8L), "exceeding").block(TIMEOUT);
+		store.close();
+
+		// Then
+		assertTrue(store.find(exchange("/small").getRequest()).isPresent());
+		assertFalse(store.find(exchange("/large").getRequest()).isPresent());
+	}
+}
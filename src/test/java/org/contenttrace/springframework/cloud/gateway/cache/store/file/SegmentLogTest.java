@@ -0,0 +1,165 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.file;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SegmentLogTest {
+
+	private static final long SEGMENT_SIZE = 1024L;
+
+	private static byte[] key(final int value) {
+		final byte[] key = new byte[SegmentLog.KEY_LENGTH];
+		key[0] = (byte) value;
+		return key;
+	}
+
+	private static ByteBuffer bytes(final String value) {
+		return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static SegmentLog.Record put(final SegmentLog log, final int key, final String payload) throws IOException {
+		return log.put(key(key), 1L, 2L, 3L, bytes("metadata"), Collections.singletonList(bytes(payload)));
+	}
+
+	private static String payload(final SegmentLog log, final SegmentLog.Record record) throws IOException {
+		final ByteBuffer payload = ByteBuffer.allocate((int) record.payloadLength);
+		log.segment(record.segmentId).read(record.payloadOffset(), payload);
+		return new String(payload.array(), StandardCharsets.UTF_8);
+	}
+
+	private static List<SegmentLog.Record> recover(final SegmentLog log, final List<long[]> deletes) throws IOException {
+		final List<SegmentLog.Record> records = new ArrayList<>();
+		log.recover(new SegmentLog.Visitor() {
+
+			@Override
+			public void put(final SegmentLog.Record record, final ByteBuffer metadata) {
+				records.add(record);
+			}
+
+			@Override
+			public void delete(final SegmentLog.Record record, final long targetSegmentId, final long targetOffset) {
+				deletes.add(new long[]{targetSegmentId, targetOffset});
+			}
+		});
+		return records;
+	}
+
+	@Test
+	void shouldRecoverRecords(@TempDir final Path directory) throws IOException {
+
+		// Given
+		final SegmentLog.Record deleted;
+		try (SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE)) {
+			put(log, 1, "first");
+			deleted = put(log, 2, "second");
+			log.delete(key(2), deleted.segmentId, deleted.offset);
+		}
+
+		// When
+		final List<long[]> deletes = new ArrayList<>();
+		try (SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE)) {
+			final List<SegmentLog.Record> records = recover(log, deletes);
+
+			// Then
+			assertEquals(2, records.size());
+			assertArrayEquals(key(1), records.get(0).key);
+			assertEquals(3L, records.get(0).reclaimAt);
+			assertEquals("first", payload(log, records.get(0)));
+			assertEquals(1, deletes.size());
+			assertArrayEquals(new long[]{deleted.segmentId, deleted.offset}, deletes.get(0));
+		}
+	}
+
+	@Test
+	void shouldTruncateTornRecord(@TempDir final Path directory) throws IOException {
+
+		// Given
+		final SegmentLog.Record torn;
+		try (SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE)) {
+			put(log, 1, "first");
+			torn = put(log, 2, "second");
+		}
+		try (Stream<Path> segments = Files.list(directory);
+			 FileChannel channel = FileChannel.open(segments.findFirst().get(), StandardOpenOption.WRITE)) {
+			channel.truncate(torn.offset + torn.length() - 1L);
+		}
+
+		// When
+		try (SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE)) {
+			final List<SegmentLog.Record> records = recover(log, new ArrayList<>());
+			final SegmentLog.Record appended = put(log, 3, "third");
+
+			// Then
+			assertEquals(1, records.size());
+			assertEquals(torn.offset, appended.offset);
+			assertEquals("third", payload(log, appended));
+		}
+	}
+
+	@Test
+	void shouldCompactLiveRecords(@TempDir final Path directory) throws IOException {
+
+		// Given
+		final char[] filler = new char[600];
+		Arrays.fill(filler, 'x');
+		try (SegmentLog log = new SegmentLog(directory, SEGMENT_SIZE)) {
+			final SegmentLog.Record live = put(log, 1, "live");
+			final SegmentLog.Record dead = put(log, 2, new String(filler));
+			put(log, 3, new String(filler));
+			log.markDead(dead.segmentId, dead.length());
+			final SegmentLog.Segment sealed = log.segment(live.segmentId);
+			final List<SegmentLog.Record> relocated = new ArrayList<>();
+
+			// When
+			log.compact(sealed, new SegmentLog.Compactor() {
+
+				@Override
+				public boolean isLive(final SegmentLog.Record record) {
+					return record.offset == live.offset;
+				}
+
+				@Override
+				public void relocated(final SegmentLog.Record from, final SegmentLog.Record to) {
+					relocated.add(to);
+				}
+			});
+
+			// Then
+			assertEquals(1, relocated.size());
+			assertEquals("live", payload(log, relocated.get(0)));
+			assertEquals(1, log.segmentCount());
+			assertEquals(null, log.segment(live.segmentId));
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdmissionFilterTest {
+
+	private static InMemoryCacheKey key(final int i) {
+		return InMemoryCacheKey.of(ByteBuffer.allocate(32).putInt(i).array());
+	}
+
+	@Test
+	void shouldAdmitKeysSeenMoreOftenThanTheThreshold() {
+
+		// Given
+		final AdmissionFilter filter = new AdmissionFilter(2, 1024);
+
+		// When / Then
+		assertFalse(filter.admit(key(1)));
+		assertFalse(filter.admit(key(1)));
+		assertTrue(filter.admit(key(1)));
+		assertEquals(3, filter.frequency(key(1)));
+		assertFalse(filter.admit(key(2)));
+		assertEquals(0, filter.frequency(key(3)));
+	}
+
+	@Test
+	void shouldAgeFrequencies() {
+
+		// Given
+		final AdmissionFilter filter = new AdmissionFilter(3, 64);
+		for (int i = 0; i < 8; i++) {
+			filter.admit(key(1));
+		}
+		assertEquals(8, filter.frequency(key(1)));
+
+		// When
+		// A filter for 64 keys is aged after 640 sightings.
+		for (int i = 0; i < 632; i++) {
+			filter.admit(key(2));
+		}
+
+		// Then
+		assertEquals(3, filter.frequency(key(1)));
+		assertTrue(filter.admit(key(1)));
+		assertEquals(4, filter.frequency(key(1)));
+	}
+}
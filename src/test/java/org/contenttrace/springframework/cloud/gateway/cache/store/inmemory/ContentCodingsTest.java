@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ContentCodingsTest {
+
+	@Test
+	void shouldKeepTheEntityTagOfTheCompressedRepresentation() {
+
+		// Given
+		final HttpHeaders responseHeaders = new HttpHeaders();
+		responseHeaders.setETag("\"v1\"");
+
+		// When
+		final HttpHeaders compressed = ContentCodings.compressedHeaders(responseHeaders, 42L);
+		final HttpHeaders decompressed = ContentCodings.decompressedHeaders(compressed);
+
+		// Then
+		assertEquals("\"v1\"", compressed.getETag());
+		assertEquals(ContentCodings.GZIP, compressed.getFirst(HttpHeaders.CONTENT_ENCODING));
+		assertEquals(42L, compressed.getContentLength());
+		assertEquals("W/\"v1\"", decompressed.getETag());
+		assertNull(decompressed.getFirst(HttpHeaders.CONTENT_ENCODING));
+	}
+}
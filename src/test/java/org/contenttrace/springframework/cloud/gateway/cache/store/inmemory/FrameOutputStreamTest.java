@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FrameOutputStreamTest {
+
+	private static final int FRAME_SIZE = 1000;
+
+	private static Frames capture(final FramePool pool, final byte[] payload) throws IOException {
+		final FrameOutputStream outputStream = new FrameOutputStream(pool, payload.length);
+		outputStream.write(payload);
+		outputStream.close();
+		return outputStream.toFrames();
+	}
+
+	private static byte[] payload(final int size) {
+		final byte[] payload = new byte[size];
+		for (int i = 0; i < size; i++) {
+			payload[i] = (byte) i;
+		}
+		return payload;
+	}
+
+	@Test
+	void shouldReadWhatWasWritten() throws IOException {
+
+		// Given
+		final FramePool pool = new FramePool(FRAME_SIZE, 10);
+		final byte[] payload = payload(2_750);
+
+		// When
+		final FrameOutputStream outputStream = new FrameOutputStream(pool, -1L);
+		outputStream.write(payload, 0, 10);
+		outputStream.write(payload[10]);
+		outputStream.write(payload, 11, payload.length - 11);
+		outputStream.close();
+
+		// Then
+		final ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (InputStream inputStream = outputStream.openInputStream()) {
+			int b;
+			while ((b = inputStream.read()) != -1) {
+				result.write(b);
+			}
+		}
+		assertEquals(3, outputStream.toFrames().count());
+		assertArrayEquals(payload, result.toByteArray());
+	}
+
+	@Test
+	void shouldRecycleFramesOnRelease() throws IOException {
+
+		// Given
+		final FramePool pool = new FramePool(FRAME_SIZE, 10);
+		final Frames frames = capture(pool, payload(2_750));
+
+		// When
+		frames.release();
+		capture(pool, payload(2_750));
+
+		// Then
+		assertEquals(3L, pool.getMisses());
+		assertEquals(3L, pool.getHits());
+	}
+
+	@Test
+	void shouldRecycleMostlyEmptyFrameOnClose() throws IOException {
+
+		// Given
+		final FramePool pool = new FramePool(FRAME_SIZE, 10);
+
+		// When
+		final Frames frames = capture(pool, payload(100));
+
+		// Then
+		assertEquals(100L, frames.size());
+		assertEquals(1L, pool.getRecycled());
+		assertEquals(1, pool.getIdleFrames());
+	}
+
+	@Test
+	void shouldDropFramesIfPoolIsFull() throws IOException {
+
+		// Given
+		final FramePool pool = new FramePool(FRAME_SIZE, 1);
+		final Frames frames = capture(pool, payload(3_000));
+
+		// When
+		frames.release();
+
+		// Then
+		assertEquals(1L, pool.getRecycled());
+		assertEquals(2L, pool.getDropped());
+	}
+}
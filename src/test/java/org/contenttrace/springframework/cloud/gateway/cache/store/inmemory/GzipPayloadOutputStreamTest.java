@@ -0,0 +1,119 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.contenttrace.springframework.cloud.gateway.cache.DataBufferTestUtils;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GzipPayloadOutputStreamTest {
+
+	private static final int FRAME_SIZE = 1000;
+
+	private static byte[] payload() {
+		final StringBuilder payload = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			payload.append("{\"id\":").append(i).append(",\"name\":\"item\"}");
+		}
+		return payload.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	void shouldDecompressWhatWasCompressed() throws IOException {
+
+		// Given
+		final byte[] payload = payload();
+		final FrameOutputStream frameOutputStream = new FrameOutputStream(new FramePool(FRAME_SIZE, 10), -1L);
+
+		// When
+		final GzipPayloadOutputStream outputStream = new GzipPayloadOutputStream(frameOutputStream, 6);
+		outputStream.write(payload, 0, 10);
+		outputStream.write(payload[10]);
+		outputStream.write(payload, 11, payload.length - 11);
+		outputStream.close();
+		final Frames frames = outputStream.toFrames();
+
+		// Then
+		final ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (InputStream inputStream = GunzipPayload.openStream(frames)) {
+			int b;
+			while ((b = inputStream.read()) != -1) {
+				result.write(b);
+			}
+		}
+		assertEquals(payload.length, outputStream.size());
+		assertEquals(frames.size(), outputStream.compressedSize());
+		assertTrue(frames.size() < payload.length);
+		assertArrayEquals(payload, result.toByteArray());
+	}
+
+	@Test
+	void shouldReadRangeOfDecompressedPayload() throws IOException {
+
+		// Given
+		final byte[] payload = payload();
+		final GzipPayloadOutputStream outputStream =
+				new GzipPayloadOutputStream(new FrameOutputStream(new FramePool(FRAME_SIZE, 10), -1L), 6);
+		outputStream.write(payload);
+		outputStream.close();
+
+		// When
+		final long size;
+		final byte[] range;
+		try (GunzipPayload gunzipPayload = new GunzipPayload(outputStream.toFrames())) {
+			size = gunzipPayload.size();
+			range = DataBufferUtils.join(gunzipPayload.read(new DefaultDataBufferFactory(), 5_000L, 1_000L))
+					.map(DataBufferTestUtils::dumpBytes)
+					.block(Duration.ofSeconds(5L));
+		}
+
+		// Then
+		assertEquals(-1L, size);
+		assertArrayEquals(Arrays.copyOfRange(payload, 5_000, 6_000), range);
+	}
+
+	@Test
+	void shouldNegotiateGzipByQuality() {
+
+		// Given
+		final HttpHeaders accepting = new HttpHeaders();
+		accepting.add(HttpHeaders.ACCEPT_ENCODING, "br, gzip;q=0.8");
+		final HttpHeaders refusing = new HttpHeaders();
+		refusing.add(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, *");
+		final HttpHeaders wildcard = new HttpHeaders();
+		wildcard.add(HttpHeaders.ACCEPT_ENCODING, "identity, *;q=0.5");
+
+		// When / Then
+		assertTrue(ContentCodings.acceptsGzip(accepting));
+		assertFalse(ContentCodings.acceptsGzip(refusing));
+		assertTrue(ContentCodings.acceptsGzip(wildcard));
+		assertFalse(ContentCodings.acceptsGzip(new HttpHeaders()));
+	}
+}
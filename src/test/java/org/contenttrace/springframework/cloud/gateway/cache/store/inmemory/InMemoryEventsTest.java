@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.contenttrace.springframework.cloud.gateway.cache.store.Event;
+import org.contenttrace.springframework.cloud.gateway.cache.store.EventListener;
+import org.contenttrace.springframework.cloud.gateway.cache.store.ResourceCachedEvent;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryEventsTest {
+
+	private static final class OtherEvent extends InMemoryEvents.InMemoryEvent {
+	}
+
+	private static InMemoryEvents.InMemoryEvent resourceCached(final int i) {
+		return new InMemoryEvents.InMemoryResourceCachedEvent(URI.create("http://localhost/" + i), null);
+	}
+
+	@Test
+	void shouldDispatchFilteredEventsInOrderOnAnotherThread() throws InterruptedException {
+
+		// Given
+		final InMemoryEvents events = new InMemoryEvents(16, 4, InMemoryStoreConfiguration.EventOverflow.BLOCK);
+		final List<Event> received = new ArrayList<>();
+		final List<Thread> threads = new ArrayList<>();
+		final CountDownLatch done = new CountDownLatch(10);
+		events.register(event -> {
+			synchronized (received) {
+				received.add(event);
+				threads.add(Thread.currentThread());
+			}
+			done.countDown();
+		}, ResourceCachedEvent.class);
+
+		// When
+		for (int i = 0; i < 10; i++) {
+			events.publish(resourceCached(i));
+			events.publish(new OtherEvent());
+		}
+
+		// Then
+		assertTrue(done.await(5L, TimeUnit.SECONDS));
+		events.close();
+		synchronized (received) {
+			assertEquals(10, received.size());
+			for (int i = 0; i < 10; i++) {
+				assertEquals(URI.create("http://localhost/" + i), ((ResourceCachedEvent) received.get(i)).getURI());
+				assertTrue(threads.get(i) != Thread.currentThread());
+			}
+		}
+		assertEquals(0, events.queued());
+		assertEquals(0L, events.dropped());
+	}
+
+	@Test
+	void shouldDropEventsIfQueueIsFull() throws InterruptedException {
+
+		// Given
+		final InMemoryEvents events = new InMemoryEvents(1, 1, InMemoryStoreConfiguration.EventOverflow.DROP);
+		final CountDownLatch dispatching = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		events.register(new EventListener() {
+			@Override
+			public void dispatched(final Event event) {
+				dispatching.countDown();
+				try {
+					release.await();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		events.publish(resourceCached(0));
+		assertTrue(dispatching.await(5L, TimeUnit.SECONDS));
+
+		// When
+		events.publish(resourceCached(1));
+		events.publish(resourceCached(2));
+
+		// Then
+		assertEquals(1, events.queued());
+		assertEquals(1L, events.dropped());
+		release.countDown();
+		events.close();
+	}
+}
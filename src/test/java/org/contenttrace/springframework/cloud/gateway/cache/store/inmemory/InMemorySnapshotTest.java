@@ -0,0 +1,148 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class InMemorySnapshotTest {
+
+	private static final long NOW = 1_000_000L;
+
+	private static Frames frames(final String payload) {
+		final byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+		return new HeapFrames(Collections.singletonList(bytes), bytes.length, new FramePool(bytes.length, 0));
+	}
+
+	private static String payload(final Frames frames) {
+		final ByteBuffer payload = ByteBuffer.allocate((int) frames.size());
+		for (int i = 0; i < frames.count(); i++) {
+			payload.put(frames.frame(i));
+		}
+		return new String(payload.array(), StandardCharsets.UTF_8);
+	}
+
+	private static InMemorySnapshot.RepresentationRecord representation(final String payload,
+																		final HttpHeaders varyRequestHeaders,
+																		final long reclaimAt) {
+		final HttpHeaders responseHeaders = new HttpHeaders();
+		responseHeaders.add(HttpHeaders.ETAG, "\"" + payload + "\"");
+		return new InMemorySnapshot.RepresentationRecord(
+				responseHeaders, varyRequestHeaders, false, false, NOW - 10L, 5L, NOW + 100L, reclaimAt, frames(payload));
+	}
+
+	@Test
+	void shouldRestoreRepresentations(@TempDir final Path directory) throws IOException {
+
+		// Given
+		final Path file = directory.resolve("store.snapshot");
+		final InMemorySnapshot.BagRecord simple = new InMemorySnapshot.BagRecord(
+				new byte[32], "GET", null, "/simple", "a=b", null);
+		simple.representations.add(representation("simple", HttpHeaders.EMPTY, NOW + 200L));
+		final HttpHeaders german = new HttpHeaders();
+		german.add(HttpHeaders.ACCEPT_LANGUAGE, "de");
+		final HttpHeaders english = new HttpHeaders();
+		english.add(HttpHeaders.ACCEPT_LANGUAGE, "en");
+		final byte[] negotiatedKey = new byte[32];
+		negotiatedKey[0] = 1;
+		final InMemorySnapshot.BagRecord negotiated = new InMemorySnapshot.BagRecord(negotiatedKey, "GET",
+				"localhost", "/negotiated", null, new LinkedHashSet<>(Collections.singletonList(HttpHeaders.ACCEPT_LANGUAGE)));
+		negotiated.representations.add(representation("expired", german, NOW));
+		negotiated.representations.add(representation("english", english, NOW + 200L));
+
+		// When
+		final int written = InMemorySnapshot.write(file, Arrays.asList(simple, negotiated));
+		final List<InMemorySnapshot.BagRecord> restored = InMemorySnapshot.read(file, NOW);
+
+		// Then
+		assertEquals(3, written);
+		assertEquals(2, restored.size());
+		assertEquals("/simple", restored.get(0).path);
+		assertEquals("a=b", restored.get(0).query);
+		assertNull(restored.get(0).varyHeaders);
+		assertEquals("simple", payload(restored.get(0).representations.get(0).payload));
+		assertEquals("\"simple\"", restored.get(0).representations.get(0).responseHeaders.getETag());
+		assertArrayEquals(negotiatedKey, restored.get(1).key);
+		assertEquals(1, restored.get(1).representations.size());
+		final InMemorySnapshot.RepresentationRecord representation = restored.get(1).representations.get(0);
+		assertEquals("english", payload(representation.payload));
+		assertEquals("en", representation.varyRequestHeaders.getFirst(HttpHeaders.ACCEPT_LANGUAGE));
+		assertEquals(NOW + 100L, representation.expiresAt);
+		assertEquals(NOW + 200L, representation.reclaimAt);
+		assertEquals(5L, representation.initialAge);
+	}
+
+	@Test
+	void shouldRestoreMurmur3Keys(@TempDir final Path directory) throws IOException {
+
+		// Given
+		final Path file = directory.resolve("store.snapshot");
+		final byte[] murmur3Key = new byte[Murmur3CacheKeyBuilder.KEY_LENGTH];
+		Arrays.fill(murmur3Key, (byte) 7);
+		final InMemorySnapshot.BagRecord first = new InMemorySnapshot.BagRecord(
+				murmur3Key, "GET", null, "/first", null, null);
+		first.representations.add(representation("first", HttpHeaders.EMPTY, NOW + 200L));
+		final byte[] secondKey = new byte[Murmur3CacheKeyBuilder.KEY_LENGTH];
+		secondKey[0] = 1;
+		final InMemorySnapshot.BagRecord second = new InMemorySnapshot.BagRecord(
+				secondKey, "GET", "localhost", "/second", "c=d", null);
+		second.representations.add(representation("second", HttpHeaders.EMPTY, NOW + 200L));
+
+		// When
+		InMemorySnapshot.write(file, Arrays.asList(first, second));
+		final List<InMemorySnapshot.BagRecord> restored = InMemorySnapshot.read(file, NOW);
+
+		// Then
+		assertEquals(2, restored.size());
+		assertArrayEquals(murmur3Key, restored.get(0).key);
+		assertEquals("/first", restored.get(0).path);
+		assertArrayEquals(secondKey, restored.get(1).key);
+		assertEquals("localhost", restored.get(1).host);
+		assertEquals("/second", restored.get(1).path);
+		assertEquals("c=d", restored.get(1).query);
+		assertEquals("second", payload(restored.get(1).representations.get(0).payload));
+	}
+
+	@Test
+	void shouldRejectInvalidSnapshot(@TempDir final Path directory) throws IOException {
+
+		// Given
+		final Path file = directory.resolve("store.snapshot");
+		Files.write(file, "not a snapshot at all".getBytes(StandardCharsets.UTF_8));
+
+		// When
+		final IOException exception = assertThrows(IOException.class, () -> InMemorySnapshot.read(file, NOW));
+
+		// Then
+		assertEquals(String.format("File [%s] is not a valid snapshot!", file), exception.getMessage());
+	}
+}
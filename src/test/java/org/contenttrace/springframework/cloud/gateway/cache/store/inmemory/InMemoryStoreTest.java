@@ -0,0 +1,346 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.contenttrace.springframework.cloud.gateway.cache.DataBufferTestUtils;
+import org.contenttrace.springframework.cloud.gateway.cache.store.Entry;
+import org.contenttrace.springframework.cloud.gateway.cache.store.Payload;
+import org.contenttrace.springframework.cloud.gateway.cache.store.StandardCacheKeyProducer;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.contenttrace.springframework.cloud.gateway.cache.ExchangeTestUtils.TIMEOUT;
+import static org.contenttrace.springframework.cloud.gateway.cache.ExchangeTestUtils.exchange;
+import static org.contenttrace.springframework.cloud.gateway.cache.ExchangeTestUtils.read;
+import static org.contenttrace.springframework.cloud.gateway.cache.ExchangeTestUtils.respond;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryStoreTest {
+
+	private static InMemoryStore store(final InMemoryStoreConfiguration configuration) {
+		return new InMemoryStore(StandardCacheKeyProducer.getInstance(), configuration);
+	}
+
+	private static MockServerWebExchange negotiatedExchange(final String path, final String language) {
+		return MockServerWebExchange.from(MockServerHttpRequest.get(path)
+				.header(HttpHeaders.HOST, "cached.org")
+				.header(HttpHeaders.ACCEPT_LANGUAGE, language)
+				.build());
+	}
+
+	private static Mono<Void> respondVariant(final ServerWebExchange exchange, final String body, final String cacheControl) {
+		exchange.getResponse().getHeaders().setVary(Collections.singletonList(HttpHeaders.ACCEPT_LANGUAGE));
+		return respond(exchange, body, cacheControl);
+	}
+
+	private static Mono<Void> respondWithContentLength(final ServerWebExchange exchange, final String body) {
+		exchange.getResponse().getHeaders().setContentLength(body.getBytes(StandardCharsets.UTF_8).length);
+		return respond(exchange, body, "max-age=60");
+	}
+
+	@Test
+	void shouldNotCaptureResponsesAnnouncingMoreThanTheMaximumSize() {
+
+		// Given
+		final InMemoryStoreConfiguration configuration = new InMemoryStoreConfiguration();
+		configuration.setMaximumObjectSize(1024L);
+		final InMemoryStore store = store(configuration);
+		final ServerWebExchange exchange = exchange("/large");
+		exchange.getResponse().getHeaders().setContentLength(1025L);
+
+		try {
+			// When
+			final ServerWebExchange written = store.write(exchange);
+
+			// Then
+			assertSame(exchange, written);
+			assertEquals(1L, store.metrics().getOversized());
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	void shouldCountCapturesAbandonedForTheOffHeapBudgetApartFromOversizedResponses() {
+
+		// Given
+		final InMemoryStoreConfiguration configuration = new InMemoryStoreConfiguration();
+		configuration.setPayloadStorage(InMemoryStoreConfiguration.PayloadStorage.OFF_HEAP);
+		configuration.setOffHeapMaximumSize(1024L * 1024L);
+		final InMemoryStore store = store(configuration);
+		final char[] body = new char[1024 * 1024 + 1];
+		Arrays.fill(body, 'x');
+
+		try {
+			// When
+			respond(store.write(exchange("/exhausting")), new String(body), "max-age=60").block(TIMEOUT);
+
+			// Then
+			assertEquals(1L, store.metrics().getBudgetExhaustions());
+			assertEquals(0L, store.metrics().getOversized());
+			assertFalse(store.find(exchange("/exhausting").getRequest()).isPresent());
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	void shouldReplaceTheRepresentationOfTheSameVariant() throws IOException {
+
+		// Given
+		final InMemoryStore store = store(new InMemoryStoreConfiguration());
+
+		try {
+			respondVariant(store.write(negotiatedExchange("/negotiated", "de")), "first", "max-age=60").block(TIMEOUT);
+
+			// When
+			respondVariant(store.write(negotiatedExchange("/negotiated", "de")), "second", "max-age=60").block(TIMEOUT);
+
+			// Then
+			final Optional<? extends Entry> entry = store.find(negotiatedExchange("/negotiated", "de").getRequest());
+			assertTrue(entry.isPresent());
+			assertEquals("second", read(entry.get()));
+			assertEquals(1L, store.metrics().getStoredEntries());
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	void shouldDropVariantsPastTheirRetention() {
+
+		// Given
+		final InMemoryStoreConfiguration configuration = new InMemoryStoreConfiguration();
+		configuration.setStaleRetention(Duration.ZERO);
+		final InMemoryStore store = store(configuration);
+
+		try {
+			respondVariant(store.write(negotiatedExchange("/negotiated", "de")), "expired", "max-age=0, must-revalidate")
+					.block(TIMEOUT);
+
+			// When
+			respondVariant(store.write(negotiatedExchange("/negotiated", "en")), "fresh", "max-age=60").block(TIMEOUT);
+
+			// Then
+			assertFalse(store.find(negotiatedExchange("/negotiated", "de").getRequest()).isPresent());
+			assertTrue(store.find(negotiatedExchange("/negotiated", "en").getRequest()).isPresent());
+			assertEquals(1L, store.metrics().getStoredEntries());
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	void shouldDropTheLeastRecentlyUsedVariantBeyondTheMaximumVariants() throws InterruptedException {
+
+		// Given
+		final InMemoryStoreConfiguration configuration = new InMemoryStoreConfiguration();
+		configuration.setMaximumVariants(2);
+		final InMemoryStore store = store(configuration);
+
+		try {
+			respondVariant(store.write(negotiatedExchange("/negotiated", "de")), "de", "max-age=60").block(TIMEOUT);
+			// The access times are taken from a coarse clock.
+			Thread.sleep(50L);
+			respondVariant(store.write(negotiatedExchange("/negotiated", "en")), "en", "max-age=60").block(TIMEOUT);
+			Thread.sleep(50L);
+			assertTrue(store.find(negotiatedExchange("/negotiated", "de").getRequest()).isPresent());
+			Thread.sleep(50L);
+
+			// When
+			respondVariant(store.write(negotiatedExchange("/negotiated", "fr")), "fr", "max-age=60").block(TIMEOUT);
+
+			// Then
+			assertTrue(store.find(negotiatedExchange("/negotiated", "de").getRequest()).isPresent());
+			assertFalse(store.find(negotiatedExchange("/negotiated", "en").getRequest()).isPresent());
+			assertTrue(store.find(negotiatedExchange("/negotiated", "fr").getRequest()).isPresent());
+			assertEquals(2L, store.metrics().getStoredEntries());
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	void shouldEvictAndReleaseBagsBeyondTheMaximumSize() throws InterruptedException {
+
+		// Given
+		final InMemoryStoreConfiguration configuration = new InMemoryStoreConfiguration();
+		configuration.setMaximumSize(1024L * 1024L);
+		final InMemoryStore store = store(configuration);
+		final char[] body = new char[64 * 1024];
+		Arrays.fill(body, 'x');
+
+		try {
+			// When
+			for (int i = 0; i < 40; i++) {
+				respondWithContentLength(store.write(exchange("/evicted/" + i)), new String(body)).block(TIMEOUT);
+			}
+			// Evictions are performed by the maintenance of the cache in the background.
+			final long deadline = System.nanoTime() + TIMEOUT.toNanos();
+			while ((store.metrics().getResidentBytes() > configuration.getMaximumSize()
+					|| store.metrics().getStoredEntries() + store.metrics().getEvictions() != 40L)
+					&& System.nanoTime() < deadline) {
+				Thread.sleep(10L);
+			}
+
+			// Then
+			final InMemoryMetrics metrics = store.metrics();
+			assertTrue(metrics.getResidentBytes() <= configuration.getMaximumSize());
+			assertTrue(metrics.getEvictions() > 0L);
+			assertEquals(40L, metrics.getStoredEntries() + metrics.getEvictions());
+			assertEquals(metrics.getStoredResources(), metrics.getStoredEntries());
+			assertTrue(metrics.getFramePoolRecycled() + metrics.getFramePoolDropped() > 0L);
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	void shouldServeRangesOfTheResponseOfTheLeader() throws IOException {
+
+		// Given
+		final InMemoryStore store = store(new InMemoryStoreConfiguration());
+		final ServerWebExchange leader = exchange("/collapsed");
+		final ServerWebExchange follower = exchange("/collapsed");
+
+		try {
+			assertNull(store.collapse(leader).block(TIMEOUT));
+			final Mono<Entry> followed = store.collapse(follower);
+			respondWithContentLength(store.write(leader), "collapsed").block(TIMEOUT);
+			final Entry entry = followed.block(TIMEOUT);
+			assertNotNull(entry);
+
+			// When
+			final String range;
+			try (Payload payload = entry.openPayload()) {
+				range = DataBufferUtils.join(payload.read(new DefaultDataBufferFactory(), 2L, 3L))
+						.map(buffer -> DataBufferTestUtils.dumpString(buffer, StandardCharsets.UTF_8))
+						.block(TIMEOUT);
+			}
+
+			// Then
+			assertEquals("lla", range);
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	void shouldFeedFollowersWithTheResponseOfTheLeader() throws IOException {
+
+		// Given
+		final InMemoryStore store = store(new InMemoryStoreConfiguration());
+		final ServerWebExchange leader = exchange("/collapsed");
+		final ServerWebExchange follower = exchange("/collapsed");
+
+		try {
+			assertNull(store.collapse(leader).block(TIMEOUT));
+			final Mono<Entry> followed = store.collapse(follower);
+
+			// When
+			respondWithContentLength(store.write(leader), "collapsed").block(TIMEOUT);
+
+			// Then
+			final Entry entry = followed.block(TIMEOUT);
+			assertNotNull(entry);
+			assertEquals("collapsed", read(entry));
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	void shouldReleaseFollowersOfANonCacheableLeader() {
+
+		// Given
+		final InMemoryStore store = store(new InMemoryStoreConfiguration());
+		final ServerWebExchange leader = exchange("/non-cacheable");
+
+		try {
+			assertNull(store.collapse(leader).block(TIMEOUT));
+			final Mono<Entry> followed = store.collapse(exchange("/non-cacheable"));
+
+			// When
+			leader.getResponse().setComplete().block(TIMEOUT);
+
+			// Then
+			assertNull(followed.block(TIMEOUT));
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	void shouldReleaseFollowersOfALeaderFailingBeforeItsResponse() {
+
+		// Given
+		final InMemoryStore store = store(new InMemoryStoreConfiguration());
+		final ServerWebExchange leader = exchange("/failing");
+
+		try {
+			assertNull(store.collapse(leader).block(TIMEOUT));
+			final Mono<Entry> followed = store.collapse(exchange("/failing"));
+
+			// When
+			store.release(leader);
+
+			// Then
+			assertNull(followed.block(TIMEOUT));
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	void shouldNotFeedFollowersWithResponsesOfUnknownLength() {
+
+		// Given
+		final InMemoryStore store = store(new InMemoryStoreConfiguration());
+		final ServerWebExchange leader = exchange("/chunked");
+
+		try {
+			assertNull(store.collapse(leader).block(TIMEOUT));
+			final Mono<Entry> followed = store.collapse(exchange("/chunked"));
+
+			// When
+			final ServerWebExchange capturing = store.write(leader);
+			respond(capturing, "chunked", "max-age=60").block(TIMEOUT);
+
+			// Then
+			assertNull(followed.block(TIMEOUT));
+		} finally {
+			store.close();
+		}
+	}
+}
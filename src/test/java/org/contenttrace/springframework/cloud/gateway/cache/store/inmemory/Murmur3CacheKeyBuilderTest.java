@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class Murmur3CacheKeyBuilderTest {
+
+	private static final byte[] MATERIAL = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8);
+
+	@Test
+	void shouldComputeReferenceHash() {
+
+		// Given
+		final Murmur3CacheKeyBuilder builder = new Murmur3CacheKeyBuilder(0, false);
+
+		// When
+		builder.add(MATERIAL);
+		final Murmur3CacheKeyBuilder.Murmur3CacheKey key = builder.build();
+
+		// Then
+		final ByteBuffer hash = ByteBuffer.wrap(key.bytes());
+		assertEquals(0xe34bbc7bbc071b6cL, hash.getLong());
+		assertEquals(0x7a433ca9c49a9347L, hash.getLong());
+	}
+
+	@Test
+	void shouldNotDependOnChunksOfMaterial() {
+
+		// Given
+		final Murmur3CacheKeyBuilder whole = new Murmur3CacheKeyBuilder(42, false);
+		final Murmur3CacheKeyBuilder chunked = new Murmur3CacheKeyBuilder(42, false);
+
+		// When
+		whole.add(MATERIAL);
+		chunked.add(MATERIAL, 0, 3);
+		chunked.add(MATERIAL, 3, 17);
+		chunked.add(MATERIAL, 20, MATERIAL.length - 20);
+
+		// Then
+		assertEquals(whole.build(), chunked.build());
+	}
+
+	@Test
+	void shouldDependOnSeed() {
+
+		// Given
+		final Murmur3CacheKeyBuilder left = new Murmur3CacheKeyBuilder(1, false);
+		final Murmur3CacheKeyBuilder right = new Murmur3CacheKeyBuilder(2, false);
+
+		// When
+		left.add(MATERIAL);
+		right.add(MATERIAL);
+
+		// Then
+		assertNotEquals(left.build(), right.build());
+	}
+
+	@Test
+	void shouldParseSerializedKey() {
+
+		// Given
+		final Murmur3CacheKeyBuilder builder = new Murmur3CacheKeyBuilder(0, true);
+		builder.add(MATERIAL);
+		final Murmur3CacheKeyBuilder.Murmur3CacheKey key = builder.build();
+
+		// When
+		final InMemoryCacheKey parsed = InMemoryCacheKey.parse(key.serializeAsString());
+
+		// Then
+		assertEquals(key, parsed);
+		assertEquals(key.hashCode(), parsed.hashCode());
+		assertFalse(key.collidesWith(parsed));
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PathIndexTest {
+
+	private final InMemoryCacheKey key = InMemoryCacheKey.of(new byte[16]);
+
+	@Test
+	void shouldFindValuesByPrefixAndGlob() {
+
+		// Given
+		final PathIndex<String> index = new PathIndex<>();
+		index.add("example.com", "/products", key, "products");
+		index.add("example.com", "/products/123", key, "product");
+		index.add("example.com", "/products/123/reviews", key, "reviews");
+		index.add("example.com", "/productsearch", key, "search");
+		index.add("EXAMPLE.org", "/products/123", key, "other");
+
+		// When / Then
+		assertEquals(new HashSet<>(Arrays.asList("products", "product", "reviews")),
+				index.find("example.com", "/products/**").keySet());
+		assertEquals(new HashSet<>(Arrays.asList("product", "other")), index.find(null, "/products/1?3").keySet());
+		assertEquals(new HashSet<>(Arrays.asList("products", "search")),
+				index.find("example.com", "/product*").keySet());
+		assertEquals(new HashSet<>(Arrays.asList("reviews")), index.find("Example.COM", "/**/reviews").keySet());
+		assertTrue(index.find("example.net", "/**").isEmpty());
+	}
+
+	@Test
+	void shouldPruneEmptyNodes() {
+
+		// Given
+		final PathIndex<String> index = new PathIndex<>();
+		index.add("example.com", "/a/b/c", key, "c");
+		index.add("example.com", "/a", key, "a");
+
+		// When
+		index.remove("example.com", "/a/b/c", "c");
+
+		// Then
+		assertEquals(2, index.size());
+
+		// When
+		index.remove("example.com", "/a", "a");
+
+		// Then
+		assertEquals(0, index.size());
+		assertTrue(index.find(null, "/**").isEmpty());
+	}
+
+	@Test
+	void shouldKeepValuesAddedWhileNodesArePruned() throws Exception {
+
+		// Given
+		final PathIndex<String> index = new PathIndex<>();
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+		try {
+			// When
+			final List<Future<?>> updates = new ArrayList<>();
+			for (int thread = 0; thread < 4; thread++) {
+				final String value = "value-" + thread;
+				updates.add(executor.submit(() -> {
+					for (int i = 0; i < 10_000; i++) {
+						index.add("example.com", "/a/b", key, value);
+						index.remove("example.com", "/a/b", value);
+					}
+					index.add("example.com", "/a/b", key, value);
+				}));
+			}
+			for (final Future<?> update : updates) {
+				update.get(10L, TimeUnit.SECONDS);
+			}
+
+			// Then
+			assertEquals(new HashSet<>(Arrays.asList("value-0", "value-1", "value-2", "value-3")),
+					index.find("example.com", "/a/b").keySet());
+			assertEquals(3, index.size());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
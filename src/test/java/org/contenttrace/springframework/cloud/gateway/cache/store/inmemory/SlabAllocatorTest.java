@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SlabAllocatorTest {
+
+	private static final int SLAB_SIZE = 1024 * 1024;
+
+	private static List<ByteBuffer> allocateAll(final SlabAllocator allocator, final int size) {
+		final List<ByteBuffer> chunks = new ArrayList<>();
+		ByteBuffer chunk;
+		while ((chunk = allocator.allocate(size)) != null) {
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+
+	@Test
+	void shouldMoveEmptySlabsToAnotherSizeClass() {
+
+		// Given
+		final SlabAllocator allocator = new SlabAllocator(SLAB_SIZE * 2L);
+		final List<ByteBuffer> smallChunks = allocateAll(allocator, 512);
+		smallChunks.forEach(allocator::free);
+
+		// When
+		final List<ByteBuffer> largeChunks = allocateAll(allocator, 128 * 1024);
+
+		// Then
+		assertEquals(2 * SLAB_SIZE / 512, smallChunks.size());
+		assertEquals(2 * SLAB_SIZE / (128 * 1024), largeChunks.size());
+		assertEquals(SLAB_SIZE * 2L, allocator.getReservedSize());
+		assertEquals(SLAB_SIZE * 2L, allocator.getAllocatedSize());
+	}
+
+	@Test
+	void shouldNotMoveSlabsWithChunksInUse() {
+
+		// Given
+		final SlabAllocator allocator = new SlabAllocator(SLAB_SIZE * 2L);
+		final List<ByteBuffer> smallChunks = allocateAll(allocator, 512);
+		smallChunks.subList(1, smallChunks.size()).forEach(allocator::free);
+
+		// When
+		final List<ByteBuffer> largeChunks = allocateAll(allocator, 128 * 1024);
+
+		// Then
+		assertEquals(SLAB_SIZE / (128 * 1024), largeChunks.size());
+		assertEquals(512L + SLAB_SIZE, allocator.getAllocatedSize());
+	}
+
+	@Test
+	void shouldReuseFreedChunksOfASizeClass() {
+
+		// Given
+		final SlabAllocator allocator = new SlabAllocator(SLAB_SIZE);
+		final ByteBuffer chunk = allocator.allocate(100);
+		allocator.free(chunk);
+
+		// When
+		final ByteBuffer reused = allocator.allocate(100);
+
+		// Then
+		assertEquals(512, reused.capacity());
+		assertEquals(SLAB_SIZE, allocator.getReservedSize());
+		assertEquals(512L, allocator.getAllocatedSize());
+	}
+}
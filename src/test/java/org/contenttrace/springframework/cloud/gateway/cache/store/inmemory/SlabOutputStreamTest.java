@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SlabOutputStreamTest {
+
+	private static final int SLAB_SIZE = 1024 * 1024;
+
+	private static byte[] readFully(final Frames frames) throws IOException {
+		frames.retain();
+		final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		try (InputStream inputStream = new FrameInputStream(frames)) {
+			final byte[] buffer = new byte[4096];
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				outputStream.write(buffer, 0, read);
+			}
+		}
+		return outputStream.toByteArray();
+	}
+
+	@Test
+	void shouldStoreSmallPayloadInSmallChunk() throws IOException {
+
+		// Given
+		final SlabAllocator allocator = new SlabAllocator(SLAB_SIZE * 4L);
+		final byte[] payload = "{\"hello\":\"world\"}".getBytes(StandardCharsets.UTF_8);
+
+		// When
+		final SlabOutputStream outputStream = new SlabOutputStream(allocator, -1L);
+		outputStream.write(payload);
+		outputStream.close();
+		final Frames frames = outputStream.toFrames();
+
+		// Then
+		assertEquals(payload.length, frames.size());
+		assertEquals(512L, allocator.getAllocatedSize());
+		assertArrayEquals(payload, readFully(frames));
+	}
+
+	@Test
+	void shouldSpanMultipleChunks() throws IOException {
+
+		// Given
+		final SlabAllocator allocator = new SlabAllocator(SLAB_SIZE * 4L);
+		final byte[] payload = new byte[300 * 1024];
+		for (int i = 0; i < payload.length; i++) {
+			payload[i] = (byte) i;
+		}
+
+		// When
+		final SlabOutputStream outputStream = new SlabOutputStream(allocator, payload.length);
+		outputStream.write(payload, 0, 1000);
+		outputStream.write(Arrays.copyOfRange(payload, 1000, payload.length));
+		outputStream.close();
+		final Frames frames = outputStream.toFrames();
+
+		// Then
+		assertEquals(3, frames.count());
+		assertArrayEquals(payload, readFully(frames));
+	}
+
+	@Test
+	void shouldFreeChunksOnLastRelease() throws IOException {
+
+		// Given
+		final SlabAllocator allocator = new SlabAllocator(SLAB_SIZE * 4L);
+		final SlabOutputStream outputStream = new SlabOutputStream(allocator, -1L);
+		outputStream.write(new byte[10_000]);
+		outputStream.close();
+		final Frames frames = outputStream.toFrames();
+		frames.retain();
+
+		// When
+		frames.release();
+		final long allocatedWhileRetained = allocator.getAllocatedSize();
+		frames.release();
+
+		// Then
+		assertEquals(32 * 1024L, allocatedWhileRetained);
+		assertEquals(0L, allocator.getAllocatedSize());
+		assertFalse(frames.retain());
+	}
+
+	@Test
+	void shouldFailIfBudgetIsExhausted() throws IOException {
+
+		// Given
+		final SlabAllocator allocator = new SlabAllocator(SLAB_SIZE);
+		final SlabOutputStream outputStream = new SlabOutputStream(allocator, -1L);
+
+		// When
+		assertThrows(OffHeapBudgetExhaustedException.class, () -> outputStream.write(new byte[SLAB_SIZE + 1]));
+		outputStream.discard();
+
+		// Then
+		assertEquals(SLAB_SIZE, allocator.getReservedSize());
+		assertEquals(0L, allocator.getAllocatedSize());
+	}
+}
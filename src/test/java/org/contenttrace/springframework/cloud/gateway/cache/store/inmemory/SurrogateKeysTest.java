@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.contenttrace.springframework.cloud.gateway.cache.store.inmemory;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SurrogateKeysTest {
+
+	@Test
+	void shouldReadKeysOfBothHeaders() {
+
+		// Given
+		final HttpHeaders headers = new HttpHeaders();
+		headers.add(SurrogateKeys.SURROGATE_KEY, "product-123  category-7");
+		headers.add(SurrogateKeys.SURROGATE_KEY, "home");
+		headers.add(SurrogateKeys.CACHE_TAG, "product-123, offers");
+
+		// When / Then
+		assertEquals(new LinkedHashSet<>(Arrays.asList("product-123", "category-7", "home", "offers")),
+				SurrogateKeys.of(headers));
+		assertTrue(SurrogateKeys.of(new HttpHeaders()).isEmpty());
+	}
+
+	@Test
+	void shouldPurgeTaggedValuesOnce() {
+
+		// Given
+		final TagIndex<String> index = new TagIndex<>();
+		final InMemoryCacheKey key = InMemoryCacheKey.of(new byte[16]);
+		index.add(new LinkedHashSet<>(Arrays.asList("a", "b")), key, "first");
+		index.add(Collections.singleton("a"), key, "second");
+
+		// When
+		index.remove(Collections.singleton("b"), "first");
+
+		// Then
+		assertEquals(1, index.size());
+		assertEquals(2, index.purge("a").size());
+		assertTrue(index.purge("a").isEmpty());
+		assertEquals(0, index.size());
+	}
+}